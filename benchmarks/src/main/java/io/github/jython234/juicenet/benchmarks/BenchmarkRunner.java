@@ -0,0 +1,30 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the
+ * allocation rate (<code>gc.alloc.rate.norm</code> is bytes per operation)
+ * next to every result.
+ *
+ * Usage: BenchmarkRunner [regex of benchmarks to run] [result file]
+ *
+ * @author jython234
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.include(args.length > 0 ? args[0] : "io.github.jython234.juicenet.benchmarks.*");
+        builder.addProfiler(GCProfiler.class);
+        if(args.length > 1) {
+            builder.result(args[1]);
+        }
+
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.compression.DeflateCodec;
+import io.github.jython234.juicenet.network.compression.PayloadCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses and decompresses payloads with the pooled DEFLATE codec.
+ *
+ * Snapshots are entity positions and states, like the payloads of a
+ * game server, random payloads don't compress at all. Compare the time
+ * per payload with the time the saved bytes take on the link, which
+ * CompressionTest prints as the break-even bandwidth.
+ *
+ * @author jython234
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"128", "1400", "16384"})
+    public int payloadSize;
+
+    @Param({"snapshot", "random"})
+    public String payloadType;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private PayloadCodec codec;
+    private byte[] payload;
+    private byte[] compressed;
+    private int compressedLength;
+    private byte[] decompressed;
+
+    @Setup
+    public void setup() {
+        this.codec = new DeflateCodec(this.level, 1);
+
+        Random random = new Random(42);
+        ByteBuffer bb = ByteBuffer.allocate(this.payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+        if(this.payloadType.equals("snapshot")) {
+            float x = 100, z = -250;
+            for(int id = 1000; bb.remaining() >= 20; id++) {
+                x += random.nextInt(5) - 2;
+                z += random.nextInt(5) - 2;
+                bb.putInt(id).putFloat(x).putFloat(64).putFloat(z);
+                bb.putShort((short) (random.nextInt(10) == 0 ? random.nextInt(100) : 100));
+                bb.putShort((short) (random.nextInt(4) == 0 ? 1 : 0));
+            }
+        } else {
+            random.nextBytes(bb.array());
+        }
+        this.payload = bb.array();
+
+        this.compressed = new byte[this.payloadSize * 2 + 64];
+        this.compressedLength = this.codec.compress(this.payload, 0, this.payloadSize, this.compressed, 0, this.compressed.length);
+        this.decompressed = new byte[this.payloadSize];
+    }
+
+    @Benchmark
+    public int compress() {
+        return this.codec.compress(this.payload, 0, this.payloadSize, this.compressed, 0, this.compressed.length);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        this.codec.decompress(this.compressed, 0, this.compressedLength, this.decompressed, 0, this.payloadSize);
+        return this.decompressed;
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.packet.ContainerView;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes ContainerPackets of every ReliabilityType,
+ * with both the allocating and the buffer reusing code paths.
+ *
+ * @author jython234
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerCodecBenchmark {
+    @Param({"UNRELIABLE", "RELIABLE", "RELIABLE_ORDERED"})
+    public ContainerPacket.ReliabilityType reliabilityType;
+
+    @Param({"32", "1024"})
+    public int payloadSize;
+
+    private ContainerPacket packet;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+    private byte[] encodedArray;
+    private ContainerPacket decoded;
+    private ContainerView view;
+
+    @Setup
+    public void setup() {
+        this.packet = new ContainerPacket();
+        this.packet.reliabilityType = this.reliabilityType;
+        this.packet.packetId = 1234;
+        this.packet.packetCounter = 1200;
+        this.packet.orderId = 1000;
+        this.packet.channelId = 3;
+        this.packet.payload = new byte[this.payloadSize];
+        this.packet.payloadSize = (short) this.payloadSize;
+
+        this.buffer = ByteBuffer.allocateDirect(this.packet.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+        this.encodedArray = this.packet.encode();
+        this.encoded = ByteBuffer.allocateDirect(this.encodedArray.length).order(ByteOrder.LITTLE_ENDIAN);
+        this.encoded.put(this.encodedArray).flip();
+
+        this.decoded = new ContainerPacket();
+        this.view = new ContainerView();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return this.packet.encode();
+    }
+
+    @Benchmark
+    public int encodeInto() {
+        this.buffer.clear();
+        this.packet.encodeInto(this.buffer);
+        return this.buffer.position();
+    }
+
+    @Benchmark
+    public ContainerPacket decodeArray() {
+        ContainerPacket packet = new ContainerPacket();
+        packet.decode(this.encodedArray);
+        return packet;
+    }
+
+    @Benchmark
+    public int decodeReused() {
+        this.encoded.position(0);
+        this.decoded.decode(this.encoded);
+        return this.decoded.payloadSize;
+    }
+
+    @Benchmark
+    public int decodeView() {
+        this.encoded.position(0);
+        ContainerView view = this.view.wrap(this.encoded);
+        return view.getPacketCounter() + view.payload().remaining();
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.snapshot.DeltaEncoding;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes snapshot deltas against a baseline.
+ *
+ * The snapshot is a baseline of entities of which a share moved, like
+ * consecutive snapshots of a game server. Compare with CompressionBenchmark,
+ * which compresses whole snapshots instead.
+ *
+ * @author jython234
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeltaEncodingBenchmark {
+    @Param({"1400", "16384"})
+    public int snapshotSize;
+
+    /** Percentage of entities which changed since the baseline. */
+    @Param({"5", "50"})
+    public int changedPercent;
+
+    private byte[] baseline;
+    private byte[] state;
+    private byte[] delta;
+    private int deltaLength;
+    private byte[] decoded;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ByteBuffer bb = ByteBuffer.allocate(this.snapshotSize).order(ByteOrder.LITTLE_ENDIAN);
+        for(int id = 1000; bb.remaining() >= 20; id++) {
+            bb.putInt(id).putFloat(random.nextInt(500)).putFloat(64).putFloat(random.nextInt(500));
+            bb.putShort((short) 100).putShort((short) 0);
+        }
+        this.baseline = bb.array();
+
+        ByteBuffer changed = ByteBuffer.wrap(this.baseline.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        for(int base = 0; base + 20 <= this.snapshotSize; base += 20) {
+            if(random.nextInt(100) < this.changedPercent) {
+                changed.putFloat(base + 4, changed.getFloat(base + 4) + 1);
+                changed.putFloat(base + 12, changed.getFloat(base + 12) - 1);
+            }
+        }
+        this.state = changed.array();
+
+        this.delta = new byte[this.snapshotSize];
+        this.deltaLength = DeltaEncoding.encode(this.state, this.snapshotSize, this.baseline, this.snapshotSize, this.delta, 0, this.delta.length);
+        this.decoded = new byte[this.snapshotSize];
+    }
+
+    @Benchmark
+    public int encode() {
+        return DeltaEncoding.encode(this.state, this.snapshotSize, this.baseline, this.snapshotSize, this.delta, 0, this.delta.length);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        DeltaEncoding.decode(this.delta, 0, this.deltaLength, this.baseline, this.snapshotSize, this.decoded, this.snapshotSize);
+        return this.decoded;
+    }
+}
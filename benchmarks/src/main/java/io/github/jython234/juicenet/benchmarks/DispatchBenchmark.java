@@ -0,0 +1,87 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.packet.peer.SearchPeersPacket;
+import io.github.jython234.juicenet.network.server.ServerNetworkManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds datagrams straight into {@link ServerNetworkManager#handleRawPacket(ByteBuffer, SocketAddress)},
+ * measuring session lookup, reliability handling and delivery to the listener without the socket.
+ *
+ * @author jython234
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    /**
+     * UNRELIABLE and RELIABLE containers from a session, a container from an
+     * address without a session, and a (rate limited) peer search.
+     */
+    @Param({"UNRELIABLE", "RELIABLE", "NO_SESSION", "SEARCH_PEERS"})
+    public String datagramType;
+
+    private LoopbackServer server;
+    private DatagramChannel client;
+    private ServerNetworkManager networkManager;
+    private SocketAddress address;
+    private ByteBuffer datagram;
+    private int counter = 0;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        this.server = new LoopbackServer(42062, settings, (session, channelId, payload) -> blackhole.consume(payload));
+        this.client = this.server.connect(1);
+        this.networkManager = this.server.server.getNetworkManager();
+
+        this.address = this.datagramType.equals("NO_SESSION") ? new InetSocketAddress("127.0.0.1", 1) : this.client.getLocalAddress();
+
+        byte[] encoded;
+        if(this.datagramType.equals("SEARCH_PEERS")) {
+            SearchPeersPacket spp = new SearchPeersPacket();
+            spp.jwtString = "eyJhbGciOiJub25lIn0.eyJwZWVyIjoiYmVuY2htYXJrIn0.";
+            encoded = spp.encode();
+        } else {
+            ContainerPacket cp = new ContainerPacket();
+            cp.reliabilityType = this.datagramType.equals("RELIABLE") ? ContainerPacket.ReliabilityType.RELIABLE : ContainerPacket.ReliabilityType.UNRELIABLE;
+            cp.payload = new byte[64];
+            cp.payloadSize = 64;
+            encoded = cp.encode();
+        }
+        this.datagram = ByteBuffer.allocateDirect(encoded.length).order(ByteOrder.LITTLE_ENDIAN);
+        this.datagram.put(encoded).flip();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.client.close();
+        this.server.stop();
+    }
+
+    @Benchmark
+    public void handleRawPacket() throws IOException {
+        if(this.datagramType.equals("RELIABLE")) {
+            // Every datagram is a new packet, so it isn't dropped as a duplicate
+            int id = this.counter++;
+            this.datagram.putInt(3, id);
+            this.datagram.putInt(7, id);
+        }
+        this.datagram.position(0);
+        this.networkManager.handleRawPacket(this.datagram, this.address);
+    }
+}
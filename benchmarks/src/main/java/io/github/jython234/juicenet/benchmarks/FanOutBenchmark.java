@@ -0,0 +1,98 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.compression.DeflateCodec;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.reliability.EncodedMessage;
+import io.github.jython234.juicenet.network.reliability.ReliabilityCallback;
+import io.github.jython234.juicenet.network.reliability.ReliabilityLayer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the same world update to every session of a server, once as an
+ * {@link EncodedMessage} and once as a separate packet for every session.
+ *
+ * The layers' datagrams are dropped instead of sent, so only the CPU time
+ * of compressing, fragmenting and coalescing the update is measured.
+ *
+ * @author jython234
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"100"})
+    public int sessions;
+
+    @Param({"512", "4096", "32768"})
+    public int payloadSize;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private NetworkSettings settings;
+    private ReliabilityLayer[] layers;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        this.settings = new NetworkSettings();
+        if(this.compression) {
+            this.settings.channels[1].compression = new DeflateCodec();
+        }
+        ReliabilityCallback callback = new ReliabilityCallback() {
+            @Override
+            public void sendDatagram(ByteBuffer datagram) {}
+
+            @Override
+            public void handleMessage(byte channelId, ByteBuffer payload) {}
+        };
+        this.layers = new ReliabilityLayer[this.sessions];
+        for(int i = 0; i < this.sessions; i++) {
+            this.layers[i] = new ReliabilityLayer(this.settings, callback);
+        }
+
+        Random random = new Random(42);
+        ByteBuffer bb = ByteBuffer.allocate(this.payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+        float x = 100, z = -250;
+        for(int id = 1000; bb.remaining() >= 20; id++) {
+            x += random.nextInt(5) - 2;
+            z += random.nextInt(5) - 2;
+            bb.putInt(id).putFloat(x).putFloat(64).putFloat(z);
+            bb.putShort((short) (random.nextInt(10) == 0 ? random.nextInt(100) : 100));
+            bb.putShort((short) (random.nextInt(4) == 0 ? 1 : 0));
+        }
+        this.payload = bb.array();
+    }
+
+    @Benchmark
+    public void encodedOnce() throws IOException {
+        EncodedMessage message = new EncodedMessage(this.settings, (byte) 1, ContainerPacket.ReliabilityType.UNRELIABLE, this.payload);
+        for(ReliabilityLayer layer : this.layers) {
+            layer.send(message);
+            layer.flush();
+        }
+    }
+
+    @Benchmark
+    public void separately() throws IOException {
+        for(ReliabilityLayer layer : this.layers) {
+            ContainerPacket packet = new ContainerPacket();
+            packet.reliabilityType = ContainerPacket.ReliabilityType.UNRELIABLE;
+            packet.channelId = 1;
+            packet.payloadSize = (short) this.payload.length;
+            packet.payload = this.payload;
+            layer.send(packet);
+            layer.flush();
+        }
+    }
+}
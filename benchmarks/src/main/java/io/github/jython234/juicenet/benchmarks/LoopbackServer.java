@@ -0,0 +1,88 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.handshake.ClientHandshakePacket;
+import io.github.jython234.juicenet.network.packet.handshake.ServerHandshakePacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerListener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Runs a {@link JuiceNetServer} on loopback for the benchmarks,
+ * and opens sessions to it.
+ *
+ * @author jython234
+ */
+final class LoopbackServer {
+    public final JuiceNetServer server;
+    public final InetSocketAddress address;
+
+    private final Thread thread;
+
+    LoopbackServer(int port, NetworkSettings settings, ServerListener listener) {
+        this.address = new InetSocketAddress("127.0.0.1", port);
+        this.server = new JuiceNetServer(this.address, true, settings);
+        this.server.setListener(listener);
+
+        this.thread = new Thread(this.server::start, "JuiceNet-Benchmark-Server");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Opens a session, resending the handshake until the server is up.
+     * @param clientID The client ID to send in the handshake.
+     * @return A blocking channel connected to the server.
+     * @throws IOException If the server didn't answer.
+     */
+    DatagramChannel connect(long clientID) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        channel.connect(this.address);
+        channel.configureBlocking(false);
+
+        ClientHandshakePacket chp = new ClientHandshakePacket();
+        chp.clientID = clientID;
+        ByteBuffer reply = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+        for(int attempt = 0; attempt < 100; attempt++) {
+            channel.write(ByteBuffer.wrap(chp.encode()));
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+
+            reply.clear();
+            int read;
+            try {
+                read = channel.read(reply);
+            } catch (PortUnreachableException e) {
+                continue; // Not bound yet
+            }
+            if(read > 0) {
+                reply.flip();
+                ServerHandshakePacket shp = new ServerHandshakePacket();
+                shp.decode(reply);
+                if(shp.status != ServerHandshakePacket.STATUS_OK)
+                    throw new IOException("Handshake failed with status " + shp.status);
+
+                channel.configureBlocking(true);
+                return channel;
+            }
+        }
+        channel.close();
+        throw new IOException("Server did not answer the handshake");
+    }
+
+    void stop() throws InterruptedException {
+        this.server.stop();
+        this.thread.join(5000);
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.metrics.LatencyHistogram;
+import io.github.jython234.juicenet.network.metrics.MetricsRegistry;
+import io.github.jython234.juicenet.network.metrics.PeerMetrics;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records into the metrics from the network hot path, on one thread and on
+ * four threads sharing a registry, as sessions on different workers do.
+ *
+ * @author jython234
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private MetricsRegistry registry;
+    private LatencyHistogram histogram;
+
+    @State(Scope.Thread)
+    public static class Peer {
+        PeerMetrics metrics;
+        long value;
+
+        @Setup
+        public void setup(MetricsBenchmark benchmark) {
+            this.metrics = new PeerMetrics(new NetworkSettings(), benchmark.registry);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        this.registry = new MetricsRegistry(snapshot -> {}, LoggerFactory.getLogger("MetricsBenchmark"));
+        this.histogram = new LatencyHistogram();
+    }
+
+    @Benchmark
+    public void datagramReceived(Peer peer) {
+        peer.metrics.onDatagramReceived(1200);
+        this.registry.onDatagramReceived(1200);
+    }
+
+    @Benchmark
+    public void histogramRecord(Peer peer) {
+        this.histogram.record(peer.value++ & 0xFFFFF);
+    }
+
+    @Benchmark
+    public void rttSample(Peer peer) {
+        peer.metrics.recordRtt(peer.value++ & 0xFFFFFF);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void datagramReceivedContended(Peer peer) {
+        peer.metrics.onDatagramReceived(1200);
+        this.registry.onDatagramReceived(1200);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void rttSampleContended(Peer peer) {
+        peer.metrics.recordRtt(peer.value++ & 0xFFFFFF);
+    }
+}
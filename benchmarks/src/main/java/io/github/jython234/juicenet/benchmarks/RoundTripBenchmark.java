@@ -0,0 +1,106 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.packet.ack.AcknowledgePacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a container from a client to a server over loopback,
+ * which echoes the payload back to the client.
+ *
+ * The client is a raw channel which encodes its containers itself,
+ * so only the server's side of the library is measured. The echo
+ * is flushed right away instead of waiting for the next tick.
+ *
+ * @author jython234
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+    @Param({"UNRELIABLE", "RELIABLE"})
+    public ContainerPacket.ReliabilityType reliabilityType;
+
+    @Param({"32", "1024"})
+    public int payloadSize;
+
+    private LoopbackServer server;
+    private DatagramChannel client;
+    private ContainerPacket packet;
+    private ByteBuffer sendBuffer;
+    private ByteBuffer receiveBuffer;
+    private int counter = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        this.server = new LoopbackServer(42063, settings, (session, channelId, payload) -> {
+            byte[] echo = new byte[payload.remaining()];
+            payload.get(echo);
+            session.send(channelId, ContainerPacket.ReliabilityType.UNRELIABLE, echo);
+            session.getReliabilityLayer().flush();
+        });
+        this.client = this.server.connect(2);
+
+        this.packet = new ContainerPacket();
+        this.packet.reliabilityType = this.reliabilityType;
+        this.packet.payload = new byte[this.payloadSize];
+        this.packet.payloadSize = (short) this.payloadSize;
+
+        this.sendBuffer = ByteBuffer.allocateDirect(this.packet.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+        this.receiveBuffer = ByteBuffer.allocateDirect(2048).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.client.close();
+        this.server.stop();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        this.packet.packetId = this.counter;
+        this.packet.packetCounter = this.counter++;
+        this.sendBuffer.clear();
+        this.packet.encodeInto(this.sendBuffer);
+        this.sendBuffer.flip();
+        this.client.write(this.sendBuffer);
+
+        // Skip the ACKs the server sends for reliable containers, which may be coalesced with the echo
+        do {
+            this.receiveBuffer.clear();
+            this.client.read(this.receiveBuffer);
+            this.receiveBuffer.flip();
+        } while(!containsContainer(this.receiveBuffer));
+        return this.receiveBuffer.limit();
+    }
+
+    private static boolean containsContainer(ByteBuffer datagram) {
+        int index = 0;
+        while(index + 4 <= datagram.limit()) {
+            short id = datagram.getShort(index);
+            if(id == JuiceNetConstants.ID_CONTAINER_PACKET)
+                return true;
+            if(id != JuiceNetConstants.ID_ACK_PACKET && id != JuiceNetConstants.ID_NACK_PACKET)
+                return false;
+
+            int records = datagram.getShort(index + 2) & 0xFFFF;
+            index += 4;
+            for(int i = 0; i < records && index < datagram.limit(); i++) {
+                index += datagram.get(index) == AcknowledgePacket.RECORD_SINGLE ? 5 : 9;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.jython234.juicenet.benchmarks;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.PooledBuffer;
+import io.github.jython234.juicenet.network.UDPServerSocket;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a datagram to a {@link UDPServerSocket} over loopback and
+ * receives it, with the legacy and the pooled receive paths.
+ *
+ * One datagram is in flight at a time, so the socket's receive
+ * buffer never overflows and the benchmark can't stall on loss.
+ *
+ * @author jython234
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketReceiveBenchmark {
+    @Param({"true", "false"})
+    public boolean useChannel;
+
+    @Param({"64", "1400"})
+    public int datagramSize;
+
+    private UDPServerSocket socket;
+    private DatagramChannel sender;
+    private InetSocketAddress address;
+    private ByteBuffer datagram;
+
+    @Setup
+    public void setup() throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.useChannel = this.useChannel;
+
+        this.address = new InetSocketAddress("127.0.0.1", 42061);
+        this.socket = new UDPServerSocket(this.address, settings);
+        this.sender = DatagramChannel.open();
+        this.sender.bind(new InetSocketAddress("127.0.0.1", 0));
+        this.datagram = ByteBuffer.allocateDirect(this.datagramSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.sender.close();
+        this.socket.close();
+    }
+
+    @Benchmark
+    public DatagramPacket blockingRecv() throws IOException {
+        this.datagram.clear();
+        this.sender.send(this.datagram, this.address);
+        return this.socket.blockingRecv();
+    }
+
+    @Benchmark
+    public int receivePooled() throws IOException {
+        this.datagram.clear();
+        this.sender.send(this.datagram, this.address);
+
+        PooledBuffer buffer = this.socket.receivePooled();
+        int length = buffer.buffer.remaining();
+        buffer.release();
+        return length;
+    }
+}
@@ -56,4 +56,39 @@ public class JuiceNetConstants {
      * Packet ID of the JuiceNet Container packet.
      */
     public static final short ID_CONTAINER_PACKET = 0x12CA;
+
+    /**
+     * Packet ID of a JuiceNet Container packet protected by forward error correction.
+     */
+    public static final short ID_FEC_PACKET = 0x12CB;
+
+    /**
+     * Packet ID of a JuiceNet forward error correction parity packet.
+     */
+    public static final short ID_FEC_PARITY_PACKET = 0x12CC;
+
+    /**
+     * Packet ID of the JuiceNet Acknowledge packet.
+     */
+    public static final short ID_ACK_PACKET = 0x12DA;
+
+    /**
+     * Packet ID of the JuiceNet Not Acknowledged packet.
+     */
+    public static final short ID_NACK_PACKET = 0x12DB;
+
+    /**
+     * Packet ID of a path MTU probe, which is padded to the probed size.
+     */
+    public static final short ID_MTU_PROBE_PACKET = 0x12DC;
+
+    /**
+     * Packet ID of the answer to a path MTU probe.
+     */
+    public static final short ID_MTU_PROBE_ACK_PACKET = 0x12DD;
+
+    /**
+     * Packet ID of a JuiceNet datagram encrypted with the session's keys.
+     */
+    public static final short ID_ENCRYPTED_PACKET = 0x12EA;
 }
@@ -0,0 +1,66 @@
+package io.github.jython234.juicenet.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A fixed pool of reusable direct {@link ByteBuffer}s.
+ *
+ * All buffers are allocated up front, if the pool runs
+ * dry a new buffer is allocated which is then kept
+ * only if there is room in the pool when it is released.
+ *
+ * @author jython234
+ */
+public class BufferPool {
+    public final int bufferSize;
+    public final int capacity;
+
+    private final ArrayBlockingQueue<PooledBuffer> free;
+
+    /**
+     * Creates a new BufferPool and allocates all of its buffers.
+     * @param capacity The amount of buffers kept in the pool.
+     * @param bufferSize The size (in bytes) of each buffer.
+     */
+    public BufferPool(int capacity, int bufferSize) {
+        if(capacity < 1 || bufferSize < 1)
+            throw new IllegalArgumentException("Pool capacity and buffer size must be positive!");
+
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+
+        for(int i = 0; i < capacity; i++) {
+            this.free.offer(newBuffer());
+        }
+    }
+
+    /**
+     * Takes a cleared buffer from the pool.
+     * @return A cleared buffer, ready to be written into.
+     */
+    public PooledBuffer acquire() {
+        PooledBuffer buf = this.free.poll();
+        if(buf == null) {
+            buf = newBuffer(); // Pool exhausted
+        }
+        buf.buffer.clear();
+        return buf;
+    }
+
+    void release(PooledBuffer buf) {
+        this.free.offer(buf); // Dropped if the pool is already full
+    }
+
+    /**
+     * @return The amount of buffers currently available in the pool.
+     */
+    public int available() {
+        return this.free.size();
+    }
+
+    private PooledBuffer newBuffer() {
+        return new PooledBuffer(this, ByteBuffer.allocateDirect(this.bufferSize));
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.jython234.juicenet.network;
+
+import io.github.jython234.juicenet.network.compression.PayloadCodec;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+/**
+ * Settings of one of the 256 ContainerPacket channels.
+ *
+ * @author jython234
+ */
+public class ChannelSettings {
+    /** Value of {@link #orderingFlushTimeout} which uses {@link NetworkSettings#orderingFlushTimeout}. */
+    public static final long INHERIT = Long.MIN_VALUE;
+
+    /**
+     * Share of the send window the channel gets while other channels
+     * are also waiting to send. A channel with weight 4 sends four times
+     * as many bytes as a channel with weight 1, so latency sensitive
+     * channels should have a higher weight than bulk transfer channels.
+     */
+    public int weight = 1;
+    /** The ReliabilityType messages sent on this channel without an explicit type use. */
+    public ContainerPacket.ReliabilityType reliabilityType = ContainerPacket.ReliabilityType.RELIABLE_ORDERED;
+    /**
+     * Time (in milliseconds) RELIABLE_ORDERED messages received on this channel
+     * wait for a missing message, see {@link NetworkSettings#orderingFlushTimeout}.
+     */
+    public long orderingFlushTimeout = INHERIT;
+    /**
+     * Compresses the payloads of messages sent on this channel, for example a
+     * {@link io.github.jython234.juicenet.network.compression.DeflateCodec}, or null
+     * to send them raw. Payloads which don't get smaller are sent raw as well.
+     * Both peers must use the same codec.
+     */
+    public PayloadCodec compression = null;
+    /**
+     * Size (in bytes) below which payloads are sent raw even if the channel has a
+     * {@link #compression} codec, as small payloads rarely get smaller.
+     */
+    public int compressionThreshold = 128;
+    /**
+     * Makes this channel carry state snapshots, sent with <code>sendSnapshot()</code> as deltas against
+     * the last snapshot the peer acknowledged, see {@link io.github.jython234.juicenet.network.snapshot.SnapshotSync}.
+     * Snapshot channels can't be used for other messages, and both peers must set this.
+     */
+    public boolean snapshots = false;
+    /**
+     * Amount of snapshots kept as baselines for deltas on a {@link #snapshots} channel, rounded
+     * up to a power of two. Once the peer hasn't acknowledged any of them, snapshots are sent in full.
+     */
+    public int snapshotBaselines = 32;
+    /**
+     * Size (at most 64) of the forward error correction groups of this channel, or 0 to turn it off.
+     * Every group of this many packets is followed by {@link #fecParity} XOR parity packets, so the
+     * peer can rebuild a lost packet without waiting a round trip for the retransmission, see
+     * {@link io.github.jython234.juicenet.network.reliability.FecEncoder}. Both peers must use the same settings.
+     */
+    public int fecGroupSize = 0;
+    /**
+     * Parity packets sent for every {@link #fecGroupSize} packets. Parity packet <i>i</i> covers every
+     * <i>fecParity</i>-th packet of the group from packet <i>i</i>, so up to this many lost packets in a row can be rebuilt.
+     */
+    public int fecParity = 1;
+    /**
+     * Makes this channel carry a byte stream in each direction, read and written through a
+     * {@link io.github.jython234.juicenet.network.stream.ChannelStream}. Stream channels can't be used for
+     * other messages, never skip a missing message, and both peers must set this.
+     */
+    public boolean stream = false;
+    /**
+     * Size (in bytes) of the receive buffer of a {@link #stream} channel. The sender never has more than
+     * this many bytes in flight which the receiver's application hasn't read yet, so a slow reader
+     * holds back a fast sender instead of buffering without limit. Both peers must use the same size.
+     */
+    public int streamWindow = 1024 * 1024;
+
+    /**
+     * @param settings The settings this channel belongs to.
+     * @return The ordering flush timeout (in milliseconds) of this channel, or {@link NetworkSettings#WAIT_FOREVER}.
+     */
+    public long getOrderingFlushTimeout(NetworkSettings settings) {
+        if(this.stream)
+            return NetworkSettings.WAIT_FOREVER; // A gap in a stream can't be skipped
+        return this.orderingFlushTimeout == INHERIT ? settings.orderingFlushTimeout : this.orderingFlushTimeout;
+    }
+}
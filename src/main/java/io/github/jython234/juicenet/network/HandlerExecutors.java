@@ -0,0 +1,80 @@
+package io.github.jython234.juicenet.network;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for {@link NetworkSettings#handlerExecutor}.
+ *
+ * The library targets Java 8, so virtual threads are looked up by
+ * reflection and are only available when running on JDK 21 or newer.
+ *
+ * @author jython234
+ */
+public final class HandlerExecutors {
+    /** Runs handlers inline on the network thread which received the message, without copying it. */
+    public static final Executor INLINE = Runnable::run;
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+    private static final AtomicInteger NEXT_THREAD_ID = new AtomicInteger();
+
+    private HandlerExecutors() {}
+
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null; // Older than JDK 21
+        }
+    }
+
+    /** @return True if the JDK supports virtual threads. */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor which runs every handler task on a new virtual thread,
+     * so handlers can block without holding up platform threads.
+     * @return The executor.
+     * @throws UnsupportedOperationException If the JDK is older than 21.
+     */
+    public static Executor virtualThreads() {
+        if(NEW_VIRTUAL_THREAD_EXECUTOR == null)
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or newer, running on " + System.getProperty("java.version"));
+
+        try {
+            return (Executor) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create the virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Creates a pool with a fixed amount of daemon threads.
+     * @param threads The amount of threads.
+     * @return The executor.
+     */
+    public static Executor fixedPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "JuiceNet-Handler-" + NEXT_THREAD_ID.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a virtual thread executor if the JDK supports it,
+     * otherwise a pool with a fixed amount of threads.
+     * @param threads The amount of threads of the fallback pool.
+     * @return The executor.
+     */
+    public static Executor virtualThreadsOrFixedPool(int threads) {
+        return isVirtualThreadSupported() ? virtualThreads() : fixedPool(threads);
+    }
+}
@@ -0,0 +1,316 @@
+package io.github.jython234.juicenet.network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel which runs the timers of one network loop.
+ *
+ * Each {@link Timeout} is linked into the slot of the tick its deadline
+ * falls in, so scheduling and cancelling are O(1) no matter how many timers
+ * are pending, and expiring a tick only looks at the timers of its slot.
+ * Deadlines further away than one rotation of the wheel stay in their slot
+ * until the rotation they belong to comes around.
+ *
+ * The timer has no thread of its own, the loop which owns it calls
+ * {@link #advance(long)} and waits for at most {@link #getWaitTime(long)}
+ * for its socket. Timeouts can be scheduled and cancelled from any thread,
+ * requests from other threads are handed to the owner through a queue and
+ * wake it up with the waker it was bound with. A timer which wasn't bound
+ * to a thread handles every request on the next {@link #advance(long)}.
+ * Timeouts are reusable, so rescheduling them does not allocate anything.
+ *
+ * @author jython234
+ */
+public class HashedWheelTimer {
+    private static final ThreadLocal<HashedWheelTimer> CURRENT = new ThreadLocal<>();
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int EXPIRING = 2;
+
+    /** Length (in nanoseconds) of one tick of the wheel. */
+    public final long tickDuration;
+
+    private final Timeout[] slots;
+    private final int mask;
+    private final long origin;
+    private long currentTick = 0; // The next tick to expire, in ticks since the origin
+    private int pendingCount = 0;
+
+    private final ConcurrentLinkedQueue<Timeout> handoff = new ConcurrentLinkedQueue<>();
+    private volatile boolean wakeupPending = false;
+    private volatile Thread owner;
+    private Runnable waker;
+
+    /**
+     * Creates a new HashedWheelTimer.
+     * @param tickDuration Length (in nanoseconds) of one tick, timers expire up to one tick late.
+     * @param wheelSize Amount of slots, rounded up to a power of two.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public HashedWheelTimer(long tickDuration, int wheelSize, long now) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize));
+        if(size < wheelSize)
+            size <<= 1;
+
+        this.tickDuration = Math.max(1, tickDuration);
+        this.slots = new Timeout[size];
+        this.mask = size - 1;
+        this.origin = now;
+    }
+
+    /**
+     * Creates a new HashedWheelTimer with the tick duration and wheel size of the settings.
+     * @param settings The settings.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public HashedWheelTimer(NetworkSettings settings, long now) {
+        this(settings.timerTickDuration * 1000000L, settings.timerWheelSize, now);
+    }
+
+    /**
+     * Makes the current thread the owner of this timer. Must be called by
+     * the loop which advances the timer before it starts advancing it.
+     * @param waker Wakes the owner up when a timeout was scheduled from another thread, must be thread-safe.
+     */
+    public void bind(Runnable waker) {
+        this.waker = waker;
+        this.owner = Thread.currentThread();
+        CURRENT.set(this);
+    }
+
+    /**
+     * @return The timer owned by the current thread, or null if it doesn't own a timer.
+     */
+    public static HashedWheelTimer current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Schedules a timeout, replacing its previous deadline if it was already scheduled.
+     * @param timeout The timeout.
+     * @param deadline The time it expires at, from {@link System#nanoTime()}.
+     */
+    public void schedule(Timeout timeout, long deadline) {
+        if(isOwner()) {
+            link(timeout, deadline);
+        } else {
+            timeout.requestedDeadline = deadline;
+            timeout.cancelRequested = false;
+            handOff(timeout);
+        }
+    }
+
+    /**
+     * Cancels a timeout, it doesn't expire unless it is scheduled again.
+     * @param timeout The timeout.
+     */
+    public void cancel(Timeout timeout) {
+        if(isOwner()) {
+            unlink(timeout);
+        } else {
+            timeout.cancelRequested = true;
+            handOff(timeout);
+        }
+    }
+
+    private boolean isOwner() {
+        return this.owner == Thread.currentThread();
+    }
+
+    private void handOff(Timeout timeout) {
+        if(timeout.handoff)
+            return; // Already waiting, the owner reads the latest request
+
+        timeout.handoff = true;
+        this.handoff.add(timeout);
+        if(!this.wakeupPending) {
+            this.wakeupPending = true;
+            Runnable waker = this.waker;
+            if(waker != null) {
+                waker.run();
+            }
+        }
+    }
+
+    private void drainHandoff() {
+        this.wakeupPending = false; // Cleared first, so requests added while draining wake the owner again
+        Timeout timeout;
+        while((timeout = this.handoff.poll()) != null) {
+            timeout.handoff = false;
+            if(timeout.cancelRequested) {
+                unlink(timeout);
+            } else {
+                link(timeout, timeout.requestedDeadline);
+            }
+        }
+    }
+
+    private void link(Timeout timeout, long deadline) {
+        unlink(timeout);
+
+        // Rounded up so timeouts never expire early
+        long tick = Math.max(this.currentTick, (deadline - this.origin + this.tickDuration - 1) / this.tickDuration);
+        int slot = (int) (tick & this.mask);
+        timeout.deadline = deadline;
+        timeout.tick = tick;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = this.slots[slot];
+        if(timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        this.slots[slot] = timeout;
+        timeout.state = SCHEDULED;
+        this.pendingCount++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if(timeout.state == SCHEDULED) {
+            if(timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                this.slots[timeout.slot] = timeout.next;
+            }
+            if(timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            this.pendingCount--;
+        }
+        timeout.state = IDLE;
+    }
+
+    /**
+     * Expires every timeout whose deadline has passed. Must be called by the owner,
+     * or by one thread at a time if the timer isn't bound.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return The amount of timeouts which expired.
+     */
+    public int advance(long now) {
+        drainHandoff();
+
+        long nowTick = (now - this.origin) / this.tickDuration;
+        int expired = 0;
+        int visited = 0;
+        RuntimeException error = null;
+        while(this.currentTick <= nowTick && visited <= this.mask) {
+            int slot = (int) (this.currentTick & this.mask);
+            this.currentTick++;
+            visited++;
+
+            // Collected first, as the tasks can schedule and cancel other timeouts in the same slot
+            Timeout expiring = null;
+            Timeout timeout = this.slots[slot];
+            while(timeout != null) {
+                Timeout next = timeout.next;
+                if(timeout.tick <= nowTick) {
+                    unlink(timeout);
+                    timeout.state = EXPIRING;
+                    timeout.expireNext = expiring;
+                    expiring = timeout;
+                }
+                timeout = next;
+            }
+
+            while(expiring != null) {
+                timeout = expiring;
+                expiring = timeout.expireNext;
+                timeout.expireNext = null;
+                if(timeout.state != EXPIRING)
+                    continue; // Cancelled or rescheduled by another task
+
+                timeout.state = IDLE;
+                expired++;
+                try {
+                    timeout.task.run(now);
+                } catch (RuntimeException e) {
+                    if(error == null)
+                        error = e;
+                }
+            }
+        }
+        if(this.currentTick <= nowTick) {
+            this.currentTick = nowTick + 1; // Every slot has been visited after a long pause
+        }
+
+        if(error != null)
+            throw error;
+        return expired;
+    }
+
+    /**
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return Time (in nanoseconds) until the next timeout may expire, zero if
+     *         {@link #advance(long)} should be called right away, or -1 if no timeouts are scheduled.
+     */
+    public long getWaitTime(long now) {
+        if(!this.handoff.isEmpty())
+            return 0;
+        if(this.pendingCount == 0)
+            return -1;
+
+        for(int i = 0; i <= this.mask; i++) {
+            if(this.slots[(int) ((this.currentTick + i) & this.mask)] != null) {
+                return Math.max(0, this.origin + (this.currentTick + i) * this.tickDuration - now);
+            }
+        }
+        return this.tickDuration;
+    }
+
+    /** @return The amount of scheduled timeouts, not including requests from other threads which weren't handled yet. */
+    public int getPendingCount() {
+        return this.pendingCount;
+    }
+
+    /**
+     * The task run when a {@link Timeout} expires.
+     */
+    @FunctionalInterface
+    public interface Task {
+        /**
+         * Runs the task on the timer's thread.
+         * @param now The current time, from {@link System#nanoTime()}.
+         */
+        void run(long now);
+    }
+
+    /**
+     * A reusable timer, which is scheduled on at most one deadline at a time.
+     */
+    public static final class Timeout {
+        final Task task;
+
+        Timeout prev;
+        Timeout next;
+        Timeout expireNext;
+        long deadline;
+        long tick;
+        int slot;
+        volatile int state = IDLE;
+
+        // Requests from other threads
+        volatile long requestedDeadline;
+        volatile boolean cancelRequested;
+        volatile boolean handoff;
+
+        /**
+         * Creates a new Timeout.
+         * @param task The task run when the timeout expires.
+         */
+        public Timeout(Task task) {
+            this.task = task;
+        }
+
+        /** @return True if the timeout is scheduled, or a request to schedule it is waiting for the timer's thread. */
+        public boolean isScheduled() {
+            return this.state != IDLE || (this.handoff && !this.cancelRequested);
+        }
+
+        /** @return The time the timeout expires at, if it is scheduled. */
+        public long getDeadline() {
+            return this.deadline;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package io.github.jython234.juicenet.network;
+
+import io.github.jython234.juicenet.network.metrics.PeerMetrics;
+import lombok.Getter;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the messages received from one peer to the application's
+ * handler on the {@link NetworkSettings#handlerExecutor}.
+ *
+ * Messages are decoded on the network thread, copied, and queued per
+ * channel. Each channel's queue runs as one task at a time, so the
+ * messages of a channel are handled in the order they were delivered,
+ * while different channels and different peers are handled in parallel.
+ * A queue hands its task back to the executor after a batch of messages,
+ * so a busy channel doesn't keep a pool thread to itself.
+ *
+ * The peer is overloaded once {@link NetworkSettings#handlerQueueLimit}
+ * messages are queued, and stays overloaded until the handlers have
+ * caught up to half of the limit. The network threads drop the containers
+ * of the peer's datagrams without acknowledging them in the meantime, so the
+ * sender's congestion control backs off and retransmits them later. ACKs and
+ * MTU probes are still handled, so the peer's own sends keep progressing.
+ *
+ * @author jython234
+ */
+public class MessageDispatcher {
+    private static final int BATCH = 64;
+
+    private final Executor executor;
+    private final Handler handler;
+    private final Logger logger;
+    private final PeerMetrics metrics;
+    private final int limit;
+
+    private final ChannelQueue[] queues = new ChannelQueue[256];
+    private final AtomicInteger queued = new AtomicInteger();
+    private volatile boolean overloaded = false;
+    /** Amount of datagrams whose containers were dropped because the peer was overloaded. */
+    @Getter private volatile long droppedCount = 0;
+
+    /**
+     * Creates a new MessageDispatcher.
+     * @param settings The settings which contain the executor and the queue limit.
+     * @param handler The application's handler.
+     * @param logger Logger used to report errors thrown by the handler on the executor.
+     * @param metrics The metrics which record the time the handler takes.
+     */
+    public MessageDispatcher(NetworkSettings settings, Handler handler, Logger logger, PeerMetrics metrics) {
+        this.executor = settings.handlerExecutor;
+        this.handler = handler;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.limit = Math.max(1, settings.handlerQueueLimit);
+    }
+
+    /** @return True if handlers run inline on the network threads. */
+    public boolean isInline() {
+        return this.executor == null || this.executor == HandlerExecutors.INLINE;
+    }
+
+    /**
+     * Handles a message, either right away or by queuing it for the executor.
+     * Must be called in the order the messages are delivered.
+     * @param channelId The channel the message was received on.
+     * @param payload The message's payload, which is copied if it is queued.
+     * @throws IOException If the handler threw while running inline.
+     */
+    public void dispatch(byte channelId, ByteBuffer payload) throws IOException {
+        if(isInline()) {
+            long start = System.nanoTime();
+            try {
+                this.handler.handleMessage(channelId, payload);
+            } finally {
+                this.metrics.recordHandlerTime(System.nanoTime() - start);
+            }
+            return;
+        }
+
+        byte[] copy = new byte[payload.remaining()];
+        payload.duplicate().get(copy);
+
+        ChannelQueue queue = this.queues[channelId & 0xFF];
+        if(queue == null) {
+            queue = new ChannelQueue(channelId); // Only created on the network thread which delivers the peer's messages
+            this.queues[channelId & 0xFF] = queue;
+        }
+        if(this.queued.incrementAndGet() >= this.limit) {
+            this.overloaded = true;
+        }
+        queue.add(ByteBuffer.wrap(copy).asReadOnlyBuffer());
+    }
+
+    /**
+     * Checks if the containers of a datagram from the peer can be handled. Must be called by the
+     * network thread which delivers the peer's messages, before the containers are handled.
+     * @return False if too many messages are waiting for the handlers, and the
+     *         containers should be dropped without being acknowledged.
+     */
+    public boolean acceptContainers() {
+        if(this.overloaded && this.queued.get() <= this.limit / 2) {
+            this.overloaded = false;
+        }
+        if(this.overloaded) {
+            this.droppedCount++;
+            this.metrics.onDatagramDropped();
+            return false;
+        }
+        return true;
+    }
+
+    /** @return The amount of messages waiting for the handlers. */
+    public int getQueuedCount() {
+        return this.queued.get();
+    }
+
+    private void handle(ChannelQueue queue) {
+        for(int i = 0; i < BATCH; i++) {
+            ByteBuffer payload = queue.messages.poll();
+            if(payload == null)
+                break;
+
+            this.queued.decrementAndGet();
+            long start = System.nanoTime();
+            try {
+                this.handler.handleMessage(queue.channelId, payload);
+            } catch (IOException | RuntimeException e) {
+                this.logger.error("Error while handling message on channel " + (queue.channelId & 0xFF), e);
+            }
+            this.metrics.recordHandlerTime(System.nanoTime() - start);
+        }
+
+        queue.scheduled.set(false);
+        if(!queue.messages.isEmpty()) {
+            queue.schedule(); // More were added, or the batch ran out
+        }
+    }
+
+    /**
+     * Handles the messages a peer received.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Handles a message.
+         * @param channelId The channel the message was received on.
+         * @param payload The message's payload. Only valid for the duration of the call when handlers run inline.
+         * @throws IOException If there was an error while handling the message.
+         */
+        void handleMessage(byte channelId, ByteBuffer payload) throws IOException;
+    }
+
+    private final class ChannelQueue implements Runnable {
+        final byte channelId;
+        final ConcurrentLinkedQueue<ByteBuffer> messages = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        ChannelQueue(byte channelId) {
+            this.channelId = channelId;
+        }
+
+        void add(ByteBuffer payload) {
+            this.messages.add(payload);
+            schedule();
+        }
+
+        void schedule() {
+            if(!this.scheduled.compareAndSet(false, true))
+                return; // Already waiting for or running on the executor, which picks the message up
+
+            try {
+                MessageDispatcher.this.executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                this.scheduled.set(false);
+                int dropped = 0;
+                while(this.messages.poll() != null) {
+                    dropped++;
+                }
+                MessageDispatcher.this.queued.addAndGet(-dropped);
+                MessageDispatcher.this.logger.error("Handler executor rejected " + dropped + " message(s) on channel " + (this.channelId & 0xFF), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            handle(this);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package io.github.jython234.juicenet.network;
+
+import io.github.jython234.juicenet.network.reliability.BbrController;
+import io.github.jython234.juicenet.network.reliability.CongestionController;
+import io.github.jython234.juicenet.network.reliability.NewRenoController;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Tunable settings for the JuiceNet network layer.
+ *
+ * A default instance contains sensible values for
+ * most deployments, modify the fields before passing
+ * the settings to a server to change them.
+ *
+ * @author jython234
+ */
+public class NetworkSettings {
+    /** Timeout value which disables a timeout, waiting forever instead. */
+    public static final long WAIT_FOREVER = -1;
+
+    // Socket Settings
+
+    /**
+     * True to use a NIO <code>DatagramChannel</code> which receives
+     * into pooled direct buffers, false to fall back to the
+     * blocking <code>DatagramSocket</code> implementation.
+     */
+    public boolean useChannel = true;
+    /**
+     * Size (in bytes) of each receive buffer, or 0 to fit the largest MTU, see
+     * {@link #getReceiveBufferSize()}. Datagrams larger than this are truncated
+     * by the operating system.
+     */
+    public int receiveBufferSize = 0;
+    /**
+     * Amount of receive buffers that are preallocated in each socket's pool.
+     */
+    public int receiveBufferCount = 64;
+    /**
+     * Maximum size (in bytes) of a datagram sent by JuiceNet, unless path MTU
+     * discovery found a larger one. Container packets larger than the MTU are
+     * split into fragments, and packets are coalesced into datagrams of up to it.
+     */
+    public int mtu = 1400;
+    /**
+     * True to probe the path of every session for the largest datagram it delivers
+     * without IP fragmentation, between {@link #mtu} and {@link #maxMtu}, see
+     * {@link io.github.jython234.juicenet.network.reliability.PathMtuProber}.
+     */
+    public boolean pathMtuDiscovery = true;
+    /**
+     * Largest MTU (in bytes) path MTU discovery probes for. The default fits an Ethernet
+     * frame with IPv4 and UDP headers. Both peers should use the same value, as datagrams
+     * larger than the receive buffers are truncated.
+     */
+    public int maxMtu = 1472;
+    /** Time (in milliseconds) after which path MTU discovery searches for a larger MTU again. */
+    public long pathMtuRaiseInterval = 10 * 60 * 1000;
+    /**
+     * Size (in bytes) of the operating system's receive buffer of each socket
+     * (<code>SO_RCVBUF</code>), which holds datagrams until they are received.
+     * The operating system may limit this to a smaller size.
+     */
+    public int socketReceiveBufferSize = 4 * 1024 * 1024;
+    /**
+     * Size (in bytes) of the operating system's send buffer of each socket
+     * (<code>SO_SNDBUF</code>). The operating system may limit this to a smaller size.
+     */
+    public int socketSendBufferSize = 4 * 1024 * 1024;
+
+    // Threading Settings
+
+    /**
+     * Amount of threads which receive and handle datagrams.
+     * A value of one handles everything on the server's thread.
+     *
+     * Datagrams from the same remote address are always
+     * handled by the same worker.
+     */
+    public int workerThreads = 1;
+    /**
+     * True to bind one socket per worker to the same port with
+     * <code>SO_REUSEPORT</code>, letting the kernel shard incoming
+     * datagrams. Only used if the JDK and operating system support it,
+     * otherwise a single socket dispatches to a pool of workers.
+     */
+    public boolean reusePort = true;
+    /**
+     * Maximum amount of datagrams queued for each worker when a single
+     * socket dispatches to a pool of workers. Datagrams received while
+     * a worker's queue is full are dropped.
+     */
+    public int workerQueueSize = 256;
+
+    /**
+     * Length (in milliseconds) of one tick of the timer wheel each network
+     * loop runs its retransmission, flush and timeout timers on.
+     * Timers expire up to one tick late.
+     */
+    public long timerTickDuration = 1;
+    /**
+     * Amount of slots of each timer wheel, rounded up to a power of two.
+     * Timers further away than one rotation of the wheel wait in their
+     * slot for the rotation they belong to.
+     */
+    public int timerWheelSize = 512;
+
+    // Handler Settings
+
+    /**
+     * Runs the listener's message handlers. {@link HandlerExecutors#INLINE} (or null) runs
+     * them on the network threads, where a slow handler holds up every peer of the thread.
+     * Any other executor gets copies of the messages, see {@link MessageDispatcher}, for
+     * example {@link HandlerExecutors#virtualThreads()} or {@link HandlerExecutors#fixedPool(int)}.
+     * The messages of a channel of one peer are always handled one at a time, in order.
+     */
+    public Executor handlerExecutor = HandlerExecutors.INLINE;
+    /**
+     * Maximum amount of messages of one peer waiting for the {@link #handlerExecutor}.
+     * Containers from a peer with more messages waiting are dropped without being
+     * acknowledged, until its handlers have caught up to half of this. Its ACKs are still handled.
+     */
+    public int handlerQueueLimit = 1024;
+
+    // Reliability Settings
+
+    /**
+     * Maximum amount of reliable container packets which can be in flight
+     * (sent but not yet acknowledged) per session. Rounded up to a power of two.
+     * Packets sent while the window is full are queued.
+     */
+    public int reliableWindowSize = 512;
+    /** Retransmission timeout (in milliseconds) used before the first RTT sample. */
+    public long initialRetransmitTimeout = 1000;
+    /** Lower bound (in milliseconds) of the retransmission timeout. */
+    public long minRetransmitTimeout = 100;
+    /** Upper bound (in milliseconds) of the retransmission timeout. */
+    public long maxRetransmitTimeout = 10000;
+    /**
+     * Interval (in milliseconds) between session updates, in which batched
+     * ACKs and NACKs are flushed and retransmission timeouts are checked.
+     * Sessions are only updated while they have packets in flight or
+     * waiting to be sent, acknowledged or delivered.
+     */
+    public long tickInterval = 10;
+
+    /**
+     * Time (in milliseconds) RELIABLE_ORDERED messages are held back
+     * waiting for a missing message, before the gap is skipped and the
+     * held messages are delivered. The missing message is then delivered
+     * out of order once it arrives. Set to {@link #WAIT_FOREVER} to never
+     * skip gaps. Both peers should use the same value.
+     */
+    public long orderingFlushTimeout = 1000;
+    /**
+     * True to coalesce packets sent to the same peer into datagrams of up to
+     * {@link #mtu} bytes. Datagrams are sent once they are full, or at the end
+     * of every session update, so packets wait at most {@link #tickInterval}.
+     * False sends every packet in its own datagram right away.
+     */
+    public boolean coalescePackets = true;
+    /** Settings of each channel, indexed by the unsigned channel ID. */
+    public final ChannelSettings[] channels = new ChannelSettings[256];
+
+    {
+        for(int i = 0; i < this.channels.length; i++) {
+            this.channels[i] = new ChannelSettings();
+        }
+    }
+
+    // Congestion Control Settings
+
+    /**
+     * Creates the congestion controller of each session, which limits the
+     * reliable bytes in flight and the send rate when the path is congested.
+     * Use {@link NewRenoController} to back off on loss, {@link BbrController} to
+     * follow the measured bandwidth and round trip time instead, or null to
+     * only limit sends by {@link #reliableWindowSize}.
+     */
+    public CongestionController.Factory congestionControl = NewRenoController::new;
+    /** Congestion window (in packets of {@link #mtu} bytes) a session starts with. */
+    public int initialCongestionWindow = 10;
+    /** Smallest congestion window (in packets of {@link #mtu} bytes), used after a retransmission timeout. */
+    public int minCongestionWindow = 2;
+    /**
+     * True to spread packets out at the congestion controller's pacing rate
+     * with a token bucket, instead of sending the congestion window in bursts.
+     */
+    public boolean pacing = true;
+
+    // Fragmentation Settings
+
+    /**
+     * Size (in bytes) of the memory preallocated for reassembling fragmented
+     * payloads, shared by all sessions of a server. New fragmented payloads
+     * are dropped while this memory is full.
+     */
+    public int fragmentMemory = 16 * 1024 * 1024;
+    /**
+     * Size (in bytes) of each slab of the fragment memory. A fragmented
+     * payload occupies a contiguous run of slabs.
+     */
+    public int fragmentSlabSize = 4096;
+    /**
+     * Maximum amount of fragment memory (in bytes) one session can occupy.
+     * This is also the largest payload which can be reassembled. The oldest
+     * incomplete UNRELIABLE payloads of a session are evicted to stay under this
+     * limit, new reliable payloads are rejected until there is room for them.
+     */
+    public int sessionFragmentMemory = 2 * 1024 * 1024;
+    /**
+     * Share of the fragment memory (in bytes) reserved for each session, which the
+     * other sessions can't take. Sessions only get a share while less than half of
+     * the fragment memory is reserved, the rest is shared by all of them.
+     */
+    public int sessionFragmentReserve = 256 * 1024;
+    /**
+     * Maximum amount of fragmented payloads one session can reassemble at once.
+     * Senders also limit their reliable fragmented payloads in flight to this amount.
+     */
+    public int maxFragmentSets = 64;
+    /**
+     * Time (in milliseconds) after which incomplete UNRELIABLE fragmented payloads are evicted.
+     * Incomplete reliable payloads are evicted once none of their fragments were received for
+     * this long, and are lost as their other fragments have already been acknowledged.
+     */
+    public long fragmentTimeout = 10000;
+
+    // Session Settings
+
+    /** Maximum amount of sessions a server keeps open at once. */
+    public int maxSessions = 65536;
+    /** Time (in milliseconds) after which sessions which haven't sent anything are closed. */
+    public long sessionTimeout = 30000;
+    /**
+     * Time (in milliseconds) a client keeps resending its handshake before
+     * giving up on connecting. The handshake is resent every {@link #initialRetransmitTimeout}.
+     */
+    public long connectTimeout = 10000;
+    /**
+     * True for servers to answer handshakes with a cookie first, see {@link io.github.jython234.juicenet.network.crypto.HandshakeCookies}.
+     * Sessions are only opened once the client resends its handshake with the cookie, which handshakes from spoofed
+     * addresses can't do. Costs every client one more round trip to connect, and captures of the handshakes can't be replayed.
+     */
+    public boolean handshakeCookies = false;
+    /** Length (in milliseconds) of a cookie's time bucket. Cookies are accepted for one to two buckets. */
+    public long handshakeCookieLifetime = 10000;
+
+    // Encryption Settings
+
+    /**
+     * True to encrypt sessions, see {@link io.github.jython234.juicenet.network.crypto.SessionCipher}.
+     * Servers with encryption refuse clients without it, and clients with encryption refuse servers without it.
+     * Every datagram is {@link io.github.jython234.juicenet.network.crypto.SessionCipher#OVERHEAD} bytes larger.
+     */
+    public boolean encryption = false;
+    /** Time (in milliseconds) a server accepts its session tickets for, to resume encrypted sessions. */
+    public long sessionTicketLifetime = 60 * 60 * 1000;
+
+    // Metrics Settings
+
+    /**
+     * True to give every session and client its own RTT and handler time histograms,
+     * which take about 18KB each. The server's aggregate histograms are always kept.
+     */
+    public boolean peerHistograms = false;
+
+    // Discovery Settings
+
+    /** Amount of peer search responses per second sent to one source IP address. */
+    public double discoveryRate = 2;
+    /** Amount of peer search responses one source IP address can get at once. */
+    public int discoveryBurst = 5;
+    /** Amount of peer search responses per second sent to all sources together. */
+    public double discoveryGlobalRate = 200;
+    /** Amount of source IP addresses the discovery rate limiter keeps track of. */
+    public int discoveryRateLimiterSize = 4096;
+    /** Amount of verified peer search JWTs which are cached. */
+    public int verifiedTokenCacheSize = 256;
+    /** Time (in milliseconds) a verified peer search JWT is trusted without checking its signature again. */
+    public long verifiedTokenLifetime = 60000;
+
+    /**
+     * @return The size (in bytes) of each receive buffer, at least the largest MTU a peer may send.
+     */
+    public int getReceiveBufferSize() {
+        return Math.max(this.receiveBufferSize, this.pathMtuDiscovery ? Math.max(this.mtu, this.maxMtu) : this.mtu);
+    }
+}
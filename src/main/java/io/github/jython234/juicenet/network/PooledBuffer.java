@@ -0,0 +1,52 @@
+package io.github.jython234.juicenet.network;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable buffer which is owned by a {@link BufferPool}.
+ *
+ * The buffer keeps a read-only view of itself so handlers
+ * can be given the received data without allocating or
+ * copying anything.
+ *
+ * @author jython234
+ */
+public final class PooledBuffer {
+    /** The writable buffer which datagrams are received into. */
+    public final ByteBuffer buffer;
+    /** The address the data in this buffer was received from, if any. */
+    public SocketAddress address;
+
+    private final ByteBuffer view;
+    private final BufferPool pool;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.view = buffer.asReadOnlyBuffer();
+        this.view.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the read-only view of this buffer, with its
+     * position and limit set to the <b>flipped</b> writable buffer.
+     * @return The read-only view of the received data.
+     */
+    public ByteBuffer readView() {
+        this.view.limit(this.buffer.limit());
+        this.view.position(this.buffer.position());
+        return this.view;
+    }
+
+    /**
+     * Returns this buffer to its pool. The buffer must not
+     * be used after it has been released.
+     */
+    public void release() {
+        this.address = null;
+        this.pool.release(this);
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.jython234.juicenet.network;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives raw datagrams from a {@link UDPServerSocket}.
+ *
+ * @author jython234
+ */
+public interface RawPacketHandler {
+    /**
+     * Handles a raw datagram.
+     *
+     * The buffer is only valid for the duration of this call,
+     * it is reused for the next datagram once the handler returns.
+     *
+     * @param data Read-only little-endian buffer, positioned at the start of the datagram.
+     * @param address The address the datagram was sent from.
+     * @throws IOException If there was an error while handling the datagram.
+     */
+    void handleRawPacket(ByteBuffer data, SocketAddress address) throws IOException;
+}
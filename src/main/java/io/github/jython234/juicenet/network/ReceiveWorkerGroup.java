@@ -0,0 +1,285 @@
+package io.github.jython234.juicenet.network;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the receive loops for one or more worker threads.
+ *
+ * If more than one worker is configured and <code>SO_REUSEPORT</code>
+ * is available, one socket is bound per worker and the kernel shards
+ * datagrams between them. Otherwise a single socket receives
+ * every datagram and dispatches it to a worker chosen by the
+ * hash of the remote address. In both modes datagrams
+ * from one remote address are always handled by the same worker.
+ *
+ * Every worker owns a {@link HashedWheelTimer}, and waits for datagrams
+ * only until its next timer expires. Timers scheduled from other threads
+ * wake the worker up, so it runs them without waiting for a datagram.
+ *
+ * @author jython234
+ */
+public class ReceiveWorkerGroup implements Closeable {
+    private static final PooledBuffer WAKEUP = new PooledBuffer(null, ByteBuffer.allocate(0)); // Queued to wake up a worker
+
+    public final InetSocketAddress bindAddress;
+    public final NetworkSettings settings;
+    public final RawPacketHandler handler;
+
+    private final Logger logger;
+
+    private final List<UDPServerSocket> sockets = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private List<ArrayBlockingQueue<PooledBuffer>> queues;
+    private final HashedWheelTimer[] timers;
+
+    private volatile boolean running = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a new ReceiveWorkerGroup and binds its sockets.
+     * @param bindAddress The address which the sockets will bind to.
+     * @param settings The settings which control the amount of workers and sockets.
+     * @param handler The handler which all datagrams are passed to.
+     * @param logger Logger used to report errors in the receive loops.
+     * @throws SocketException If there was an error while creating the sockets.
+     */
+    public ReceiveWorkerGroup(InetSocketAddress bindAddress, NetworkSettings settings, RawPacketHandler handler, Logger logger) throws SocketException {
+        this.bindAddress = bindAddress;
+        this.settings = settings;
+        this.handler = handler;
+        this.logger = logger;
+
+        int workers = Math.max(1, settings.workerThreads);
+        try {
+            if (workers > 1 && settings.reusePort && settings.useChannel && UDPServerSocket.isReusePortSupported()) {
+                for (int i = 0; i < workers; i++) {
+                    this.sockets.add(new UDPServerSocket(bindAddress, settings, true));
+                }
+            } else {
+                if (workers > 1) {
+                    // Every queued datagram holds a pooled buffer until its worker handles it
+                    this.sockets.add(new UDPServerSocket(bindAddress, settings, false,
+                            settings.receiveBufferCount + workers * settings.workerQueueSize));
+
+                    this.queues = new ArrayList<>(workers);
+                    for (int i = 0; i < workers; i++) {
+                        this.queues.add(new ArrayBlockingQueue<>(settings.workerQueueSize));
+                    }
+                } else {
+                    this.sockets.add(new UDPServerSocket(bindAddress, settings));
+                }
+            }
+        } catch (SocketException e) {
+            close();
+            throw e;
+        }
+
+        long now = System.nanoTime();
+        this.timers = new HashedWheelTimer[getWorkerCount()];
+        for(int i = 0; i < this.timers.length; i++) {
+            this.timers[i] = new HashedWheelTimer(settings, now);
+        }
+    }
+
+    /**
+     * @param worker The index of the worker.
+     * @return The timer the worker runs, which is {@link HashedWheelTimer#current()} on its thread.
+     */
+    public HashedWheelTimer getTimer(int worker) {
+        return this.timers[worker];
+    }
+
+    /**
+     * @return True if each worker has its own socket bound with <code>SO_REUSEPORT</code>.
+     */
+    public boolean isSharded() {
+        return this.sockets.size() > 1;
+    }
+
+    /**
+     * @return The amount of worker threads handling datagrams.
+     */
+    public int getWorkerCount() {
+        return this.queues != null ? this.queues.size() : this.sockets.size();
+    }
+
+    /**
+     * @return The socket which should be used to send datagrams.
+     */
+    public UDPServerSocket getSendSocket() {
+        return this.sockets.get(0);
+    }
+
+    /**
+     * Starts the worker threads and runs the first receive loop
+     * in the current thread. This method blocks until the group
+     * is closed, and returns right away if it was closed already.
+     */
+    public void run() {
+        synchronized(this) { // Against a close() from another thread, which must see every thread started
+            if(this.running)
+                throw new UnsupportedOperationException("This worker group is already running!");
+            if(this.closed)
+                return;
+            this.running = true;
+
+            if(this.queues != null) {
+                for(int i = 0; i < this.queues.size(); i++) {
+                    final ArrayBlockingQueue<PooledBuffer> queue = this.queues.get(i);
+                    final HashedWheelTimer timer = this.timers[i];
+                    startThread("JuiceNet-Worker-" + i, () -> workerLoop(queue, timer));
+                }
+            } else {
+                for(int i = 1; i < this.sockets.size(); i++) {
+                    final UDPServerSocket socket = this.sockets.get(i);
+                    final HashedWheelTimer timer = this.timers[i];
+                    startThread("JuiceNet-Receive-" + i, () -> receiveLoop(socket, timer));
+                }
+            }
+        }
+
+        if(this.queues != null) {
+            dispatchLoop(this.sockets.get(0));
+        } else {
+            receiveLoop(this.sockets.get(0), this.timers[0]);
+        }
+    }
+
+    private void startThread(String name, Runnable loop) {
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        this.threads.add(thread);
+        thread.start();
+    }
+
+    private void receiveLoop(UDPServerSocket socket, HashedWheelTimer timer) {
+        timer.bind(socket::wakeup);
+        // The blocking socket can't be woken up, so it waits at most one update interval for timers from other threads
+        long maxBlockingWait = this.settings.tickInterval * 1000000L;
+
+        while(this.running) {
+            try {
+                long now = System.nanoTime();
+                timer.advance(now);
+
+                long wait = timer.getWaitTime(now);
+                if(!socket.isChannel() && (wait < 0 || wait > maxBlockingWait)) {
+                    wait = maxBlockingWait;
+                }
+                socket.receive(this.handler, wait);
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if(!this.running)
+                    break;
+                this.logger.error("Error while receiving datagram", e);
+            } catch (RuntimeException e) {
+                this.logger.error("Error while handling datagram or running timers", e);
+            }
+        }
+    }
+
+    private void dispatchLoop(UDPServerSocket socket) {
+        while(this.running) {
+            PooledBuffer buf;
+            try {
+                buf = socket.receivePooled();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if(!this.running)
+                    break;
+                this.logger.error("Error while receiving datagram", e);
+                continue;
+            }
+
+            if(!this.queues.get(workerIndex(buf.address, this.queues.size())).offer(buf)) {
+                buf.release(); // Worker is overloaded, drop the datagram
+            }
+        }
+    }
+
+    private void workerLoop(ArrayBlockingQueue<PooledBuffer> queue, HashedWheelTimer timer) {
+        timer.bind(() -> queue.offer(WAKEUP)); // A full queue wakes the worker up anyway
+
+        while(this.running) {
+            PooledBuffer buf;
+            try {
+                long now = System.nanoTime();
+                timer.advance(now);
+
+                long wait = timer.getWaitTime(now);
+                buf = wait < 0 ? queue.take() : queue.poll(wait, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                this.logger.error("Error while running timers", e);
+                continue;
+            }
+            if(buf == null || buf == WAKEUP)
+                continue;
+
+            try {
+                this.handler.handleRawPacket(buf.readView(), buf.address);
+            } catch (IOException | RuntimeException e) {
+                this.logger.error("Error while handling datagram", e);
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    /**
+     * Chooses the worker which handles datagrams from the <code>address</code>.
+     * @param address The remote address.
+     * @param workers The amount of workers.
+     * @return The index of the worker, always the same for the same address.
+     */
+    public static int workerIndex(SocketAddress address, int workers) {
+        int h = address.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7FFFFFFF) % workers;
+    }
+
+    @Override
+    public void close() {
+        synchronized(this) {
+            this.closed = true;
+            this.running = false;
+        }
+        for(UDPServerSocket socket : this.sockets) {
+            try {
+                socket.close();
+            } catch (UncheckedIOException e) {
+                this.logger.error("Error while closing socket", e.getCause());
+            }
+        }
+        for(Thread thread : this.threads) {
+            thread.interrupt();
+        }
+        for(Thread thread : this.threads) {
+            if(thread == Thread.currentThread())
+                continue;
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.jython234.juicenet.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+/**
+ * Limits the rate of events per source IP address, with a fixed
+ * amount of memory no matter how many sources there are.
+ *
+ * Each source has a token bucket, stored as the time at which the
+ * bucket will be full again (the GCRA form of a token bucket), so a
+ * source only needs two longs. Sources are kept in a set associative
+ * table: when all entries of a set are in use, the entry which has
+ * been full for the longest time is replaced. A flood of spoofed
+ * sources can therefore push out real ones, so a global bucket
+ * caps the rate of all sources together.
+ *
+ * @author jython234
+ */
+public class SourceRateLimiter {
+    private static final int WAYS = 4;
+    private static final long EMPTY = -1;
+
+    private final long interval;
+    private final long burst;
+    private final long globalInterval;
+    private final long globalBurst;
+
+    private final int setMask;
+    private final long[] keys;
+    private final long[] fullAt; // When the bucket is full again, from System.nanoTime()
+    private long globalFullAt;
+
+    private long limitedCount = 0;
+
+    /**
+     * Creates a new SourceRateLimiter.
+     * @param rate Amount of events per second allowed for each source.
+     * @param burst Amount of events a source can send at once.
+     * @param globalRate Amount of events per second allowed for all sources together.
+     * @param capacity Amount of sources tracked, rounded up to a power of two.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public SourceRateLimiter(double rate, int burst, double globalRate, int capacity, long now) {
+        this.interval = (long) (1000000000L / rate);
+        this.burst = this.interval * Math.max(1, burst);
+        this.globalInterval = (long) (1000000000L / globalRate);
+        this.globalBurst = this.globalInterval * Math.max(1, burst);
+
+        int sets = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+        if(sets * WAYS < capacity) {
+            sets <<= 1;
+        }
+        this.setMask = sets - 1;
+        this.keys = new long[sets * WAYS];
+        this.fullAt = new long[sets * WAYS];
+        Arrays.fill(this.keys, EMPTY);
+        this.globalFullAt = now;
+    }
+
+    /**
+     * Packs the IP address of a source into a key. The port is
+     * ignored so a source can't get more events by changing it.
+     * @param address The source.
+     * @return The key, which is never negative.
+     */
+    public static long sourceKey(SocketAddress address) {
+        if(address instanceof InetSocketAddress) {
+            InetAddress ip = ((InetSocketAddress) address).getAddress();
+            if(ip instanceof Inet4Address)
+                return ip.hashCode() & 0xFFFFFFFFL; // The IPv4 address itself
+            if(ip != null)
+                return (1L << 32) | (ip.hashCode() & 0xFFFFFFFFL);
+        }
+        return (2L << 32) | (address.hashCode() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Takes a token from the source's bucket.
+     * @param address The source.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return True if the event is allowed, false if the source or all sources are over their rate.
+     */
+    public synchronized boolean tryAcquire(SocketAddress address, long now) {
+        long key = sourceKey(address);
+        int base = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & this.setMask;
+        base *= WAYS;
+
+        int entry = -1;
+        int oldest = -1;
+        for(int i = base; i < base + WAYS; i++) {
+            if(this.keys[i] == key) {
+                entry = i;
+                break;
+            }
+            if(oldest < 0 || this.keys[oldest] != EMPTY && (this.keys[i] == EMPTY || this.fullAt[i] - this.fullAt[oldest] < 0)) {
+                oldest = i;
+            }
+        }
+        if(entry < 0) {
+            // New source, or its entry was replaced: it starts with a full bucket
+            entry = oldest;
+            this.keys[entry] = key;
+            this.fullAt[entry] = now;
+        }
+
+        long sourceFullAt = Math.max(this.fullAt[entry], now);
+        long globalFullAt = Math.max(this.globalFullAt, now);
+        if(sourceFullAt + this.interval - now > this.burst || globalFullAt + this.globalInterval - now > this.globalBurst) {
+            this.limitedCount++;
+            return false;
+        }
+
+        this.fullAt[entry] = sourceFullAt + this.interval;
+        this.globalFullAt = globalFullAt + this.globalInterval;
+        return true;
+    }
+
+    /** @return The amount of events which were over the rate. */
+    public synchronized long getLimitedCount() {
+        return this.limitedCount;
+    }
+}
@@ -4,53 +4,424 @@ import lombok.Getter;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.Arrays;
 
 /**
  * Base UDP Socket class used by the
  * Server implementation.
  *
+ * By default the socket is backed by a NIO {@link DatagramChannel}
+ * which receives into pooled direct buffers. The blocking
+ * {@link DatagramSocket} implementation is used as a fallback
+ * if {@link NetworkSettings#useChannel} is false.
+ *
  * @author jython234
  */
 public class UDPServerSocket implements Closeable {
+    private static SocketOption<Boolean> reusePortOption;
+    private static boolean reusePortChecked = false;
+    private static SocketOption<Boolean> dontFragmentOption;
+    private static boolean dontFragmentChecked = false;
+
     public final InetSocketAddress bindAddress;
+    public final NetworkSettings settings;
 
     private DatagramSocket socket;
+    private DatagramChannel channel;
+    private volatile Selector selector; // Created by the first timed receive, the channel is non-blocking from then on
+
+    @Getter private BufferPool bufferPool;
+
+    // Reused by the blocking fallback in receive(RawPacketHandler)
+    private DatagramPacket recvPacket;
+    private ByteBuffer recvBuffer;
+
+    /**
+     * Creates a new UDPServerSocket instance with the default
+     * settings and binds to the provided <code>bindAddress</code>.
+     * @param bindAddress The address which the socket will bind to.
+     * @throws SocketException If there was an error while creating the socket.
+     */
+    public UDPServerSocket(InetSocketAddress bindAddress) throws SocketException {
+        this(bindAddress, new NetworkSettings());
+    }
 
     /**
      * Creates a new UDPServerSocket instance and binds to the
      * provided <code>bindAddress</code>.
      * @param bindAddress The address which the socket will bind to.
+     * @param settings The settings which control the socket implementation and buffers.
      * @throws SocketException If there was an error while creating the socket.
      */
-    public UDPServerSocket(InetSocketAddress bindAddress) throws SocketException {
+    public UDPServerSocket(InetSocketAddress bindAddress, NetworkSettings settings) throws SocketException {
+        this(bindAddress, settings, false);
+    }
+
+    /**
+     * Creates a new UDPServerSocket instance and binds to the
+     * provided <code>bindAddress</code>.
+     * @param bindAddress The address which the socket will bind to.
+     * @param settings The settings which control the socket implementation and buffers.
+     * @param reusePort True to enable <code>SO_REUSEPORT</code> so multiple sockets can be
+     *                  bound to the same port. Requires {@link #isReusePortSupported()}.
+     * @throws SocketException If there was an error while creating the socket.
+     */
+    public UDPServerSocket(InetSocketAddress bindAddress, NetworkSettings settings, boolean reusePort) throws SocketException {
+        this(bindAddress, settings, reusePort, settings.receiveBufferCount);
+    }
+
+    /**
+     * Creates a new UDPServerSocket instance and binds to the
+     * provided <code>bindAddress</code>.
+     * @param bindAddress The address which the socket will bind to.
+     * @param settings The settings which control the socket implementation and buffers.
+     * @param reusePort True to enable <code>SO_REUSEPORT</code> so multiple sockets can be
+     *                  bound to the same port. Requires {@link #isReusePortSupported()}.
+     * @param bufferCount The amount of buffers in this socket's {@link BufferPool}, this should cover
+     *                    every buffer which can be held by callers of {@link #receivePooled()} at once.
+     * @throws SocketException If there was an error while creating the socket.
+     */
+    public UDPServerSocket(InetSocketAddress bindAddress, NetworkSettings settings, boolean reusePort, int bufferCount) throws SocketException {
         this.bindAddress = bindAddress;
+        this.settings = settings;
+
+        if(reusePort && (!settings.useChannel || !isReusePortSupported()))
+            throw new UnsupportedOperationException("SO_REUSEPORT is not supported by this socket!");
 
-        this.socket = new DatagramSocket(bindAddress.getPort());
+        if(settings.useChannel) {
+            try {
+                this.channel = DatagramChannel.open();
+                if(reusePort) {
+                    this.channel.setOption(reusePortOption, true);
+                }
+                if(settings.pathMtuDiscovery) {
+                    setDontFragment(this.channel);
+                }
+                this.channel.bind(new InetSocketAddress(bindAddress.getPort()));
+            } catch (SocketException e) {
+                throw e;
+            } catch (IOException e) {
+                SocketException se = new SocketException("Failed to open DatagramChannel: " + e.getMessage());
+                se.initCause(e);
+                throw se;
+            }
+            this.socket = this.channel.socket();
+        } else {
+            this.socket = new DatagramSocket(bindAddress.getPort());
+
+            this.recvPacket = new DatagramPacket(new byte[settings.getReceiveBufferSize()], settings.getReceiveBufferSize());
+            this.recvBuffer = ByteBuffer.wrap(this.recvPacket.getData()).asReadOnlyBuffer();
+            this.recvBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.bufferPool = new BufferPool(bufferCount, settings.getReceiveBufferSize());
 
         this.socket.setBroadcast(true);
-        this.socket.setReceiveBufferSize(2048);
-        this.socket.setSendBufferSize(2048);
+        this.socket.setReceiveBufferSize(settings.socketReceiveBufferSize);
+        this.socket.setSendBufferSize(settings.socketSendBufferSize);
+    }
+
+    /**
+     * Checks if <code>SO_REUSEPORT</code> can be set on a DatagramChannel.
+     * This requires Java 9 or higher and an operating system which supports it.
+     * @return True if multiple sockets can be bound to the same port.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized boolean isReusePortSupported() {
+        if(!reusePortChecked) {
+            reusePortChecked = true;
+            try {
+                // Looked up reflectively as the option was only added in Java 9
+                SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+                try(DatagramChannel test = DatagramChannel.open()) {
+                    if(test.supportedOptions().contains(option)) {
+                        reusePortOption = option;
+                    }
+                }
+            } catch (NoSuchFieldException | IllegalAccessException | IOException e) {
+                reusePortOption = null;
+            }
+        }
+        return reusePortOption != null;
+    }
+
+    /**
+     * Sets the don't fragment flag on the datagrams of a channel, so datagrams larger than
+     * the path MTU are dropped instead of fragmented, which path MTU discovery relies on.
+     * This requires Java 19 or higher. Older versions leave it to the operating system,
+     * which sets it on UDP datagrams by default on Linux.
+     * @param channel The channel.
+     * @return True if the flag was set.
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean setDontFragment(DatagramChannel channel) {
+        synchronized(UDPServerSocket.class) {
+            if(!dontFragmentChecked) {
+                dontFragmentChecked = true;
+                try {
+                    // Looked up reflectively as the option was only added in Java 19
+                    dontFragmentOption = (SocketOption<Boolean>) Class.forName("jdk.net.ExtendedSocketOptions").getField("IP_DONTFRAGMENT").get(null);
+                } catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException e) {
+                    dontFragmentOption = null;
+                }
+            }
+        }
+
+        if(dontFragmentOption == null || !channel.supportedOptions().contains(dontFragmentOption))
+            return false;
+        try {
+            channel.setOption(dontFragmentOption, true);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
     }
 
+    /**
+     * @return True if this socket is backed by a NIO DatagramChannel.
+     */
+    public boolean isChannel() {
+        return this.channel != null;
+    }
+
+    /**
+     * Blocks until a datagram is received, and returns a copy of it.
+     * @return The datagram.
+     * @throws IOException If there was an error while receiving.
+     * @throws IllegalStateException If the channel was switched to non-blocking by a receive with a timeout.
+     */
     public DatagramPacket blockingRecv() throws IOException {
-        DatagramPacket pkt = new DatagramPacket(new byte[2048], 2048);
+        if(isChannel()) {
+            if(this.selector != null)
+                throw new IllegalStateException("blockingRecv() can't be used once the socket has received with a timeout!");
+
+            ByteBuffer bb = ByteBuffer.allocate(this.settings.getReceiveBufferSize());
+            SocketAddress address = this.channel.receive(bb);
+            return new DatagramPacket(bb.array(), bb.position(), address);
+        }
+
+        DatagramPacket pkt = new DatagramPacket(new byte[this.settings.getReceiveBufferSize()], this.settings.getReceiveBufferSize());
         socket.receive(pkt);
 
         pkt.setData(Arrays.copyOf(pkt.getData(), pkt.getLength())); // Trim null bytes
         return pkt;
     }
 
+    /**
+     * Blocks until a datagram is received and passes it to the <code>handler</code>.
+     *
+     * The datagram is received into a reused buffer and handed
+     * to the handler as a read-only view without being copied.
+     *
+     * @param handler The handler which will handle the received datagram.
+     * @throws IOException If there was an error while receiving or handling the datagram.
+     */
+    public void receive(RawPacketHandler handler) throws IOException {
+        if(isChannel()) {
+            PooledBuffer buf = receivePooled();
+            try {
+                handler.handleRawPacket(buf.readView(), buf.address);
+            } finally {
+                buf.release();
+            }
+            return;
+        }
+
+        this.recvPacket.setLength(this.recvPacket.getData().length);
+        this.socket.receive(this.recvPacket);
+
+        this.recvBuffer.limit(this.recvPacket.getLength());
+        this.recvBuffer.position(0);
+        handler.handleRawPacket(this.recvBuffer, this.recvPacket.getSocketAddress());
+    }
+
+    /**
+     * Waits until datagrams arrive or the timeout passes, and passes every datagram
+     * which has arrived to the <code>handler</code>, up to {@link NetworkSettings#receiveBufferCount}
+     * at once. Datagrams are handled like in {@link #receive(RawPacketHandler)}.
+     *
+     * When backed by a DatagramChannel, the channel is made non-blocking and waits in
+     * a Selector, which {@link #wakeup()} can interrupt. The blocking socket fallback
+     * waits with a socket timeout instead and can't be woken up early.
+     *
+     * @param handler The handler which will handle the received datagrams.
+     * @param timeout Maximum time (in nanoseconds) to wait, zero to not wait, or negative to wait until a datagram arrives.
+     * @return The amount of datagrams handled.
+     * @throws IOException If there was an error while receiving or handling a datagram.
+     */
+    public int receive(RawPacketHandler handler, long timeout) throws IOException {
+        if(!isChannel()) {
+            this.socket.setSoTimeout(timeout < 0 ? 0 : toMillis(timeout));
+            try {
+                receive(handler);
+                return 1;
+            } catch (SocketTimeoutException e) {
+                return 0;
+            }
+        }
+
+        Selector selector = openSelector();
+        int received = receiveAvailable(handler);
+        if(received > 0 || timeout == 0)
+            return received; // Datagrams which already arrived don't need a select call
+
+        if(timeout < 0) {
+            selector.select();
+        } else {
+            selector.select(toMillis(timeout));
+        }
+        selector.selectedKeys().clear();
+        return receiveAvailable(handler);
+    }
+
+    private int receiveAvailable(RawPacketHandler handler) throws IOException {
+        int received = 0;
+        while(received < this.settings.receiveBufferCount) {
+            PooledBuffer buf = this.bufferPool.acquire();
+            try {
+                buf.address = this.channel.receive(buf.buffer);
+                if(buf.address == null)
+                    break;
+
+                buf.buffer.flip();
+                received++;
+                handler.handleRawPacket(buf.readView(), buf.address);
+            } finally {
+                buf.release();
+            }
+        }
+        return received;
+    }
+
+    private synchronized Selector openSelector() throws IOException {
+        Selector selector = this.selector;
+        if(selector == null) {
+            if(!this.channel.isOpen())
+                throw new ClosedChannelException(); // A selector created now would never be closed, and keep the port bound
+            selector = Selector.open();
+            this.channel.configureBlocking(false);
+            this.channel.register(selector, SelectionKey.OP_READ);
+            this.selector = selector;
+        }
+        return selector;
+    }
+
+    private static int toMillis(long nanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (nanos + 999999) / 1000000)); // Rounded up, zero would wait forever
+    }
+
+    /**
+     * Wakes up a thread waiting in {@link #receive(RawPacketHandler, long)}.
+     * Does nothing for the blocking socket fallback.
+     */
+    public void wakeup() {
+        Selector selector = this.selector;
+        if(selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Blocks until a datagram is received into a buffer taken from
+     * this socket's {@link BufferPool}. The caller owns the returned buffer
+     * and must call {@link PooledBuffer#release()} once it is done with it.
+     *
+     * When backed by a DatagramChannel the datagram is received directly into
+     * the pooled buffer, otherwise it is copied from the blocking socket.
+     *
+     * @return The flipped buffer containing the datagram, with its address set.
+     * @throws IOException If there was an error while receiving the datagram.
+     */
+    public PooledBuffer receivePooled() throws IOException {
+        PooledBuffer buf = this.bufferPool.acquire();
+        try {
+            if(isChannel()) {
+                buf.address = this.channel.receive(buf.buffer);
+                while(buf.address == null) {
+                    // Non-blocking after a timed receive
+                    this.selector.select();
+                    this.selector.selectedKeys().clear();
+                    buf.address = this.channel.receive(buf.buffer);
+                }
+            } else {
+                this.recvPacket.setLength(this.recvPacket.getData().length);
+                this.socket.receive(this.recvPacket);
+                buf.buffer.put(this.recvPacket.getData(), 0, this.recvPacket.getLength());
+                buf.address = this.recvPacket.getSocketAddress();
+            }
+        } catch (IOException e) {
+            buf.release();
+            throw e;
+        }
+        buf.buffer.flip();
+        return buf;
+    }
+
     public void send(DatagramPacket pkt) throws IOException {
+        if(isChannel()) {
+            // The channel's socket adaptor can't send once the channel was made non-blocking
+            this.channel.send(ByteBuffer.wrap(pkt.getData(), pkt.getOffset(), pkt.getLength()), pkt.getSocketAddress());
+            return;
+        }
         socket.send(pkt);
     }
 
+    /**
+     * Sends the remaining bytes of <code>data</code> to the <code>address</code>.
+     * @param data The buffer containing the datagram.
+     * @param address The address to send the datagram to.
+     * @throws IOException If there was an error while sending.
+     */
+    public void send(ByteBuffer data, SocketAddress address) throws IOException {
+        if(isChannel()) {
+            this.channel.send(data, address);
+            return;
+        }
+
+        if(data.hasArray()) {
+            socket.send(new DatagramPacket(data.array(), data.arrayOffset() + data.position(), data.remaining(), address));
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            socket.send(new DatagramPacket(bytes, bytes.length, address));
+        }
+        data.position(data.limit());
+    }
+
+    /**
+     * Closes the socket, and its selector if it has one.
+     * @throws UncheckedIOException If there was an error while closing the channel or its selector.
+     */
     @Override
-    public void close() {
-        this.socket.close();
+    public synchronized void close() { // Against openSelector(), a closed channel stays bound while a selector has it registered
+        if(isChannel()) {
+            try {
+                try {
+                    if(this.selector != null) {
+                        this.selector.close();
+                    }
+                } finally {
+                    this.channel.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            this.socket.close();
+        }
     }
 }
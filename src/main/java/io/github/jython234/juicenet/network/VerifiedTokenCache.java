@@ -0,0 +1,95 @@
+package io.github.jython234.juicenet.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Remembers tokens whose signatures have been verified, so
+ * tokens which are sent again and again don't have to be
+ * verified every time.
+ *
+ * Tokens are compared by their raw bytes, so checking a cached
+ * token doesn't decode or allocate anything. The cache is direct
+ * mapped, a token replaces any other token with the same slot, and
+ * tokens are only trusted for a limited time after being verified.
+ *
+ * @author jython234
+ */
+public class VerifiedTokenCache {
+    private final int mask;
+    private final long lifetime;
+
+    private final byte[][] tokens;
+    private final int[] hashes;
+    private final long[] verifiedAt;
+
+    /**
+     * Creates a new VerifiedTokenCache.
+     * @param size The amount of tokens cached, rounded up to a power of two.
+     * @param lifetime Time (in nanoseconds) a token is trusted after it has been verified.
+     */
+    public VerifiedTokenCache(int size, long lifetime) {
+        int slots = Integer.highestOneBit(Math.max(1, size));
+        if(slots < size) {
+            slots <<= 1;
+        }
+        this.mask = slots - 1;
+        this.lifetime = lifetime;
+
+        this.tokens = new byte[slots][];
+        this.hashes = new int[slots];
+        this.verifiedAt = new long[slots];
+    }
+
+    private static int hash(ByteBuffer token) {
+        int h = 1;
+        for(int i = token.position(); i < token.limit(); i++) {
+            h = 31 * h + token.get(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Checks if a token has been verified recently.
+     * @param token The token's bytes, between the buffer's position and limit. The buffer is not modified.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return True if the token is trusted.
+     */
+    public synchronized boolean contains(ByteBuffer token, long now) {
+        int hash = hash(token);
+        int slot = hash & this.mask;
+
+        byte[] cached = this.tokens[slot];
+        if(cached == null || this.hashes[slot] != hash || cached.length != token.remaining())
+            return false;
+        if(now - this.verifiedAt[slot] >= this.lifetime) {
+            this.tokens[slot] = null;
+            return false;
+        }
+
+        int start = token.position();
+        for(int i = 0; i < cached.length; i++) {
+            if(cached[i] != token.get(start + i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a token which has just been verified.
+     * @param token The token's bytes, between the buffer's position and limit. The buffer is not modified.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public synchronized void add(ByteBuffer token, long now) {
+        int hash = hash(token);
+        int slot = hash & this.mask;
+
+        byte[] cached = this.tokens[slot];
+        if(cached == null || cached.length != token.remaining()) {
+            cached = new byte[token.remaining()];
+            this.tokens[slot] = cached;
+        }
+        token.duplicate().get(cached);
+        this.hashes[slot] = hash;
+        this.verifiedAt[slot] = now;
+    }
+}
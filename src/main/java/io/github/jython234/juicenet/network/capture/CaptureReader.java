@@ -0,0 +1,170 @@
+package io.github.jython234.juicenet.network.capture;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the datagrams of a capture file written by a {@link CaptureRecorder}, in the order they were recorded.
+ *
+ * The file is read through memory mapped windows, and the datagrams are
+ * views of the mapping, so reading doesn't copy them.
+ *
+ * @author jython234
+ */
+public class CaptureReader implements Closeable {
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    public final Path file;
+    /** Time the capture started, from {@link System#currentTimeMillis()}. */
+    @Getter private final long startTime;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private final Map<Key, InetSocketAddress> addresses = new HashMap<>(); // So each record doesn't create a new address
+    private final Key lookup = new Key();
+
+    /**
+     * Opens a capture file.
+     * @param file The capture file.
+     * @throws IOException If the file couldn't be opened, or isn't a capture file.
+     */
+    public CaptureReader(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
+
+        map(0);
+        if(this.fileSize < CaptureRecorder.HEADER_SIZE || this.window.getInt() != CaptureRecorder.MAGIC) {
+            this.channel.close();
+            throw new IOException(file + " is not a capture file!");
+        }
+        short version = this.window.getShort();
+        if(version != CaptureRecorder.VERSION) {
+            this.channel.close();
+            throw new IOException("Unsupported capture version " + version + "!");
+        }
+        this.window.getShort();
+        this.startTime = this.window.getLong();
+    }
+
+    /**
+     * Reads the next datagram.
+     * @param record The record to read the datagram into.
+     * @return True if a datagram was read, false if the end of the capture was reached.
+     * @throws IOException If the capture is truncated.
+     */
+    public boolean next(Record record) throws IOException {
+        long position = this.windowStart + this.window.position();
+        if(this.window.remaining() < CaptureRecorder.RECORD_HEADER_SIZE + 16 && this.window.remaining() < this.fileSize - position) {
+            map(position);
+        }
+        if(this.window.remaining() < 4 || this.window.getInt(this.window.position()) == 0)
+            return false; // The end of the file, or of a capture which wasn't closed
+        if(this.window.remaining() < CaptureRecorder.RECORD_HEADER_SIZE)
+            throw new IOException("The capture is truncated at " + position + "!");
+
+        int length = this.window.getInt(this.window.position());
+        int ipLength = this.window.get(this.window.position() + 12);
+        int recordSize = CaptureRecorder.RECORD_HEADER_SIZE + ipLength + length;
+        if(length < 0 || (ipLength != 4 && ipLength != 16) || this.fileSize - position < recordSize)
+            throw new IOException("The capture is truncated or corrupt at " + position + "!");
+        if(this.window.remaining() < recordSize) {
+            map(position);
+        }
+
+        this.window.getInt();
+        record.timestamp = this.window.getLong();
+        this.window.get();
+        this.window.get(this.lookup.ip, 0, ipLength);
+        this.lookup.ipLength = ipLength;
+        this.lookup.port = this.window.getShort() & 0xFFFF;
+        record.address = address();
+
+        ByteBuffer data = this.window.slice();
+        data.limit(length);
+        record.data = data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        this.window.position(this.window.position() + length);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private InetSocketAddress address() throws IOException {
+        InetSocketAddress address = this.addresses.get(this.lookup);
+        if(address == null) {
+            Key key = new Key();
+            key.ip = Arrays.copyOf(this.lookup.ip, this.lookup.ipLength);
+            key.ipLength = this.lookup.ipLength;
+            key.port = this.lookup.port;
+            address = new InetSocketAddress(InetAddress.getByAddress(key.ip), key.port);
+            this.addresses.put(key, address);
+        }
+        return address;
+    }
+
+    private void map(long position) throws IOException {
+        this.windowStart = position;
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, this.fileSize - position));
+        this.window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * A datagram read from a capture.
+     */
+    public static class Record {
+        /** Nanoseconds between the start of the capture and the datagram being received. */
+        public long timestamp;
+        /** The address the datagram was sent from. */
+        public InetSocketAddress address;
+        /** Read-only little-endian view of the datagram in the mapped file. */
+        public ByteBuffer data;
+    }
+
+    private static class Key {
+        byte[] ip = new byte[16];
+        int ipLength;
+        int port;
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            if(this.ipLength != other.ipLength || this.port != other.port)
+                return false;
+            for(int i = 0; i < this.ipLength; i++) {
+                if(this.ip[i] != other.ip[i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.port;
+            for(int i = 0; i < this.ipLength; i++) {
+                hash = 31 * hash + this.ip[i];
+            }
+            return hash;
+        }
+    }
+}
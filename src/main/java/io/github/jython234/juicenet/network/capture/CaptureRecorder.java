@@ -0,0 +1,140 @@
+package io.github.jython234.juicenet.network.capture;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends received datagrams to a capture file, which a {@link CaptureReader} reads back.
+ *
+ * The file is written through memory mapped segments, so recording a datagram
+ * is a copy into memory and the OS writes it out in the background. A new
+ * segment is mapped after the last one once it is full, and the file is
+ * truncated to the recorded size when the recorder is closed.
+ *
+ * The file starts with a header of the magic number, the format version and the
+ * time the capture started (from {@link System#currentTimeMillis()}). Each record
+ * then has the size of the datagram, the nanoseconds since the capture started,
+ * the length of the source IP address, the address, the port and the datagram.
+ * A record of size zero ends the file, which is what a capture that wasn't closed
+ * ends with, as the unwritten part of the last segment is zeros. Everything is little-endian.
+ *
+ * @author jython234
+ */
+public class CaptureRecorder implements Closeable {
+    public static final int MAGIC = 0x50434E4A; // "JNCP"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    /** Size of a record without the address and the datagram. */
+    public static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 2;
+
+    public final Path file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final long startNanos;
+
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private boolean closed = false;
+
+    /** Amount of datagrams recorded. */
+    @Getter private volatile long datagramsRecorded;
+    /** Size of the capture file (in bytes) so far. */
+    @Getter private volatile long size;
+
+    /**
+     * Creates a new CaptureRecorder with 16 MiB segments.
+     * @param file The capture file, which is replaced if it exists.
+     * @throws IOException If the file couldn't be created.
+     */
+    public CaptureRecorder(Path file) throws IOException {
+        this(file, 16 * 1024 * 1024);
+    }
+
+    /**
+     * Creates a new CaptureRecorder.
+     * @param file The capture file, which is replaced if it exists.
+     * @param segmentSize Size (in bytes) of the parts of the file which are mapped at a time.
+     * @throws IOException If the file couldn't be created.
+     */
+    public CaptureRecorder(Path file, int segmentSize) throws IOException {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.startNanos = System.nanoTime();
+
+        map(0, HEADER_SIZE);
+        this.segment.putInt(MAGIC);
+        this.segment.putShort(VERSION);
+        this.segment.putShort((short) 0);
+        this.segment.putLong(System.currentTimeMillis());
+        this.size = HEADER_SIZE;
+    }
+
+    /**
+     * Records a datagram. Can be called from any thread, datagrams recorded
+     * after the recorder was closed are ignored.
+     * @param data The datagram, from its position to its limit. The buffer's position isn't changed.
+     * @param address The address the datagram was sent from.
+     * @throws IOException If the file couldn't be extended.
+     */
+    public void record(ByteBuffer data, SocketAddress address) throws IOException {
+        long now = System.nanoTime();
+        InetSocketAddress source = (InetSocketAddress) address;
+        byte[] ip = source.getAddress().getAddress();
+        int length = data.remaining();
+        if(length == 0)
+            return; // Would end the file
+
+        synchronized(this) {
+            if(this.closed)
+                return;
+
+            int recordSize = RECORD_HEADER_SIZE + ip.length + length;
+            if(this.segment.remaining() < recordSize) {
+                map(this.segmentStart + this.segment.position(), recordSize);
+            }
+            this.segment.putInt(length);
+            this.segment.putLong(now - this.startNanos);
+            this.segment.put((byte) ip.length);
+            this.segment.put(ip);
+            this.segment.putShort((short) source.getPort());
+            this.segment.put(data.duplicate());
+
+            this.datagramsRecorded++;
+            this.size = this.segmentStart + this.segment.position();
+        }
+    }
+
+    /**
+     * Stops recording, and truncates the file to the recorded size.
+     * @throws IOException If there was an error while truncating the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(this.closed)
+            return;
+        this.closed = true;
+
+        this.segment.force();
+        this.channel.truncate(this.size);
+        this.channel.close();
+        this.segment = null; // Unmapped once it is garbage collected
+    }
+
+    private void map(long position, int minimumSize) throws IOException {
+        this.segmentStart = position;
+        this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(this.segmentSize, minimumSize));
+        this.segment.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.jython234.juicenet.network.capture;
+
+import io.github.jython234.juicenet.network.RawPacketHandler;
+import io.github.jython234.juicenet.network.server.ServerNetworkManager;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture file written by a {@link CaptureRecorder} into a server,
+ * keeping the gaps between the datagrams, scaled by {@link #speed}.
+ *
+ * Datagrams are either passed to a {@link RawPacketHandler} directly, which takes the
+ * server's socket out of the measurement, or sent over loopback from one socket
+ * per captured source address, so the server still sees a socket per client.
+ * As the server answers the captured addresses when datagrams are passed
+ * directly, they can be mapped to loopback addresses with {@link #loopbackAddresses}.
+ *
+ * @author jython234
+ */
+public class CaptureReplayer {
+    /** Value of {@link #speed} which replays the datagrams as fast as possible. */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    public final Path file;
+
+    /** Factor the gaps between the datagrams are divided by, 1 for the original speed. */
+    @Getter @Setter private double speed = 1;
+    /**
+     * Replaces each captured source address with its own 127.x.y.z address (keeping the port) when
+     * datagrams are passed directly, so the server's answers stay on the machine. Only
+     * 127.0.0.1 is routed to loopback on some systems other than Linux.
+     */
+    @Getter @Setter private boolean loopbackAddresses = false;
+
+    /** Amount of datagrams the last replay replayed. */
+    @Getter private long datagramsReplayed;
+    /** Size of the datagrams the last replay replayed. */
+    @Getter private long bytesReplayed;
+    /** Time (in nanoseconds) the last replay took. */
+    @Getter private long elapsed;
+    /** Time (in nanoseconds) between the first and last datagram of the capture. */
+    @Getter private long captureDuration;
+
+    /**
+     * Creates a new CaptureReplayer.
+     * @param file The capture file.
+     */
+    public CaptureReplayer(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the capture by passing each datagram to a handler, on the calling thread.
+     * If the handler is a {@link ServerNetworkManager}, the timers of the sessions the
+     * replay opens are run with {@link ServerNetworkManager#tick(long)} as well.
+     * @param handler The handler, usually the network manager of a running server.
+     * @throws IOException If the capture couldn't be read, or the handler threw an error.
+     */
+    public void replay(RawPacketHandler handler) throws IOException {
+        ServerNetworkManager manager = handler instanceof ServerNetworkManager ? (ServerNetworkManager) handler : null;
+        Map<InetSocketAddress, InetSocketAddress> mapped = new HashMap<>();
+
+        run((record, now) -> {
+            InetSocketAddress address = record.address;
+            if(this.loopbackAddresses) {
+                address = mapped.get(record.address);
+                if(address == null) {
+                    int index = mapped.size() + 2; // 127.0.0.1 is left out, local services are bound to it
+                    byte[] ip = {127, (byte) (index >>> 16), (byte) (index >>> 8), (byte) index};
+                    address = new InetSocketAddress(InetAddress.getByAddress(ip), record.address.getPort());
+                    mapped.put(record.address, address);
+                }
+            }
+            handler.handleRawPacket(record.data, address);
+            if(manager != null) {
+                manager.tick(now);
+            }
+        });
+    }
+
+    /**
+     * Replays the capture by sending each datagram to a server, from one loopback socket
+     * per captured source address. Datagrams the server sends back are ignored.
+     * @param server The address of the server.
+     * @throws IOException If the capture couldn't be read, or there was an error while sending.
+     */
+    public void replay(InetSocketAddress server) throws IOException {
+        Map<InetSocketAddress, DatagramChannel> channels = new HashMap<>();
+        try {
+            run((record, now) -> {
+                DatagramChannel channel = channels.get(record.address);
+                if(channel == null) {
+                    channel = DatagramChannel.open();
+                    channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                    channels.put(record.address, channel);
+                }
+                channel.send(record.data, server);
+            });
+        } finally {
+            for(DatagramChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+    }
+
+    private void run(Target target) throws IOException {
+        this.datagramsReplayed = 0;
+        this.bytesReplayed = 0;
+        this.captureDuration = 0;
+
+        try(CaptureReader reader = new CaptureReader(this.file)) {
+            CaptureReader.Record record = new CaptureReader.Record();
+            long start = System.nanoTime();
+            long first = -1;
+            while(reader.next(record)) {
+                if(first == -1) {
+                    first = record.timestamp;
+                }
+                this.captureDuration = record.timestamp - first;
+
+                long now = System.nanoTime();
+                if(this.speed != MAX_SPEED) {
+                    // Waits for the absolute time, so oversleeping once doesn't delay every later datagram
+                    long due = start + (long) (this.captureDuration / this.speed);
+                    while(due - now > 0) {
+                        LockSupport.parkNanos(due - now);
+                        now = System.nanoTime();
+                    }
+                }
+
+                int length = record.data.remaining();
+                target.replay(record, now);
+                this.datagramsReplayed++;
+                this.bytesReplayed += length;
+            }
+            this.elapsed = System.nanoTime() - start;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Target {
+        void replay(CaptureReader.Record record, long now) throws IOException;
+    }
+}
@@ -0,0 +1,188 @@
+package io.github.jython234.juicenet.network.client;
+
+import io.github.jython234.juicenet.network.HashedWheelTimer;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.reliability.FragmentMemory;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the network I/O and timers of any amount of {@link JuiceNetClient}s on one thread.
+ *
+ * Every client has its own non-blocking DatagramChannel, which is registered
+ * with the loop's Selector. The loop waits until one of the channels is readable
+ * or the next timeout of its {@link HashedWheelTimer} expires, so one thread can
+ * host thousands of clients, for example to simulate peers for load tests.
+ * The clients also share the loop's fragment memory.
+ *
+ * @author jython234
+ */
+public class ClientEventLoop implements Closeable {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    public final NetworkSettings settings;
+
+    @Getter private final Logger logger;
+    /** Memory shared by all clients of the loop for reassembling fragmented payloads. */
+    @Getter private final FragmentMemory fragmentMemory;
+    @Getter private final HashedWheelTimer timer;
+
+    private final Selector selector;
+    private final ByteBuffer receiveBuffer;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    @Getter private volatile boolean running = true;
+
+    /**
+     * Creates a new ClientEventLoop with the default settings and starts its thread.
+     * @throws IOException If the Selector couldn't be opened.
+     */
+    public ClientEventLoop() throws IOException {
+        this(new NetworkSettings());
+    }
+
+    /**
+     * Creates a new ClientEventLoop and starts its thread.
+     * @param settings The settings of every client hosted by the loop.
+     * @throws IOException If the Selector couldn't be opened.
+     */
+    public ClientEventLoop(NetworkSettings settings) throws IOException {
+        this.settings = settings;
+        this.logger = LoggerFactory.getLogger("JuiceNetClient");
+        this.fragmentMemory = new FragmentMemory(settings.fragmentMemory, settings.fragmentSlabSize);
+        this.timer = new HashedWheelTimer(settings, System.nanoTime());
+        this.selector = Selector.open();
+        this.receiveBuffer = ByteBuffer.allocateDirect(settings.getReceiveBufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+
+        this.thread = new Thread(this::run, "JuiceNet-Client-" + NEXT_ID.getAndIncrement());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Runs a task on the loop's thread. Tasks run in the order they were submitted.
+     * @param task The task.
+     */
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        if(!inEventLoop()) {
+            this.selector.wakeup();
+        }
+    }
+
+    /** @return True if the current thread is the loop's thread. */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * Registers a client's channel with the loop's Selector. Must be called on the loop's thread.
+     * @param channel The client's channel, which must be non-blocking.
+     * @param client The client which handles the channel's datagrams.
+     * @throws IOException If the channel couldn't be registered.
+     */
+    void register(DatagramChannel channel, JuiceNetClient client) throws IOException {
+        channel.register(this.selector, SelectionKey.OP_READ, client);
+    }
+
+    private void run() {
+        this.timer.bind(this.selector::wakeup);
+
+        while(this.running) {
+            try {
+                runTasks();
+                long now = System.nanoTime();
+                this.timer.advance(now);
+
+                long wait = this.tasks.isEmpty() ? this.timer.getWaitTime(now) : 0;
+                if(wait == 0) {
+                    this.selector.selectNow();
+                } else if(wait < 0) {
+                    this.selector.select();
+                } else {
+                    this.selector.select(toMillis(wait));
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                this.logger.error("Error while running client timers", e);
+                continue;
+            }
+
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                JuiceNetClient client = (JuiceNetClient) key.attachment();
+                try {
+                    client.receive(this.receiveBuffer);
+                } catch (IOException | RuntimeException e) {
+                    this.logger.error("Error while handling datagram for client " + client.clientID, e);
+                }
+            }
+        }
+
+        runTasks(); // Clients which are still opening their channels
+        List<JuiceNetClient> clients = new ArrayList<>();
+        for(SelectionKey key : this.selector.keys()) {
+            clients.add((JuiceNetClient) key.attachment());
+        }
+        for(JuiceNetClient client : clients) {
+            client.close();
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            this.logger.error("Error while closing selector", e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                this.logger.error("Error while running client task", e);
+            }
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return Math.max(1, (nanos + 999999) / 1000000); // Rounded up, zero would wait forever
+    }
+
+    /**
+     * Closes every client hosted by the loop and stops its thread.
+     * Waits for the thread to exit, unless called from the loop itself.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        this.selector.wakeup();
+        if(inEventLoop())
+            return;
+
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
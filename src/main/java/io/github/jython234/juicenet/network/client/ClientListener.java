@@ -0,0 +1,40 @@
+package io.github.jython234.juicenet.network.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives events from a {@link JuiceNetClient}.
+ *
+ * Methods are called from the client's {@link ClientEventLoop},
+ * which may host many clients, so implementations should not block.
+ * Only {@link #handleMessage(JuiceNetClient, byte, ByteBuffer)} moves to the
+ * {@link io.github.jython234.juicenet.network.NetworkSettings#handlerExecutor}
+ * if one is set, where it may block.
+ *
+ * @author jython234
+ */
+public interface ClientListener {
+    /**
+     * Called when the server has accepted the client's handshake.
+     * @param client The connected client.
+     */
+    default void connected(JuiceNetClient client) {}
+
+    /**
+     * Called when a connected client has been closed, either by
+     * {@link JuiceNetClient#close()} or because the server timed out.
+     * @param client The closed client.
+     * @param cause The reason the client was closed, or null if it was closed by the application.
+     */
+    default void disconnected(JuiceNetClient client, Throwable cause) {}
+
+    /**
+     * Called when a message has been received from the server.
+     * @param client The client which received the message.
+     * @param channelId The channel the message was sent on.
+     * @param payload The message's payload. Only valid for the duration of the call if handlers run inline.
+     * @throws IOException If there was an error while handling the message.
+     */
+    void handleMessage(JuiceNetClient client, byte channelId, ByteBuffer payload) throws IOException;
+}
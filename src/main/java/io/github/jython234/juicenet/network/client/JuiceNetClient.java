@@ -0,0 +1,603 @@
+package io.github.jython234.juicenet.network.client;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+import io.github.jython234.juicenet.network.HashedWheelTimer;
+import io.github.jython234.juicenet.network.MessageDispatcher;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.UDPServerSocket;
+import io.github.jython234.juicenet.network.crypto.KeyExchange;
+import io.github.jython234.juicenet.network.crypto.SessionTicket;
+import io.github.jython234.juicenet.network.metrics.MetricsSnapshot;
+import io.github.jython234.juicenet.network.metrics.PeerMetrics;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.packet.handshake.ClientHandshakePacket;
+import io.github.jython234.juicenet.network.packet.handshake.ServerHandshakePacket;
+import io.github.jython234.juicenet.network.reliability.ReliabilityCallback;
+import io.github.jython234.juicenet.network.reliability.ReliabilityLayer;
+import io.github.jython234.juicenet.network.snapshot.SnapshotSync;
+import io.github.jython234.juicenet.network.stream.ChannelStream;
+import io.github.jython234.juicenet.network.stream.ChannelStreams;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A JuiceNet Client implementation
+ *
+ * The client connects to a {@link io.github.jython234.juicenet.network.server.JuiceNetServer}
+ * with the handshake, then exchanges messages through the same {@link ReliabilityLayer}
+ * the server's sessions use. Nothing blocks: {@link #connect()} and {@link #send(byte, byte[])}
+ * return futures, and received messages are passed to the {@link ClientListener} on the
+ * client's {@link ClientEventLoop}. Any amount of clients can share one loop.
+ *
+ * While connected, the client resends its handshake every quarter of the server's
+ * session timeout so idle sessions stay open, and closes itself if the server
+ * hasn't sent anything for a whole session timeout.
+ *
+ * @author jython234
+ */
+public class JuiceNetClient implements ReliabilityCallback, Closeable {
+    /** The states a client goes through, in order. */
+    public enum State {
+        NEW,
+        CONNECTING,
+        CONNECTED,
+        CLOSED
+    }
+
+    public final long clientID;
+    public final InetSocketAddress serverAddress;
+    public final NetworkSettings settings;
+
+    @Getter private final ClientEventLoop eventLoop;
+    private final boolean ownsEventLoop;
+    @Getter @Setter private volatile ClientListener listener;
+
+    @Getter private final ReliabilityLayer reliabilityLayer;
+    /** Hands received messages to the listener on the {@link NetworkSettings#handlerExecutor}. */
+    @Getter private final MessageDispatcher dispatcher;
+    private final PeerMetrics metrics;
+    /** Encodes and decodes the snapshots sent on the {@link io.github.jython234.juicenet.network.ChannelSettings#snapshots} channels. */
+    @Getter private final SnapshotSync snapshots;
+    /** The byte streams of the {@link io.github.jython234.juicenet.network.ChannelSettings#stream} channels. */
+    @Getter private final ChannelStreams streams;
+    private volatile DatagramChannel channel;
+    @Getter private volatile State state = State.NEW;
+    private final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+
+    /** The ID of the server, once connected. */
+    @Getter private volatile long serverID;
+    /** Time (in milliseconds) after which the server closes the session if the client doesn't send anything. */
+    @Getter private volatile long sessionTimeout;
+    private volatile long lastActivity;
+    private long connectStart;
+
+    /**
+     * The ticket to resume an encrypted session with instead of a key exchange. Once
+     * connected, the ticket the server sent for the next session, see {@link #setSessionTicket(SessionTicket)}.
+     */
+    @Getter private volatile SessionTicket sessionTicket;
+    private byte[] handshake; // Encoded once, and resent as it is
+    private byte[] handshakeCookie = new byte[0];
+    private byte[] handshakeNonce;
+    private KeyPair keyPair;
+    private boolean resuming;
+
+    private final HashedWheelTimer timer;
+    private final HashedWheelTimer.Timeout handshakeTimeout = new HashedWheelTimer.Timeout(this::resendHandshake);
+    private final HashedWheelTimer.Timeout updateTimeout = new HashedWheelTimer.Timeout(this::runUpdate);
+    private final HashedWheelTimer.Timeout keepAliveTimeout = new HashedWheelTimer.Timeout(this::keepAlive);
+
+    /**
+     * Creates a new JuiceNetClient with its own {@link ClientEventLoop}, which is closed with the client.
+     * @param serverAddress The address of the server.
+     * @param settings The client's settings.
+     * @throws IOException If the event loop couldn't be created.
+     */
+    public JuiceNetClient(InetSocketAddress serverAddress, NetworkSettings settings) throws IOException {
+        this(serverAddress, new ClientEventLoop(settings), true);
+    }
+
+    /**
+     * Creates a new JuiceNetClient, which runs on a shared {@link ClientEventLoop}
+     * and uses the loop's settings.
+     * @param serverAddress The address of the server.
+     * @param eventLoop The event loop which handles the client's datagrams and timers.
+     */
+    public JuiceNetClient(InetSocketAddress serverAddress, ClientEventLoop eventLoop) {
+        this(serverAddress, eventLoop, false);
+    }
+
+    private JuiceNetClient(InetSocketAddress serverAddress, ClientEventLoop eventLoop, boolean ownsEventLoop) {
+        this.clientID = new Random().nextLong();
+        this.serverAddress = serverAddress;
+        this.settings = eventLoop.settings;
+        this.eventLoop = eventLoop;
+        this.ownsEventLoop = ownsEventLoop;
+        this.timer = eventLoop.getTimer();
+        this.metrics = new PeerMetrics(this.settings, null);
+        this.reliabilityLayer = new ReliabilityLayer(this.settings, this, eventLoop.getFragmentMemory());
+        this.dispatcher = new MessageDispatcher(this.settings, this::dispatchMessage, eventLoop.getLogger(), this.metrics);
+        this.snapshots = new SnapshotSync(this.settings, (channelId, message) -> send(channelId, ContainerPacket.ReliabilityType.UNRELIABLE, message));
+        this.streams = new ChannelStreams(this.settings, this.reliabilityLayer::getMtu, this::sendStreamMessage);
+    }
+
+    /**
+     * Opens the client's channel and starts the handshake. The handshake is
+     * resent until the server answers or {@link NetworkSettings#connectTimeout} passes.
+     * @return A future which completes once the server accepted the handshake, or
+     *         completes exceptionally if the server refused it, didn't answer, or the client was closed.
+     */
+    public CompletableFuture<Void> connect() {
+        synchronized(this) {
+            if(this.state != State.NEW)
+                return this.connectFuture;
+            this.state = State.CONNECTING;
+        }
+
+        if(!this.eventLoop.isRunning()) {
+            closeWith(new ClosedChannelException());
+        } else {
+            this.eventLoop.execute(this::open);
+        }
+        return this.connectFuture;
+    }
+
+    private void open() {
+        if(this.state == State.CLOSED)
+            return;
+
+        try {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, this.settings.socketReceiveBufferSize);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, this.settings.socketSendBufferSize);
+            if(this.settings.pathMtuDiscovery) {
+                UDPServerSocket.setDontFragment(channel);
+            }
+            channel.configureBlocking(false);
+            channel.connect(this.serverAddress);
+            this.channel = channel;
+            this.eventLoop.register(channel, this);
+            if(this.state == State.CLOSED) {
+                channel.close(); // Closed while the channel was being opened
+                return;
+            }
+        } catch (IOException e) {
+            closeWith(e);
+            return;
+        }
+
+        this.connectStart = System.nanoTime();
+        resendHandshake(this.connectStart);
+    }
+
+    private void resendHandshake(long now) {
+        if(this.state != State.CONNECTING)
+            return;
+        if(now - this.connectStart >= this.settings.connectTimeout * 1000000L) {
+            closeWith(new SocketTimeoutException("The server didn't answer the handshake within " + this.settings.connectTimeout + "ms"));
+            return;
+        }
+
+        try {
+            sendHandshake();
+        } catch (PortUnreachableException e) {
+            // The server isn't up yet, the handshake is resent
+        } catch (IOException e) {
+            closeWith(e);
+            return;
+        }
+        this.timer.schedule(this.handshakeTimeout, now + this.settings.initialRetransmitTimeout * 1000000L);
+    }
+
+    private void sendHandshake() throws IOException {
+        if(this.handshake == null) {
+            ClientHandshakePacket chp = new ClientHandshakePacket();
+            chp.clientID = this.clientID;
+            chp.cookie = this.handshakeCookie;
+            if(this.settings.encryption) {
+                if(this.handshakeNonce == null) { // Kept when the handshake is only resent with a cookie
+                    this.handshakeNonce = KeyExchange.generateNonce();
+                    this.resuming = this.sessionTicket != null;
+                    if(!this.resuming) {
+                        try {
+                            this.keyPair = KeyExchange.generateKeyPair();
+                        } catch (GeneralSecurityException e) {
+                            throw new IOException("Failed to generate the key pair for the handshake", e);
+                        }
+                    }
+                }
+                chp.flags = ClientHandshakePacket.FLAG_ENCRYPTED;
+                chp.nonce = this.handshakeNonce;
+                if(this.resuming) {
+                    chp.ticket = this.sessionTicket.ticket;
+                } else {
+                    chp.publicKey = this.keyPair.getPublic().getEncoded();
+                }
+            }
+            this.handshake = chp.encode();
+        }
+
+        this.metrics.onDatagramSent(this.handshake.length);
+        this.channel.write(ByteBuffer.wrap(this.handshake));
+    }
+
+    /**
+     * Sets the ticket to resume an encrypted session with, which skips the key exchange. If the
+     * server rejects the ticket, the client falls back to a key exchange. Only used if
+     * {@link NetworkSettings#encryption} is set.
+     * @param sessionTicket The ticket of a previous client, see {@link #getSessionTicket()}.
+     * @throws IllegalStateException If the client was already connected.
+     */
+    public synchronized void setSessionTicket(SessionTicket sessionTicket) {
+        if(this.state != State.NEW)
+            throw new IllegalStateException("The client is " + this.state + ", the ticket must be set before connecting");
+        this.sessionTicket = sessionTicket;
+    }
+
+    /**
+     * @return The local address of the client's channel, or null if it isn't open.
+     * @throws IOException If the address couldn't be read.
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        DatagramChannel channel = this.channel;
+        return channel != null && channel.isOpen() ? (InetSocketAddress) channel.getLocalAddress() : null;
+    }
+
+    /**
+     * Sends a message to the server, with the channel's
+     * {@link io.github.jython234.juicenet.network.ChannelSettings#reliabilityType}.
+     * @param channelId The channel to send the message on.
+     * @param payload The message's payload.
+     * @return A future which completes once the server has acknowledged the message.
+     * @see #send(byte, ContainerPacket.ReliabilityType, byte[])
+     */
+    public CompletableFuture<Void> send(byte channelId, byte[] payload) {
+        return send(channelId, this.settings.channels[channelId & 0xFF].reliabilityType, payload);
+    }
+
+    /**
+     * Sends a message to the server. Can be called from any thread.
+     * @param channelId The channel to send the message on.
+     * @param reliabilityType The ReliabilityType to send the message with.
+     * @param payload The message's payload.
+     * @return A future which completes once the server has acknowledged the message, or once it
+     *         has been sent if it is UNRELIABLE. It completes exceptionally if the client isn't
+     *         connected, or is closed before the message was acknowledged.
+     */
+    public CompletableFuture<Void> send(byte channelId, ContainerPacket.ReliabilityType reliabilityType, byte[] payload) {
+        if(this.state != State.CONNECTED) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("The client is " + this.state + ", not CONNECTED"));
+            return future;
+        }
+
+        ContainerPacket cp = new ContainerPacket();
+        cp.reliabilityType = reliabilityType;
+        cp.channelId = channelId;
+        cp.payloadSize = (short) payload.length;
+        cp.payload = payload;
+
+        CompletableFuture<Void> future = this.reliabilityLayer.sendAcknowledged(cp);
+        scheduleUpdate();
+        return future;
+    }
+
+    /**
+     * Sends a state snapshot to the server, as a delta against the last snapshot the
+     * server acknowledged. The server's listener receives the full snapshot. Can be called from any thread.
+     * @param channelId The channel to send the snapshot on, which must have
+     *                  {@link io.github.jython234.juicenet.network.ChannelSettings#snapshots} set.
+     * @param state The snapshot. It is copied, so it can be reused afterwards.
+     * @throws IOException If there was an error while sending.
+     * @throws IllegalStateException If the client isn't connected.
+     */
+    public void sendSnapshot(byte channelId, byte[] state) throws IOException {
+        if(this.state != State.CONNECTED)
+            throw new IllegalStateException("The client is " + this.state + ", not CONNECTED");
+
+        this.snapshots.send(channelId, state);
+    }
+
+    /**
+     * Returns the byte stream of a channel, to transfer data too large for a message to or from the server.
+     * Can be called from any thread, but writing fails until the client is connected.
+     * @param channelId The channel, which must have {@link io.github.jython234.juicenet.network.ChannelSettings#stream} set.
+     * @return The stream.
+     */
+    public ChannelStream getStream(byte channelId) {
+        return this.streams.get(channelId);
+    }
+
+    private void sendStreamMessage(byte channelId, ContainerPacket.ReliabilityType reliabilityType, byte[] message) throws IOException {
+        if(this.state != State.CONNECTED)
+            throw new ClosedChannelException();
+
+        ContainerPacket cp = new ContainerPacket();
+        cp.reliabilityType = reliabilityType;
+        cp.channelId = channelId;
+        cp.payloadSize = (short) message.length;
+        cp.payload = message;
+
+        this.reliabilityLayer.send(cp); // Without a future, as streams are acknowledged by the peer's window updates
+        scheduleUpdate();
+    }
+
+    /**
+     * Receives every datagram which has arrived on the client's channel,
+     * up to {@link NetworkSettings#receiveBufferCount}. Called by the event loop.
+     * @param buffer The event loop's receive buffer.
+     * @throws IOException If there was an error while receiving or handling a datagram.
+     */
+    void receive(ByteBuffer buffer) throws IOException {
+        for(int i = 0; i < this.settings.receiveBufferCount && this.state != State.CLOSED; i++) {
+            buffer.clear();
+            try {
+                if(this.channel.receive(buffer) == null)
+                    return;
+            } catch (PortUnreachableException e) {
+                continue; // The server isn't up (anymore), the handshake or idle timeout handles it
+            }
+            buffer.flip();
+            handleDatagram(buffer);
+        }
+    }
+
+    private void handleDatagram(ByteBuffer data) throws IOException {
+        this.metrics.onDatagramReceived(data.remaining());
+        if(data.remaining() < 2)
+            return; // Too small to contain a packet ID
+
+        if(data.getShort(data.position()) == JuiceNetConstants.ID_SERVER_HANDSHAKE_PACKET) {
+            handleHandshake(data);
+        } else if(this.state == State.CONNECTED) {
+            this.lastActivity = System.nanoTime();
+            this.reliabilityLayer.handleDatagram(data);
+            scheduleUpdate();
+        }
+    }
+
+    private void handleHandshake(ByteBuffer data) {
+        ServerHandshakePacket shp = new ServerHandshakePacket();
+        shp.decode(data);
+
+        if(this.state == State.CONNECTED) {
+            if(shp.status == ServerHandshakePacket.STATUS_OK) {
+                this.lastActivity = System.nanoTime(); // Answer to a keep alive, not a new cookie for a session the server closed
+            }
+            return;
+        }
+        if(this.state != State.CONNECTING)
+            return;
+
+        if(shp.status == ServerHandshakePacket.STATUS_COOKIE_REQUIRED || (shp.status == ServerHandshakePacket.STATUS_TICKET_REJECTED && this.resuming)) {
+            if(shp.status == ServerHandshakePacket.STATUS_COOKIE_REQUIRED) {
+                this.handshakeCookie = shp.cookie;
+            } else {
+                // Expired or from another server, falls back to a key exchange
+                this.sessionTicket = null;
+                this.handshakeNonce = null;
+            }
+            this.handshake = null;
+            try {
+                sendHandshake();
+            } catch (IOException e) {
+                closeWith(e);
+            }
+            return;
+        }
+        if(shp.status != ServerHandshakePacket.STATUS_OK) {
+            String reason;
+            switch(shp.status) {
+                case ServerHandshakePacket.STATUS_SERVER_FULL:
+                    reason = "The server is full";
+                    break;
+                case ServerHandshakePacket.STATUS_ENCRYPTION_REQUIRED:
+                    reason = "The server requires encryption";
+                    break;
+                default:
+                    reason = "The server doesn't support protocol version " + JuiceNetConstants.PROTOCOL_VERSION_MAJOR;
+                    break;
+            }
+            closeWith(new IOException(reason));
+            return;
+        }
+
+        if(this.settings.encryption) {
+            if((shp.flags & ServerHandshakePacket.FLAG_ENCRYPTED) == 0 || shp.nonce.length != KeyExchange.NONCE_SIZE) {
+                closeWith(new IOException("The server doesn't support encryption"));
+                return;
+            }
+            try {
+                byte[] master = this.resuming ? this.sessionTicket.master : KeyExchange.agree(this.keyPair.getPrivate(), shp.publicKey);
+                this.reliabilityLayer.setCipher(KeyExchange.deriveCipher(master, this.handshakeNonce, shp.nonce, true));
+                this.sessionTicket = new SessionTicket(shp.ticket, master);
+                this.keyPair = null;
+            } catch (GeneralSecurityException e) {
+                closeWith(new IOException("The server's handshake is invalid", e));
+                return;
+            }
+        }
+
+        synchronized(this) {
+            if(this.state != State.CONNECTING)
+                return;
+            this.serverID = shp.serverID;
+            this.sessionTimeout = shp.sessionTimeout;
+            this.lastActivity = System.nanoTime();
+            this.state = State.CONNECTED;
+        }
+        this.timer.cancel(this.handshakeTimeout);
+        this.timer.schedule(this.keepAliveTimeout, this.lastActivity + getKeepAliveInterval());
+        this.reliabilityLayer.startPathMtuDiscovery(); // The server answers probes from now on
+        scheduleUpdate();
+
+        ClientListener listener = this.listener;
+        if(listener != null) {
+            listener.connected(this);
+        }
+        this.connectFuture.complete(null);
+    }
+
+    private long getKeepAliveInterval() {
+        return Math.max(1, this.sessionTimeout) * 1000000L / 4;
+    }
+
+    private void keepAlive(long now) {
+        if(this.state != State.CONNECTED)
+            return;
+        if(now - this.lastActivity >= this.sessionTimeout * 1000000L) {
+            closeWith(new SocketTimeoutException("The server didn't send anything for " + this.sessionTimeout + "ms"));
+            return;
+        }
+
+        try {
+            sendHandshake(); // The server answers a resent handshake and keeps the session open
+        } catch (IOException e) {
+            this.eventLoop.getLogger().error("Error while sending keep alive to " + this.serverAddress, e);
+        }
+        this.timer.schedule(this.keepAliveTimeout, now + getKeepAliveInterval());
+    }
+
+    /**
+     * Makes sure the client is updated within one tick interval, if it isn't already.
+     */
+    private void scheduleUpdate() {
+        if(this.state == State.CONNECTED && !this.updateTimeout.isScheduled()) {
+            this.timer.schedule(this.updateTimeout, System.nanoTime() + this.settings.tickInterval * 1000000L);
+        }
+    }
+
+    private void runUpdate(long now) {
+        if(this.state != State.CONNECTED)
+            return;
+
+        try {
+            this.reliabilityLayer.update(now);
+        } catch (IOException e) {
+            this.eventLoop.getLogger().error("Error while updating client " + this.clientID, e);
+        }
+
+        long next = this.reliabilityLayer.getNextUpdateTime(now);
+        if(next != -1) {
+            this.timer.schedule(this.updateTimeout, next);
+        }
+    }
+
+    /**
+     * Closes the client. Messages which weren't acknowledged yet fail with a
+     * {@link ClosedChannelException}. The server closes the session once it times out.
+     */
+    @Override
+    public void close() {
+        closeWith(null);
+    }
+
+    private void closeWith(Throwable cause) {
+        State previous;
+        synchronized(this) {
+            previous = this.state;
+            if(previous == State.CLOSED)
+                return;
+            this.state = State.CLOSED;
+        }
+
+        this.timer.cancel(this.handshakeTimeout);
+        this.timer.cancel(this.updateTimeout);
+        this.timer.cancel(this.keepAliveTimeout);
+        this.reliabilityLayer.close();
+        this.streams.close();
+
+        DatagramChannel channel = this.channel;
+        if(channel != null) {
+            try {
+                channel.close(); // Also cancels its key in the event loop
+            } catch (IOException e) {
+                this.eventLoop.getLogger().error("Error while closing client channel", e);
+            }
+        }
+
+        if(previous == State.CONNECTED) {
+            ClientListener listener = this.listener;
+            if(listener != null) {
+                listener.disconnected(this, cause);
+            }
+        } else {
+            this.connectFuture.completeExceptionally(cause != null ? cause : new ClosedChannelException());
+        }
+
+        if(this.ownsEventLoop) {
+            this.eventLoop.close();
+        }
+    }
+
+    @Override
+    public void sendDatagram(ByteBuffer datagram) throws IOException {
+        this.metrics.onDatagramSent(datagram.remaining());
+        this.channel.write(datagram);
+    }
+
+    @Override
+    public void onRttSample(long rtt) {
+        this.metrics.recordRtt(rtt);
+    }
+
+    @Override
+    public boolean acceptContainers() {
+        return this.dispatcher.acceptContainers(); // If the handlers are behind, the server retransmits them later
+    }
+
+    /**
+     * Takes a snapshot of this client's metrics. The histograms are
+     * only kept if {@link NetworkSettings#peerHistograms} is set.
+     * @return The snapshot.
+     */
+    public MetricsSnapshot getMetrics() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.timestamp = System.currentTimeMillis();
+        this.metrics.addTo(snapshot);
+        snapshot.sessions = this.state == State.CONNECTED ? 1 : 0;
+        snapshot.messagesSent = this.reliabilityLayer.getPacketsSent();
+        snapshot.messagesReceived = this.reliabilityLayer.getPacketsReceived();
+        snapshot.retransmits = this.reliabilityLayer.getPacketsRetransmitted();
+        snapshot.duplicatesReceived = this.reliabilityLayer.getDuplicatesReceived();
+        snapshot.fecRecovered = this.reliabilityLayer.getFecRecovered();
+        snapshot.fecUnrecoverable = this.reliabilityLayer.getFecUnrecoverable();
+        snapshot.bytesInFlight = this.reliabilityLayer.getBytesInFlight();
+        snapshot.handlerQueueDepth = this.dispatcher.getQueuedCount();
+        return snapshot;
+    }
+
+    @Override
+    public void handleMessage(byte channelId, ByteBuffer payload) throws IOException {
+        if(this.settings.channels[channelId & 0xFF].snapshots) {
+            payload = this.snapshots.receive(channelId, payload);
+            if(payload == null)
+                return; // An acknowledgement, or an outdated snapshot
+        } else if(this.settings.channels[channelId & 0xFF].stream) {
+            this.streams.receive(channelId, payload);
+            return;
+        }
+        this.dispatcher.dispatch(channelId, payload);
+    }
+
+    private void dispatchMessage(byte channelId, ByteBuffer payload) throws IOException {
+        ClientListener listener = this.listener;
+        if(listener != null) {
+            listener.handleMessage(this, channelId, payload);
+        }
+    }
+}
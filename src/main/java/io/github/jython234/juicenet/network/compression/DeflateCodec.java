@@ -0,0 +1,86 @@
+package io.github.jython234.juicenet.network.compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses payloads with raw DEFLATE, without the zlib header
+ * and checksum, as datagrams are already checksummed.
+ *
+ * Deflaters and Inflaters hold native memory and are expensive to create,
+ * so they are borrowed from bounded pools and reset after every payload.
+ * Threads which find a pool empty create a new instance, and instances
+ * which don't fit back into a full pool are released.
+ *
+ * @author jython234
+ */
+public class DeflateCodec implements PayloadCodec {
+    public final int level;
+
+    private final ArrayBlockingQueue<Deflater> deflaters;
+    private final ArrayBlockingQueue<Inflater> inflaters;
+
+    /**
+     * Creates a new DeflateCodec with {@link Deflater#BEST_SPEED}, which
+     * pools one Deflater and Inflater per available processor.
+     */
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new DeflateCodec.
+     * @param level The compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+     * @param poolSize The maximum amount of pooled Deflaters and Inflaters each.
+     */
+    public DeflateCodec(int level, int poolSize) {
+        if(level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+        this.inflaters = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength) {
+        Deflater deflater = this.deflaters.poll();
+        if(deflater == null) {
+            deflater = new Deflater(this.level, true);
+        }
+        try {
+            deflater.setInput(src, srcOffset, length);
+            deflater.finish();
+            int written = deflater.deflate(dst, dstOffset, maxLength);
+            return deflater.finished() ? written : -1; // Ran out of space before the end
+        } finally {
+            deflater.reset();
+            if(!this.deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int originalLength) {
+        Inflater inflater = this.inflaters.poll();
+        if(inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(src, srcOffset, length);
+            int written = inflater.inflate(dst, dstOffset, originalLength);
+            if(written != originalLength || !inflater.finished())
+                throw new RuntimeException("Compressed payload has the wrong size!");
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Invalid compressed payload: " + e.getMessage(), e);
+        } finally {
+            inflater.reset();
+            if(!this.inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.jython234.juicenet.network.compression;
+
+/**
+ * Compresses the payloads of the channels which set it as their
+ * {@link io.github.jython234.juicenet.network.ChannelSettings#compression}.
+ *
+ * The reliability layer stores the size of the original payload before
+ * the compressed data, so codecs don't need to, and knows how many bytes
+ * decompressing produces. Implementations must be thread-safe, as
+ * messages are sent from any thread. Both peers must use the same
+ * codec on a channel.
+ *
+ * @author jython234
+ */
+public interface PayloadCodec {
+    /**
+     * Compresses a payload.
+     * @param src The array containing the payload.
+     * @param srcOffset The index of the payload in the array.
+     * @param length The size of the payload.
+     * @param dst The array to write the compressed data to.
+     * @param dstOffset The index to start writing at.
+     * @param maxLength The maximum amount of bytes to write.
+     * @return The amount of bytes written, or -1 if the compressed data
+     *         doesn't fit into <code>maxLength</code> bytes.
+     */
+    int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength);
+
+    /**
+     * Decompresses a payload.
+     * @param src The array containing the compressed data.
+     * @param srcOffset The index of the compressed data in the array.
+     * @param length The size of the compressed data.
+     * @param dst The array to write the payload to.
+     * @param dstOffset The index to start writing at.
+     * @param originalLength The size of the original payload, exactly this many bytes must be written.
+     * @throws RuntimeException If the data is invalid or doesn't decompress to <code>originalLength</code> bytes.
+     */
+    void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int originalLength);
+}
@@ -0,0 +1,183 @@
+package io.github.jython234.juicenet.network.crypto;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Issues and verifies the stateless cookies a server asks for
+ * before it opens a session, so handshakes from spoofed addresses
+ * can't make it allocate sessions or run key exchanges.
+ *
+ * A cookie is the low byte of the current time bucket and an
+ * HMAC-SHA256 (truncated to 16 bytes) of the client's address,
+ * port, client ID and the time bucket under the server's cookie key.
+ * Only the client at the address sees the cookie, and the server
+ * doesn't keep any state until it comes back. Cookies are accepted
+ * in their time bucket and the next one.
+ *
+ * Verifying doesn't allocate for IPv4 addresses: every thread
+ * reuses its own digest and buffers, and the HMAC pads are derived once.
+ *
+ * @author jython234
+ */
+public class HandshakeCookies {
+    private static final int MAC_SIZE = 16;
+    private static final int BLOCK_SIZE = 64; // SHA-256's block size
+    /** Size of a cookie. */
+    public static final int COOKIE_SIZE = 1 + MAC_SIZE;
+
+    private final byte[] innerPad = new byte[BLOCK_SIZE];
+    private final byte[] outerPad = new byte[BLOCK_SIZE];
+    private final long lifetime;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a new HandshakeCookies with a random cookie key.
+     * @param lifetime Length (in milliseconds) of a time bucket. Cookies are accepted for one to two buckets.
+     */
+    public HandshakeCookies(long lifetime) {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        for(int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = i < key.length ? key[i] : 0;
+            this.innerPad[i] = (byte) (b ^ 0x36);
+            this.outerPad[i] = (byte) (b ^ 0x5C);
+        }
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Writes a cookie for a client.
+     * @param address The client's address.
+     * @param clientID The client's ID.
+     * @param bb The buffer to write into.
+     * @param offset Absolute offset in the buffer of the cookie's {@link #COOKIE_SIZE} bytes.
+     */
+    public void issue(SocketAddress address, long clientID, ByteBuffer bb, int offset) {
+        long bucket = System.currentTimeMillis() / this.lifetime;
+        byte[] mac = mac(address, clientID, bucket);
+        bb.put(offset, (byte) bucket);
+        for(int i = 0; i < MAC_SIZE; i++) {
+            bb.put(offset + 1 + i, mac[i]);
+        }
+        this.issued.increment();
+    }
+
+    /**
+     * Verifies a client's cookie.
+     * @param bb The buffer the cookie is in.
+     * @param offset Absolute offset in the buffer of the cookie's {@link #COOKIE_SIZE} bytes.
+     * @param address The client's address.
+     * @param clientID The client's ID.
+     * @return True if the cookie was issued to the client, and hasn't expired.
+     */
+    public boolean verify(ByteBuffer bb, int offset, SocketAddress address, long clientID) {
+        long now = System.currentTimeMillis() / this.lifetime;
+        byte bucketByte = bb.get(offset);
+        long bucket;
+        if(bucketByte == (byte) now) {
+            bucket = now;
+        } else if(bucketByte == (byte) (now - 1)) {
+            bucket = now - 1;
+        } else {
+            this.rejected.increment();
+            return false; // Expired, or not a cookie
+        }
+
+        byte[] mac = mac(address, clientID, bucket);
+        int difference = 0;
+        for(int i = 0; i < MAC_SIZE; i++) {
+            difference |= mac[i] ^ bb.get(offset + 1 + i); // Compares every byte, so the time doesn't reveal the MAC
+        }
+        if(difference != 0) {
+            this.rejected.increment();
+            return false;
+        }
+        this.accepted.increment();
+        return true;
+    }
+
+    /** @return The amount of cookies issued. */
+    public long getIssued() {
+        return this.issued.sum();
+    }
+
+    /** @return The amount of cookies which were verified. */
+    public long getAccepted() {
+        return this.accepted.sum();
+    }
+
+    /** @return The amount of cookies which were forged, for another client or expired. */
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Calculates the HMAC of a client and time bucket into the thread's scratch buffer.
+     */
+    private byte[] mac(SocketAddress address, long clientID, long bucket) {
+        Scratch scratch = this.scratch.get();
+        byte[] input = scratch.input;
+        int length = 0;
+        if(address instanceof InetSocketAddress) {
+            InetAddress ip = ((InetSocketAddress) address).getAddress();
+            if(ip instanceof Inet4Address) {
+                length = putLong(input, length, ip.hashCode(), 4); // Its address, without the copy getAddress() makes
+            } else if(ip != null) {
+                byte[] bytes = ip.getAddress();
+                System.arraycopy(bytes, 0, input, 0, bytes.length);
+                length = bytes.length;
+            }
+            length = putLong(input, length, ((InetSocketAddress) address).getPort(), 2);
+        }
+        length = putLong(input, length, clientID, 8);
+        length = putLong(input, length, bucket, 8);
+
+        MessageDigest digest = scratch.digest;
+        byte[] mac = scratch.mac;
+        try {
+            digest.update(this.innerPad);
+            digest.update(input, 0, length);
+            digest.digest(mac, 0, mac.length);
+            digest.update(this.outerPad);
+            digest.update(mac);
+            digest.digest(mac, 0, mac.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e); // The buffer always fits the digest
+        }
+        return mac;
+    }
+
+    private static int putLong(byte[] buf, int offset, long value, int bytes) {
+        for(int i = 0; i < bytes; i++) {
+            buf[offset + i] = (byte) (value >>> (i * 8));
+        }
+        return offset + bytes;
+    }
+
+    private static class Scratch {
+        private final MessageDigest digest;
+        private final byte[] input = new byte[16 + 2 + 8 + 8]; // IPv6 address, port, client ID and time bucket
+        private final byte[] mac = new byte[32];
+
+        private Scratch() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 isn't available", e); // Every Java platform has it
+            }
+        }
+    }
+}
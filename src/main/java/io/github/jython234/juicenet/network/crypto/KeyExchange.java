@@ -0,0 +1,120 @@
+package io.github.jython234.juicenet.network.crypto;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * The key exchange of the handshake, and the derivation of session keys.
+ *
+ * Both sides generate an ephemeral P-256 key pair, and exchange their public keys
+ * and a random nonce each in the handshake. The ECDH shared secret is turned into a
+ * master secret with HKDF-SHA256. The keys of a session are derived from the master
+ * secret and both nonces, so a session resumed with the master secret from a
+ * {@link SessionTicket} gets fresh keys without another key exchange.
+ *
+ * The public keys aren't signed, so the exchange protects against eavesdropping
+ * but doesn't authenticate the server.
+ *
+ * @author jython234
+ */
+public final class KeyExchange {
+    /** Size of the random nonces exchanged in the handshake. */
+    public static final int NONCE_SIZE = 16;
+    /** Size of the master secret. */
+    public static final int SECRET_SIZE = 32;
+
+    private static final byte[] MASTER_SALT = "JuiceNet master".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEYS_INFO = "JuiceNet keys".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_SIZE = 16;
+    private static final int PREFIX_SIZE = 4;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private KeyExchange() {}
+
+    /**
+     * @return A new ephemeral P-256 key pair.
+     * @throws GeneralSecurityException If elliptic curves aren't available.
+     */
+    public static KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"), RANDOM);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * @return A new random handshake nonce.
+     */
+    public static byte[] generateNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Computes the master secret from our private key and the remote side's public key.
+     * @param privateKey Our private key.
+     * @param remotePublicKey The remote side's X.509 encoded public key.
+     * @return The master secret.
+     * @throws GeneralSecurityException If the remote public key isn't a valid P-256 key.
+     */
+    public static byte[] agree(PrivateKey privateKey, byte[] remotePublicKey) throws GeneralSecurityException {
+        PublicKey remote = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(remotePublicKey));
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(privateKey);
+        agreement.doPhase(remote, true);
+        return hmac(MASTER_SALT, agreement.generateSecret());
+    }
+
+    /**
+     * Derives the keys of a session.
+     * @param master The master secret.
+     * @param clientNonce The nonce of the client's handshake.
+     * @param serverNonce The nonce of the server's handshake.
+     * @param client True if the cipher is for the client, false for the server.
+     * @return The session's cipher.
+     * @throws GeneralSecurityException If AES-GCM or HMAC-SHA256 aren't available.
+     */
+    public static SessionCipher deriveCipher(byte[] master, byte[] clientNonce, byte[] serverNonce, boolean client) throws GeneralSecurityException {
+        byte[] salt = new byte[clientNonce.length + serverNonce.length];
+        System.arraycopy(clientNonce, 0, salt, 0, clientNonce.length);
+        System.arraycopy(serverNonce, 0, salt, clientNonce.length, serverNonce.length);
+
+        // HKDF: extract with the nonces as salt, then expand to both keys and prefixes (under one SHA-256 block each)
+        byte[] prk = hmac(salt, master);
+        byte[] info = Arrays.copyOf(KEYS_INFO, KEYS_INFO.length + 1);
+        info[KEYS_INFO.length] = 1;
+        byte[] first = hmac(prk, info);
+        byte[] second = new byte[first.length + info.length];
+        System.arraycopy(first, 0, second, 0, first.length);
+        System.arraycopy(info, 0, second, first.length, info.length);
+        second[second.length - 1] = 2;
+        second = hmac(prk, second);
+
+        byte[] clientKey = Arrays.copyOfRange(first, 0, KEY_SIZE);
+        byte[] serverKey = Arrays.copyOfRange(first, KEY_SIZE, 2 * KEY_SIZE);
+        byte[] clientPrefix = Arrays.copyOfRange(second, 0, PREFIX_SIZE);
+        byte[] serverPrefix = Arrays.copyOfRange(second, PREFIX_SIZE, 2 * PREFIX_SIZE);
+        return client
+                ? new SessionCipher(clientKey, clientPrefix, serverKey, serverPrefix)
+                : new SessionCipher(serverKey, serverPrefix, clientKey, clientPrefix);
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.jython234.juicenet.network.crypto;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts and authenticates the datagrams of one session with AES-GCM.
+ *
+ * An encrypted datagram is the ID_ENCRYPTED_PACKET ID, a 64-bit counter, the
+ * encrypted datagram and the 16 byte tag. The nonce is a 4 byte prefix
+ * derived with the key and the counter, so it never repeats for a key,
+ * and each direction has its own key. The ID and the counter are
+ * authenticated as well, and datagrams whose counter was already
+ * received, or is too far behind the newest one, are rejected as replays.
+ *
+ * There is one {@link Cipher} per direction, which is initialized again with the
+ * next nonce for each datagram. Datagrams are encrypted in place, and must only
+ * be encrypted and decrypted by one thread at a time each.
+ *
+ * @author jython234
+ */
+public class SessionCipher {
+    /** Size of the ID and counter in front of the encrypted datagram. */
+    public static final int HEADER_SIZE = 2 + 8;
+    /** Size of the authentication tag behind the encrypted datagram. */
+    public static final int TAG_SIZE = 16;
+    /** Amount of bytes encryption adds to a datagram. */
+    public static final int OVERHEAD = HEADER_SIZE + TAG_SIZE;
+
+    private static final int REPLAY_WINDOW = 64;
+
+    private final Cipher encryptCipher;
+    private final SecretKeySpec encryptKey;
+    private final byte[] encryptNonce = new byte[12];
+    private long sendCounter = 0;
+
+    private final Cipher decryptCipher;
+    private final SecretKeySpec decryptKey;
+    private final byte[] decryptNonce = new byte[12];
+    private long highestReceived = -1;
+    private long receivedMask = 0; // Bit n is set if highestReceived - n was received
+
+    /**
+     * Creates a new SessionCipher.
+     * @param encryptKey The AES key of datagrams sent by this side.
+     * @param encryptPrefix The 4 byte nonce prefix of datagrams sent by this side.
+     * @param decryptKey The AES key of datagrams sent by the remote side.
+     * @param decryptPrefix The 4 byte nonce prefix of datagrams sent by the remote side.
+     * @throws GeneralSecurityException If AES-GCM isn't available.
+     */
+    public SessionCipher(byte[] encryptKey, byte[] encryptPrefix, byte[] decryptKey, byte[] decryptPrefix) throws GeneralSecurityException {
+        this.encryptCipher = Cipher.getInstance("AES/GCM/NoPadding");
+        this.encryptKey = new SecretKeySpec(encryptKey, "AES");
+        System.arraycopy(encryptPrefix, 0, this.encryptNonce, 0, 4);
+        this.decryptCipher = Cipher.getInstance("AES/GCM/NoPadding");
+        this.decryptKey = new SecretKeySpec(decryptKey, "AES");
+        System.arraycopy(decryptPrefix, 0, this.decryptNonce, 0, 4);
+    }
+
+    /**
+     * Encrypts a datagram in place.
+     * @param buffer The array containing the datagram, at <code>offset + HEADER_SIZE</code>,
+     *               with room for the tag behind it.
+     * @param offset The index the encrypted datagram starts at, where the header is written.
+     * @param length The size of the datagram.
+     * @return The size of the encrypted datagram, <code>length + OVERHEAD</code>.
+     */
+    public int encrypt(byte[] buffer, int offset, int length) {
+        long counter = this.sendCounter++;
+        ByteBuffer.wrap(buffer, offset, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putShort(JuiceNetConstants.ID_ENCRYPTED_PACKET).putLong(counter);
+        putCounter(this.encryptNonce, counter);
+
+        try {
+            this.encryptCipher.init(Cipher.ENCRYPT_MODE, this.encryptKey, new GCMParameterSpec(TAG_SIZE * 8, this.encryptNonce));
+            this.encryptCipher.updateAAD(buffer, offset, HEADER_SIZE);
+            return HEADER_SIZE + this.encryptCipher.doFinal(buffer, offset + HEADER_SIZE, length, buffer, offset + HEADER_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt a datagram", e);
+        }
+    }
+
+    /**
+     * Authenticates and decrypts a datagram.
+     * @param datagram The encrypted datagram, from its position to its limit. Its position isn't changed.
+     * @param out The array to decrypt into, at index 0. It must be as large as the encrypted datagram.
+     * @return The size of the decrypted datagram, or -1 if it isn't authentic or was a replay.
+     */
+    public int decrypt(ByteBuffer datagram, byte[] out) {
+        int length = datagram.remaining();
+        if(length < OVERHEAD || length > out.length)
+            return -1;
+
+        datagram.duplicate().get(out, 0, length);
+        long counter = ByteBuffer.wrap(out, 2, 8).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        if(isReplay(counter))
+            return -1;
+        putCounter(this.decryptNonce, counter);
+
+        int decrypted;
+        try {
+            this.decryptCipher.init(Cipher.DECRYPT_MODE, this.decryptKey, new GCMParameterSpec(TAG_SIZE * 8, this.decryptNonce));
+            this.decryptCipher.updateAAD(out, 0, HEADER_SIZE);
+            decrypted = this.decryptCipher.doFinal(out, HEADER_SIZE, length - HEADER_SIZE, out, 0);
+        } catch (AEADBadTagException e) {
+            return -1;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to decrypt a datagram", e);
+        }
+
+        markReceived(counter);
+        return decrypted;
+    }
+
+    /**
+     * @return The amount of datagrams encrypted so far.
+     */
+    public long getDatagramsEncrypted() {
+        return this.sendCounter;
+    }
+
+    private boolean isReplay(long counter) {
+        if(counter < 0)
+            return true;
+        if(counter > this.highestReceived)
+            return false;
+        long behind = this.highestReceived - counter;
+        return behind >= REPLAY_WINDOW || (this.receivedMask & (1L << behind)) != 0;
+    }
+
+    private void markReceived(long counter) {
+        if(counter > this.highestReceived) {
+            long shift = counter - this.highestReceived;
+            this.receivedMask = shift >= REPLAY_WINDOW ? 1 : (this.receivedMask << shift) | 1;
+            this.highestReceived = counter;
+        } else {
+            this.receivedMask |= 1L << (this.highestReceived - counter);
+        }
+    }
+
+    private static void putCounter(byte[] nonce, long counter) {
+        for(int i = 0; i < 8; i++) {
+            nonce[4 + i] = (byte) (counter >>> (i * 8));
+        }
+    }
+}
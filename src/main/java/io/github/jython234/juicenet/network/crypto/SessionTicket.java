@@ -0,0 +1,23 @@
+package io.github.jython234.juicenet.network.crypto;
+
+/**
+ * Lets a client resume an encrypted session without another key exchange.
+ *
+ * The server sends a new ticket in every encrypted handshake. The ticket is
+ * the master secret sealed with a key only the server knows, so the server
+ * doesn't keep any state for it. A client which connects again with the
+ * ticket and the master secret gets fresh session keys derived from it.
+ *
+ * @author jython234
+ */
+public class SessionTicket {
+    /** The sealed ticket, sent back to the server as it is. */
+    public final byte[] ticket;
+    /** The master secret the ticket seals. */
+    public final byte[] master;
+
+    public SessionTicket(byte[] ticket, byte[] master) {
+        this.ticket = ticket;
+        this.master = master;
+    }
+}
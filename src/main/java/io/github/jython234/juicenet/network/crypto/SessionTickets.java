@@ -0,0 +1,100 @@
+package io.github.jython234.juicenet.network.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Seals and opens the {@link SessionTicket}s of a server.
+ *
+ * A ticket is a random nonce and the expiry time and master secret,
+ * encrypted and authenticated with AES-GCM under the server's ticket key.
+ * Servers which share a ticket key accept each other's tickets.
+ *
+ * @author jython234
+ */
+public class SessionTickets {
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    /** Size of a sealed ticket. */
+    public static final int TICKET_SIZE = NONCE_SIZE + 8 + KeyExchange.SECRET_SIZE + TAG_SIZE;
+
+    private final SecretKeySpec key;
+    private final long lifetime;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Creates a new SessionTickets with a random ticket key.
+     * @param lifetime Time (in milliseconds) tickets are accepted for.
+     */
+    public SessionTickets(long lifetime) {
+        this(generateKey(), lifetime);
+    }
+
+    /**
+     * Creates a new SessionTickets.
+     * @param key The 16 byte AES ticket key.
+     * @param lifetime Time (in milliseconds) tickets are accepted for.
+     */
+    public SessionTickets(byte[] key, long lifetime) {
+        this.key = new SecretKeySpec(key, "AES");
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Seals a master secret into a ticket.
+     * @param master The master secret.
+     * @return The ticket.
+     * @throws GeneralSecurityException If AES-GCM isn't available.
+     */
+    public byte[] seal(byte[] master) throws GeneralSecurityException {
+        byte[] ticket = new byte[TICKET_SIZE];
+        byte[] nonce = new byte[NONCE_SIZE];
+        this.random.nextBytes(nonce);
+        System.arraycopy(nonce, 0, ticket, 0, NONCE_SIZE);
+        ByteBuffer.wrap(ticket, NONCE_SIZE, 8).order(ByteOrder.LITTLE_ENDIAN).putLong(System.currentTimeMillis() + this.lifetime);
+        System.arraycopy(master, 0, ticket, NONCE_SIZE + 8, KeyExchange.SECRET_SIZE);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        cipher.doFinal(ticket, NONCE_SIZE, 8 + KeyExchange.SECRET_SIZE, ticket, NONCE_SIZE);
+        return ticket;
+    }
+
+    /**
+     * Opens a ticket.
+     * @param ticket The ticket.
+     * @return The master secret, or null if the ticket isn't authentic or has expired.
+     * @throws GeneralSecurityException If AES-GCM isn't available.
+     */
+    public byte[] open(byte[] ticket) throws GeneralSecurityException {
+        if(ticket.length != TICKET_SIZE)
+            return null;
+
+        byte[] plain;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(TAG_SIZE * 8, ticket, 0, NONCE_SIZE));
+            plain = cipher.doFinal(ticket, NONCE_SIZE, ticket.length - NONCE_SIZE);
+        } catch (AEADBadTagException e) {
+            return null;
+        }
+
+        long expires = ByteBuffer.wrap(plain).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        if(System.currentTimeMillis() - expires > 0)
+            return null;
+        return Arrays.copyOfRange(plain, 8, 8 + KeyExchange.SECRET_SIZE);
+    }
+
+    private static byte[] generateKey() {
+        byte[] key = new byte[16];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
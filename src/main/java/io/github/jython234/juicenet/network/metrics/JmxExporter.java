@@ -0,0 +1,175 @@
+package io.github.jython234.juicenet.network.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes the latest exported snapshot as an MXBean on the platform MBean server,
+ * named <code>io.github.jython234.juicenet:type=Metrics,name=&lt;name&gt;</code>.
+ *
+ * @author jython234
+ */
+public class JmxExporter implements MetricsExporter, JuiceNetMetricsMXBean {
+    public final ObjectName objectName;
+
+    private volatile MetricsSnapshot snapshot = new MetricsSnapshot();
+
+    /**
+     * Creates a new JmxExporter. It must be registered with {@link #register()}.
+     * @param name The name of the MXBean, for example the server's port.
+     * @throws JMException If the name isn't valid.
+     */
+    public JmxExporter(String name) throws JMException {
+        this.objectName = new ObjectName("io.github.jython234.juicenet:type=Metrics,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Registers the MXBean on the platform MBean server.
+     * @throws JMException If there was an error while registering, or the name is already taken.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.objectName);
+    }
+
+    /**
+     * Removes the MXBean from the platform MBean server, if it is registered.
+     * @throws JMException If there was an error while unregistering.
+     */
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if(server.isRegistered(this.objectName)) {
+            server.unregisterMBean(this.objectName);
+        }
+    }
+
+    @Override
+    public void export(MetricsSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return this.snapshot.timestamp;
+    }
+
+    @Override
+    public int getSessions() {
+        return this.snapshot.sessions;
+    }
+
+    @Override
+    public long getSessionsOpened() {
+        return this.snapshot.sessionsOpened;
+    }
+
+    @Override
+    public long getSessionsClosed() {
+        return this.snapshot.sessionsClosed;
+    }
+
+    @Override
+    public long getSessionsTimedOut() {
+        return this.snapshot.sessionsTimedOut;
+    }
+
+    @Override
+    public long getDatagramsReceived() {
+        return this.snapshot.datagramsReceived;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return this.snapshot.bytesReceived;
+    }
+
+    @Override
+    public long getDatagramsSent() {
+        return this.snapshot.datagramsSent;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.snapshot.bytesSent;
+    }
+
+    @Override
+    public long getDatagramsDropped() {
+        return this.snapshot.datagramsDropped;
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return this.snapshot.messagesSent;
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return this.snapshot.messagesReceived;
+    }
+
+    @Override
+    public long getRetransmits() {
+        return this.snapshot.retransmits;
+    }
+
+    @Override
+    public long getDuplicatesReceived() {
+        return this.snapshot.duplicatesReceived;
+    }
+
+    @Override
+    public long getFecRecovered() {
+        return this.snapshot.fecRecovered;
+    }
+
+    @Override
+    public long getFecUnrecoverable() {
+        return this.snapshot.fecUnrecoverable;
+    }
+
+    @Override
+    public long getBytesInFlight() {
+        return this.snapshot.bytesInFlight;
+    }
+
+    @Override
+    public int getHandlerQueueDepth() {
+        return this.snapshot.handlerQueueDepth;
+    }
+
+    @Override
+    public long getRttP50Micros() {
+        return percentile(this.snapshot.rtt, 50);
+    }
+
+    @Override
+    public long getRttP99Micros() {
+        return percentile(this.snapshot.rtt, 99);
+    }
+
+    @Override
+    public long getRttMaxMicros() {
+        return percentile(this.snapshot.rtt, 100);
+    }
+
+    @Override
+    public long getHandlerTimeP50Micros() {
+        return percentile(this.snapshot.handlerTime, 50);
+    }
+
+    @Override
+    public long getHandlerTimeP99Micros() {
+        return percentile(this.snapshot.handlerTime, 99);
+    }
+
+    @Override
+    public long getHandlerTimeMaxMicros() {
+        return percentile(this.snapshot.handlerTime, 100);
+    }
+
+    private static long percentile(LatencyHistogram histogram, double percentile) {
+        return histogram != null ? histogram.getValueAtPercentile(percentile) / 1000 : 0;
+    }
+}
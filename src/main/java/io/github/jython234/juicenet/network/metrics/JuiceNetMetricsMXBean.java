@@ -0,0 +1,34 @@
+package io.github.jython234.juicenet.network.metrics;
+
+/**
+ * The attributes published by {@link JmxExporter}, see {@link MetricsSnapshot}.
+ * Latencies are in microseconds.
+ *
+ * @author jython234
+ */
+public interface JuiceNetMetricsMXBean {
+    long getTimestamp();
+    int getSessions();
+    long getSessionsOpened();
+    long getSessionsClosed();
+    long getSessionsTimedOut();
+    long getDatagramsReceived();
+    long getBytesReceived();
+    long getDatagramsSent();
+    long getBytesSent();
+    long getDatagramsDropped();
+    long getMessagesSent();
+    long getMessagesReceived();
+    long getRetransmits();
+    long getDuplicatesReceived();
+    long getFecRecovered();
+    long getFecUnrecoverable();
+    long getBytesInFlight();
+    int getHandlerQueueDepth();
+    long getRttP50Micros();
+    long getRttP99Micros();
+    long getRttMaxMicros();
+    long getHandlerTimeP50Micros();
+    long getHandlerTimeP99Micros();
+    long getHandlerTimeMaxMicros();
+}
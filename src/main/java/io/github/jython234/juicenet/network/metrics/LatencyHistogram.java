@@ -0,0 +1,131 @@
+package io.github.jython234.juicenet.network.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, with buckets laid out
+ * like an HDR histogram.
+ *
+ * Values below 64 have a bucket each. Above that, every power of two is
+ * split into 32 linear buckets, so a value is reported within about 3% of
+ * what was recorded. Values above {@link #MAX_VALUE} (about 18 minutes)
+ * are counted in the last bucket. Recording is one atomic increment on the
+ * bucket and a few arithmetic instructions, and can be done from any thread.
+ *
+ * @author jython234
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 40;
+    /** Largest value which is recorded accurately. */
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int index(long value) {
+        if(value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index) {
+        if(index < 2 * SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a latency.
+     * @param nanos The latency in nanoseconds. Negative values are ignored.
+     */
+    public void record(long nanos) {
+        if(nanos < 0)
+            return;
+
+        this.counts.incrementAndGet(index(Math.min(nanos, MAX_VALUE)));
+        this.total.add(nanos);
+        long max = this.max.get();
+        while(nanos > max && !this.max.compareAndSet(max, nanos)) { // Rarely loops once the maximum is known
+            max = this.max.get();
+        }
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     * @param other The other histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for(int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if(count != 0) {
+                this.counts.addAndGet(i, count);
+            }
+        }
+        this.total.add(other.total.sum());
+        long max = other.max.get();
+        long current = this.max.get();
+        while(max > current && !this.max.compareAndSet(current, max)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * @return A copy of this histogram, which isn't changed by later records.
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /** @return The amount of recorded values. */
+    public long getCount() {
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    /** @return The mean of the recorded values in nanoseconds, or zero if none were recorded. */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) this.total.sum() / count;
+    }
+
+    /** @return The largest recorded value in nanoseconds. */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The highest value of the bucket containing the percentile in nanoseconds,
+     *         capped at {@link #getMax()}, or zero if no values were recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if(count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if(seen >= rank)
+                return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.jython234.juicenet.network.metrics;
+
+/**
+ * Receives snapshots from a {@link MetricsRegistry} periodically,
+ * see {@link MetricsRegistry#addExporter(MetricsExporter, long)}.
+ *
+ * A lambda works as a simple callback, {@link JmxExporter}
+ * publishes the latest snapshot as an MXBean.
+ *
+ * @author jython234
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+    /**
+     * Exports a snapshot. Called on the registry's export thread.
+     * @param snapshot The snapshot.
+     */
+    void export(MetricsSnapshot snapshot);
+}
@@ -0,0 +1,194 @@
+package io.github.jython234.juicenet.network.metrics;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the metrics of every peer of a server.
+ *
+ * Datagram and session counters are recorded here directly, and latencies
+ * are recorded here as well as by each peer's {@link PeerMetrics}. Message
+ * counters and gauges are only kept by the peers, and are summed up from
+ * the registry's {@link Source} when a snapshot is taken, so the hot
+ * path doesn't record them twice. The counters of closed peers are kept
+ * with {@link #retire(Source)}.
+ *
+ * Snapshots can be taken at any time, or pushed to {@link MetricsExporter}s
+ * periodically from a daemon thread.
+ *
+ * @author jython234
+ */
+public class MetricsRegistry {
+    private final Logger logger;
+    private final Source source;
+
+    private final LongAdder datagramsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder datagramsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder datagramsDropped = new LongAdder();
+    private final LongAdder sessionsOpened = new LongAdder();
+    private final LongAdder sessionsClosed = new LongAdder();
+    private final LongAdder sessionsTimedOut = new LongAdder();
+
+    /** Round trip times of every peer. */
+    @Getter private final LatencyHistogram rtt = new LatencyHistogram();
+    /** Time the message handlers of every peer took. */
+    @Getter private final LatencyHistogram handlerTime = new LatencyHistogram();
+
+    private final MetricsSnapshot retired = new MetricsSnapshot(); // Guarded by itself
+
+    private final Map<MetricsExporter, ScheduledFuture<?>> exporters = new IdentityHashMap<>();
+    private ScheduledExecutorService exportThread;
+
+    /**
+     * Creates a new MetricsRegistry.
+     * @param source Adds the message counters and gauges of every open peer to a snapshot.
+     * @param logger Logger used to report errors thrown by exporters.
+     */
+    public MetricsRegistry(Source source, Logger logger) {
+        this.source = source;
+        this.logger = logger;
+    }
+
+    /**
+     * Records a datagram received by the socket.
+     * @param bytes The size of the datagram.
+     */
+    public void onDatagramReceived(int bytes) {
+        this.datagramsReceived.increment();
+        this.bytesReceived.add(bytes);
+    }
+
+    /**
+     * Records a datagram sent by the socket.
+     * @param bytes The size of the datagram.
+     */
+    public void onDatagramSent(int bytes) {
+        this.datagramsSent.increment();
+        this.bytesSent.add(bytes);
+    }
+
+    /**
+     * Records a received datagram which was dropped without being handled.
+     */
+    public void onDatagramDropped() {
+        this.datagramsDropped.increment();
+    }
+
+    /**
+     * Records an opened session.
+     */
+    public void onSessionOpened() {
+        this.sessionsOpened.increment();
+    }
+
+    /**
+     * Records a closed session.
+     * @param timedOut True if the session was closed because its peer stopped sending.
+     */
+    public void onSessionClosed(boolean timedOut) {
+        this.sessionsClosed.increment();
+        if(timedOut) {
+            this.sessionsTimedOut.increment();
+        }
+    }
+
+    /**
+     * Keeps the message counters of a peer which is closed, and is no longer added by the {@link Source}.
+     * @param peer The closed peer.
+     */
+    public void retire(Source peer) {
+        MetricsSnapshot counters = new MetricsSnapshot();
+        peer.addMetrics(counters);
+        synchronized(this.retired) {
+            this.retired.addCounters(counters);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the metrics of every peer.
+     * @return The snapshot, with copies of the histograms.
+     */
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.timestamp = System.currentTimeMillis();
+        this.source.addMetrics(snapshot);
+        synchronized(this.retired) {
+            snapshot.addCounters(this.retired);
+        }
+
+        snapshot.sessionsOpened = this.sessionsOpened.sum();
+        snapshot.sessionsClosed = this.sessionsClosed.sum();
+        snapshot.sessionsTimedOut = this.sessionsTimedOut.sum();
+        snapshot.datagramsReceived = this.datagramsReceived.sum();
+        snapshot.bytesReceived = this.bytesReceived.sum();
+        snapshot.datagramsSent = this.datagramsSent.sum();
+        snapshot.bytesSent = this.bytesSent.sum();
+        snapshot.datagramsDropped = this.datagramsDropped.sum();
+        snapshot.rtt = this.rtt.copy();
+        snapshot.handlerTime = this.handlerTime.copy();
+        return snapshot;
+    }
+
+    /**
+     * Exports a snapshot to the exporter periodically, until it is removed.
+     * @param exporter The exporter.
+     * @param periodMillis Time (in milliseconds) between exports.
+     */
+    public synchronized void addExporter(MetricsExporter exporter, long periodMillis) {
+        if(this.exporters.containsKey(exporter))
+            throw new IllegalArgumentException("The exporter was already added!");
+
+        if(this.exportThread == null) {
+            this.exportThread = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "JuiceNet-Metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.exporters.put(exporter, this.exportThread.scheduleAtFixedRate(() -> {
+            try {
+                exporter.export(snapshot());
+            } catch (RuntimeException e) {
+                this.logger.error("Error while exporting metrics", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Stops exporting to the exporter. The export thread is stopped once there are no exporters left.
+     * @param exporter The exporter.
+     */
+    public synchronized void removeExporter(MetricsExporter exporter) {
+        ScheduledFuture<?> future = this.exporters.remove(exporter);
+        if(future == null)
+            return;
+
+        future.cancel(false);
+        if(this.exporters.isEmpty()) {
+            this.exportThread.shutdown();
+            this.exportThread = null;
+        }
+    }
+
+    /**
+     * Adds the metrics of peers to snapshots.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * Adds the message counters and gauges of the peers to a snapshot.
+         * @param snapshot The snapshot.
+         */
+        void addMetrics(MetricsSnapshot snapshot);
+    }
+}
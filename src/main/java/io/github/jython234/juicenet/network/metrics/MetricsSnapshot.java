@@ -0,0 +1,102 @@
+package io.github.jython234.juicenet.network.metrics;
+
+/**
+ * The metrics of one peer, or of every peer of a server, at one point in time.
+ *
+ * Counters count from when the peer or server was created. Gauges
+ * are the current value, summed over every session in the aggregate.
+ *
+ * @author jython234
+ */
+public class MetricsSnapshot {
+    /** Time the snapshot was taken, from {@link System#currentTimeMillis()}. */
+    public long timestamp;
+
+    // Sessions
+
+    /** Gauge: amount of open sessions. */
+    public int sessions;
+    /** Amount of sessions which were opened. Always zero for a single peer. */
+    public long sessionsOpened;
+    /** Amount of sessions which were closed, including timed out ones. Always zero for a single peer. */
+    public long sessionsClosed;
+    /** Amount of sessions which were closed because their peer stopped sending. Always zero for a single peer. */
+    public long sessionsTimedOut;
+
+    // Datagrams
+
+    public long datagramsReceived;
+    public long bytesReceived;
+    public long datagramsSent;
+    public long bytesSent;
+    /**
+     * Amount of received datagrams which were dropped without being handled, because their
+     * peer's handlers were behind or because they didn't belong to a session.
+     */
+    public long datagramsDropped;
+
+    // Messages
+
+    /** Amount of container packets sent, including fragments but not retransmissions. */
+    public long messagesSent;
+    /** Amount of container packets received, including fragments and duplicates. */
+    public long messagesReceived;
+    public long retransmits;
+    public long duplicatesReceived;
+    /** Amount of lost container packets rebuilt from forward error correction parity packets. */
+    public long fecRecovered;
+    /** Amount of lost container packets which couldn't be rebuilt, as too many of their group were lost. */
+    public long fecUnrecoverable;
+    /** Gauge: bytes of reliable packets sent but not yet acknowledged. */
+    public long bytesInFlight;
+    /** Gauge: messages waiting for the {@link io.github.jython234.juicenet.network.NetworkSettings#handlerExecutor}. */
+    public int handlerQueueDepth;
+
+    // Latencies
+
+    /**
+     * Round trip times measured by the reliability layers. Null for a single peer
+     * unless {@link io.github.jython234.juicenet.network.NetworkSettings#peerHistograms} is set.
+     */
+    public LatencyHistogram rtt;
+    /**
+     * Time the message handlers took. Null for a single peer unless
+     * {@link io.github.jython234.juicenet.network.NetworkSettings#peerHistograms} is set.
+     */
+    public LatencyHistogram handlerTime;
+
+    /**
+     * Adds the counters of another snapshot to this one. Gauges and histograms are left as they are.
+     * @param other The other snapshot.
+     */
+    public void addCounters(MetricsSnapshot other) {
+        this.sessionsOpened += other.sessionsOpened;
+        this.sessionsClosed += other.sessionsClosed;
+        this.sessionsTimedOut += other.sessionsTimedOut;
+        this.datagramsReceived += other.datagramsReceived;
+        this.bytesReceived += other.bytesReceived;
+        this.datagramsSent += other.datagramsSent;
+        this.bytesSent += other.bytesSent;
+        this.datagramsDropped += other.datagramsDropped;
+        this.messagesSent += other.messagesSent;
+        this.messagesReceived += other.messagesReceived;
+        this.retransmits += other.retransmits;
+        this.duplicatesReceived += other.duplicatesReceived;
+        this.fecRecovered += other.fecRecovered;
+        this.fecUnrecoverable += other.fecUnrecoverable;
+    }
+
+    @Override
+    public String toString() {
+        return "sessions=" + this.sessions + " opened=" + this.sessionsOpened + " closed=" + this.sessionsClosed + " timedOut=" + this.sessionsTimedOut
+                + " datagramsReceived=" + this.datagramsReceived + " bytesReceived=" + this.bytesReceived
+                + " datagramsSent=" + this.datagramsSent + " bytesSent=" + this.bytesSent + " datagramsDropped=" + this.datagramsDropped
+                + " messagesSent=" + this.messagesSent + " messagesReceived=" + this.messagesReceived
+                + " retransmits=" + this.retransmits + " duplicates=" + this.duplicatesReceived
+                + " fecRecovered=" + this.fecRecovered + " fecUnrecoverable=" + this.fecUnrecoverable
+                + " bytesInFlight=" + this.bytesInFlight + " handlerQueueDepth=" + this.handlerQueueDepth
+                + (this.rtt != null ? " rttP50=" + this.rtt.getValueAtPercentile(50) / 1000 + "us rttP99=" + this.rtt.getValueAtPercentile(99) / 1000 + "us" : "")
+                + (this.handlerTime != null ? " handlerP50=" + this.handlerTime.getValueAtPercentile(50) / 1000 + "us handlerP99="
+                        + this.handlerTime.getValueAtPercentile(99) / 1000 + "us" : "");
+    }
+}
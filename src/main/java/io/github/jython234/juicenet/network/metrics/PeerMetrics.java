@@ -0,0 +1,108 @@
+package io.github.jython234.juicenet.network.metrics;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one peer, a server session or a client.
+ *
+ * Drops and latencies are also recorded by the peer's {@link MetricsRegistry},
+ * if it has one. The registry counts every datagram at the socket itself,
+ * including those which don't belong to a peer. Counters are {@link LongAdder}s,
+ * as datagrams are received on the network thread while sends can
+ * come from any thread, and stay uncontended in the common case.
+ *
+ * @author jython234
+ */
+public class PeerMetrics {
+    private final MetricsRegistry registry;
+
+    private final LongAdder datagramsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder datagramsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder datagramsDropped = new LongAdder();
+
+    private final LatencyHistogram rtt;
+    private final LatencyHistogram handlerTime;
+
+    /**
+     * Creates a new PeerMetrics.
+     * @param settings The settings which tell if the peer has its own histograms.
+     * @param registry The registry which aggregates the metrics of every peer, or null.
+     */
+    public PeerMetrics(NetworkSettings settings, MetricsRegistry registry) {
+        this.registry = registry;
+        this.rtt = settings.peerHistograms ? new LatencyHistogram() : null;
+        this.handlerTime = settings.peerHistograms ? new LatencyHistogram() : null;
+    }
+
+    /**
+     * Records a datagram received from the peer.
+     * @param bytes The size of the datagram.
+     */
+    public void onDatagramReceived(int bytes) {
+        this.datagramsReceived.increment();
+        this.bytesReceived.add(bytes);
+    }
+
+    /**
+     * Records a datagram sent to the peer.
+     * @param bytes The size of the datagram.
+     */
+    public void onDatagramSent(int bytes) {
+        this.datagramsSent.increment();
+        this.bytesSent.add(bytes);
+    }
+
+    /**
+     * Records a datagram from the peer which was dropped without being handled.
+     */
+    public void onDatagramDropped() {
+        this.datagramsDropped.increment();
+        if(this.registry != null) {
+            this.registry.onDatagramDropped();
+        }
+    }
+
+    /**
+     * Records a round trip time sample.
+     * @param nanos The round trip time in nanoseconds.
+     */
+    public void recordRtt(long nanos) {
+        if(this.rtt != null) {
+            this.rtt.record(nanos);
+        }
+        if(this.registry != null) {
+            this.registry.getRtt().record(nanos);
+        }
+    }
+
+    /**
+     * Records the time a message handler took.
+     * @param nanos The time in nanoseconds.
+     */
+    public void recordHandlerTime(long nanos) {
+        if(this.handlerTime != null) {
+            this.handlerTime.record(nanos);
+        }
+        if(this.registry != null) {
+            this.registry.getHandlerTime().record(nanos);
+        }
+    }
+
+    /**
+     * Adds the datagram counters to a snapshot, and sets its histograms to copies of the peer's own.
+     * @param snapshot The snapshot.
+     */
+    public void addTo(MetricsSnapshot snapshot) {
+        snapshot.datagramsReceived += this.datagramsReceived.sum();
+        snapshot.bytesReceived += this.bytesReceived.sum();
+        snapshot.datagramsSent += this.datagramsSent.sum();
+        snapshot.bytesSent += this.bytesSent.sum();
+        snapshot.datagramsDropped += this.datagramsDropped.sum();
+        snapshot.rtt = this.rtt != null ? this.rtt.copy() : null;
+        snapshot.handlerTime = this.handlerTime != null ? this.handlerTime.copy() : null;
+    }
+}
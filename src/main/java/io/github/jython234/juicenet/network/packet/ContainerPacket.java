@@ -3,6 +3,7 @@ package io.github.jython234.juicenet.network.packet;
 import io.github.jython234.juicenet.JuiceNetConstants;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The base packet in which all other JuiceNet
@@ -14,6 +15,10 @@ import java.nio.ByteBuffer;
 public class ContainerPacket extends JuiceNetPacket {
     /** This packet's packet ID */
     public static final short ID = JuiceNetConstants.ID_CONTAINER_PACKET;
+    /** Bit of the flags byte which is set if the packet is fragmented. */
+    public static final byte FLAG_FRAGMENTED = 1;
+    /** Bit of the flags byte which is set if the payload is compressed. */
+    public static final byte FLAG_COMPRESSED = 2;
 
     // Fields
 
@@ -64,6 +69,7 @@ public class ContainerPacket extends JuiceNetPacket {
      * can be dedicated to a specific type of packets and/or have
      * specific priority. The default channel is zero (0). JuiceNet
      * supports up to 255 different channels (not including default channel).
+     * The priority of each channel is set in {@link io.github.jython234.juicenet.network.NetworkSettings#channels}.
      */
     public byte channelId;
 
@@ -94,6 +100,32 @@ public class ContainerPacket extends JuiceNetPacket {
      * this fragment belongs.
      */
     public short fragmentationIndex;
+    /**
+     * The amount of fragments the master payload
+     * has been split into.
+     */
+    public short fragmentationCount;
+    /**
+     * The size (in bytes) of the master payload.
+     *
+     * Every fragment except the last one holds
+     * <code>ceil(fragmentationSize / fragmentationCount)</code>
+     * bytes, so the implementation can place fragments
+     * in the master payload in any order.
+     */
+    public int fragmentationSize;
+
+    // Compression Fields
+    /**
+     * True if the payload has been compressed with the
+     * channel's {@link io.github.jython234.juicenet.network.ChannelSettings#compression} codec.
+     *
+     * A compressed payload starts with the size of the original
+     * payload (int), followed by the compressed data. Fragmented
+     * payloads are compressed before being split, so every
+     * fragment has this flag set.
+     */
+    public boolean compressed;
 
     // Contained Data
     /**
@@ -110,6 +142,14 @@ public class ContainerPacket extends JuiceNetPacket {
      */
     public byte[] payload;
 
+    // Local Fields
+    /**
+     * Completed by the {@link io.github.jython234.juicenet.network.reliability.ReliabilityLayer}
+     * once the whole payload has been acknowledged, or once it has been sent if the
+     * packet is UNRELIABLE. Optional, and never sent over the network.
+     */
+    public CompletableFuture<Void> acknowledged;
+
     @Override
     protected void _encode(ByteBuffer bb) {
         bb.put(this.reliabilityType.toByte());
@@ -124,10 +164,12 @@ public class ContainerPacket extends JuiceNetPacket {
 
         bb.put(this.channelId);
 
-        bb.put(this.fragmented ? (byte) 1 : (byte) 0);
+        bb.put((byte) ((this.fragmented ? FLAG_FRAGMENTED : 0) | (this.compressed ? FLAG_COMPRESSED : 0)));
         if(this.fragmented) {
             bb.putInt(this.fragmentationId);
             bb.putShort(this.fragmentationIndex);
+            bb.putShort(this.fragmentationCount);
+            bb.putInt(this.fragmentationSize);
         }
 
         bb.putShort(this.payloadSize);
@@ -136,45 +178,36 @@ public class ContainerPacket extends JuiceNetPacket {
 
     @Override
     protected void _decode(ByteBuffer bb) {
-        this.reliabilityType = ReliabilityType.parse(bb.get());
-
-        if(this.reliabilityType != ReliabilityType.UNRELIABLE) {
-            this.packetId = bb.getInt();
-            this.packetCounter = bb.getInt();
-        }
-        if(this.reliabilityType == ReliabilityType.RELIABLE_ORDERED) {
-            this.orderId = bb.getInt();
-        }
-
-        this.channelId = bb.get();
-
-        this.fragmented = bb.get() == 1;
-        if(this.fragmented) {
-            this.fragmentationId = bb.getInt();
-            this.fragmentationIndex = bb.getShort();
-        }
-
-        this.payloadSize = bb.getShort();
-        if(bb.remaining() < this.payloadSize)
-            throw new RuntimeException("Invalid payloadSize (" + this.payloadSize + "): not enough bytes left! (" + bb.remaining() + ")");
-        this.payload = new byte[this.payloadSize];
-        bb.get(this.payload);
+        ContainerView view = new ContainerView();
+        view.wrapBody(bb, bb.position() - 2);
+        view.copyTo(this);
     }
 
     @Override
     public int getSize() {
-        int len = 7 + this.payload.length;
-        // 2 + 1 + 1 + 1 + 2 + payload Len (Header ID + reliability type + channel ID + fragmented (boolean) + payload len field + payload len)
-        if(this.reliabilityType != ReliabilityType.UNRELIABLE) {
+        return getHeaderSize(this.reliabilityType, this.fragmented) + this.payload.length;
+    }
+
+    /**
+     * Calculates the size of a container packet's header, which
+     * is everything before the payload (including the packet ID).
+     * @param reliabilityType The ReliabilityType of the packet.
+     * @param fragmented If the packet is fragmented.
+     * @return The size (in bytes) of the header.
+     */
+    public static int getHeaderSize(ReliabilityType reliabilityType, boolean fragmented) {
+        int len = 7;
+        // 2 + 1 + 1 + 1 + 2 (Header ID + reliability type + channel ID + flags + payload len field)
+        if(reliabilityType != ReliabilityType.UNRELIABLE) {
             len += 8; // 4 + 4 (packetId + packetCounter)
         }
 
-        if(this.reliabilityType == ReliabilityType.RELIABLE_ORDERED) {
+        if(reliabilityType == ReliabilityType.RELIABLE_ORDERED) {
             len += 4; // 4 (orderId)
         }
 
-        if(this.fragmented) {
-            len += 6; // 4 + 2 (fragmentation ID + fragmentation index)
+        if(fragmented) {
+            len += 12; // 4 + 2 + 2 + 4 (fragmentation ID + fragmentation index + fragmentation count + fragmentation size)
         }
 
         return len;
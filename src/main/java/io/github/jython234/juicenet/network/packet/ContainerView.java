@@ -0,0 +1,219 @@
+package io.github.jython234.juicenet.network.packet;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A flyweight over an encoded {@link ContainerPacket}.
+ *
+ * The header fields are read straight from the wrapped buffer
+ * and the payload is exposed as a slice of it, so nothing is
+ * copied or allocated when decoding. A view can be reused for
+ * any amount of packets by wrapping another buffer.
+ *
+ * The view is only valid while the wrapped buffer's contents
+ * are unchanged.
+ *
+ * @author jython234
+ */
+public final class ContainerView {
+    private ByteBuffer bb;
+    private int start;
+    private int payloadOffset;
+    private ContainerPacket.ReliabilityType reliabilityType;
+
+    // Cached duplicate of the last wrapped buffer, reused by payload()
+    private ByteBuffer payloadSource;
+    private ByteBuffer payloadSlice;
+
+    /**
+     * Wraps the container packet at the buffer's position. The buffer's
+     * position is advanced past the packet, and its byte order
+     * is set to little-endian.
+     *
+     * @param bb The buffer containing an encoded ContainerPacket, including the packet ID.
+     * @return This view.
+     */
+    public ContainerView wrap(ByteBuffer bb) {
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        if(bb.remaining() < 2 || bb.getShort(bb.position()) != JuiceNetConstants.ID_CONTAINER_PACKET)
+            throw new RuntimeException("Data ID does not match packet ID!");
+
+        wrapBody(bb, bb.position());
+        return this;
+    }
+
+    /**
+     * Parses the header which starts after the packet ID.
+     * @param bb The buffer, positioned after the packet ID.
+     * @param start The index of the packet ID.
+     */
+    void wrapBody(ByteBuffer bb, int start) {
+        this.bb = bb;
+        this.start = start;
+
+        int limit = bb.limit();
+        int index = start + 2;
+        if(index + 1 > limit)
+            throw new RuntimeException("Not enough bytes for the container header!");
+
+        this.reliabilityType = ContainerPacket.ReliabilityType.parse(bb.get(index));
+        boolean fragmented = index + 1 + reliabilityLength(this.reliabilityType) + 2 <= limit
+                && (bb.get(index + 1 + reliabilityLength(this.reliabilityType) + 1) & ContainerPacket.FLAG_FRAGMENTED) != 0;
+
+        int headerSize = ContainerPacket.getHeaderSize(this.reliabilityType, fragmented);
+        if(start + headerSize > limit)
+            throw new RuntimeException("Not enough bytes for the container header!");
+
+        this.payloadOffset = start + headerSize;
+        int payloadSize = getPayloadSize();
+        if(payloadSize < 0 || limit - this.payloadOffset < payloadSize)
+            throw new RuntimeException("Invalid payloadSize (" + payloadSize + "): not enough bytes left! (" + (limit - this.payloadOffset) + ")");
+
+        bb.position(this.payloadOffset + payloadSize);
+    }
+
+    private static int reliabilityLength(ContainerPacket.ReliabilityType type) {
+        switch (type) {
+            case RELIABLE:
+                return 8;
+            case RELIABLE_ORDERED:
+                return 12;
+            default:
+                return 0;
+        }
+    }
+
+    public ContainerPacket.ReliabilityType getReliabilityType() {
+        return this.reliabilityType;
+    }
+
+    /**
+     * @return The packet's container ID, or zero if the packet is UNRELIABLE.
+     */
+    public int getPacketId() {
+        return this.reliabilityType != ContainerPacket.ReliabilityType.UNRELIABLE ? this.bb.getInt(this.start + 3) : 0;
+    }
+
+    /**
+     * @return The packet's counter, or zero if the packet is UNRELIABLE.
+     */
+    public int getPacketCounter() {
+        return this.reliabilityType != ContainerPacket.ReliabilityType.UNRELIABLE ? this.bb.getInt(this.start + 7) : 0;
+    }
+
+    /**
+     * @return The packet's order ID, or zero if the packet is not RELIABLE_ORDERED.
+     */
+    public int getOrderId() {
+        return this.reliabilityType == ContainerPacket.ReliabilityType.RELIABLE_ORDERED ? this.bb.getInt(this.start + 11) : 0;
+    }
+
+    public byte getChannelId() {
+        return this.bb.get(channelIndex());
+    }
+
+    public boolean isFragmented() {
+        return (this.bb.get(channelIndex() + 1) & ContainerPacket.FLAG_FRAGMENTED) != 0;
+    }
+
+    public boolean isCompressed() {
+        return (this.bb.get(channelIndex() + 1) & ContainerPacket.FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * @return The packet's fragmentation ID, or zero if the packet is not fragmented.
+     */
+    public int getFragmentationId() {
+        return isFragmented() ? this.bb.getInt(channelIndex() + 2) : 0;
+    }
+
+    /**
+     * @return The packet's fragmentation index, or zero if the packet is not fragmented.
+     */
+    public short getFragmentationIndex() {
+        return isFragmented() ? this.bb.getShort(channelIndex() + 6) : 0;
+    }
+
+    /**
+     * @return The packet's fragmentation count, or zero if the packet is not fragmented.
+     */
+    public short getFragmentationCount() {
+        return isFragmented() ? this.bb.getShort(channelIndex() + 8) : 0;
+    }
+
+    /**
+     * @return The size of the packet's master payload, or zero if the packet is not fragmented.
+     */
+    public int getFragmentationSize() {
+        return isFragmented() ? this.bb.getInt(channelIndex() + 10) : 0;
+    }
+
+    public short getPayloadSize() {
+        return this.bb.getShort(this.payloadOffset - 2);
+    }
+
+    /**
+     * @return The absolute index of the payload in the wrapped buffer.
+     */
+    public int getPayloadOffset() {
+        return this.payloadOffset;
+    }
+
+    /**
+     * @return The total size (in bytes) of the wrapped packet.
+     */
+    public int getSize() {
+        return this.payloadOffset - this.start + getPayloadSize();
+    }
+
+    /**
+     * Returns the payload as a slice of the wrapped buffer. The
+     * returned buffer is reused whenever the same buffer is wrapped
+     * again, so pooled receive buffers can be decoded without allocating.
+     *
+     * @return A buffer positioned at the payload, limited to the payload's size.
+     */
+    public ByteBuffer payload() {
+        if(this.payloadSource != this.bb) {
+            this.payloadSource = this.bb;
+            this.payloadSlice = this.bb.duplicate();
+            this.payloadSlice.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.payloadSlice.limit(this.payloadOffset + getPayloadSize());
+        this.payloadSlice.position(this.payloadOffset);
+        return this.payloadSlice;
+    }
+
+    /**
+     * Copies this view into a ContainerPacket object.
+     * @param packet The packet to copy into, its payload array is reused if it has the same size.
+     * @return The packet.
+     */
+    public ContainerPacket copyTo(ContainerPacket packet) {
+        packet.reliabilityType = this.reliabilityType;
+        packet.packetId = getPacketId();
+        packet.packetCounter = getPacketCounter();
+        packet.orderId = getOrderId();
+        packet.channelId = getChannelId();
+        packet.fragmented = isFragmented();
+        packet.compressed = isCompressed();
+        packet.fragmentationId = getFragmentationId();
+        packet.fragmentationIndex = getFragmentationIndex();
+        packet.fragmentationCount = getFragmentationCount();
+        packet.fragmentationSize = getFragmentationSize();
+        packet.payloadSize = getPayloadSize();
+
+        if(packet.payload == null || packet.payload.length != packet.payloadSize) {
+            packet.payload = new byte[packet.payloadSize];
+        }
+        payload().get(packet.payload);
+        return packet;
+    }
+
+    private int channelIndex() {
+        return this.start + 3 + reliabilityLength(this.reliabilityType);
+    }
+}
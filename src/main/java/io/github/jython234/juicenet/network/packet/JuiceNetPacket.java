@@ -11,18 +11,41 @@ import java.nio.charset.Charset;
  * @author jython234
  */
 public abstract class JuiceNetPacket {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     public final byte[] encode() {
         ByteBuffer bb = ByteBuffer.allocate(getSize());
+        encodeInto(bb);
+
+        return bb.array();
+    }
+
+    /**
+     * Encodes this packet into the caller supplied buffer,
+     * starting at the buffer's position. The buffer's byte order
+     * is set to little-endian.
+     *
+     * @param bb The buffer to encode into, must have at least {@link #getSize()} bytes remaining.
+     */
+    public final void encodeInto(ByteBuffer bb) {
         bb.order(ByteOrder.LITTLE_ENDIAN);
 
         bb.putShort(getID());
         _encode(bb);
-
-        return bb.array();
     }
 
     public final void decode(byte[] data) {
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        decode(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Decodes this packet in place from the buffer, starting at the
+     * buffer's position. The buffer's position is advanced past the packet
+     * and its byte order is set to little-endian.
+     *
+     * @param bb The buffer to decode from.
+     */
+    public final void decode(ByteBuffer bb) {
         bb.order(ByteOrder.LITTLE_ENDIAN);
 
         if(bb.getShort() != getID())
@@ -38,14 +61,95 @@ public abstract class JuiceNetPacket {
     public abstract short getID();
 
     public static String readString(ByteBuffer bb) {
-        int len = bb.getShort();
+        int len = bb.getShort() & 0xFFFF;
+        if(bb.remaining() < len)
+            throw new RuntimeException("Invalid string length (" + len + "): not enough bytes left! (" + bb.remaining() + ")");
+
         byte[] data = new byte[len];
-        return new String(data, Charset.forName("UTF-8"));
+        bb.get(data);
+        return new String(data, UTF8);
     }
 
+    /**
+     * Reads a length prefixed byte array.
+     * @param bb The buffer to read from.
+     * @return The array.
+     */
+    public static byte[] readBytes(ByteBuffer bb) {
+        int len = bb.getShort() & 0xFFFF;
+        if(bb.remaining() < len)
+            throw new RuntimeException("Invalid array length (" + len + "): not enough bytes left! (" + bb.remaining() + ")");
+
+        byte[] data = new byte[len];
+        bb.get(data);
+        return data;
+    }
+
+    /**
+     * Writes a length prefixed byte array.
+     * @param bb The buffer to write into.
+     * @param data The array, at most 65535 bytes long.
+     */
+    public static void writeBytes(ByteBuffer bb, byte[] data) {
+        bb.putShort((short) data.length);
+        bb.put(data);
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string directly into
+     * the buffer without allocating an intermediate array.
+     * @param bb The buffer to write into.
+     * @param str The string to write.
+     */
     public static void writeString(ByteBuffer bb, String str) {
-        byte[] bytes = str.getBytes(Charset.forName("UTF-8"));
-        bb.putShort((short) bytes.length);
-        bb.put(bytes);
+        bb.putShort((short) utf8Length(str));
+
+        for(int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if(c < 0x80) {
+                bb.put((byte) c);
+            } else if(c < 0x800) {
+                bb.put((byte) (0xC0 | (c >> 6)));
+                bb.put((byte) (0x80 | (c & 0x3F)));
+            } else if(Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                bb.put((byte) (0xF0 | (cp >> 18)));
+                bb.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                bb.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                bb.put((byte) (0x80 | (cp & 0x3F)));
+            } else if(Character.isSurrogate(c)) {
+                bb.put((byte) '?'); // Unpaired surrogate, same replacement as String.getBytes()
+            } else {
+                bb.put((byte) (0xE0 | (c >> 12)));
+                bb.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                bb.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Calculates the length of a string encoded as UTF-8
+     * without encoding it.
+     * @param str The string to measure.
+     * @return The length (in bytes) of the UTF-8 encoded string.
+     */
+    public static int utf8Length(String str) {
+        int len = 0;
+        for(int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if(c < 0x80) {
+                len += 1;
+            } else if(c < 0x800) {
+                len += 2;
+            } else if(Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else if(Character.isSurrogate(c)) {
+                len += 1;
+            } else {
+                len += 3;
+            }
+        }
+        return len;
     }
 }
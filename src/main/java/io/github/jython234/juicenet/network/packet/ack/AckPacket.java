@@ -0,0 +1,22 @@
+package io.github.jython234.juicenet.network.packet.ack;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+
+/**
+ * ID_ACK_PACKET implementation
+ *
+ * This packet is sent to acknowledge that
+ * reliable container packets have been received.
+ * ACKs are batched and sent once per session update.
+ *
+ * @author jython234
+ */
+public class AckPacket extends AcknowledgePacket {
+    /** This packet's ID */
+    public static final short ID = JuiceNetConstants.ID_ACK_PACKET;
+
+    @Override
+    public short getID() {
+        return JuiceNetConstants.ID_ACK_PACKET;
+    }
+}
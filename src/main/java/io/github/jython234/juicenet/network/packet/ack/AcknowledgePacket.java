@@ -0,0 +1,113 @@
+package io.github.jython234.juicenet.network.packet.ack;
+
+import io.github.jython234.juicenet.network.packet.JuiceNetPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class of the ID_ACK_PACKET and ID_NACK_PACKET
+ * implementations.
+ *
+ * Packet IDs are encoded as a list of records, each
+ * record is either a single ID or an inclusive range of
+ * consecutive IDs. This way a long run of acknowledged
+ * packets only costs nine bytes.
+ *
+ * @author jython234
+ */
+public abstract class AcknowledgePacket extends JuiceNetPacket {
+    /** Record type of a single packet ID */
+    public static final byte RECORD_SINGLE = 1;
+    /** Record type of an inclusive range of packet IDs */
+    public static final byte RECORD_RANGE = 0;
+    /**
+     * Maximum amount of IDs a single range record may contain.
+     * Larger ranges are ignored by the receiver.
+     */
+    public static final int MAX_RANGE_LENGTH = 4096;
+
+    /** Start of each record (inclusive) */
+    public int[] starts = new int[0];
+    /** End of each record (inclusive), equal to the start for single records */
+    public int[] ends = new int[0];
+
+    @Override
+    protected void _encode(ByteBuffer bb) {
+        bb.putShort((short) this.starts.length);
+        for(int i = 0; i < this.starts.length; i++) {
+            writeRecord(bb, this.starts[i], this.ends[i]);
+        }
+    }
+
+    @Override
+    protected void _decode(ByteBuffer bb) {
+        int count = bb.getShort() & 0xFFFF;
+        this.starts = new int[count];
+        this.ends = new int[count];
+
+        for(int i = 0; i < count; i++) {
+            if(bb.get() == RECORD_SINGLE) {
+                this.starts[i] = this.ends[i] = bb.getInt();
+            } else {
+                this.starts[i] = bb.getInt();
+                this.ends[i] = bb.getInt();
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        int len = 4; // Header ID + record count
+        for(int i = 0; i < this.starts.length; i++) {
+            len += this.starts[i] == this.ends[i] ? 5 : 9;
+        }
+        return len;
+    }
+
+    /**
+     * Encodes a sorted list of packet IDs into the buffer as a
+     * complete packet, merging consecutive IDs into range records.
+     * Encoding stops once the buffer can't fit another record.
+     *
+     * @param bb The buffer to encode into, must be little-endian.
+     * @param id The packet ID, either ID_ACK_PACKET or ID_NACK_PACKET.
+     * @param ids The sorted packet IDs, duplicates are allowed.
+     * @param offset The index of the first ID to encode.
+     * @param length The amount of IDs available from the <code>offset</code>.
+     * @return The amount of IDs which were encoded.
+     */
+    public static int encodeRanges(ByteBuffer bb, short id, int[] ids, int offset, int length) {
+        bb.putShort(id);
+        int countIndex = bb.position();
+        bb.putShort((short) 0);
+
+        int records = 0;
+        int i = offset;
+        int end = offset + length;
+        while(i < end && bb.remaining() >= 9 && records < 0xFFFF) {
+            int start = ids[i];
+            int last = start;
+            i++;
+            while(i < end && (ids[i] == last || ids[i] == last + 1) && ids[i] - start < MAX_RANGE_LENGTH) {
+                last = ids[i];
+                i++;
+            }
+            writeRecord(bb, start, last);
+            records++;
+        }
+
+        bb.putShort(countIndex, (short) records);
+        return i - offset;
+    }
+
+    private static void writeRecord(ByteBuffer bb, int start, int end) {
+        if(start == end) {
+            bb.put(RECORD_SINGLE);
+            bb.putInt(start);
+        } else {
+            bb.put(RECORD_RANGE);
+            bb.putInt(start);
+            bb.putInt(end);
+        }
+    }
+}
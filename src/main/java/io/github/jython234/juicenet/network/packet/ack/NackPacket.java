@@ -0,0 +1,23 @@
+package io.github.jython234.juicenet.network.packet.ack;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+
+/**
+ * ID_NACK_PACKET implementation
+ *
+ * This packet is sent when gaps are detected
+ * in the packet IDs of received container packets,
+ * so the sender can retransmit the missing
+ * packets without waiting for a timeout.
+ *
+ * @author jython234
+ */
+public class NackPacket extends AcknowledgePacket {
+    /** This packet's ID */
+    public static final short ID = JuiceNetConstants.ID_NACK_PACKET;
+
+    @Override
+    public short getID() {
+        return JuiceNetConstants.ID_NACK_PACKET;
+    }
+}
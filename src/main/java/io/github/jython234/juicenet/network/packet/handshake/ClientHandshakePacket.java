@@ -0,0 +1,115 @@
+package io.github.jython234.juicenet.network.packet.handshake;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+import io.github.jython234.juicenet.network.packet.JuiceNetPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ID_CLIENT_HANDSHAKE_PACKET implementation
+ *
+ * This packet is sent by a client to open a session
+ * with a server. The client resends it until it receives
+ * an ID_SERVER_HANDSHAKE_PACKET, so servers must handle
+ * it more than once for the same client.
+ *
+ * If the client wants an encrypted session, it also sends a
+ * nonce and either its ECDH public key or a session ticket
+ * to resume a previous session with.
+ *
+ * If the server asks for a cookie, the client resends the handshake
+ * with it. Handshakes are padded to {@link #MIN_SIZE}, so the server's
+ * answer to a handshake from a spoofed address is never larger than it.
+ *
+ * @author jython234
+ */
+public class ClientHandshakePacket extends JuiceNetPacket {
+    /** This packet's ID */
+    public static final short ID = JuiceNetConstants.ID_CLIENT_HANDSHAKE_PACKET;
+
+    /** The client wants an encrypted session. */
+    public static final byte FLAG_ENCRYPTED = 1;
+    /** Size handshakes are padded to. */
+    public static final int MIN_SIZE = 64;
+
+    /** The major protocol version of the client */
+    public int protocolMajor = JuiceNetConstants.PROTOCOL_VERSION_MAJOR;
+    /** The minor protocol version of the client */
+    public int protocolMinor = JuiceNetConstants.PROTOCOL_VERSION_MINOR;
+    /** Random ID of the client, the same for every resend of the handshake */
+    public long clientID;
+
+    /** Flags of the handshake */
+    public byte flags;
+    /** Random nonce the session keys are derived from, if encrypted */
+    public byte[] nonce = new byte[0];
+    /** The client's X.509 encoded ECDH public key, empty if it resumes a session */
+    public byte[] publicKey = new byte[0];
+    /** The session ticket the client resumes a session with, empty if it doesn't */
+    public byte[] ticket = new byte[0];
+    /** The cookie the server asked for, empty if it didn't */
+    public byte[] cookie = new byte[0];
+
+    @Override
+    protected void _encode(ByteBuffer bb) {
+        bb.putInt(protocolMajor);
+        bb.putInt(protocolMinor);
+        bb.putLong(clientID);
+        bb.put(flags);
+        writeBytes(bb, nonce);
+        writeBytes(bb, publicKey);
+        writeBytes(bb, ticket);
+        writeBytes(bb, cookie);
+        for(int i = getContentSize(); i < MIN_SIZE; i++) {
+            bb.put((byte) 0);
+        }
+    }
+
+    @Override
+    protected void _decode(ByteBuffer bb) {
+        protocolMajor = bb.getInt();
+        protocolMinor = bb.getInt();
+        clientID = bb.getLong();
+        if(bb.hasRemaining()) { // Older clients stop here
+            flags = bb.get();
+            nonce = readBytes(bb);
+            publicKey = readBytes(bb);
+            ticket = readBytes(bb);
+            if(bb.hasRemaining()) { // Clients without cookies stop here
+                cookie = readBytes(bb);
+            }
+        }
+    }
+
+    /**
+     * Finds the cookie of an encoded handshake without decoding it.
+     * @param bb The buffer, with the handshake at its position.
+     * @param size The size of the cookie.
+     * @return The cookie's absolute offset in the buffer, or -1 if the handshake doesn't have a cookie of the size.
+     */
+    public static int findCookie(ByteBuffer bb, int size) {
+        int position = bb.position() + 18 + 1; // After the versions, client ID and flags
+        for(int i = 0; i < 3; i++) { // Skips the nonce, public key and ticket
+            if(position + 2 > bb.limit())
+                return -1;
+            position += 2 + (bb.getShort(position) & 0xFFFF);
+        }
+        if(position + 2 + size > bb.limit() || (bb.getShort(position) & 0xFFFF) != size)
+            return -1;
+        return position + 2;
+    }
+
+    private int getContentSize() {
+        return 18 + 1 + 8 + nonce.length + publicKey.length + ticket.length + cookie.length;
+    }
+
+    @Override
+    public int getSize() {
+        return Math.max(MIN_SIZE, getContentSize());
+    }
+
+    @Override
+    public short getID() {
+        return JuiceNetConstants.ID_CLIENT_HANDSHAKE_PACKET;
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.jython234.juicenet.network.packet.handshake;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+import io.github.jython234.juicenet.network.packet.JuiceNetPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ID_SERVER_HANDSHAKE_PACKET implementation
+ *
+ * This packet is sent by a server in response to an
+ * ID_CLIENT_HANDSHAKE_PACKET. If the status is STATUS_OK
+ * the session has been opened, otherwise the client
+ * should not retry, unless the status is STATUS_TICKET_REJECTED
+ * or STATUS_COOKIE_REQUIRED.
+ *
+ * If the session is encrypted, it also contains the server's
+ * nonce, its ECDH public key (unless the session was resumed
+ * with a ticket) and a new ticket for the next session.
+ *
+ * The cookie is last, so servers can patch it into a
+ * pre-encoded answer.
+ *
+ * @author jython234
+ */
+public class ServerHandshakePacket extends JuiceNetPacket {
+    /** This packet's ID */
+    public static final short ID = JuiceNetConstants.ID_SERVER_HANDSHAKE_PACKET;
+
+    /** The session has been opened. */
+    public static final byte STATUS_OK = 0;
+    /** The client's major protocol version is not supported. */
+    public static final byte STATUS_INCOMPATIBLE_PROTOCOL = 1;
+    /** The server can't open any more sessions. */
+    public static final byte STATUS_SERVER_FULL = 2;
+    /** The server only accepts encrypted sessions. */
+    public static final byte STATUS_ENCRYPTION_REQUIRED = 3;
+    /** The client's session ticket is invalid or has expired, it should retry with a key exchange. */
+    public static final byte STATUS_TICKET_REJECTED = 4;
+    /** The server didn't open a session yet, the client should resend its handshake with the cookie. */
+    public static final byte STATUS_COOKIE_REQUIRED = 5;
+
+    /** The session is encrypted. */
+    public static final byte FLAG_ENCRYPTED = 1;
+
+    /** The result of the handshake */
+    public byte status;
+    /** The major protocol version of the server */
+    public int protocolMajor = JuiceNetConstants.PROTOCOL_VERSION_MAJOR;
+    /** The minor protocol version of the server */
+    public int protocolMinor = JuiceNetConstants.PROTOCOL_VERSION_MINOR;
+    /** The server's ID */
+    public long serverID;
+    /** Time (in milliseconds) after which the server closes an idle session */
+    public int sessionTimeout;
+    /** Flags of the handshake */
+    public byte flags;
+    /** Random nonce the session keys are derived from, if encrypted */
+    public byte[] nonce = new byte[0];
+    /** The server's X.509 encoded ECDH public key, empty if the session was resumed */
+    public byte[] publicKey = new byte[0];
+    /** A session ticket the client can resume the session with later */
+    public byte[] ticket = new byte[0];
+    /** The cookie the client must resend its handshake with, if the status is STATUS_COOKIE_REQUIRED */
+    public byte[] cookie = new byte[0];
+
+    @Override
+    protected void _encode(ByteBuffer bb) {
+        bb.put(status);
+        bb.putInt(protocolMajor);
+        bb.putInt(protocolMinor);
+        bb.putLong(serverID);
+        bb.putInt(sessionTimeout);
+        bb.put(flags);
+        writeBytes(bb, nonce);
+        writeBytes(bb, publicKey);
+        writeBytes(bb, ticket);
+        writeBytes(bb, cookie);
+    }
+
+    @Override
+    protected void _decode(ByteBuffer bb) {
+        status = bb.get();
+        protocolMajor = bb.getInt();
+        protocolMinor = bb.getInt();
+        serverID = bb.getLong();
+        sessionTimeout = bb.getInt();
+        if(bb.hasRemaining()) { // Older servers stop here
+            flags = bb.get();
+            nonce = readBytes(bb);
+            publicKey = readBytes(bb);
+            ticket = readBytes(bb);
+            if(bb.hasRemaining()) { // Servers without cookies stop here
+                cookie = readBytes(bb);
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return 23 + 1 + 8 + nonce.length + publicKey.length + ticket.length + cookie.length;
+    }
+
+    @Override
+    public short getID() {
+        return JuiceNetConstants.ID_SERVER_HANDSHAKE_PACKET;
+    }
+}
@@ -4,7 +4,6 @@ import io.github.jython234.juicenet.JuiceNetConstants;
 import io.github.jython234.juicenet.network.packet.JuiceNetPacket;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 
 /**
  * ID_PEER_RESPONSE_PACKET implementation
@@ -36,7 +35,7 @@ public class PeerResponsePacket extends JuiceNetPacket {
 
     @Override
     public int getSize() {
-        return 4 + jwtString.getBytes(Charset.forName("UTF-8")).length;
+        return 4 + JuiceNetPacket.utf8Length(jwtString);
     }
 
     @Override
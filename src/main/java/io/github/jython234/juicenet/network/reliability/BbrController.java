@@ -0,0 +1,241 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import lombok.Getter;
+
+/**
+ * Delay-based congestion control modeled on BBR.
+ *
+ * Instead of reacting to loss, the controller estimates the bottleneck
+ * bandwidth (the highest delivery rate of the last ten round trips) and
+ * the minimum round trip time, and paces packets at about the bandwidth
+ * with a window of twice their product. It starts up by doubling its rate
+ * every round trip until the bandwidth stops growing, drains the queue it
+ * built up, and then cycles its pacing rate a little above and below the
+ * bandwidth to notice when more becomes available. If the minimum round
+ * trip time wasn't seen for ten seconds, the window is shrunk for a moment
+ * to empty the queue and measure it again.
+ *
+ * @author jython234
+ */
+public class BbrController implements CongestionController {
+    private static final double HIGH_GAIN = 2.885; // 2 / ln(2), doubles the rate every round trip
+    private static final double WINDOW_GAIN = 2.0;
+    private static final double[] PROBE_GAINS = {1.25, 0.75, 1, 1, 1, 1, 1, 1};
+    private static final int BANDWIDTH_ROUNDS = 10;
+    private static final int FULL_BANDWIDTH_ROUNDS = 3;
+    private static final double FULL_BANDWIDTH_GROWTH = 1.25;
+    private static final long MIN_RTT_LIFETIME = 10000000000L; // 10 seconds
+    private static final long PROBE_RTT_DURATION = 200000000L; // 200 milliseconds
+    private static final int PROBE_RTT_WINDOW = 4; // Packets
+
+    /**
+     * The phases of the controller.
+     */
+    public enum Mode {
+        STARTUP,
+        DRAIN,
+        PROBE_BANDWIDTH,
+        PROBE_RTT
+    }
+
+    private final RttEstimator rtt;
+    private final long minWindow;
+    private final long initialWindow;
+    private final long maxWindow;
+    private final long probeRttWindow;
+
+    @Getter private Mode mode = Mode.STARTUP;
+    private long window;
+
+    // Delivery rate samples, one per round trip
+    private final long[] bandwidthSamples = new long[BANDWIDTH_ROUNDS];
+    private long round = 0;
+    private boolean roundStarted = false;
+    private long roundStart;
+    private long roundStartDelivered;
+    private long delivered = 0;
+    /** The estimated bottleneck bandwidth (in bytes per second), zero before the first round trip. */
+    @Getter private long bandwidth = 0;
+
+    /** The minimum round trip time (in nanoseconds), or {@link Long#MAX_VALUE} before the first sample. */
+    @Getter private long minRtt = Long.MAX_VALUE;
+    private long minRttStamp;
+
+    private long fullBandwidth = 0;
+    private int fullBandwidthCount = 0;
+    private boolean filled = false;
+
+    private int cycleIndex = 0;
+    private long cycleStart;
+    private long probeRttEnd;
+    private long probeRttRound;
+    private boolean timedOut = false; // Until the next round ends
+
+    /**
+     * Creates a new BbrController.
+     * @param settings The settings which contain the window sizes.
+     * @param rtt The RTT estimator which provides the round trip time samples.
+     */
+    public BbrController(NetworkSettings settings, RttEstimator rtt) {
+        this.rtt = rtt;
+        long segmentSize = settings.mtu;
+        this.minWindow = Math.max(1, settings.minCongestionWindow) * segmentSize;
+        this.maxWindow = Math.max(this.minWindow, (long) settings.reliableWindowSize * segmentSize);
+        this.initialWindow = Math.max(this.minWindow, Math.min(this.maxWindow, settings.initialCongestionWindow * segmentSize));
+        this.probeRttWindow = Math.max(this.minWindow, PROBE_RTT_WINDOW * segmentSize);
+        this.window = this.initialWindow;
+    }
+
+    @Override
+    public void onPacketsAcked(long bytes, long newestSentAt, long bytesInFlight, long now) {
+        this.delivered += bytes;
+        boolean roundEnded = updateRound(newestSentAt, now);
+        updateMinRtt(now);
+
+        switch (this.mode) {
+            case STARTUP:
+                if(roundEnded && checkFullBandwidth()) {
+                    this.mode = Mode.DRAIN;
+                }
+                break;
+            case DRAIN:
+                if(bytesInFlight <= bandwidthDelayProduct(1.0)) {
+                    enterProbeBandwidth(now);
+                }
+                break;
+            case PROBE_BANDWIDTH:
+                if(now - this.cycleStart > this.minRtt) {
+                    this.cycleIndex = (this.cycleIndex + 1) % PROBE_GAINS.length;
+                    this.cycleStart = now;
+                }
+                break;
+            case PROBE_RTT:
+                if(now - this.probeRttEnd >= 0 && this.round > this.probeRttRound) {
+                    this.minRttStamp = now;
+                    if(this.filled) {
+                        enterProbeBandwidth(now);
+                    } else {
+                        this.mode = Mode.STARTUP;
+                    }
+                }
+                break;
+        }
+        updateWindow(bytes);
+    }
+
+    private void updateWindow(long acked) {
+        if(this.bandwidth == 0 || this.minRtt == Long.MAX_VALUE)
+            return;
+
+        long target = bandwidthDelayProduct(this.filled ? WINDOW_GAIN : HIGH_GAIN);
+        if(this.filled) {
+            this.window = Math.min(this.window + acked, target);
+        } else if(this.window < target || this.delivered < this.initialWindow) {
+            // Only grows until the bandwidth is known, so a low early estimate can't shrink it
+            this.window += acked;
+        }
+        this.window = Math.max(this.minWindow, Math.min(this.maxWindow, this.window));
+    }
+
+    private boolean updateRound(long sentAt, long now) {
+        if(!this.roundStarted) {
+            this.roundStarted = true;
+        } else if(sentAt - this.roundStart < 0) {
+            return false; // Sent before the current round started
+        } else {
+            // Every packet sent in the last round has been acknowledged by now
+            long elapsed = now - this.roundStart;
+            if(elapsed > 0) {
+                this.bandwidthSamples[(int) (this.round % BANDWIDTH_ROUNDS)] = (long) ((this.delivered - this.roundStartDelivered) * 1000000000.0 / elapsed);
+                this.round++;
+
+                long max = 0;
+                for(long sample : this.bandwidthSamples) {
+                    max = Math.max(max, sample);
+                }
+                this.bandwidth = max;
+            }
+            this.timedOut = false;
+        }
+        this.roundStart = now;
+        this.roundStartDelivered = this.delivered;
+        return true;
+    }
+
+    private void updateMinRtt(long now) {
+        long latest = this.rtt.getLatestRtt();
+        if(latest <= 0)
+            return;
+
+        boolean expired = this.minRtt != Long.MAX_VALUE && now - this.minRttStamp > MIN_RTT_LIFETIME;
+        if(latest <= this.minRtt || expired) {
+            this.minRtt = latest;
+            this.minRttStamp = now;
+        }
+        if(expired && this.mode != Mode.PROBE_RTT) {
+            this.mode = Mode.PROBE_RTT;
+            this.probeRttEnd = now + PROBE_RTT_DURATION;
+            this.probeRttRound = this.round;
+        }
+    }
+
+    private boolean checkFullBandwidth() {
+        if(this.bandwidth >= this.fullBandwidth * FULL_BANDWIDTH_GROWTH) {
+            this.fullBandwidth = this.bandwidth;
+            this.fullBandwidthCount = 0;
+            return false;
+        }
+        this.filled = ++this.fullBandwidthCount >= FULL_BANDWIDTH_ROUNDS;
+        return this.filled;
+    }
+
+    private void enterProbeBandwidth(long now) {
+        this.mode = Mode.PROBE_BANDWIDTH;
+        this.cycleIndex = 0;
+        this.cycleStart = now;
+    }
+
+    private long bandwidthDelayProduct(double gain) {
+        return (long) (gain * this.bandwidth * (this.minRtt / 1000000000.0));
+    }
+
+    @Override
+    public void onPacketLost(int bytes, long sentAt, long now) {
+        // The bandwidth model already accounts for the lost packets, as they weren't delivered
+    }
+
+    @Override
+    public void onRetransmitTimeout(long now) {
+        this.timedOut = true;
+    }
+
+    @Override
+    public long getCongestionWindow() {
+        if(this.mode == Mode.PROBE_RTT)
+            return Math.min(this.window, this.probeRttWindow);
+        if(this.timedOut)
+            return this.minWindow;
+        return this.window;
+    }
+
+    @Override
+    public long getPacingRate() {
+        if(this.bandwidth == 0) {
+            if(!this.rtt.hasSamples())
+                return 0;
+            return (long) (HIGH_GAIN * this.initialWindow * 1000000000.0 / Math.max(1000, this.rtt.getSmoothedRtt()));
+        }
+
+        switch (this.mode) {
+            case STARTUP:
+                return (long) (HIGH_GAIN * this.bandwidth);
+            case DRAIN:
+                return (long) (this.bandwidth / HIGH_GAIN);
+            case PROBE_BANDWIDTH:
+                return (long) (PROBE_GAINS[this.cycleIndex] * this.bandwidth);
+            default:
+                return this.bandwidth;
+        }
+    }
+}
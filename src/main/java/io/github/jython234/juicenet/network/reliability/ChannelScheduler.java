@@ -0,0 +1,139 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.util.ArrayDeque;
+import java.util.function.Predicate;
+
+/**
+ * Decides which channel's queued packet is sent next when
+ * packets are waiting for space in the send window.
+ *
+ * Each channel has its own queue, and channels take turns with
+ * deficit round-robin: every turn adds the channel's quantum
+ * (its weight times the MTU) to its deficit, and the channel
+ * sends packets until its deficit runs out. Channels therefore
+ * share the window in proportion to their weights, and a channel
+ * which is saturated by a bulk transfer only delays other channels
+ * by one turn instead of by its whole queue.
+ *
+ * @author jython234
+ */
+public class ChannelScheduler {
+    private final NetworkSettings settings;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<ContainerPacket>[] queues = (ArrayDeque<ContainerPacket>[]) new ArrayDeque<?>[256];
+    private final int[] deficits = new int[256];
+
+    // Ring of the channels which have queued packets, the head has the current turn
+    private final int[] active = new int[256];
+    private int head = 0;
+    private int activeCount = 0;
+    private boolean turnStarted = false;
+
+    private int queued = 0;
+
+    /**
+     * Creates a new ChannelScheduler.
+     * @param settings The settings which contain the weight of each channel.
+     */
+    public ChannelScheduler(NetworkSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Queues a packet at the end of its channel's queue.
+     * @param packet The packet.
+     */
+    public void add(ContainerPacket packet) {
+        int channel = packet.channelId & 0xFF;
+        ArrayDeque<ContainerPacket> queue = this.queues[channel];
+        if(queue == null) {
+            queue = new ArrayDeque<>();
+            this.queues[channel] = queue;
+        }
+
+        if(queue.isEmpty()) {
+            this.active[(this.head + this.activeCount) & 0xFF] = channel;
+            this.activeCount++;
+        }
+        queue.add(packet);
+        this.queued++;
+    }
+
+    /**
+     * Takes the next packet to send.
+     * @param sendable Checks if a packet can be sent right now. Channels whose next packet can't be sent lose their turn.
+     * @param mtu The largest packet size, the quantum of a channel is its weight times this.
+     * @return The packet, or null if no queued packet can be sent.
+     */
+    public ContainerPacket poll(Predicate<ContainerPacket> sendable, int mtu) {
+        int skipped = 0;
+        while(this.activeCount > 0 && skipped <= this.activeCount) {
+            int channel = this.active[this.head];
+            int quantum = Math.max(1, this.settings.channels[channel].weight) * mtu;
+            if(!this.turnStarted) {
+                this.deficits[channel] += quantum;
+                this.turnStarted = true;
+            }
+
+            ArrayDeque<ContainerPacket> queue = this.queues[channel];
+            ContainerPacket packet = queue.peek();
+            int size = packet.getSize();
+            if(size <= this.deficits[channel] && sendable.test(packet)) {
+                queue.poll();
+                this.queued--;
+                this.deficits[channel] -= size;
+                if(queue.isEmpty()) {
+                    // Idle channels don't save up their deficit
+                    this.deficits[channel] = 0;
+                    this.head = (this.head + 1) & 0xFF;
+                    this.activeCount--;
+                    this.turnStarted = false;
+                }
+                return packet;
+            }
+
+            if(size <= this.deficits[channel]) {
+                // Blocked rather than out of deficit, don't let it save up more than one turn
+                this.deficits[channel] = Math.min(this.deficits[channel], quantum);
+                skipped++;
+            }
+            // End of the turn, move to the back of the ring
+            this.active[(this.head + this.activeCount) & 0xFF] = channel;
+            this.head = (this.head + 1) & 0xFF;
+            this.turnStarted = false;
+        }
+        return null;
+    }
+
+    /**
+     * @param channelId The channel.
+     * @return True if the channel has queued packets.
+     */
+    public boolean hasQueued(byte channelId) {
+        ArrayDeque<ContainerPacket> queue = this.queues[channelId & 0xFF];
+        return queue != null && !queue.isEmpty();
+    }
+
+    /**
+     * @param channelId The channel.
+     * @return The amount of packets queued on the channel.
+     */
+    public int getQueuedCount(byte channelId) {
+        ArrayDeque<ContainerPacket> queue = this.queues[channelId & 0xFF];
+        return queue != null ? queue.size() : 0;
+    }
+
+    /** @return The amount of packets queued on all channels. */
+    public int getQueuedCount() {
+        return this.queued;
+    }
+
+    /** @return True if no packets are queued. */
+    public boolean isEmpty() {
+        return this.queued == 0;
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+
+/**
+ * Decides how many reliable bytes a {@link ReliabilityLayer} can have in
+ * flight and how fast it sends them, so a session backs off when the
+ * path to its peer is congested.
+ *
+ * All times are in nanoseconds, from {@link System#nanoTime()}.
+ *
+ * @author jython234
+ */
+public interface CongestionController {
+    /**
+     * Called once for every ACK packet which acknowledged new reliable packets,
+     * after the RTT sample of the ACK was taken.
+     * @param bytes The total size of the acknowledged packets.
+     * @param newestSentAt The time the most recently sent acknowledged packet was sent.
+     * @param bytesInFlight The amount of bytes still in flight, not including the acknowledged packets.
+     * @param now The current time.
+     */
+    void onPacketsAcked(long bytes, long newestSentAt, long bytesInFlight, long now);
+
+    /**
+     * Called when the peer reported a reliable packet missing.
+     * @param bytes The size of the packet.
+     * @param sentAt The time the packet was last sent.
+     * @param now The current time.
+     */
+    void onPacketLost(int bytes, long sentAt, long now);
+
+    /**
+     * Called when the retransmission timer of at least one packet expired.
+     * @param now The current time.
+     */
+    void onRetransmitTimeout(long now);
+
+    /** @return The maximum amount of reliable bytes in flight. */
+    long getCongestionWindow();
+
+    /** @return The rate (in bytes per second) packets are paced at, or zero to send them unpaced. */
+    long getPacingRate();
+
+    /**
+     * Creates the congestion controller of a {@link ReliabilityLayer}.
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * @param settings The settings of the layer.
+         * @param rtt The RTT estimator of the layer.
+         * @return A new congestion controller.
+         */
+        CongestionController create(NetworkSettings settings, RttEstimator rtt);
+    }
+}
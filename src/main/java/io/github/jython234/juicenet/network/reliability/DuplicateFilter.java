@@ -0,0 +1,93 @@
+package io.github.jython234.juicenet.network.reliability;
+
+/**
+ * Detects duplicate packet counters with a sliding bitmap.
+ *
+ * The filter remembers a fixed window of counters ending at
+ * the highest counter received. Counters which fall behind the
+ * window are treated as duplicates, the sender keeps every
+ * unacknowledged counter inside the window so this never
+ * drops a packet which has not been received yet.
+ *
+ * Counters are compared with wrap-around, so they can
+ * overflow safely.
+ *
+ * @author jython234
+ */
+public class DuplicateFilter {
+    public final int size;
+
+    private final long[] bits;
+    private final int mask;
+    private int base = 0; // Lowest counter inside the window
+
+    /**
+     * Creates a new DuplicateFilter which starts at counter zero.
+     * @param size The size of the window, rounded up to a power of two (minimum 64).
+     */
+    public DuplicateFilter(int size) {
+        this.size = Math.max(64, nextPowerOfTwo(size));
+        this.mask = this.size - 1;
+        this.bits = new long[this.size >> 6];
+    }
+
+    /**
+     * Marks the counter as received.
+     * @param counter The packet counter.
+     * @return True if the counter is new, false if it is a duplicate.
+     */
+    public boolean accept(int counter) {
+        int distance = counter - this.base;
+        if(distance < 0)
+            return false; // Behind the window
+
+        if(distance >= this.size) {
+            slide(counter - this.size + 1);
+        }
+
+        int index = counter & this.mask;
+        long bit = 1L << (index & 63);
+        long word = this.bits[index >> 6];
+        if((word & bit) != 0)
+            return false;
+
+        this.bits[index >> 6] = word | bit;
+        return true;
+    }
+
+    /**
+     * Checks if the counter has been received, without marking it.
+     * @param counter The packet counter.
+     * @return True if the counter is a duplicate.
+     */
+    public boolean contains(int counter) {
+        int distance = counter - this.base;
+        if(distance < 0)
+            return true; // Behind the window
+        if(distance >= this.size)
+            return false;
+
+        int index = counter & this.mask;
+        return (this.bits[index >> 6] & (1L << (index & 63))) != 0;
+    }
+
+    private void slide(int newBase) {
+        int advance = newBase - this.base;
+        if(advance >= this.size) {
+            for(int i = 0; i < this.bits.length; i++) {
+                this.bits[i] = 0;
+            }
+        } else {
+            for(int c = this.base; c != newBase; c++) {
+                int index = c & this.mask;
+                this.bits[index >> 6] &= ~(1L << (index & 63));
+            }
+        }
+        this.base = newBase;
+    }
+
+    static int nextPowerOfTwo(int value) {
+        int n = Integer.highestOneBit(Math.max(1, value));
+        return n == value ? n : n << 1;
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.util.Arrays;
+
+/**
+ * A message prepared once to be sent to many peers, see
+ * {@link ReliabilityLayer#send(EncodedMessage)}.
+ *
+ * The payload is compressed with its channel's codec once, and split into
+ * fragments once for each fragment count the peers' MTUs need, instead of
+ * once for every peer. The peers' packets only get their own packet IDs,
+ * counters and order IDs, and share the payload arrays, which is safe as
+ * packets are never modified once sent.
+ *
+ * @author jython234
+ */
+public class EncodedMessage {
+    public final byte channelId;
+    public final ContainerPacket.ReliabilityType reliabilityType;
+
+    final byte[] payload; // Compressed if compressed is set
+    final boolean compressed;
+    private volatile byte[][] fragments; // The last split, peers usually have the same MTU
+
+    /**
+     * Creates a new EncodedMessage, and compresses its payload if its channel has a codec.
+     * @param settings The settings of the peers it is sent to.
+     * @param channelId The channel to send the message on.
+     * @param reliabilityType The ReliabilityType to send the message with.
+     * @param payload The message's payload. It must not be modified afterwards.
+     */
+    public EncodedMessage(NetworkSettings settings, byte channelId, ContainerPacket.ReliabilityType reliabilityType, byte[] payload) {
+        this.channelId = channelId;
+        this.reliabilityType = reliabilityType;
+
+        byte[] compressed = ReliabilityLayer.compress(settings.channels[channelId & 0xFF], payload);
+        this.payload = compressed != null ? compressed : payload;
+        this.compressed = compressed != null;
+    }
+
+    /**
+     * @return The size (in bytes) of the payload as it is sent, after compression.
+     */
+    public int getEncodedSize() {
+        return this.payload.length;
+    }
+
+    /**
+     * Splits the payload into fragments like {@link ReliabilityLayer} does, or returns the last split if it has the same count.
+     * @param count The amount of fragments.
+     * @return The fragments' payloads.
+     */
+    byte[][] getFragments(int count) {
+        byte[][] fragments = this.fragments;
+        if(fragments == null || fragments.length != count) {
+            int size = this.payload.length;
+            int chunk = (size + count - 1) / count;
+            fragments = new byte[count][];
+            for(int i = 0; i < count; i++) {
+                fragments[i] = Arrays.copyOfRange(this.payload, i * chunk, Math.min(size, (i + 1) * chunk));
+            }
+            this.fragments = fragments;
+        }
+        return fragments;
+    }
+}
@@ -0,0 +1,197 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.ChannelSettings;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Rebuilds the lost container packets of one channel's forward error
+ * correction groups, see {@link FecEncoder}.
+ *
+ * Every parity index of a group has a slot in a ring, which XORs the
+ * containers and the parity packet as they arrive. Once all but one of
+ * the containers and the parity have arrived, the slot holds the missing
+ * container. Slots remember which containers arrived, so a container which
+ * arrives after it was rebuilt is dropped. Groups older than the ring are
+ * no longer tracked, and their containers are handled without FEC.
+ *
+ * @author jython234
+ */
+public class FecDecoder {
+    public final byte channelId;
+    public final int groupSize;
+    public final int parityCount;
+
+    private final int mask;
+    private final int[] group; // -1 if the slot is empty
+    private final long[] received; // Bit set of the indexes of the containers which arrived or were rebuilt
+    private final int[] receivedCount;
+    private final int[] expected; // Amount of containers, 0 until the parity arrived
+    private final int[] sizeXor;
+    private final boolean[] done;
+    private final byte[][] xor;
+    private final int[] xorSize;
+
+    /** Amount of lost containers which were rebuilt. */
+    @Getter private long recovered = 0;
+    /**
+     * Amount of lost containers which couldn't be rebuilt, as more than one container of a parity
+     * was lost. Only counted once the parity arrived, and once the group leaves the ring.
+     */
+    @Getter private long unrecoverable = 0;
+
+    /**
+     * Creates a new FecDecoder.
+     * @param channelId The channel whose packets are protected.
+     * @param channel The settings of the channel, with {@link ChannelSettings#fecGroupSize} set.
+     */
+    public FecDecoder(byte channelId, ChannelSettings channel) {
+        this.channelId = channelId;
+        this.groupSize = Math.max(1, Math.min(FecEncoder.MAX_GROUP_SIZE, channel.fecGroupSize));
+        this.parityCount = Math.max(1, Math.min(this.groupSize, channel.fecParity));
+
+        int slots = DuplicateFilter.nextPowerOfTwo(this.parityCount * 8); // Eight groups
+        this.mask = slots - 1;
+        this.group = new int[slots];
+        Arrays.fill(this.group, -1);
+        this.received = new long[slots];
+        this.receivedCount = new int[slots];
+        this.expected = new int[slots];
+        this.sizeXor = new int[slots];
+        this.done = new boolean[slots];
+        this.xor = new byte[slots][0];
+        this.xorSize = new int[slots];
+    }
+
+    /**
+     * Adds a protected container.
+     * @param group The container's group.
+     * @param index The container's index in the group.
+     * @param bb The buffer containing the container.
+     * @param start The absolute index of the container's packet ID.
+     * @param size The size of the container.
+     * @return False if the container already arrived or was rebuilt, and must be dropped.
+     */
+    public boolean receive(int group, int index, ByteBuffer bb, int start, int size) {
+        if(index >= this.groupSize)
+            return true; // Not sent with these settings, handled without FEC
+        int slot = slot(group, index % this.parityCount);
+        if(slot < 0)
+            return true;
+
+        long bit = 1L << index;
+        if((this.received[slot] & bit) != 0)
+            return false;
+        this.received[slot] |= bit;
+        this.receivedCount[slot]++;
+        if(!this.done[slot]) {
+            this.sizeXor[slot] ^= size;
+            xor(slot, bb, start, size);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a parity packet.
+     * @param group The group of the parity.
+     * @param parityIndex The parity index.
+     * @param count The amount of containers the parity covers.
+     * @param sizeXor The XOR of the sizes of the containers.
+     * @param bb The buffer containing the parity.
+     * @param start The absolute index of the parity.
+     * @param size The size of the parity.
+     */
+    public void receiveParity(int group, int parityIndex, int count, int sizeXor, ByteBuffer bb, int start, int size) {
+        if(parityIndex >= this.parityCount || count == 0)
+            return;
+        int slot = slot(group, parityIndex);
+        if(slot < 0 || this.expected[slot] != 0)
+            return; // Too old, or a duplicate
+
+        this.expected[slot] = count;
+        if(!this.done[slot]) {
+            this.sizeXor[slot] ^= sizeXor;
+            xor(slot, bb, start, size);
+        }
+    }
+
+    /**
+     * Rebuilds the missing container of a parity, if all the other containers and the parity have arrived.
+     * @param group The group.
+     * @param parityIndex The parity index.
+     * @return The rebuilt container, valid until the next call, or null if it can't be rebuilt yet.
+     */
+    public ByteBuffer recover(int group, int parityIndex) {
+        int slot = (group * this.parityCount + parityIndex) & this.mask;
+        if(this.group[slot] != group || this.done[slot] || this.expected[slot] == 0)
+            return null;
+
+        if(this.receivedCount[slot] >= this.expected[slot]) {
+            this.done[slot] = true; // Nothing was lost
+            return null;
+        }
+        if(this.receivedCount[slot] < this.expected[slot] - 1)
+            return null;
+
+        this.done[slot] = true;
+        int size = this.sizeXor[slot];
+        if(size == 0 || size > this.xorSize[slot])
+            return null; // The peer's FEC settings don't match ours
+
+        for(int index = parityIndex; index < this.groupSize; index += this.parityCount) {
+            if((this.received[slot] & (1L << index)) == 0) {
+                this.received[slot] |= 1L << index; // So the container is dropped if it arrives late
+                break;
+            }
+        }
+        this.recovered++;
+        return ByteBuffer.wrap(this.xor[slot], 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Finds the slot of a group's parity index, and starts tracking the group if it is newer than the slot's.
+     * @return The slot, or -1 if the group is older than the slot's.
+     */
+    private int slot(int group, int parityIndex) {
+        int slot = (group * this.parityCount + parityIndex) & this.mask;
+        if(this.group[slot] == group)
+            return slot;
+        if(this.group[slot] >= 0 && (short) (group - this.group[slot]) < 0)
+            return -1;
+
+        if(this.group[slot] >= 0 && !this.done[slot] && this.expected[slot] > 0) {
+            this.unrecoverable += this.expected[slot] - this.receivedCount[slot];
+        }
+        this.group[slot] = group;
+        this.received[slot] = 0;
+        this.receivedCount[slot] = 0;
+        this.expected[slot] = 0;
+        this.sizeXor[slot] = 0;
+        this.done[slot] = false;
+        Arrays.fill(this.xor[slot], 0, this.xorSize[slot], (byte) 0);
+        this.xorSize[slot] = 0;
+        return slot;
+    }
+
+    private void xor(int slot, ByteBuffer bb, int start, int size) {
+        if(this.xor[slot].length < size) {
+            this.xor[slot] = Arrays.copyOf(this.xor[slot], size);
+        }
+        byte[] xor = this.xor[slot];
+        if(bb.hasArray()) {
+            byte[] data = bb.array();
+            int offset = bb.arrayOffset() + start;
+            for(int i = 0; i < size; i++) {
+                xor[i] ^= data[offset + i];
+            }
+        } else {
+            for(int i = 0; i < size; i++) {
+                xor[i] ^= bb.get(start + i);
+            }
+        }
+        this.xorSize[slot] = Math.max(this.xorSize[slot], size);
+    }
+}
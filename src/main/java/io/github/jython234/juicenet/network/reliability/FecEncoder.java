@@ -0,0 +1,149 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+import io.github.jython234.juicenet.network.ChannelSettings;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds the XOR parity packets of one channel's forward error correction groups.
+ *
+ * Protected container packets are sent in an ID_FEC_PACKET header, which holds
+ * the packet's group and its index in the group, each one at the end of its own
+ * datagram so a lost datagram only loses one packet of a group. Once the group is
+ * full, or at the next update if the channel stops sending, a parity packet is sent
+ * for every parity index <i>i</i>, in its own datagram. It is the XOR of the encoded
+ * containers whose index modulo the parity count is <i>i</i>, each zero padded to the
+ * longest one, and of their sizes. A receiver missing one of them rebuilds it by
+ * XORing the parity with the others, see {@link FecDecoder}.
+ *
+ * Retransmissions and containers too large for a parity packet to fit the MTU
+ * are sent unprotected.
+ *
+ * Parity packet layout, after the packet ID: channel ID (byte), group (short),
+ * parity index (byte), container count (byte), XOR of the container sizes (short),
+ * parity size (short) and the parity.
+ *
+ * @author jython234
+ */
+public class FecEncoder {
+    /** Size of the header in front of a protected container, including the packet ID. */
+    public static final int HEADER_SIZE = 5;
+    /** Size of a parity packet without the parity, including the packet ID. */
+    public static final int PARITY_HEADER_SIZE = 11;
+    /** Largest supported group size. */
+    public static final int MAX_GROUP_SIZE = 64;
+
+    public final byte channelId;
+    public final int groupSize;
+    public final int parityCount;
+
+    private int group = 0;
+    private int index = 0;
+    private final byte[][] parity; // Indexed by parity index
+    private final int[] paritySize;
+    private final int[] sizeXor;
+    private final int[] count;
+
+    /**
+     * Creates a new FecEncoder.
+     * @param channelId The channel whose packets are protected.
+     * @param channel The settings of the channel, with {@link ChannelSettings#fecGroupSize} set.
+     */
+    public FecEncoder(byte channelId, ChannelSettings channel) {
+        this.channelId = channelId;
+        this.groupSize = Math.max(1, Math.min(MAX_GROUP_SIZE, channel.fecGroupSize));
+        this.parityCount = Math.max(1, Math.min(this.groupSize, channel.fecParity));
+        this.parity = new byte[this.parityCount][0];
+        this.paritySize = new int[this.parityCount];
+        this.sizeXor = new int[this.parityCount];
+        this.count = new int[this.parityCount];
+    }
+
+    /**
+     * Writes the header of the next protected container.
+     * @param bb The buffer to write into.
+     */
+    public void writeHeader(ByteBuffer bb) {
+        bb.putShort(JuiceNetConstants.ID_FEC_PACKET);
+        bb.putShort((short) this.group);
+        bb.put((byte) this.index);
+    }
+
+    /**
+     * Adds the container which was written after the header to its parity.
+     * @param bb The buffer the container was encoded into, which must have an array.
+     * @param start The absolute index of the container's packet ID.
+     * @param size The size of the container.
+     */
+    public void add(ByteBuffer bb, int start, int size) {
+        int i = this.index % this.parityCount;
+        if(this.parity[i].length < size) {
+            this.parity[i] = Arrays.copyOf(this.parity[i], size);
+        }
+
+        byte[] parity = this.parity[i];
+        byte[] data = bb.array();
+        int offset = bb.arrayOffset() + start;
+        for(int b = 0; b < size; b++) {
+            parity[b] ^= data[offset + b];
+        }
+        this.paritySize[i] = Math.max(this.paritySize[i], size);
+        this.sizeXor[i] ^= size;
+        this.count[i]++;
+        this.index++;
+    }
+
+    /**
+     * @return True if containers were added since the last parity packets.
+     */
+    public boolean hasOpenGroup() {
+        return this.index > 0;
+    }
+
+    /**
+     * @return True if the group is full, and its parity packets should be sent.
+     */
+    public boolean isGroupFull() {
+        return this.index >= this.groupSize;
+    }
+
+    /**
+     * @param parityIndex The parity index.
+     * @return The size of the parity packet, or 0 if no container was added for the index.
+     */
+    public int getParityPacketSize(int parityIndex) {
+        return this.count[parityIndex] > 0 ? PARITY_HEADER_SIZE + this.paritySize[parityIndex] : 0;
+    }
+
+    /**
+     * Writes a parity packet of the group.
+     * @param bb The buffer to write into.
+     * @param parityIndex The parity index, which had containers added.
+     */
+    public void writeParity(ByteBuffer bb, int parityIndex) {
+        bb.putShort(JuiceNetConstants.ID_FEC_PARITY_PACKET);
+        bb.put(this.channelId);
+        bb.putShort((short) this.group);
+        bb.put((byte) parityIndex);
+        bb.put((byte) this.count[parityIndex]);
+        bb.putShort((short) this.sizeXor[parityIndex]);
+        bb.putShort((short) this.paritySize[parityIndex]);
+        bb.put(this.parity[parityIndex], 0, this.paritySize[parityIndex]);
+    }
+
+    /**
+     * Starts the next group, once the parity packets of this one have been sent.
+     */
+    public void nextGroup() {
+        this.group = (this.group + 1) & 0xFFFF;
+        this.index = 0;
+        for(int i = 0; i < this.parityCount; i++) {
+            Arrays.fill(this.parity[i], 0, this.paritySize[i], (byte) 0);
+            this.paritySize[i] = 0;
+            this.sizeXor[i] = 0;
+            this.count[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.packet.ContainerView;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reassembles the fragmented payloads of one remote peer.
+ *
+ * Each payload is copied fragment by fragment into a run of slabs
+ * taken from a shared {@link FragmentMemory}. A peer can only occupy
+ * a limited amount of that memory, and payloads which are larger than
+ * the limit are rejected outright. Each peer also reserves a share of the
+ * memory, so the other peers can't take all of it. When the limit is reached,
+ * the oldest incomplete UNRELIABLE payloads are evicted to make room for new ones.
+ * Reliable payloads are never evicted for room since their fragments
+ * have already been acknowledged, new reliable payloads are rejected
+ * instead and their fragments are retransmitted by the sender later.
+ * Incomplete UNRELIABLE payloads are also evicted after the timeout, and
+ * reliable ones once no fragment of them was received for the timeout, so a
+ * peer which never finishes its payloads can't hold the memory. Such a reliable
+ * payload is lost, ordered channels skip it like any other missing message.
+ *
+ * @author jython234
+ */
+public class FragmentAssembler {
+    public final FragmentMemory memory;
+    public final int memoryLimit;
+    public final long timeout;
+
+    private final FragmentSet[] sets;
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private int usedMemory = 0;
+    private int reservedMemory;
+
+    @Getter private long completedCount = 0;
+    @Getter private long evictedCount = 0;
+    @Getter private long rejectedCount = 0;
+
+    /**
+     * Creates a new FragmentAssembler.
+     * @param memory The memory fragments are copied into.
+     * @param settings The settings which control the limits of this assembler.
+     */
+    public FragmentAssembler(FragmentMemory memory, NetworkSettings settings) {
+        this.memory = memory;
+        this.memoryLimit = Math.min(settings.sessionFragmentMemory, memory.capacity);
+        this.timeout = settings.fragmentTimeout * 1000000L;
+
+        this.sets = new FragmentSet[Math.max(1, settings.maxFragmentSets)];
+        for(int i = 0; i < this.sets.length; i++) {
+            this.sets[i] = new FragmentSet();
+        }
+        this.writeView = memory.newView();
+        this.readView = memory.newView();
+        this.reservedMemory = memory.reserve(Math.min(settings.sessionFragmentReserve, this.memoryLimit));
+    }
+
+    /**
+     * Finds or creates the payload which the fragment belongs to, evicting old
+     * payloads if needed. This is called before the fragment is acknowledged so
+     * reliable fragments which can't be stored are retransmitted later.
+     *
+     * @param fragment The fragment.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return The payload, or null if the fragment is invalid or there is no memory for it.
+     */
+    public FragmentSet prepare(ContainerView fragment, long now) {
+        int id = fragment.getFragmentationId();
+        int count = fragment.getFragmentationCount();
+        int size = fragment.getFragmentationSize();
+        int index = fragment.getFragmentationIndex();
+
+        if(count < 1 || index < 0 || index >= count || size < count || fragment.getPayloadSize() != FragmentSet.fragmentLength(size, count, index)) {
+            this.rejectedCount++;
+            return null;
+        }
+
+        FragmentSet free = null;
+        for(FragmentSet set : this.sets) {
+            if(!set.active) {
+                if(free == null)
+                    free = set;
+            } else if(set.id == id) {
+                if(set.count != count || set.size != size) {
+                    this.rejectedCount++;
+                    return null; // Doesn't match the other fragments
+                }
+                set.lastActivity = now;
+                return set;
+            }
+        }
+
+        int needed = this.memory.roundUp(size);
+        if(needed > this.memoryLimit) {
+            this.rejectedCount++;
+            return null; // Oversized
+        }
+
+        while(free == null || this.usedMemory + needed > this.memoryLimit) {
+            FragmentSet oldest = oldestUnreliable();
+            if(oldest == null)
+                break;
+            evict(oldest);
+            if(free == null)
+                free = oldest;
+        }
+
+        int shared = shared(this.usedMemory + needed) - shared(this.usedMemory);
+        int offset = free != null && this.usedMemory + needed <= this.memoryLimit ? this.memory.allocate(size, shared) : -1;
+        if(offset < 0) {
+            this.rejectedCount++;
+            return null; // No room, or the shared memory is exhausted
+        }
+
+        free.start(id, count, size, offset, fragment, now);
+        this.usedMemory += needed;
+        return free;
+    }
+
+    /**
+     * Copies a fragment into its payload.
+     * @param set The payload returned by {@link #prepare(ContainerView, long)}.
+     * @param fragment The fragment.
+     * @return True if the payload is now complete.
+     */
+    public boolean add(FragmentSet set, ContainerView fragment) {
+        int index = fragment.getFragmentationIndex();
+        if(!set.mark(index))
+            return false; // Already received
+
+        ByteBuffer payload = fragment.payload();
+        this.writeView.limit(this.writeView.capacity());
+        this.writeView.position(set.offset + index * set.chunk);
+        this.writeView.put(payload);
+
+        return set.received == set.count;
+    }
+
+    /**
+     * Returns a complete payload. The payload is only valid
+     * until {@link #release(FragmentSet)} is called.
+     * @param set The complete payload.
+     * @return A read-only, little endian view of the payload's data, which can't reach the rest of the memory.
+     */
+    public ByteBuffer payload(FragmentSet set) {
+        this.readView.limit(set.offset + set.size);
+        this.readView.position(set.offset);
+        return this.readView.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Frees a complete payload's memory.
+     * @param set The complete payload.
+     */
+    public void release(FragmentSet set) {
+        this.completedCount++;
+        free(set);
+    }
+
+    /**
+     * Evicts incomplete UNRELIABLE payloads which are older than the timeout,
+     * and reliable ones which haven't received a fragment for the timeout.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public void update(long now) {
+        for(FragmentSet set : this.sets) {
+            if(!set.active)
+                continue;
+            long since = set.reliabilityType == ContainerPacket.ReliabilityType.UNRELIABLE ? set.createdAt : set.lastActivity;
+            if(now - since >= this.timeout) {
+                evict(set);
+            }
+        }
+    }
+
+    /**
+     * Frees the memory of all payloads.
+     */
+    public void clear() {
+        for(FragmentSet set : this.sets) {
+            if(set.active) {
+                free(set);
+            }
+        }
+    }
+
+    /**
+     * Frees the memory of all payloads and returns the reserved share to the shared
+     * memory. Must be called once the assembler is no longer used.
+     */
+    public void close() {
+        clear();
+        this.memory.unreserve(this.reservedMemory);
+        this.reservedMemory = 0;
+    }
+
+    private FragmentSet oldestUnreliable() {
+        FragmentSet oldest = null;
+        for(FragmentSet set : this.sets) {
+            if(set.active && set.reliabilityType == ContainerPacket.ReliabilityType.UNRELIABLE && (oldest == null || set.createdAt - oldest.createdAt < 0)) {
+                oldest = set;
+            }
+        }
+        return oldest;
+    }
+
+    private void evict(FragmentSet set) {
+        this.evictedCount++;
+        free(set);
+    }
+
+    private void free(FragmentSet set) {
+        int freed = this.memory.roundUp(set.size);
+        this.memory.free(set.offset, set.size, shared(this.usedMemory) - shared(this.usedMemory - freed));
+        this.usedMemory -= freed;
+        set.active = false;
+    }
+
+    /**
+     * @param used An amount of memory used by this assembler.
+     * @return How much of it doesn't fit in the reserved share.
+     */
+    private int shared(int used) {
+        return Math.max(0, used - this.reservedMemory);
+    }
+
+    /** @return The amount of fragment memory (in bytes) used by this assembler. */
+    public int getUsedMemory() {
+        return this.usedMemory;
+    }
+
+    /** @return The share of the fragment memory (in bytes) reserved for this assembler. */
+    public int getReservedMemory() {
+        return this.reservedMemory;
+    }
+
+    /**
+     * A fragmented payload which is being reassembled.
+     * Instances are reused by the assembler.
+     */
+    public static final class FragmentSet {
+        boolean active;
+        int id;
+        int count;
+        int size;
+        int chunk;
+        int offset;
+        int received;
+        long createdAt;
+        long lastActivity;
+        long[] receivedBits = new long[1];
+
+        /** The ReliabilityType of the payload. */
+        public ContainerPacket.ReliabilityType reliabilityType;
+        /** The channel the payload was sent on. */
+        public byte channelId;
+        /** The order ID of the payload, if it is RELIABLE_ORDERED. */
+        public int orderId;
+        /** True if the payload is compressed. */
+        public boolean compressed;
+
+        void start(int id, int count, int size, int offset, ContainerView fragment, long now) {
+            this.active = true;
+            this.id = id;
+            this.count = count;
+            this.size = size;
+            this.chunk = (size + count - 1) / count;
+            this.offset = offset;
+            this.received = 0;
+            this.createdAt = now;
+            this.lastActivity = now;
+            this.reliabilityType = fragment.getReliabilityType();
+            this.channelId = fragment.getChannelId();
+            this.orderId = fragment.getOrderId();
+            this.compressed = fragment.isCompressed();
+
+            int words = (count + 63) >> 6;
+            if(this.receivedBits.length < words) {
+                this.receivedBits = new long[words];
+            } else {
+                for(int i = 0; i < words; i++) {
+                    this.receivedBits[i] = 0;
+                }
+            }
+        }
+
+        boolean mark(int index) {
+            long bit = 1L << (index & 63);
+            if((this.receivedBits[index >> 6] & bit) != 0)
+                return false;
+            this.receivedBits[index >> 6] |= bit;
+            this.received++;
+            return true;
+        }
+
+        /**
+         * Calculates the length of a fragment. Every fragment holds
+         * <code>ceil(size / count)</code> bytes except the last one,
+         * which holds the remainder.
+         * @param size The size of the payload.
+         * @param count The amount of fragments.
+         * @param index The fragment's index.
+         * @return The length (in bytes) of the fragment, or -1 if the size can't be split into that many fragments.
+         */
+        public static int fragmentLength(int size, int count, int index) {
+            long chunk = ((long) size + count - 1) / count;
+            long remainder = size - chunk * (count - 1);
+            if(remainder <= 0)
+                return -1;
+            return (int) (index == count - 1 ? remainder : chunk);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Preallocated memory used to reassemble fragmented payloads.
+ *
+ * The memory is split into fixed size slabs, and each payload
+ * occupies a contiguous run of slabs so it can be delivered as a
+ * single buffer without being copied. The memory is allocated once
+ * and never grows, which bounds the heap used by reassembly no
+ * matter how many fragments are received.
+ *
+ * Each user can reserve a share of the memory for itself, which the
+ * others can't take. The rest of the memory is shared, and an allocation
+ * only takes from it for the bytes which don't fit in its user's share.
+ * At most half of the memory can be reserved, so large payloads still
+ * fit in the shared part.
+ *
+ * @author jython234
+ */
+public class FragmentMemory {
+    public final int capacity;
+    public final int slabSize;
+
+    private final ByteBuffer buffer;
+    private final boolean[] used;
+    private int usedSlabs = 0;
+    private int reserved = 0;
+    private int sharedUsed = 0;
+
+    /**
+     * Creates a new FragmentMemory and allocates all of its slabs.
+     * @param capacity The size (in bytes) of the memory, rounded down to a multiple of the slab size.
+     * @param slabSize The size (in bytes) of each slab.
+     */
+    public FragmentMemory(int capacity, int slabSize) {
+        if(slabSize < 1 || capacity < slabSize)
+            throw new IllegalArgumentException("Capacity must hold at least one slab!");
+
+        this.slabSize = slabSize;
+        this.used = new boolean[capacity / slabSize];
+        this.capacity = this.used.length * slabSize;
+        this.buffer = ByteBuffer.allocate(this.capacity);
+    }
+
+    /**
+     * Reserves a share of the memory, as far as there is room for it.
+     * @param bytes The size (in bytes) of the share, rounded down to a multiple of the slab size.
+     * @return The size (in bytes) of the share which was reserved, to be passed to {@link #unreserve(int)}.
+     */
+    public synchronized int reserve(int bytes) {
+        int room = Math.min(this.capacity / 2 - this.reserved, this.capacity - this.reserved - this.sharedUsed);
+        int share = Math.max(0, Math.min(bytes, room)) / this.slabSize * this.slabSize;
+        this.reserved += share;
+        return share;
+    }
+
+    /**
+     * Returns a share reserved by {@link #reserve(int)} to the shared memory.
+     * @param share The size (in bytes) of the share.
+     */
+    public synchronized void unreserve(int share) {
+        this.reserved -= share;
+    }
+
+    /**
+     * Allocates a contiguous run of slabs.
+     * @param bytes The amount of bytes needed.
+     * @param shared How many of the bytes (rounded up to slabs) don't fit in the user's reserved share.
+     * @return The byte offset of the run, or -1 if there is no free run large enough or the shared memory is full.
+     */
+    public synchronized int allocate(int bytes, int shared) {
+        if(this.sharedUsed + shared > this.capacity - this.reserved)
+            return -1;
+
+        int slabs = slabsFor(bytes);
+        int run = 0;
+        for(int i = 0; i < this.used.length; i++) {
+            run = this.used[i] ? 0 : run + 1;
+            if(run == slabs) {
+                int start = i - slabs + 1;
+                for(int j = start; j <= i; j++) {
+                    this.used[j] = true;
+                }
+                this.usedSlabs += slabs;
+                this.sharedUsed += shared;
+                return start * this.slabSize;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Frees a run of slabs returned by {@link #allocate(int, int)}.
+     * @param offset The byte offset of the run.
+     * @param bytes The amount of bytes which were allocated.
+     * @param shared How many of the freed bytes were taken from the shared memory.
+     */
+    public synchronized void free(int offset, int bytes, int shared) {
+        int start = offset / this.slabSize;
+        int slabs = slabsFor(bytes);
+        for(int i = start; i < start + slabs; i++) {
+            this.used[i] = false;
+        }
+        this.usedSlabs -= slabs;
+        this.sharedUsed -= shared;
+    }
+
+    /**
+     * @param bytes An amount of bytes.
+     * @return The amount of bytes the slabs needed to hold them occupy.
+     */
+    public int roundUp(int bytes) {
+        return slabsFor(bytes) * this.slabSize;
+    }
+
+    private int slabsFor(int bytes) {
+        return Math.max(1, (bytes + this.slabSize - 1) / this.slabSize);
+    }
+
+    /**
+     * Creates a new view of the memory. Each user should keep its own
+     * view, as the position and limit of a view are not thread safe.
+     * @return A little endian view of the whole memory.
+     */
+    public ByteBuffer newView() {
+        return this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** @return The amount of bytes currently allocated. */
+    public synchronized int getUsed() {
+        return this.usedSlabs * this.slabSize;
+    }
+
+    /** @return The amount of bytes currently reserved by users. */
+    public synchronized int getReserved() {
+        return this.reserved;
+    }
+}
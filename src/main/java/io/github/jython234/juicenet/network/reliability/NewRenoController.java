@@ -0,0 +1,97 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import lombok.Getter;
+
+/**
+ * Loss-based congestion control in the style of TCP NewReno,
+ * counting bytes like RFC 9002 does for QUIC.
+ *
+ * The window grows by the acknowledged bytes in slow start and by
+ * one packet per window afterwards, and is halved once per round
+ * trip in which packets were lost. A retransmission timeout
+ * collapses the window to its minimum.
+ *
+ * @author jython234
+ */
+public class NewRenoController implements CongestionController {
+    private static final double SLOW_START_PACING_GAIN = 2.0;
+    private static final double PACING_GAIN = 1.25;
+
+    private final RttEstimator rtt;
+    private final long segmentSize;
+    private final long minWindow;
+    private final long maxWindow;
+
+    @Getter private long congestionWindow;
+    @Getter private long slowStartThreshold = Long.MAX_VALUE;
+    private long bytesAcked = 0;
+    private long recoveryStart;
+    private boolean recovering = false;
+
+    /**
+     * Creates a new NewRenoController.
+     * @param settings The settings which contain the window sizes.
+     * @param rtt The RTT estimator used to calculate the pacing rate.
+     */
+    public NewRenoController(NetworkSettings settings, RttEstimator rtt) {
+        this.rtt = rtt;
+        this.segmentSize = settings.mtu;
+        this.minWindow = Math.max(1, settings.minCongestionWindow) * this.segmentSize;
+        this.maxWindow = Math.max(this.minWindow, (long) settings.reliableWindowSize * this.segmentSize);
+        this.congestionWindow = Math.max(this.minWindow, Math.min(this.maxWindow, settings.initialCongestionWindow * this.segmentSize));
+    }
+
+    @Override
+    public void onPacketsAcked(long bytes, long newestSentAt, long bytesInFlight, long now) {
+        if(this.recovering) {
+            if(newestSentAt - this.recoveryStart <= 0)
+                return; // Sent before the loss, the window was already reduced for it
+            this.recovering = false;
+        }
+        if(bytesInFlight + bytes < this.congestionWindow / 2)
+            return; // Not using the window, so there is no reason to grow it
+
+        if(this.congestionWindow < this.slowStartThreshold) {
+            this.congestionWindow += bytes;
+        } else {
+            this.bytesAcked += bytes;
+            if(this.bytesAcked >= this.congestionWindow) {
+                this.bytesAcked -= this.congestionWindow;
+                this.congestionWindow += this.segmentSize;
+            }
+        }
+        this.congestionWindow = Math.min(this.congestionWindow, this.maxWindow);
+    }
+
+    @Override
+    public void onPacketLost(int bytes, long sentAt, long now) {
+        if(this.recovering && sentAt - this.recoveryStart <= 0)
+            return; // Only reduce the window once per round trip
+
+        enterRecovery(now);
+        this.congestionWindow = this.slowStartThreshold;
+    }
+
+    @Override
+    public void onRetransmitTimeout(long now) {
+        enterRecovery(now);
+        this.congestionWindow = this.minWindow;
+    }
+
+    private void enterRecovery(long now) {
+        this.recovering = true;
+        this.recoveryStart = now;
+        this.slowStartThreshold = Math.max(this.minWindow, this.congestionWindow / 2);
+        this.bytesAcked = 0;
+    }
+
+    @Override
+    public long getPacingRate() {
+        if(!this.rtt.hasSamples())
+            return 0;
+
+        double gain = this.congestionWindow < this.slowStartThreshold ? SLOW_START_PACING_GAIN : PACING_GAIN;
+        return (long) (gain * this.congestionWindow * 1000000000.0 / Math.max(1000, this.rtt.getSmoothedRtt()));
+    }
+}
@@ -0,0 +1,186 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Delivers the RELIABLE_ORDERED messages of one channel in
+ * the order they were sent.
+ *
+ * Messages which arrive ahead of a gap are copied into a ring
+ * indexed by <code>orderId</code> modulo the window size, and
+ * delivered once the gap has been filled. If the gap is not filled
+ * before the flush timeout, the missing messages are skipped
+ * and delivered as soon as they arrive instead. A negative
+ * timeout waits forever.
+ *
+ * Slot buffers are reused, so memory is only allocated when a
+ * message is larger than any message previously held in its slot.
+ *
+ * @author jython234
+ */
+public class OrderingBuffer {
+    public final byte channelId;
+    public final int windowSize;
+    /** Time (in nanoseconds) to wait for a gap before skipping it, negative to wait forever. */
+    public final long flushTimeout;
+
+    private final ReliabilityCallback callback;
+
+    private final int mask;
+    private final boolean[] present;
+    private final byte[][] data;
+    private final ByteBuffer[] views;
+
+    private int expected = 0;
+    private int buffered = 0;
+    private long blockedSince;
+
+    /** Total time (in nanoseconds) messages have been held back by gaps. */
+    @Getter private long blockedTime = 0;
+    /** Longest time (in nanoseconds) a single gap held back delivery. */
+    @Getter private long maxBlockedTime = 0;
+    /** Amount of times delivery was held back by a gap. */
+    @Getter private long blockedCount = 0;
+    /** Amount of missing messages which were skipped after the flush timeout. */
+    @Getter private long skippedCount = 0;
+    /** Amount of skipped messages which arrived late and were delivered out of order. */
+    @Getter private long lateCount = 0;
+
+    /**
+     * Creates a new OrderingBuffer.
+     * @param channelId The channel which messages are delivered on.
+     * @param windowSize The amount of messages which can be held, rounded up to a power of two.
+     * @param flushTimeout Time (in nanoseconds) to wait for a gap before skipping it, negative to wait forever.
+     * @param callback The callback which messages are delivered to.
+     */
+    public OrderingBuffer(byte channelId, int windowSize, long flushTimeout, ReliabilityCallback callback) {
+        this.channelId = channelId;
+        this.windowSize = DuplicateFilter.nextPowerOfTwo(windowSize);
+        this.flushTimeout = flushTimeout;
+        this.callback = callback;
+
+        this.mask = this.windowSize - 1;
+        this.present = new boolean[this.windowSize];
+        this.data = new byte[this.windowSize][];
+        this.views = new ByteBuffer[this.windowSize];
+    }
+
+    /**
+     * Handles a received, non-duplicate message.
+     * @param orderId The message's order ID.
+     * @param payload The message's payload, copied if it has to be held back.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @throws IOException If there was an error while delivering messages.
+     */
+    public void receive(int orderId, ByteBuffer payload, long now) throws IOException {
+        int distance = orderId - this.expected;
+        if(distance < 0) {
+            // Skipped by a flush, deliver it late rather than losing it
+            this.lateCount++;
+            this.callback.handleMessage(this.channelId, payload);
+            return;
+        }
+
+        if(distance == 0) {
+            this.callback.handleMessage(this.channelId, payload);
+            this.expected++;
+            drain(now);
+            return;
+        }
+
+        if(distance >= this.windowSize) {
+            // Can't be held in the window, skip the oldest gaps to make room
+            while(this.buffered > 0 && orderId - this.expected >= this.windowSize) {
+                skip(now);
+            }
+            int start = orderId - this.windowSize + 1;
+            if(start - this.expected > 0) {
+                this.skippedCount += start - this.expected;
+                this.expected = start;
+            }
+            if(orderId == this.expected) {
+                receive(orderId, payload, now);
+                return;
+            }
+        }
+
+        int slot = orderId & this.mask;
+        if(this.present[slot])
+            return;
+
+        int len = payload.remaining();
+        if(this.data[slot] == null || this.data[slot].length < len) {
+            this.data[slot] = new byte[Math.max(len, 64)];
+            this.views[slot] = ByteBuffer.wrap(this.data[slot]).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        payload.duplicate().get(this.data[slot], 0, len);
+        this.views[slot].limit(len);
+        this.present[slot] = true;
+
+        if(this.buffered++ == 0) {
+            this.blockedSince = now;
+            this.blockedCount++;
+        }
+    }
+
+    /**
+     * Skips the gap at the head of the window if it has been
+     * blocking delivery for longer than the flush timeout.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @throws IOException If there was an error while delivering messages.
+     */
+    public void update(long now) throws IOException {
+        if(this.buffered > 0 && this.flushTimeout >= 0 && now - this.blockedSince >= this.flushTimeout) {
+            skip(now);
+        }
+    }
+
+    private void skip(long now) throws IOException {
+        while(!this.present[this.expected & this.mask]) {
+            this.expected++;
+            this.skippedCount++;
+        }
+        drain(now);
+    }
+
+    private void drain(long now) throws IOException {
+        boolean drained = false;
+
+        int slot;
+        while(this.buffered > 0 && this.present[slot = this.expected & this.mask]) {
+            this.present[slot] = false;
+            this.buffered--;
+            this.expected++;
+            drained = true;
+
+            // Read-only and little endian, like the messages delivered in order
+            ByteBuffer view = this.views[slot];
+            view.position(0);
+            this.callback.handleMessage(this.channelId, view.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN));
+        }
+
+        if(drained) {
+            long blocked = now - this.blockedSince;
+            this.blockedTime += blocked;
+            this.maxBlockedTime = Math.max(this.maxBlockedTime, blocked);
+            if(this.buffered > 0) {
+                this.blockedSince = now; // The remaining messages are now blocked by the next gap
+                this.blockedCount++;
+            }
+        }
+    }
+
+    /** @return The amount of messages held back by gaps. */
+    public int getBufferedCount() {
+        return this.buffered;
+    }
+
+    /** @return The order ID of the next message to be delivered. */
+    public int getExpectedOrderId() {
+        return this.expected;
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.jython234.juicenet.network.reliability;
+
+/**
+ * Token bucket which spreads packets out at the pacing rate
+ * of a {@link CongestionController}, instead of sending a whole
+ * window at once.
+ *
+ * The bucket fills at the pacing rate and holds enough tokens for
+ * one update interval, so a sender which is only woken up by updates
+ * can still reach the rate. Every packet sent takes tokens, and packets
+ * which can't be delayed (retransmissions and UNRELIABLE packets) may
+ * take the bucket below zero, delaying the following packets instead.
+ *
+ * @author jython234
+ */
+public class Pacer {
+    private final long minBurst;
+    private final long interval;
+
+    private long rate = 0;
+    private double tokens;
+    private long lastRefill;
+    private boolean started = false;
+
+    /**
+     * Creates a new Pacer.
+     * @param minBurst The minimum amount of bytes which can be sent at once.
+     * @param interval The time (in nanoseconds) between updates of the sender.
+     */
+    public Pacer(long minBurst, long interval) {
+        this.minBurst = minBurst;
+        this.interval = interval;
+        this.tokens = minBurst;
+    }
+
+    /**
+     * Adds the tokens for the time since the last refill.
+     * @param rate The pacing rate (in bytes per second), or zero to stop pacing.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public void refill(long rate, long now) {
+        if(this.started) {
+            long elapsed = Math.min(now - this.lastRefill, 1000000000L);
+            if(elapsed > 0) {
+                this.tokens = Math.min(getCapacity(rate), this.tokens + rate * (elapsed / 1000000000.0));
+            }
+        }
+        this.started = true;
+        this.rate = rate;
+        this.lastRefill = now;
+    }
+
+    /** @return True if a packet can be sent right now. */
+    public boolean hasTokens() {
+        return this.rate <= 0 || this.tokens > 0;
+    }
+
+    /**
+     * Takes the tokens for a sent packet.
+     * @param bytes The size of the packet.
+     */
+    public void consume(int bytes) {
+        if(this.rate > 0) {
+            this.tokens -= bytes;
+        }
+    }
+
+    private double getCapacity(long rate) {
+        return Math.max(this.minBurst, rate * (this.interval / 1000000000.0));
+    }
+
+    /**
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return The time (in nanoseconds) until the next packet can be sent, zero if it can be sent now.
+     */
+    public long getDelay(long now) {
+        if(hasTokens())
+            return 0;
+        long refilled = now - this.lastRefill;
+        return Math.max(0, (long) (-this.tokens * 1000000000.0 / this.rate) - refilled);
+    }
+
+    /** @return The pacing rate (in bytes per second), zero if unpaced. */
+    public long getRate() {
+        return this.rate;
+    }
+}
@@ -0,0 +1,194 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import lombok.Getter;
+
+/**
+ * Searches for the largest datagram size a session's path delivers without
+ * IP fragmentation, in the style of DPLPMTUD (RFC 8899).
+ *
+ * The search starts from the {@link NetworkSettings#mtu}, which is assumed to
+ * always work. Probe packets padded to a candidate size are sent in their own
+ * datagrams, and the peer answers every probe it receives whole. The
+ * {@link NetworkSettings#maxMtu} is probed first, as most paths support it.
+ * If it fails, the search continues with binary search. A candidate fails once
+ * {@link #MAX_PROBES} probes of it went unanswered. Each answered probe raises
+ * the confirmed MTU, which the {@link ReliabilityLayer} then uses for
+ * fragmentation and coalescing.
+ *
+ * Once the search is complete, it is repeated every
+ * {@link NetworkSettings#pathMtuRaiseInterval}, in case the path changed.
+ * Packets lost with a raised MTU may mean the path no longer delivers it, so
+ * the MTU is probed again, at most once per {@link #CONFIRM_INTERVAL}. If the
+ * probe fails, the path has become a black hole for the MTU. The MTU then falls
+ * back to the base, and the search starts again below the failed size.
+ *
+ * Probes don't carry data, so a lost probe is never retransmitted, and they
+ * aren't limited by congestion control. Only one probe is in flight at a time.
+ *
+ * @author jython234
+ */
+public class PathMtuProber {
+    /** Amount of unanswered probes after which a candidate size fails. */
+    public static final int MAX_PROBES = 3;
+    /** The search stops once the failed and confirmed sizes are closer than this (in bytes). */
+    public static final int SEARCH_STEP = 16;
+    /** Shortest time (in nanoseconds) between probes confirming the MTU after packets were lost. */
+    public static final long CONFIRM_INTERVAL = 1000000000L;
+
+    public enum State {
+        /** Not started yet, the base MTU is used. */
+        DISABLED,
+        /** Probing for a larger MTU. */
+        SEARCHING,
+        /** The largest MTU was found, and is used until the raise timer expires. */
+        SEARCH_COMPLETE,
+        /** Probing the MTU again, as packets were lost. */
+        CONFIRMING
+    }
+
+    public final int baseMtu;
+    public final int maxMtu;
+    private final long raiseInterval;
+
+    @Getter private State state = State.DISABLED;
+    /** The largest confirmed datagram size (in bytes), including the encryption overhead. */
+    @Getter private int mtu;
+    private int high; // Largest size which hasn't failed yet
+
+    private int probeSize = 0; // The candidate being probed, 0 if none
+    private int probeCount = 0;
+    private long probeSentAt;
+    private long raiseAt;
+    private long confirmedAt;
+
+    @Getter private long probesSent = 0;
+    @Getter private long probesAcked = 0;
+    /** Amount of times the MTU fell back to the base, after a black hole was detected. */
+    @Getter private long blackHoles = 0;
+
+    /**
+     * Creates a new PathMtuProber.
+     * @param baseMtu The MTU (in bytes) which is assumed to always work.
+     * @param maxMtu The largest MTU (in bytes) to probe for.
+     * @param raiseInterval Time (in nanoseconds) after which a complete search is repeated.
+     */
+    public PathMtuProber(int baseMtu, int maxMtu, long raiseInterval) {
+        this.baseMtu = baseMtu;
+        this.maxMtu = Math.max(baseMtu, maxMtu);
+        this.raiseInterval = raiseInterval;
+        this.mtu = baseMtu;
+        this.high = this.maxMtu;
+    }
+
+    /**
+     * Starts searching, if the search wasn't started yet.
+     */
+    public void start() {
+        if(this.state == State.DISABLED) {
+            this.state = State.SEARCHING;
+        }
+    }
+
+    /**
+     * @return True while probes are sent or awaited, and the prober needs to be called every tick.
+     */
+    public boolean isSearching() {
+        return this.state == State.SEARCHING || this.state == State.CONFIRMING;
+    }
+
+    /**
+     * Returns the size of the next probe to send. The caller must send a probe of this size right away,
+     * and check {@link #getMtu()} afterwards, which falls back to the base if a black hole was detected.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @param timeout Time (in nanoseconds) after which a probe is considered lost.
+     * @return The size (in bytes) of the datagram to send, including the encryption overhead, or 0 if no probe is due.
+     */
+    public int nextProbe(long now, long timeout) {
+        if(this.state == State.SEARCH_COMPLETE && now - this.raiseAt >= 0) {
+            this.state = State.SEARCHING; // The path may support more by now
+            this.high = this.maxMtu;
+        }
+        if(!isSearching())
+            return 0;
+
+        if(this.probeSize != 0) {
+            if(now - this.probeSentAt < timeout)
+                return 0; // Still waiting for the answer
+            if(this.probeCount >= MAX_PROBES) {
+                this.high = this.probeSize - 1;
+                this.probeSize = 0;
+                if(this.state == State.CONFIRMING) {
+                    this.blackHoles++;
+                    this.mtu = this.baseMtu;
+                    this.state = State.SEARCHING;
+                }
+            }
+        }
+
+        if(this.state == State.CONFIRMING) {
+            if(this.probeSize == 0) {
+                this.probeSize = this.mtu;
+                this.probeCount = 0;
+            }
+        } else if(this.probeSize == 0) {
+            if(this.high - this.mtu < SEARCH_STEP) {
+                complete(now);
+                return 0;
+            }
+            this.probeSize = this.high == this.maxMtu ? this.high : (this.mtu + this.high + 1) >>> 1;
+            this.probeCount = 0;
+        }
+
+        this.probeCount++;
+        this.probesSent++;
+        this.probeSentAt = now;
+        return this.probeSize;
+    }
+
+    /**
+     * Handles the peer's answer to a probe.
+     * @param size The size of the probe which was answered.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return True if the MTU was raised.
+     */
+    public boolean onProbeAcked(int size, long now) {
+        if(this.state == State.CONFIRMING && size == this.mtu) {
+            this.probesAcked++;
+            this.state = State.SEARCH_COMPLETE; // The path still delivers it
+            this.probeSize = 0;
+            this.confirmedAt = now;
+            return false;
+        }
+        if(this.state != State.SEARCHING || size <= this.mtu || size > this.high)
+            return false; // Late, or already confirmed
+
+        this.probesAcked++;
+        this.mtu = size;
+        if(size == this.probeSize) {
+            this.probeSize = 0;
+        }
+        if(this.high - this.mtu < SEARCH_STEP) {
+            complete(now);
+        }
+        return true;
+    }
+
+    /**
+     * Called when a packet was lost, which may mean the path no longer delivers the MTU.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public void onPacketLost(long now) {
+        if(this.state == State.SEARCH_COMPLETE && this.mtu > this.baseMtu && now - this.confirmedAt >= CONFIRM_INTERVAL) {
+            this.state = State.CONFIRMING;
+            this.probeSize = 0;
+        }
+    }
+
+    private void complete(long now) {
+        this.state = State.SEARCH_COMPLETE;
+        this.probeSize = 0;
+        this.raiseAt = now + this.raiseInterval;
+        this.confirmedAt = now - CONFIRM_INTERVAL; // Not confirmed by traffic yet
+    }
+}
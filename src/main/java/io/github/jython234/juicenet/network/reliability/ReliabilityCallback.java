@@ -0,0 +1,43 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Connects a {@link ReliabilityLayer} to the socket
+ * and to the application.
+ *
+ * @author jython234
+ */
+public interface ReliabilityCallback {
+    /**
+     * Sends a datagram to the remote peer.
+     * @param datagram The datagram, from its position to its limit. Only valid for the duration of the call.
+     * @throws IOException If there was an error while sending.
+     */
+    void sendDatagram(ByteBuffer datagram) throws IOException;
+
+    /**
+     * Handles a message which has been received from the remote peer.
+     * @param channelId The channel the message was sent on.
+     * @param payload The payload of the message. Only valid for the duration of the call.
+     * @throws IOException If there was an error while handling the message.
+     */
+    void handleMessage(byte channelId, ByteBuffer payload) throws IOException;
+
+    /**
+     * Called when a round trip time has been measured, for metrics.
+     * @param rtt The round trip time in nanoseconds.
+     */
+    default void onRttSample(long rtt) {}
+
+    /**
+     * Called once for each datagram with containers in it, before they are handled.
+     * Refused containers aren't acknowledged, so the remote peer sends them again later.
+     * ACKs, NACKs and MTU probes in the datagram are handled either way.
+     * @return False if the containers of the datagram should be dropped.
+     */
+    default boolean acceptContainers() {
+        return true;
+    }
+}
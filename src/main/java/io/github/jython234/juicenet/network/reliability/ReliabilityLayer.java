@@ -0,0 +1,1400 @@
+package io.github.jython234.juicenet.network.reliability;
+
+import io.github.jython234.juicenet.JuiceNetConstants;
+import io.github.jython234.juicenet.network.ChannelSettings;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.compression.PayloadCodec;
+import io.github.jython234.juicenet.network.crypto.SessionCipher;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.packet.ContainerView;
+import io.github.jython234.juicenet.network.packet.ack.AcknowledgePacket;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Implements reliability for one remote peer.
+ *
+ * Every transmission of a reliable container packet is given
+ * a new <code>packetId</code>, which the receiver acknowledges in
+ * batched ACK packets. Gaps in the received IDs are reported
+ * in NACK packets so the sender can retransmit right away, and
+ * packets which are neither ACKed nor NACKed are retransmitted
+ * once the RTO calculated by the {@link RttEstimator} expires.
+ * The <code>packetCounter</code> stays the same for every
+ * transmission of a packet and is used by the receiver to
+ * suppress duplicates.
+ *
+ * Packets are coalesced into datagrams of up to the MTU, which
+ * are sent once they are full or at the end of {@link #update(long)}.
+ * The receiver handles every packet in a datagram in turn. The MTU
+ * is raised to what the path delivers by a {@link PathMtuProber}.
+ *
+ * Reliable packets are limited by the {@link CongestionController}'s window
+ * and paced by a {@link Pacer}. Packets whose retransmission timer expired
+ * are treated as lost and retransmitted as the congestion window allows,
+ * instead of all at once.
+ *
+ * Reliable packets which don't fit in the send window are queued per
+ * channel, and the {@link ChannelScheduler} shares the window between
+ * the channels by their weights once it opens up again.
+ *
+ * Channels with a {@link ChannelSettings#fecGroupSize} send parity packets for
+ * groups of their containers, see {@link FecEncoder}, so the receiver can rebuild
+ * a lost container without waiting for its retransmission.
+ *
+ * Payloads of channels with a {@link ChannelSettings#compression} codec are
+ * compressed before the layer's lock is taken and before they are fragmented,
+ * and decompressed once they have been reassembled, before they are ordered.
+ *
+ * Once the session has a {@link SessionCipher}, whole datagrams are encrypted
+ * in place in the send buffer, which has room for the encryption header and tag
+ * around it, and received datagrams are authenticated and decrypted before their
+ * packets are parsed.
+ *
+ * Packets can carry a future in {@link ContainerPacket#acknowledged}, which
+ * is completed once the remote peer has acknowledged the whole payload.
+ * Futures are completed after the layer's lock has been released, so
+ * their dependent actions can use the layer again.
+ *
+ * All state lives in fixed size rings indexed by sequence numbers,
+ * so no memory is allocated per packet. The methods of this class
+ * are synchronized, as packets are received, sent and updated from
+ * different threads.
+ *
+ * @author jython234
+ */
+public class ReliabilityLayer {
+    public final NetworkSettings settings;
+
+    private final ReliabilityCallback callback;
+    private final RttEstimator rtt;
+    private final ContainerView view = new ContainerView();
+    private final ByteBuffer datagramBuffer; // The send buffer, with room for the encryption header in front of it and the tag behind it
+    private final ByteBuffer sendBuffer; // The datagram being coalesced, in write mode
+    private final int[] coalescedSlots; // Send window slots of the reliable packets in the datagram
+    private int coalescedCount = 0;
+    private final FragmentAssembler assembler;
+
+    /**
+     * Maximum size (in bytes) of datagrams sent by this layer before they
+     * are encrypted, larger packets are fragmented.
+     */
+    @Getter private int mtu;
+    private int datagramMtu; // The MTU including the encryption overhead
+    private final PathMtuProber mtuProber; // Null if path MTU discovery is disabled
+    private int nextFragmentationId = 0;
+
+    // Reliable fragmented payloads in flight, limited to what the remote peer can reassemble at once
+    private final int maxFragmentSets;
+    private final int fragmentMask;
+    private final int[] fragmentsRemaining; // Indexed by fragmentationId
+    private final CompletableFuture<?>[] fragmentFutures; // Indexed by fragmentationId
+    private int fragmentSetsInFlight = 0;
+
+    // Send window, indexed by packetCounter
+    private final int windowSize;
+    private final int windowMask;
+    private final ContainerPacket[] inFlight;
+    private final int[] inFlightCounter;
+    private final int[] latestId;
+    private final long[] sentAt;
+    private final boolean[] fecProtected; // True if the latest transmission can be rebuilt from FEC parity
+    private int nextCounter = 0;
+    private int oldestUnacked = 0;
+    private int inFlightCount = 0;
+
+    // Congestion control, null if disabled
+    private final CongestionController congestion;
+    private final Pacer pacer;
+    /** Amount of reliable bytes sent but not acknowledged, not including packets waiting for retransmission. */
+    @Getter private long bytesInFlight = 0;
+    private final boolean[] lost; // Timed out packets waiting for retransmission, indexed like the send window
+    private int lostCount = 0;
+
+    // Maps packetIds to the packetCounter they were sent with
+    private final int idMask;
+    private final int[] idSlot;
+    private final int[] idCounter;
+    private int nextPacketId = 0;
+    private long ackSampleSentAt; // Send time of the newest transmission in the ACK being handled
+    private boolean ackSampled;
+    private long ackedBytes; // Total size of the packets acknowledged by the ACK being handled
+    private long ackNewestSentAt;
+    private long largestAckedSentAt; // Send time of the newest transmission which was acknowledged
+    private boolean acked = false;
+
+    private final ArrayDeque<CompletableFuture<Void>> acknowledgedFutures = new ArrayDeque<>(); // Completed once the lock is released
+    private boolean closed = false;
+
+    private final ChannelScheduler sendQueue;
+    private final Predicate<ContainerPacket> windowSpace = this::hasWindowSpace;
+    private final int[] nextOrderId = new int[256]; // Indexed by channel
+
+    // Receive state
+    private final DuplicateFilter duplicates;
+    private final int[] pendingAcks;
+    private int pendingAckCount = 0;
+    private final int[] pendingNacks;
+    private int pendingNackCount = 0;
+    private int expectedPacketId = 0;
+
+    // Ordering buffers are created when a channel receives its first RELIABLE_ORDERED message
+    private final OrderingBuffer[] orderingBuffers = new OrderingBuffer[256];
+    private final OrderingBuffer[] activeOrderingBuffers = new OrderingBuffer[256];
+    private int activeOrderingCount = 0;
+
+    // Forward error correction, created when a channel with a group size first sends or receives a protected container
+    private final FecEncoder[] fecEncoders = new FecEncoder[256];
+    private final FecEncoder[] activeFecEncoders = new FecEncoder[256];
+    private int activeFecEncoderCount = 0;
+    private final FecDecoder[] fecDecoders = new FecDecoder[256];
+    private final FecDecoder[] activeFecDecoders = new FecDecoder[256];
+    private int activeFecDecoderCount = 0;
+    private final ContainerView fecView = new ContainerView(); // Wraps rebuilt containers
+
+    // Reused to decompress payloads, grown to the largest payload received
+    private byte[] compressedBuffer = new byte[0];
+    private byte[] decompressedBuffer = new byte[0];
+    private ByteBuffer decompressedView = ByteBuffer.wrap(this.decompressedBuffer).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+    // Encryption, null if the session isn't encrypted
+    private SessionCipher cipher;
+    private byte[] decryptedBuffer;
+    private ByteBuffer decryptedView;
+
+    // Whether the callback was asked about the containers of the datagram being received, and its answer
+    private boolean containersChecked;
+    private boolean containersAccepted;
+
+    @Getter private long packetsSent = 0;
+    @Getter private long acknowledgePacketsSent = 0;
+    @Getter private long datagramsSent = 0;
+    @Getter private long packetsRetransmitted = 0;
+    @Getter private long packetsReceived = 0;
+    @Getter private long duplicatesReceived = 0;
+    @Getter private long fragmentsDropped = 0;
+    /** Amount of containers dropped because the callback refused them, see {@link ReliabilityCallback#acceptContainers()}. */
+    @Getter private long containersRefused = 0;
+    /** Size (in bytes) of the payloads received compressed, and their size once decompressed. */
+    @Getter private long compressedBytesReceived = 0;
+    @Getter private long decompressedBytesReceived = 0;
+    /** Amount of datagrams dropped because they weren't authentic, were replays or weren't encrypted. */
+    @Getter private long datagramsRejected = 0;
+    @Getter private long fecParitySent = 0;
+    @Getter private long mtuProbesSent = 0;
+
+    /**
+     * Creates a new ReliabilityLayer with its own fragment memory.
+     * @param settings The settings which control the window size and timeouts.
+     * @param callback The callback which sends datagrams and handles received messages.
+     */
+    public ReliabilityLayer(NetworkSettings settings, ReliabilityCallback callback) {
+        this(settings, callback, new FragmentMemory(settings.sessionFragmentMemory, settings.fragmentSlabSize));
+    }
+
+    /**
+     * Creates a new ReliabilityLayer.
+     * @param settings The settings which control the window size and timeouts.
+     * @param callback The callback which sends datagrams and handles received messages.
+     * @param fragmentMemory The memory used to reassemble fragmented payloads, can be shared between layers.
+     */
+    public ReliabilityLayer(NetworkSettings settings, ReliabilityCallback callback, FragmentMemory fragmentMemory) {
+        this.settings = settings;
+        this.sendQueue = new ChannelScheduler(settings);
+        this.callback = callback;
+        this.rtt = new RttEstimator(
+                settings.initialRetransmitTimeout * 1000000L,
+                settings.minRetransmitTimeout * 1000000L,
+                settings.maxRetransmitTimeout * 1000000L,
+                settings.tickInterval * 1000000L
+        );
+
+        this.mtu = settings.mtu;
+        this.datagramMtu = settings.mtu;
+        int capacity = settings.getReceiveBufferSize();
+        this.mtuProber = settings.pathMtuDiscovery && settings.maxMtu > settings.mtu
+                ? new PathMtuProber(settings.mtu, Math.min(settings.maxMtu, capacity), settings.pathMtuRaiseInterval * 1000000L) : null;
+        this.datagramBuffer = ByteBuffer.allocate(SessionCipher.HEADER_SIZE + capacity + SessionCipher.TAG_SIZE);
+        this.datagramBuffer.position(SessionCipher.HEADER_SIZE).limit(SessionCipher.HEADER_SIZE + capacity);
+        this.sendBuffer = this.datagramBuffer.slice();
+        this.sendBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.coalescedSlots = new int[this.sendBuffer.capacity() / ContainerPacket.getHeaderSize(ContainerPacket.ReliabilityType.RELIABLE, false) + 1];
+        this.assembler = new FragmentAssembler(fragmentMemory, settings);
+        this.maxFragmentSets = Math.max(1, settings.maxFragmentSets);
+        this.fragmentsRemaining = new int[DuplicateFilter.nextPowerOfTwo(this.maxFragmentSets) * 4];
+        this.fragmentMask = this.fragmentsRemaining.length - 1;
+        this.fragmentFutures = new CompletableFuture<?>[this.fragmentsRemaining.length];
+
+        this.windowSize = Math.max(64, DuplicateFilter.nextPowerOfTwo(settings.reliableWindowSize));
+        this.windowMask = this.windowSize - 1;
+        this.inFlight = new ContainerPacket[this.windowSize];
+        this.inFlightCounter = new int[this.windowSize];
+        this.latestId = new int[this.windowSize];
+        this.sentAt = new long[this.windowSize];
+        this.fecProtected = new boolean[this.windowSize];
+
+        this.congestion = settings.congestionControl != null ? settings.congestionControl.create(settings, this.rtt) : null;
+        this.pacer = this.congestion != null && settings.pacing ? new Pacer(2L * settings.mtu, settings.tickInterval * 1000000L) : null;
+        this.lost = new boolean[this.windowSize];
+
+        int idRing = this.windowSize * 4; // Room for retransmissions of every packet in the window
+        this.idMask = idRing - 1;
+        this.idSlot = new int[idRing];
+        this.idCounter = new int[idRing];
+        Arrays.fill(this.idSlot, -1);
+
+        this.duplicates = new DuplicateFilter(this.windowSize);
+        this.pendingAcks = new int[this.windowSize * 2];
+        this.pendingNacks = new int[this.windowSize];
+    }
+
+    /**
+     * Sends a container packet. Reliable packets are assigned their <code>packetId</code>
+     * and <code>packetCounter</code>, and are queued if the send window is full.
+     * Packets larger than the MTU are split into fragments.
+     * The layer keeps a reference to reliable packets until they are
+     * acknowledged, so they must not be modified after being sent.
+     *
+     * @param packet The packet to send.
+     * @throws IOException If there was an error while sending.
+     */
+    public void send(ContainerPacket packet) throws IOException {
+        compress(packet); // Outside of the lock, as it is the expensive part
+        try {
+            synchronized(this) {
+                sendPacket(packet, null);
+            }
+        } finally {
+            completeAcknowledged();
+        }
+    }
+
+    /**
+     * Sends a message which was prepared once for many peers. Its payload is
+     * neither compressed nor split again, only this layer's packet IDs, counters
+     * and order IDs are filled in.
+     *
+     * @param message The message.
+     * @throws IOException If there was an error while sending.
+     */
+    public void send(EncodedMessage message) throws IOException {
+        ContainerPacket packet = new ContainerPacket();
+        packet.reliabilityType = message.reliabilityType;
+        packet.channelId = message.channelId;
+        packet.compressed = message.compressed;
+        packet.payloadSize = (short) message.payload.length;
+        packet.payload = message.payload;
+        try {
+            synchronized(this) {
+                sendPacket(packet, message);
+            }
+        } finally {
+            completeAcknowledged();
+        }
+    }
+
+    /**
+     * Sends a container packet like {@link #send(ContainerPacket)}, and returns
+     * a future which completes once the remote peer has acknowledged it.
+     * Errors while sending complete the future exceptionally instead of being thrown.
+     *
+     * @param packet The packet to send.
+     * @return The future, which is also stored in the packet's {@link ContainerPacket#acknowledged} field.
+     */
+    public CompletableFuture<Void> sendAcknowledged(ContainerPacket packet) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        packet.acknowledged = future;
+        try {
+            send(packet);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Compresses the packet's payload with its channel's codec, if it has one,
+     * the payload is large enough, and compressing makes it smaller.
+     * @param packet The packet, whose payload is replaced by the compressed one.
+     */
+    private void compress(ContainerPacket packet) {
+        if(packet.compressed)
+            return;
+
+        byte[] compressed = compress(this.settings.channels[packet.channelId & 0xFF], packet.payload);
+        if(compressed != null) {
+            packet.payload = compressed;
+            packet.payloadSize = (short) compressed.length;
+            packet.compressed = true;
+        }
+    }
+
+    /**
+     * Compresses a payload with its channel's codec, if it has one,
+     * the payload is large enough, and compressing makes it smaller.
+     * @param channel The settings of the payload's channel.
+     * @param payload The payload.
+     * @return The size prefixed compressed payload, or null if it isn't compressed.
+     */
+    static byte[] compress(ChannelSettings channel, byte[] payload) {
+        int size = payload.length;
+        if(channel.compression == null || size < Math.max(channel.compressionThreshold, 6))
+            return null;
+
+        // Compressing is only worth it if the size prefix and data are smaller than the payload
+        byte[] compressed = new byte[size - 1];
+        int length = channel.compression.compress(payload, 0, size, compressed, 4, compressed.length - 4);
+        if(length < 0)
+            return null;
+
+        compressed[0] = (byte) size;
+        compressed[1] = (byte) (size >>> 8);
+        compressed[2] = (byte) (size >>> 16);
+        compressed[3] = (byte) (size >>> 24);
+        return Arrays.copyOf(compressed, 4 + length);
+    }
+
+    private void sendPacket(ContainerPacket packet, EncodedMessage message) throws IOException {
+        if(this.closed) {
+            if(packet.acknowledged != null) {
+                packet.acknowledged.completeExceptionally(new ClosedChannelException());
+            }
+            return;
+        }
+
+        if(packet.reliabilityType == ContainerPacket.ReliabilityType.RELIABLE_ORDERED) {
+            packet.orderId = this.nextOrderId[packet.channelId & 0xFF]++;
+        }
+
+        if(packet.getSize() > this.mtu) {
+            sendFragmented(packet, message);
+        } else {
+            enqueue(packet);
+        }
+    }
+
+    private void sendFragmented(ContainerPacket packet, EncodedMessage message) throws IOException {
+        int size = packet.payload.length;
+        int maxChunk = this.mtu - ContainerPacket.getHeaderSize(packet.reliabilityType, true);
+        if(this.settings.channels[packet.channelId & 0xFF].fecGroupSize > 0) {
+            maxChunk -= FecEncoder.PARITY_HEADER_SIZE; // Leaves room for the fragments' parity
+        }
+        int count = (size + maxChunk - 1) / maxChunk;
+        if(count > Short.MAX_VALUE || maxChunk < 1)
+            throw new IllegalArgumentException("Packet is too large (" + size + " bytes) to be fragmented");
+        int chunk = (size + count - 1) / count;
+        byte[][] chunks = message != null ? message.getFragments(count) : null; // Shared by every peer with the same MTU
+        int id = this.nextFragmentationId++;
+
+        for(int i = 0; i < count; i++) {
+            ContainerPacket fragment = new ContainerPacket();
+            fragment.reliabilityType = packet.reliabilityType;
+            fragment.orderId = packet.orderId;
+            fragment.channelId = packet.channelId;
+            fragment.fragmented = true;
+            fragment.compressed = packet.compressed;
+            fragment.fragmentationId = id;
+            fragment.fragmentationIndex = (short) i;
+            fragment.fragmentationCount = (short) count;
+            fragment.fragmentationSize = size;
+            fragment.payload = chunks != null ? chunks[i] : Arrays.copyOfRange(packet.payload, i * chunk, Math.min(size, (i + 1) * chunk));
+            fragment.payloadSize = (short) fragment.payload.length;
+            if(i == 0) {
+                fragment.acknowledged = packet.acknowledged; // Moved to fragmentFutures once the set is in flight
+            }
+
+            enqueue(fragment);
+        }
+    }
+
+    private void enqueue(ContainerPacket packet) throws IOException {
+        if(packet.reliabilityType == ContainerPacket.ReliabilityType.UNRELIABLE) {
+            transmit(packet);
+            if(packet.acknowledged != null) {
+                this.acknowledgedFutures.add(packet.acknowledged); // Nothing to wait for
+            }
+            return;
+        }
+
+        // Packets can overtake the queued packets of other channels, but not those of their own channel
+        if(this.sendQueue.hasQueued(packet.channelId) || !hasWindowSpace(packet)) {
+            this.sendQueue.add(packet);
+            return;
+        }
+        sendReliable(packet);
+    }
+
+    private boolean hasWindowSpace(ContainerPacket packet) {
+        if(packet.fragmented && packet.fragmentationIndex == 0 && packet.reliabilityType != ContainerPacket.ReliabilityType.UNRELIABLE) {
+            // The remote side only reassembles maxFragmentSets payloads at once, and evicts none of the reliable ones
+            if(this.fragmentSetsInFlight >= this.maxFragmentSets || this.fragmentsRemaining[packet.fragmentationId & this.fragmentMask] != 0)
+                return false;
+        }
+        // The duplicate filter on the remote side only covers windowSize counters
+        return this.nextCounter - this.oldestUnacked < this.windowSize && hasCongestionSpace(packet.getSize());
+    }
+
+    private boolean hasCongestionSpace(int size) {
+        if(this.congestion == null)
+            return true;
+        if(this.bytesInFlight > 0 && this.bytesInFlight + size > this.congestion.getCongestionWindow())
+            return false;
+
+        if(this.pacer != null && !this.pacer.hasTokens()) {
+            this.pacer.refill(this.congestion.getPacingRate(), System.nanoTime());
+            return this.pacer.hasTokens();
+        }
+        return true;
+    }
+
+    private void sendReliable(ContainerPacket packet) throws IOException {
+        int counter = this.nextCounter++;
+        int slot = counter & this.windowMask;
+
+        packet.packetCounter = counter;
+        this.inFlight[slot] = packet;
+        this.inFlightCounter[slot] = counter;
+        this.inFlightCount++;
+        this.bytesInFlight += packet.getSize();
+
+        if(packet.fragmented && packet.fragmentationIndex == 0) {
+            this.fragmentsRemaining[packet.fragmentationId & this.fragmentMask] = packet.fragmentationCount;
+            this.fragmentFutures[packet.fragmentationId & this.fragmentMask] = packet.acknowledged;
+            packet.acknowledged = null;
+            this.fragmentSetsInFlight++;
+        }
+
+        transmitReliable(slot, false);
+    }
+
+    private void transmitReliable(int slot, boolean retransmission) throws IOException {
+        ContainerPacket packet = this.inFlight[slot];
+        int id = this.nextPacketId++;
+
+        packet.packetId = id;
+        this.latestId[slot] = id;
+        this.sentAt[slot] = System.nanoTime();
+        this.idSlot[id & this.idMask] = id;
+        this.idCounter[id & this.idMask] = packet.packetCounter;
+
+        transmit(packet, slot, !retransmission);
+    }
+
+    private void transmit(ContainerPacket packet) throws IOException {
+        transmit(packet, -1, true);
+    }
+
+    private void transmit(ContainerPacket packet, int slot, boolean protect) throws IOException {
+        int size = packet.getSize();
+        FecEncoder fec = protect ? getFecEncoder(packet.channelId) : null;
+        if(fec != null && size + FecEncoder.PARITY_HEADER_SIZE > this.mtu) {
+            fec = null; // Its parity wouldn't fit in a datagram
+        }
+
+        if(this.sendBuffer.position() + (fec != null ? FecEncoder.HEADER_SIZE : 0) + size > this.mtu) {
+            flushDatagram();
+        }
+        if(fec != null) {
+            fec.writeHeader(this.sendBuffer);
+        }
+        int start = this.sendBuffer.position();
+        packet.encodeInto(this.sendBuffer);
+        if(fec != null) {
+            fec.add(this.sendBuffer, start, size);
+        }
+        this.packetsSent++;
+        if(this.pacer != null) {
+            this.pacer.consume(size);
+        }
+        if(slot >= 0) {
+            this.coalescedSlots[this.coalescedCount++] = slot;
+            this.fecProtected[slot] = fec != null;
+        }
+
+        if(fec != null) {
+            flushDatagram(); // So a lost datagram only loses one container of the group
+            if(fec.isGroupFull()) {
+                sendParity(fec);
+            }
+        } else if(!this.settings.coalescePackets) {
+            flushDatagram();
+        }
+    }
+
+    private void sendParity(FecEncoder fec) throws IOException {
+        flushDatagram();
+        for(int i = 0; i < fec.parityCount; i++) {
+            int size = fec.getParityPacketSize(i);
+            if(size == 0)
+                continue;
+
+            fec.writeParity(this.sendBuffer, i);
+            this.fecParitySent++;
+            if(this.pacer != null) {
+                this.pacer.consume(size);
+            }
+            flushDatagram(); // Each in its own datagram, like the containers
+        }
+        fec.nextGroup();
+    }
+
+    private void sendMtuProbe(long now) throws IOException {
+        int size = this.mtuProber.nextProbe(now, this.rtt.getRto());
+        if(this.mtuProber.getMtu() != this.datagramMtu) {
+            setMtu(this.mtuProber.getMtu()); // A black hole, packets in flight keep their size
+        }
+        if(size == 0)
+            return;
+
+        flushDatagram();
+        int padded = size - (this.cipher != null ? SessionCipher.OVERHEAD : 0);
+        this.sendBuffer.putShort(JuiceNetConstants.ID_MTU_PROBE_PACKET);
+        this.sendBuffer.putShort((short) size);
+        Arrays.fill(this.sendBuffer.array(), this.sendBuffer.arrayOffset() + 4, this.sendBuffer.arrayOffset() + padded, (byte) 0);
+        this.sendBuffer.position(padded);
+        this.mtuProbesSent++;
+        flushDatagram();
+    }
+
+    private FecEncoder getFecEncoder(byte channelId) {
+        FecEncoder fec = this.fecEncoders[channelId & 0xFF];
+        if(fec == null) {
+            ChannelSettings channel = this.settings.channels[channelId & 0xFF];
+            if(channel.fecGroupSize <= 0)
+                return null;
+            fec = new FecEncoder(channelId, channel);
+            this.fecEncoders[channelId & 0xFF] = fec;
+            this.activeFecEncoders[this.activeFecEncoderCount++] = fec;
+        }
+        return fec;
+    }
+
+    private FecDecoder getFecDecoder(byte channelId) {
+        FecDecoder fec = this.fecDecoders[channelId & 0xFF];
+        if(fec == null) {
+            ChannelSettings channel = this.settings.channels[channelId & 0xFF];
+            if(channel.fecGroupSize <= 0)
+                return null;
+            fec = new FecDecoder(channelId, channel);
+            this.fecDecoders[channelId & 0xFF] = fec;
+            this.activeFecDecoders[this.activeFecDecoderCount++] = fec;
+        }
+        return fec;
+    }
+
+    private void flushDatagram() throws IOException {
+        if(this.sendBuffer.position() == 0)
+            return;
+
+        // The retransmission timers start once the packets actually leave
+        long now = System.nanoTime();
+        for(int i = 0; i < this.coalescedCount; i++) {
+            this.sentAt[this.coalescedSlots[i]] = now;
+        }
+        this.coalescedCount = 0;
+
+        this.sendBuffer.flip();
+        this.datagramsSent++;
+        try {
+            if(this.cipher != null) {
+                // Encrypted in place, the header goes in front of the send buffer and the tag behind it
+                int length = this.cipher.encrypt(this.datagramBuffer.array(), this.datagramBuffer.arrayOffset(), this.sendBuffer.limit());
+                this.datagramBuffer.limit(length).position(0);
+                this.callback.sendDatagram(this.datagramBuffer);
+            } else {
+                this.callback.sendDatagram(this.sendBuffer);
+            }
+        } finally {
+            this.sendBuffer.clear();
+        }
+    }
+
+    private void retransmit(int slot) throws IOException {
+        this.packetsRetransmitted++;
+        if(this.mtuProber != null) {
+            this.mtuProber.onPacketLost(System.nanoTime());
+        }
+        transmitReliable(slot, true);
+    }
+
+    /**
+     * Handles a datagram received from the remote peer, which
+     * may contain any amount of coalesced packets.
+     * @param data The datagram, positioned at the first packet's ID. Must be little-endian.
+     * @throws IOException If there was an error while sending a response or handling a message.
+     */
+    public void handleDatagram(ByteBuffer data) throws IOException {
+        try {
+            synchronized(this) {
+                if(this.cipher != null) {
+                    data = decrypt(data);
+                    if(data == null)
+                        return;
+                }
+                receiveDatagram(data);
+            }
+        } finally {
+            completeAcknowledged();
+        }
+    }
+
+    private ByteBuffer decrypt(ByteBuffer data) {
+        if(data.remaining() < 2 || data.getShort(data.position()) != JuiceNetConstants.ID_ENCRYPTED_PACKET) {
+            this.datagramsRejected++; // Anyone could have sent it
+            return null;
+        }
+
+        int length = this.cipher.decrypt(data, this.decryptedBuffer);
+        if(length < 0) {
+            this.datagramsRejected++;
+            return null;
+        }
+        this.decryptedView.clear();
+        this.decryptedView.limit(length);
+        return this.decryptedView;
+    }
+
+    private void receiveDatagram(ByteBuffer data) throws IOException {
+        this.containersChecked = false;
+        while(data.remaining() >= 2) {
+            short pid = data.getShort(data.position());
+
+            switch (pid) {
+                case JuiceNetConstants.ID_CONTAINER_PACKET:
+                    ContainerView container = this.view.wrap(data);
+                    if(acceptContainer()) {
+                        handleContainer(container);
+                    }
+                    break;
+                case JuiceNetConstants.ID_FEC_PACKET:
+                    handleFecContainer(data);
+                    break;
+                case JuiceNetConstants.ID_FEC_PARITY_PACKET:
+                    handleFecParity(data);
+                    break;
+                case JuiceNetConstants.ID_MTU_PROBE_PACKET:
+                    handleMtuProbe(data);
+                    break;
+                case JuiceNetConstants.ID_MTU_PROBE_ACK_PACKET:
+                    handleMtuProbeAck(data);
+                    break;
+                case JuiceNetConstants.ID_ACK_PACKET:
+                    handleAcknowledge(data, true);
+                    break;
+                case JuiceNetConstants.ID_NACK_PACKET:
+                    handleAcknowledge(data, false);
+                    break;
+                default:
+                    return; // Unknown packet, the rest of the datagram can't be parsed
+            }
+        }
+    }
+
+    private void handleMtuProbe(ByteBuffer data) throws IOException {
+        if(data.remaining() < 4)
+            throw new RuntimeException("Not enough bytes for the MTU probe header!");
+        int size = data.getShort(data.position() + 2) & 0xFFFF;
+        int padded = data.remaining(); // The probe fills the rest of the datagram
+        data.position(data.limit());
+        if(padded + (this.cipher != null ? SessionCipher.OVERHEAD : 0) < size)
+            return; // Truncated, this size doesn't fit in the receive buffers
+
+        if(this.sendBuffer.position() + 4 > this.mtu) {
+            flushDatagram();
+        }
+        this.sendBuffer.putShort(JuiceNetConstants.ID_MTU_PROBE_ACK_PACKET);
+        this.sendBuffer.putShort((short) size);
+        flushDatagram(); // Right away, the prober is waiting for it
+    }
+
+    private void handleMtuProbeAck(ByteBuffer data) {
+        if(data.remaining() < 4)
+            throw new RuntimeException("Not enough bytes for the MTU probe answer!");
+        int size = data.getShort(data.position() + 2) & 0xFFFF;
+        data.position(data.position() + 4);
+        if(this.mtuProber != null && this.mtuProber.onProbeAcked(size, System.nanoTime())) {
+            setMtu(this.mtuProber.getMtu());
+        }
+    }
+
+    private void handleFecContainer(ByteBuffer data) throws IOException {
+        int position = data.position();
+        if(data.remaining() < FecEncoder.HEADER_SIZE)
+            throw new RuntimeException("Not enough bytes for the FEC header!");
+        int group = data.getShort(position + 2) & 0xFFFF;
+        int index = data.get(position + 4) & 0xFF;
+
+        int start = position + FecEncoder.HEADER_SIZE;
+        data.position(start);
+        ContainerView container = this.view.wrap(data);
+        if(!acceptContainer())
+            return; // Before the decoder keeps it, so the retransmission isn't taken for a duplicate
+
+        FecDecoder fec = getFecDecoder(container.getChannelId());
+        if(fec == null) {
+            handleContainer(container); // The channel doesn't use FEC on this side
+            return;
+        }
+
+        if(!fec.receive(group, index, data, start, data.position() - start)) {
+            this.duplicatesReceived++; // Already rebuilt from the parity
+            return;
+        }
+        handleContainer(container);
+        recoverContainer(fec, group, index % fec.parityCount);
+    }
+
+    private void handleFecParity(ByteBuffer data) throws IOException {
+        int position = data.position();
+        if(data.remaining() < FecEncoder.PARITY_HEADER_SIZE)
+            throw new RuntimeException("Not enough bytes for the FEC parity header!");
+        byte channelId = data.get(position + 2);
+        int group = data.getShort(position + 3) & 0xFFFF;
+        int parityIndex = data.get(position + 5) & 0xFF;
+        int count = data.get(position + 6) & 0xFF;
+        int sizeXor = data.getShort(position + 7) & 0xFFFF;
+        int size = data.getShort(position + 9) & 0xFFFF;
+        if(data.remaining() < FecEncoder.PARITY_HEADER_SIZE + size)
+            throw new RuntimeException("Not enough bytes for the FEC parity!");
+        data.position(position + FecEncoder.PARITY_HEADER_SIZE + size);
+        if(!acceptContainer())
+            return; // It could rebuild a container
+
+        FecDecoder fec = getFecDecoder(channelId);
+        if(fec != null) {
+            fec.receiveParity(group, parityIndex, count, sizeXor, data, position + FecEncoder.PARITY_HEADER_SIZE, size);
+            recoverContainer(fec, group, parityIndex);
+        }
+    }
+
+    private void recoverContainer(FecDecoder fec, int group, int parityIndex) throws IOException {
+        ByteBuffer container = fec.recover(group, parityIndex);
+        if(container != null) {
+            ContainerView view = this.fecView.wrap(container);
+            if(view.getChannelId() == fec.channelId) {
+                handleContainer(view);
+            }
+        }
+    }
+
+    /**
+     * Asks the callback if the containers of the datagram being received can be handled,
+     * once per datagram, and counts the container if they can't.
+     * @return False if the container should be dropped without being acknowledged.
+     */
+    private boolean acceptContainer() {
+        if(!this.containersChecked) {
+            this.containersAccepted = this.callback.acceptContainers();
+            this.containersChecked = true;
+        }
+        if(!this.containersAccepted) {
+            this.containersRefused++;
+        }
+        return this.containersAccepted;
+    }
+
+    private void handleContainer(ContainerView container) throws IOException {
+        this.packetsReceived++;
+        long now = System.nanoTime();
+
+        boolean reliable = container.getReliabilityType() != ContainerPacket.ReliabilityType.UNRELIABLE;
+        FragmentAssembler.FragmentSet set = null;
+        if(container.isFragmented() && !(reliable && this.duplicates.contains(container.getPacketCounter()))) {
+            // Checked before acknowledging, so fragments without memory are retransmitted later
+            set = this.assembler.prepare(container, now);
+            if(set == null) {
+                this.fragmentsDropped++;
+                return;
+            }
+        }
+
+        if(reliable) {
+            trackPacketId(container.getPacketId());
+
+            if(!this.duplicates.accept(container.getPacketCounter())) {
+                this.duplicatesReceived++;
+                return;
+            }
+        }
+
+        if(set == null) {
+            deliver(container.getReliabilityType(), container.getChannelId(), container.getOrderId(), container.isCompressed(), container.payload(), now);
+        } else if(this.assembler.add(set, container)) {
+            try {
+                deliver(set.reliabilityType, set.channelId, set.orderId, set.compressed, this.assembler.payload(set), now);
+            } finally {
+                this.assembler.release(set);
+            }
+        }
+    }
+
+    private void deliver(ContainerPacket.ReliabilityType reliabilityType, byte channelId, int orderId, boolean compressed, ByteBuffer payload, long now) throws IOException {
+        if(compressed) {
+            payload = decompress(channelId, payload);
+        }
+        if(reliabilityType == ContainerPacket.ReliabilityType.RELIABLE_ORDERED) {
+            getOrderingBuffer(channelId).receive(orderId, payload, now);
+        } else {
+            this.callback.handleMessage(channelId, payload);
+        }
+    }
+
+    private ByteBuffer decompress(byte channelId, ByteBuffer payload) {
+        PayloadCodec codec = this.settings.channels[channelId & 0xFF].compression;
+        if(codec == null)
+            throw new RuntimeException("Received a compressed payload on channel " + (channelId & 0xFF) + ", which has no compression codec!");
+
+        int length = payload.remaining();
+        if(length < 4)
+            throw new RuntimeException("Not enough bytes for the compressed payload's size!");
+        if(this.compressedBuffer.length < length) {
+            this.compressedBuffer = new byte[length];
+        }
+        payload.duplicate().get(this.compressedBuffer, 0, length); // Inflaters can't read direct buffers on Java 8
+
+        byte[] src = this.compressedBuffer;
+        int size = (src[0] & 0xFF) | (src[1] & 0xFF) << 8 | (src[2] & 0xFF) << 16 | (src[3] & 0xFF) << 24;
+        if(size < 0 || size > this.settings.sessionFragmentMemory)
+            throw new RuntimeException("Invalid decompressed size (" + size + ")!"); // Larger than any payload which can be received
+
+        if(this.decompressedBuffer.length < size) {
+            this.decompressedBuffer = new byte[size];
+            this.decompressedView = ByteBuffer.wrap(this.decompressedBuffer).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        codec.decompress(src, 4, length - 4, this.decompressedBuffer, 0, size);
+        this.compressedBytesReceived += length;
+        this.decompressedBytesReceived += size;
+
+        this.decompressedView.clear();
+        this.decompressedView.limit(size);
+        return this.decompressedView;
+    }
+
+    private OrderingBuffer getOrderingBuffer(byte channelId) {
+        OrderingBuffer buffer = this.orderingBuffers[channelId & 0xFF];
+        if(buffer == null) {
+            long flushTimeout = this.settings.channels[channelId & 0xFF].getOrderingFlushTimeout(this.settings);
+            long timeout = flushTimeout < 0 ? NetworkSettings.WAIT_FOREVER : flushTimeout * 1000000L;
+            buffer = new OrderingBuffer(channelId, this.windowSize, timeout, this.callback);
+            this.orderingBuffers[channelId & 0xFF] = buffer;
+            this.activeOrderingBuffers[this.activeOrderingCount++] = buffer;
+        }
+        return buffer;
+    }
+
+    private void trackPacketId(int id) throws IOException {
+        if(this.pendingAckCount == this.pendingAcks.length) {
+            flushAcks();
+        }
+        this.pendingAcks[this.pendingAckCount++] = id;
+
+        int gap = id - this.expectedPacketId;
+        if(gap >= 0) {
+            // Every ID between the expected one and this one is missing, unless reordered
+            for(int missing = id - Math.min(gap, this.pendingNacks.length); missing != id; missing++) {
+                if(this.pendingNackCount == this.pendingNacks.length) {
+                    flushNacks();
+                }
+                this.pendingNacks[this.pendingNackCount++] = missing;
+            }
+            this.expectedPacketId = id + 1;
+        } else {
+            // Arrived late, it doesn't need to be NACKed anymore
+            for(int i = 0; i < this.pendingNackCount; i++) {
+                if(this.pendingNacks[i] == id) {
+                    this.pendingNacks[i] = this.pendingNacks[--this.pendingNackCount];
+                    break;
+                }
+            }
+        }
+    }
+
+    private void handleAcknowledge(ByteBuffer bb, boolean ack) throws IOException {
+        if(bb.remaining() < 4) {
+            bb.position(bb.limit());
+            return;
+        }
+        bb.getShort(); // Packet ID
+        int records = bb.getShort() & 0xFFFF;
+        long now = System.nanoTime();
+        this.ackSampled = false;
+        this.ackedBytes = 0;
+
+        for(int r = 0; r < records && bb.remaining() >= 5; r++) {
+            int start, end;
+            if(bb.get() == AcknowledgePacket.RECORD_SINGLE) {
+                start = end = bb.getInt();
+            } else {
+                if(bb.remaining() < 8)
+                    break;
+                start = bb.getInt();
+                end = bb.getInt();
+                if(end - start < 0 || end - start >= AcknowledgePacket.MAX_RANGE_LENGTH)
+                    continue; // Invalid or malicious range
+            }
+
+            for(int id = start; ; id++) {
+                if(ack) {
+                    acknowledge(id);
+                } else {
+                    negativeAcknowledge(id, now);
+                }
+                if(id == end)
+                    break;
+            }
+        }
+
+        if(ack) {
+            if(this.ackSampled) {
+                // One sample per ACK packet, which is batched to about one per RTT as RFC 6298 expects
+                this.rtt.sample(now - this.ackSampleSentAt);
+                this.callback.onRttSample(now - this.ackSampleSentAt);
+            }
+            if(this.congestion != null && this.ackedBytes > 0) {
+                this.congestion.onPacketsAcked(this.ackedBytes, this.ackNewestSentAt, this.bytesInFlight, now);
+            }
+            flushSendQueue();
+        }
+    }
+
+    private int findSlot(int id) {
+        int ring = id & this.idMask;
+        if(this.idSlot[ring] != id)
+            return -1; // Unknown or too old
+
+        int counter = this.idCounter[ring];
+        int slot = counter & this.windowMask;
+        if(this.inFlight[slot] == null || this.inFlightCounter[slot] != counter)
+            return -1; // Already acknowledged
+
+        return slot;
+    }
+
+    private void acknowledge(int id) {
+        int slot = findSlot(id);
+        if(slot < 0)
+            return;
+
+        if(this.latestId[slot] == id && (!this.ackSampled || this.sentAt[slot] - this.ackSampleSentAt > 0)) {
+            // Each transmission has its own ID, so the sample is never ambiguous (Karn's problem)
+            this.ackSampleSentAt = this.sentAt[slot];
+            this.ackSampled = true;
+        }
+
+        if(!this.acked || this.sentAt[slot] - this.largestAckedSentAt > 0) {
+            this.largestAckedSentAt = this.sentAt[slot];
+            this.acked = true;
+        }
+
+        ContainerPacket packet = this.inFlight[slot];
+        if(packet.fragmented) {
+            int set = packet.fragmentationId & this.fragmentMask;
+            if(--this.fragmentsRemaining[set] == 0) {
+                this.fragmentSetsInFlight--;
+                if(this.fragmentFutures[set] != null) {
+                    this.acknowledgedFutures.add(uncheckedFuture(this.fragmentFutures[set]));
+                    this.fragmentFutures[set] = null;
+                }
+            }
+        } else if(packet.acknowledged != null) {
+            this.acknowledgedFutures.add(packet.acknowledged);
+        }
+
+        this.inFlight[slot] = null;
+        this.inFlightCount--;
+        if(this.congestion != null) {
+            int size = packet.getSize();
+            if(this.lost[slot]) {
+                this.lost[slot] = false; // The timeout was spurious, it's no longer in flight anyway
+                this.lostCount--;
+            } else {
+                this.bytesInFlight -= size;
+            }
+            if(this.ackedBytes == 0 || this.sentAt[slot] - this.ackNewestSentAt > 0) {
+                this.ackNewestSentAt = this.sentAt[slot];
+            }
+            this.ackedBytes += size;
+        }
+
+        while(this.oldestUnacked != this.nextCounter && this.inFlight[this.oldestUnacked & this.windowMask] == null) {
+            this.oldestUnacked++;
+        }
+    }
+
+    private void negativeAcknowledge(int id, long now) throws IOException {
+        int slot = findSlot(id);
+        // Protected packets are usually rebuilt by the receiver before the NACK arrives, and are retransmitted by the loss detection otherwise
+        if(slot >= 0 && this.latestId[slot] == id && !this.fecProtected[slot]) {
+            if(this.congestion != null) {
+                int size = this.inFlight[slot].getSize();
+                this.congestion.onPacketLost(size, this.sentAt[slot], now);
+                if(this.lost[slot]) {
+                    this.lost[slot] = false; // Retransmitted right away instead of waiting for the window
+                    this.lostCount--;
+                    this.bytesInFlight += size;
+                }
+            }
+            retransmit(slot);
+        }
+    }
+
+    private void flushSendQueue() throws IOException {
+        // Lost packets are retransmitted oldest first, before new packets are sent
+        for(int counter = this.oldestUnacked; this.lostCount > 0 && counter != this.nextCounter; counter++) {
+            int slot = counter & this.windowMask;
+            if(this.lost[slot]) {
+                int size = this.inFlight[slot].getSize();
+                if(!hasCongestionSpace(size))
+                    return;
+                this.lost[slot] = false;
+                this.lostCount--;
+                this.bytesInFlight += size;
+                retransmit(slot);
+            }
+        }
+
+        ContainerPacket packet;
+        while(!this.sendQueue.isEmpty() && (packet = this.sendQueue.poll(this.windowSpace, this.mtu)) != null) {
+            sendReliable(packet);
+        }
+    }
+
+    /**
+     * Flushes batched ACKs and NACKs and retransmits packets whose
+     * retransmission timeout has expired. Should be called
+     * every {@link NetworkSettings#tickInterval} milliseconds.
+     *
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @throws IOException If there was an error while sending.
+     */
+    public synchronized void update(long now) throws IOException {
+        flushAcks();
+        flushNacks();
+
+        for(int i = 0; i < this.activeOrderingCount; i++) {
+            this.activeOrderingBuffers[i].update(now);
+        }
+        this.assembler.update(now);
+
+        if(this.inFlightCount > 0) {
+            long rto = this.rtt.getRto();
+            // Packets are also lost once a packet sent after them was acknowledged 9/8 RTT ago, like RFC 9002 does it
+            long lossDelay = this.rtt.hasSamples() ? Math.max(this.rtt.getSmoothedRtt(), this.rtt.getLatestRtt()) * 9 / 8 : rto;
+            boolean expired = false;
+            for(int counter = this.oldestUnacked; counter != this.nextCounter; counter++) {
+                int slot = counter & this.windowMask;
+                if(this.inFlight[slot] == null || this.lost[slot])
+                    continue;
+
+                if(this.acked && this.sentAt[slot] - this.largestAckedSentAt < 0 && now - this.sentAt[slot] >= lossDelay) {
+                    // Usually a lost NACK or ACK, which would otherwise only be noticed by the timeout
+                    if(this.congestion != null) {
+                        this.congestion.onPacketLost(this.inFlight[slot].getSize(), this.sentAt[slot], now);
+                    }
+                    retransmit(slot);
+                } else if(now - this.sentAt[slot] >= rto) {
+                    if(this.congestion == null) {
+                        retransmit(slot);
+                    } else {
+                        // Retransmitted by flushSendQueue as the congestion window allows
+                        this.lost[slot] = true;
+                        this.lostCount++;
+                        this.bytesInFlight -= this.inFlight[slot].getSize();
+                    }
+                    expired = true;
+                }
+            }
+            if(expired) {
+                this.rtt.backoff();
+                if(this.congestion != null) {
+                    this.congestion.onRetransmitTimeout(now);
+                }
+            }
+        }
+        if(this.pacer != null) {
+            this.pacer.refill(this.congestion.getPacingRate(), now);
+        }
+
+        flushSendQueue();
+        if(this.mtuProber != null) {
+            sendMtuProbe(now);
+        }
+        for(int i = 0; i < this.activeFecEncoderCount; i++) {
+            if(this.activeFecEncoders[i].hasOpenGroup()) {
+                sendParity(this.activeFecEncoders[i]); // Closes the group, so its containers don't wait for more
+            }
+        }
+        flushDatagram();
+    }
+
+    /**
+     * Returns when {@link #update(long)} should be called next. A layer is idle once
+     * nothing is in flight, queued, waiting to be acknowledged or held back for delivery,
+     * so sessions which are not sending or receiving anything don't need to be updated.
+     *
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @return The time of the next update, from {@link System#nanoTime()}, or -1 if the layer is idle.
+     */
+    public synchronized long getNextUpdateTime(long now) {
+        long next = now + this.settings.tickInterval * 1000000L;
+        if(this.pacer != null && (this.lostCount > 0 || !this.sendQueue.isEmpty())) {
+            long delay = this.pacer.getDelay(now);
+            if(delay > 0) {
+                next = Math.min(next, now + delay); // Waiting for the pacer rather than for ACKs
+            }
+        }
+
+        if(this.pendingAckCount > 0 || this.pendingNackCount > 0 || this.sendBuffer.position() > 0
+                || this.inFlightCount > 0 || !this.sendQueue.isEmpty() || this.assembler.getUsedMemory() > 0)
+            return next;
+
+        for(int i = 0; i < this.activeOrderingCount; i++) {
+            if(this.activeOrderingBuffers[i].getBufferedCount() > 0)
+                return next;
+        }
+        for(int i = 0; i < this.activeFecEncoderCount; i++) {
+            if(this.activeFecEncoders[i].hasOpenGroup())
+                return next;
+        }
+        if(this.mtuProber != null && this.mtuProber.isSearching())
+            return next;
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<Void> uncheckedFuture(CompletableFuture<?> future) {
+        return (CompletableFuture<Void>) future;
+    }
+
+    private void completeAcknowledged() {
+        while(true) {
+            CompletableFuture<Void> future;
+            synchronized(this) {
+                future = this.acknowledgedFutures.poll();
+            }
+            if(future == null)
+                return;
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Sends the datagram being coalesced right away, instead
+     * of waiting for it to fill up or for the next update.
+     * @throws IOException If there was an error while sending.
+     */
+    public synchronized void flush() throws IOException {
+        flushDatagram();
+    }
+
+    private void flushAcks() throws IOException {
+        this.pendingAckCount = flushIds(JuiceNetConstants.ID_ACK_PACKET, this.pendingAcks, this.pendingAckCount);
+    }
+
+    private void flushNacks() throws IOException {
+        this.pendingNackCount = flushIds(JuiceNetConstants.ID_NACK_PACKET, this.pendingNacks, this.pendingNackCount);
+    }
+
+    private int flushIds(short packetId, int[] ids, int count) throws IOException {
+        if(count == 0)
+            return 0;
+
+        Arrays.sort(ids, 0, count);
+        int offset = 0;
+        while(offset < count) {
+            if(this.mtu - this.sendBuffer.position() < 13) {
+                flushDatagram(); // Not enough room for the header and a range record
+            }
+
+            this.sendBuffer.limit(Math.max(this.mtu, this.sendBuffer.position() + 13));
+            offset += AcknowledgePacket.encodeRanges(this.sendBuffer, packetId, ids, offset, count - offset);
+            this.sendBuffer.limit(this.sendBuffer.capacity());
+            this.acknowledgePacketsSent++;
+
+            if(!this.settings.coalescePackets) {
+                flushDatagram();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the maximum size of datagrams sent by this layer.
+     * @param mtu The MTU (in bytes) including the encryption overhead, no larger than the send buffer.
+     */
+    public synchronized void setMtu(int mtu) {
+        if(mtu > this.sendBuffer.capacity())
+            throw new IllegalArgumentException("MTU (" + mtu + ") is larger than the send buffer (" + this.sendBuffer.capacity() + ")");
+        this.datagramMtu = mtu;
+        this.mtu = mtu - (this.cipher != null ? SessionCipher.OVERHEAD : 0);
+    }
+
+    /**
+     * Starts path MTU discovery, if it is enabled. Must be called once the
+     * remote peer answers probes, as unanswered probes lower the MTU searched for.
+     */
+    public synchronized void startPathMtuDiscovery() {
+        if(this.mtuProber != null) {
+            this.mtuProber.start();
+        }
+    }
+
+    /** @return The path MTU prober of this peer, or null if path MTU discovery is disabled. */
+    public PathMtuProber getPathMtuProber() {
+        return this.mtuProber;
+    }
+
+    /**
+     * Encrypts every datagram sent from now on, and drops every datagram received
+     * which isn't encrypted with the cipher's keys. Must be set before anything is sent or received.
+     * @param cipher The session's cipher.
+     */
+    public synchronized void setCipher(SessionCipher cipher) {
+        this.cipher = cipher;
+        this.mtu = this.datagramMtu - SessionCipher.OVERHEAD;
+        this.decryptedBuffer = new byte[Math.max(this.settings.getReceiveBufferSize(), this.datagramMtu)];
+        this.decryptedView = ByteBuffer.wrap(this.decryptedBuffer).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return True if the datagrams of this layer are encrypted.
+     */
+    public synchronized boolean isEncrypted() {
+        return this.cipher != null;
+    }
+
+    /**
+     * Releases the memory held by this layer. Must be called once
+     * the layer is no longer used, if its fragment memory is shared.
+     * The futures of packets which weren't acknowledged yet are completed
+     * with a {@link ClosedChannelException}, and later sends are dropped.
+     */
+    public void close() {
+        ArrayDeque<CompletableFuture<?>> failed = new ArrayDeque<>();
+        synchronized(this) {
+            this.closed = true;
+            this.assembler.close();
+
+            for(int i = 0; i < this.windowSize; i++) {
+                if(this.inFlight[i] != null && this.inFlight[i].acknowledged != null) {
+                    failed.add(this.inFlight[i].acknowledged);
+                }
+                this.inFlight[i] = null;
+            }
+            for(int i = 0; i < this.fragmentFutures.length; i++) {
+                if(this.fragmentFutures[i] != null) {
+                    failed.add(this.fragmentFutures[i]);
+                    this.fragmentFutures[i] = null;
+                }
+            }
+            ContainerPacket packet;
+            while((packet = this.sendQueue.poll(p -> true, this.mtu)) != null) {
+                if(packet.acknowledged != null) {
+                    failed.add(packet.acknowledged);
+                }
+            }
+            Arrays.fill(this.lost, false);
+            this.lostCount = 0;
+            this.inFlightCount = 0;
+            this.bytesInFlight = 0;
+            this.oldestUnacked = this.nextCounter;
+        }
+        completeAcknowledged(); // Acknowledged before the layer was closed
+
+        for(CompletableFuture<?> future : failed) {
+            future.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    /** @return The fragment assembler of this peer. */
+    public FragmentAssembler getFragmentAssembler() {
+        return this.assembler;
+    }
+
+    /**
+     * @return The average amount of packets (containers, ACKs and NACKs) sent per datagram.
+     */
+    public synchronized double getBatchingRatio() {
+        return this.datagramsSent == 0 ? 0 : (double) (this.packetsSent + this.acknowledgePacketsSent) / this.datagramsSent;
+    }
+
+    /** @return The amount of reliable packets which have been sent but not acknowledged. */
+    public synchronized int getInFlightCount() {
+        return this.inFlightCount;
+    }
+
+    /** @return The amount of packets waiting for space in the send window. */
+    public synchronized int getQueuedCount() {
+        return this.sendQueue.getQueuedCount();
+    }
+
+    /**
+     * @param channelId The channel.
+     * @return The amount of packets on the channel waiting for space in the send window.
+     */
+    public synchronized int getQueuedCount(int channelId) {
+        return this.sendQueue.getQueuedCount((byte) channelId);
+    }
+
+    /**
+     * @param channelId The channel.
+     * @return The channel's ordering buffer, or null if no RELIABLE_ORDERED messages were received on it.
+     */
+    public synchronized OrderingBuffer getOrderingBuffer(int channelId) {
+        return this.orderingBuffers[channelId & 0xFF];
+    }
+
+    /** @return Total time (in nanoseconds) RELIABLE_ORDERED messages were held back by gaps, over all channels. */
+    public synchronized long getHeadOfLineBlockedTime() {
+        long total = 0;
+        for(int i = 0; i < this.activeOrderingCount; i++) {
+            total += this.activeOrderingBuffers[i].getBlockedTime();
+        }
+        return total;
+    }
+
+    /** @return Longest time (in nanoseconds) a single gap held back RELIABLE_ORDERED messages, over all channels. */
+    public synchronized long getMaxHeadOfLineBlockedTime() {
+        long max = 0;
+        for(int i = 0; i < this.activeOrderingCount; i++) {
+            max = Math.max(max, this.activeOrderingBuffers[i].getMaxBlockedTime());
+        }
+        return max;
+    }
+
+    /** @return The amount of lost containers which were rebuilt from FEC parity packets, over all channels. */
+    public synchronized long getFecRecovered() {
+        long total = 0;
+        for(int i = 0; i < this.activeFecDecoderCount; i++) {
+            total += this.activeFecDecoders[i].getRecovered();
+        }
+        return total;
+    }
+
+    /** @return The amount of lost containers which couldn't be rebuilt from FEC parity packets, over all channels. */
+    public synchronized long getFecUnrecoverable() {
+        long total = 0;
+        for(int i = 0; i < this.activeFecDecoderCount; i++) {
+            total += this.activeFecDecoders[i].getUnrecoverable();
+        }
+        return total;
+    }
+
+    /** @return The congestion controller of this peer, or null if congestion control is disabled. */
+    public CongestionController getCongestionController() {
+        return this.congestion;
+    }
+
+    /** @return The RTT estimator of this peer. */
+    public RttEstimator getRttEstimator() {
+        return this.rtt;
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.jython234.juicenet.network.reliability;
+
+/**
+ * Round trip time estimator which calculates the
+ * retransmission timeout as described in RFC 6298.
+ *
+ * All times are in nanoseconds.
+ *
+ * @author jython234
+ */
+public class RttEstimator {
+    private static final long CLOCK_GRANULARITY = 1000000L; // 1 millisecond
+
+    public final long minRto;
+    public final long maxRto;
+    public final long maxAckDelay;
+
+    private long srtt;
+    private long rttvar;
+    private long rto;
+    private long latest;
+    private boolean sampled = false;
+
+    /**
+     * Creates a new RttEstimator.
+     * @param initialRto Timeout used until the first sample is taken.
+     * @param minRto Lower bound of the timeout.
+     * @param maxRto Upper bound of the timeout.
+     * @param maxAckDelay Longest time the peer may hold back an ACK, which is added to the timeout.
+     */
+    public RttEstimator(long initialRto, long minRto, long maxRto, long maxAckDelay) {
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.maxAckDelay = maxAckDelay;
+        this.rto = clamp(initialRto);
+    }
+
+    /**
+     * Adds a round trip time measurement. Samples must only
+     * be taken from packets which were not retransmitted.
+     * @param rtt The measured round trip time.
+     */
+    public void sample(long rtt) {
+        if(rtt < 0)
+            return;
+        this.latest = rtt;
+
+        if(!this.sampled) {
+            this.sampled = true;
+            this.srtt = rtt;
+            this.rttvar = rtt / 2;
+        } else {
+            // RTTVAR <- 3/4 * RTTVAR + 1/4 * |SRTT - R'|, SRTT <- 7/8 * SRTT + 1/8 * R'
+            this.rttvar = this.rttvar - (this.rttvar >> 2) + (Math.abs(this.srtt - rtt) >> 2);
+            this.srtt = this.srtt - (this.srtt >> 3) + (rtt >> 3);
+        }
+
+        // ACKs are batched, so a sample can be delayed by up to maxAckDelay
+        this.rto = clamp(this.srtt + Math.max(CLOCK_GRANULARITY, 4 * this.rttvar) + this.maxAckDelay);
+    }
+
+    /**
+     * Doubles the timeout after a retransmission timer expired.
+     */
+    public void backoff() {
+        this.rto = clamp(this.rto * 2);
+    }
+
+    private long clamp(long value) {
+        return Math.max(this.minRto, Math.min(this.maxRto, value));
+    }
+
+    /** @return The current retransmission timeout. */
+    public long getRto() {
+        return this.rto;
+    }
+
+    /** @return The smoothed round trip time, or zero if no samples were taken. */
+    public long getSmoothedRtt() {
+        return this.srtt;
+    }
+
+    /** @return The round trip time variation. */
+    public long getRttVariation() {
+        return this.rttvar;
+    }
+
+    /** @return The most recent round trip time sample. */
+    public long getLatestRtt() {
+        return this.latest;
+    }
+
+    /** @return True if at least one sample has been taken. */
+    public boolean hasSamples() {
+        return this.sampled;
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.jython234.juicenet.network.server;
+
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.SourceRateLimiter;
+import io.github.jython234.juicenet.network.VerifiedTokenCache;
+import io.github.jython234.juicenet.network.packet.peer.PeerResponsePacket;
+import io.github.jython234.juicenet.network.packet.peer.SearchPeersPacket;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers ID_SEARCH_PEERS_PACKETs with the server's
+ * ID_PEER_RESPONSE_PACKET.
+ *
+ * The response is encoded once, and again only when the server's
+ * information changes. Searches are rate limited per source before
+ * anything else is done with them. If a discovery key is set, the
+ * search's JWT must be signed with it, and verified JWTs are cached
+ * so repeated searches skip the signature check. Without a key,
+ * the JWT only has to be well formed.
+ *
+ * @author jython234
+ */
+public class DiscoveryResponder {
+    public final JuiceNetServer server;
+
+    private final SourceRateLimiter rateLimiter;
+    private final VerifiedTokenCache verifiedTokens;
+
+    private volatile byte[] response;
+    private volatile Key key;
+
+    private final LongAdder responsesSent = new LongAdder();
+    private final LongAdder searchesRejected = new LongAdder();
+
+    public DiscoveryResponder(JuiceNetServer server, NetworkSettings settings) {
+        this.server = server;
+        this.rateLimiter = new SourceRateLimiter(settings.discoveryRate, settings.discoveryBurst,
+                settings.discoveryGlobalRate, settings.discoveryRateLimiterSize, System.nanoTime());
+        this.verifiedTokens = new VerifiedTokenCache(settings.verifiedTokenCacheSize, settings.verifiedTokenLifetime * 1000000L);
+    }
+
+    /**
+     * Encodes the response sent to searches.
+     * @param jwtString The server's signed information.
+     * @param key The key search JWTs must be signed with, or null to accept any well formed JWT.
+     */
+    public void update(String jwtString, Key key) {
+        PeerResponsePacket prp = new PeerResponsePacket();
+        prp.jwtString = jwtString;
+
+        this.response = prp.encode();
+        this.key = key;
+    }
+
+    /**
+     * Handles a search, sending the response if it is allowed.
+     * @param data The ID_SEARCH_PEERS_PACKET, positioned at its ID.
+     * @param address The address which sent the search.
+     * @throws IOException If there was an error while sending the response.
+     */
+    public void handleSearch(ByteBuffer data, SocketAddress address) throws IOException {
+        byte[] response = this.response;
+        long now = System.nanoTime();
+        if(response == null || !this.rateLimiter.tryAcquire(address, now))
+            return;
+
+        if(!verify(data, now)) {
+            this.searchesRejected.increment();
+            return;
+        }
+
+        this.server.sendRawPacket(ByteBuffer.wrap(response), address);
+        this.responsesSent.increment();
+    }
+
+    private boolean verify(ByteBuffer data, long now) {
+        int start = data.position() + 4; // Packet ID and string length
+        if(data.limit() < start)
+            return false;
+        int length = data.getShort(start - 2) & 0xFFFF;
+        if(data.limit() - start < length)
+            return false;
+
+        ByteBuffer token = data.duplicate();
+        token.limit(start + length).position(start);
+
+        Key key = this.key;
+        if(key == null)
+            return isCompactJws(token);
+        if(this.verifiedTokens.contains(token, now))
+            return true;
+
+        SearchPeersPacket spp = new SearchPeersPacket();
+        spp.decode(data.duplicate());
+        try {
+            if(!(Jwts.parser().setSigningKey(key).parse(spp.jwtString) instanceof Jws))
+                return false; // Unsigned
+        } catch (JwtException | IllegalArgumentException e) {
+            return false;
+        }
+
+        this.verifiedTokens.add(token, now);
+        return true;
+    }
+
+    // Checks for three base64url segments, only the signature may be empty
+    private static boolean isCompactJws(ByteBuffer token) {
+        int dots = 0;
+        int segmentLength = 0;
+        for(int i = token.position(); i < token.limit(); i++) {
+            byte b = token.get(i);
+            if(b == '.') {
+                if(segmentLength == 0 || ++dots > 2)
+                    return false;
+                segmentLength = 0;
+            } else if((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '-' || b == '_') {
+                segmentLength++;
+            } else {
+                return false;
+            }
+        }
+        return dots == 2;
+    }
+
+    /** @return The amount of responses which have been sent. */
+    public long getResponsesSent() {
+        return this.responsesSent.sum();
+    }
+
+    /** @return The amount of searches which were dropped by the rate limiter. */
+    public long getSearchesLimited() {
+        return this.rateLimiter.getLimitedCount();
+    }
+
+    /** @return The amount of searches which were dropped because their JWT was invalid. */
+    public long getSearchesRejected() {
+        return this.searchesRejected.sum();
+    }
+}
@@ -1,19 +1,32 @@
 package io.github.jython234.juicenet.network.server;
 
 import io.github.jython234.juicenet.JuiceNetConstants;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.ReceiveWorkerGroup;
 import io.github.jython234.juicenet.network.UDPServerSocket;
+import io.github.jython234.juicenet.network.capture.CaptureRecorder;
+import io.github.jython234.juicenet.network.crypto.HandshakeCookies;
+import io.github.jython234.juicenet.network.crypto.SessionTickets;
+import io.github.jython234.juicenet.network.metrics.MetricsRegistry;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.reliability.EncodedMessage;
+import io.github.jython234.juicenet.network.reliability.FragmentMemory;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.impl.crypto.MacProvider;
 import lombok.Getter;
+import lombok.Setter;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.security.Key;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A JuiceNet Server implementation
@@ -21,39 +34,87 @@ import java.util.Random;
  * @author jython234
  */
 public class JuiceNetServer {
-    public final String serverJWT;
     public final long serverID;
     public final InetSocketAddress bindAddress;
 
     public final boolean broadcast;
+    public final NetworkSettings settings;
 
-    @Getter private boolean running = false;
+    @Getter private volatile boolean running = false;
     @Getter private boolean crashed = false;
 
     @Getter private Logger logger;
     private UDPServerSocket socket;
+    private volatile ReceiveWorkerGroup workers; // Assigned by the server thread, closed by the thread which stops the server
 
     @Getter private ServerNetworkManager networkManager;
+    @Getter @Setter private ServerListener listener;
+    /** Memory shared by all sessions for reassembling fragmented payloads. */
+    @Getter private final FragmentMemory fragmentMemory;
+    /** Metrics of the server and every session, see {@link io.github.jython234.juicenet.network.server.Session#getMetrics()} for a single session. */
+    @Getter private final MetricsRegistry metrics;
+    /** Seals and opens the tickets encrypted sessions are resumed with. */
+    @Getter private final SessionTickets sessionTickets;
+    /** Issues and verifies handshake cookies, null if {@link NetworkSettings#handshakeCookies} is off. */
+    @Getter private final HandshakeCookies handshakeCookies;
+
+    /** The server's information, signed with the discovery key. Sent in response to peer searches. */
+    public volatile String serverJWT;
+    /** The key peer search JWTs must be signed with, null to accept any search. */
+    @Getter private Key discoveryKey;
+    private Key signingKey;
+
+    private CompletableFuture<Void> started; // Completed once the socket is bound, if started in the background
 
     public JuiceNetServer(InetSocketAddress bindAddress, boolean broadcast) {
+        this(bindAddress, broadcast, new NetworkSettings());
+    }
+
+    public JuiceNetServer(InetSocketAddress bindAddress, boolean broadcast, NetworkSettings settings) {
         this.serverID = new Random().nextLong();
         this.bindAddress = bindAddress;
         this.logger = LoggerFactory.getLogger("JuiceNetServer");
 
         this.broadcast = broadcast;
+        this.settings = settings;
+        this.fragmentMemory = new FragmentMemory(settings.fragmentMemory, settings.fragmentSlabSize);
+        this.metrics = new MetricsRegistry(snapshot -> this.networkManager.forEachSession(session -> session.addMetrics(snapshot)), this.logger);
 
+        this.sessionTickets = new SessionTickets(settings.sessionTicketLifetime);
+        this.handshakeCookies = settings.handshakeCookies ? new HandshakeCookies(settings.handshakeCookieLifetime) : null;
         this.networkManager = new ServerNetworkManager(this);
 
+        this.signingKey = MacProvider.generateKey();
+        updateServerInfo();
+    }
+
+    /**
+     * Sets the key peer searches must be signed with. The server's
+     * own information is then signed with the same key, so peers
+     * which know it can verify the responses.
+     * @param discoveryKey The HMAC key, or null to accept any search and sign with a random key.
+     */
+    public synchronized void setDiscoveryKey(Key discoveryKey) {
+        this.discoveryKey = discoveryKey;
+        this.signingKey = discoveryKey != null ? discoveryKey : MacProvider.generateKey();
+        updateServerInfo();
+    }
+
+    /**
+     * Signs the server's information again and re-encodes the response
+     * sent to peer searches. Must be called when the information changes.
+     */
+    public synchronized void updateServerInfo() {
         // Generate JWT:
 
         String jwtPayload = generateServerJSON();
 
-        Key key = MacProvider.generateKey();
-
         this.serverJWT = Jwts.builder()
-                .signWith(SignatureAlgorithm.HS512, key)
+                .signWith(SignatureAlgorithm.HS512, this.signingKey)
                 .setPayload(jwtPayload)
                 .compact();
+
+        this.networkManager.getDiscoveryResponder().update(this.serverJWT, this.discoveryKey);
     }
 
     /**
@@ -67,9 +128,44 @@ public class JuiceNetServer {
             throw new UnsupportedOperationException("This server instance is already running!");
 
         this.running = true;
+        this.started = null;
         run();
     }
 
+    /**
+     * Starts this JuiceNetServer instance on a new thread,
+     * without blocking the calling thread.
+     *
+     * @return A handle which tells when the server is listening and when it
+     *         has stopped, and which stops the server when it is closed.
+     */
+    public ServerHandle startInBackground() {
+        synchronized(this) {
+            if(isRunning())
+                throw new UnsupportedOperationException("This server instance is already running!");
+            this.running = true;
+        }
+
+        ServerHandle handle = new ServerHandle(this);
+        this.started = handle.getStarted();
+        Thread thread = new Thread(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                this.crashed = true;
+                this.running = false;
+                handle.getStarted().completeExceptionally(e);
+                throw e;
+            } finally {
+                handle.getStarted().completeExceptionally(new IllegalStateException("The server was stopped before it started listening"));
+                handle.getStopped().complete(null);
+            }
+        }, "JuiceNet-Server");
+        handle.thread = thread;
+        thread.start();
+        return handle;
+    }
+
     /**
      * Set the internal running boolean to false,
      * which then allows the server thread to cleanup
@@ -80,12 +176,17 @@ public class JuiceNetServer {
             throw new UnsupportedOperationException("This server instance is not running!");
 
         this.running = false;
+        ReceiveWorkerGroup workers = this.workers;
+        if(workers != null) {
+            workers.close(); // If the server thread isn't in its loop yet, the loop won't start
+        }
     }
 
     private void run() {
         this.logger.info(JuiceNetConstants.LIBRARY + " version " + JuiceNetConstants.LIBRARY_VERSION_STRING + " on " + System.getProperty("os.name") + " " + System.getProperty("os.arch"));
         try {
-            this.socket = new UDPServerSocket(this.bindAddress);
+            this.workers = new ReceiveWorkerGroup(this.bindAddress, this.settings, this.networkManager, this.logger);
+            this.socket = this.workers.getSendSocket();
         } catch (SocketException e) {
             this.logger.error("Failed to create Socket!");
             this.logger.error("Perhaps another program is bound on port " + this.bindAddress.getPort() + "?");
@@ -93,25 +194,100 @@ public class JuiceNetServer {
 
             this.running = false;
             this.crashed = true;
+            if(this.started != null) {
+                this.started.completeExceptionally(e);
+            }
+            return;
+        }
+
+        this.logger.info("Listening for packets on " + this.bindAddress.toString()
+                + " with " + this.workers.getWorkerCount() + " worker(s)" + (this.workers.isSharded() ? " (SO_REUSEPORT)" : ""));
+
+        if(!this.running) {
+            this.workers.close(); // Stopped while the sockets were being bound
             return;
         }
+        if(this.started != null) {
+            this.started.complete(null);
+        }
+        this.workers.run(); // Main server loop
+    }
+
+    /**
+     * Sends a message to every session. The payload is compressed and split into fragments
+     * once for all of them, see {@link EncodedMessage}.
+     * @param channelId The channel to send the message on.
+     * @param reliabilityType The ReliabilityType to send the message with.
+     * @param payload The message's payload. It must not be modified afterwards.
+     * @throws IOException If there was an error while sending to a session, after it was sent to the others.
+     */
+    public void broadcast(byte channelId, ContainerPacket.ReliabilityType reliabilityType, byte[] payload) throws IOException {
+        broadcast(new EncodedMessage(this.settings, channelId, reliabilityType, payload));
+    }
 
-        this.logger.info("Listening for packets on " + this.bindAddress.toString());
-        while(this.running) {
-            // Main server loop
+    /**
+     * Sends a prepared message to every session. To send it to a group of sessions
+     * instead, pass it to {@link Session#send(EncodedMessage)} of each one.
+     * @param message The message.
+     * @throws IOException If there was an error while sending to a session, after it was sent to the others.
+     */
+    public void broadcast(EncodedMessage message) throws IOException {
+        IOException[] error = new IOException[1];
+        this.networkManager.forEachSession(session -> {
             try {
-                this.networkManager.handleRawPacket(this.socket.blockingRecv());
+                session.send(message);
             } catch (IOException e) {
-                e.printStackTrace();
+                if(error[0] == null) {
+                    error[0] = e;
+                } else {
+                    error[0].addSuppressed(e);
+                }
             }
+        });
+        if(error[0] != null)
+            throw error[0];
+    }
+
+    /**
+     * Starts recording every datagram the server receives to a capture file,
+     * which {@link io.github.jython234.juicenet.network.capture.CaptureReplayer} can replay.
+     * @param file The capture file, which is replaced if it exists.
+     * @return The recorder.
+     * @throws IOException If the file couldn't be created.
+     * @throws IllegalStateException If the server is already recording.
+     */
+    public synchronized CaptureRecorder startCapture(Path file) throws IOException {
+        if(this.networkManager.getCapture() != null)
+            throw new IllegalStateException("The server is already recording to " + this.networkManager.getCapture().file);
+
+        CaptureRecorder capture = new CaptureRecorder(file);
+        this.networkManager.setCapture(capture);
+        return capture;
+    }
+
+    /**
+     * Stops recording datagrams, and closes the capture file.
+     * @throws IOException If there was an error while closing the file.
+     */
+    public synchronized void stopCapture() throws IOException {
+        CaptureRecorder capture = this.networkManager.getCapture();
+        if(capture != null) {
+            this.networkManager.setCapture(null);
+            capture.close();
         }
     }
 
     protected void sendRawPacket(byte[] payload, SocketAddress address) throws IOException {
         DatagramPacket dp = new DatagramPacket(payload, payload.length, address);
+        this.metrics.onDatagramSent(payload.length);
         this.socket.send(dp);
     }
 
+    protected void sendRawPacket(ByteBuffer payload, SocketAddress address) throws IOException {
+        this.metrics.onDatagramSent(payload.remaining());
+        this.socket.send(payload, address);
+    }
+
     @SuppressWarnings("unchecked")
     private String generateServerJSON() {
         JSONObject root = new JSONObject();
@@ -0,0 +1,45 @@
+package io.github.jython234.juicenet.network.server;
+
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handle of a {@link JuiceNetServer} which was started
+ * with {@link JuiceNetServer#startInBackground()}.
+ *
+ * @author jython234
+ */
+public class ServerHandle implements AutoCloseable {
+    public final JuiceNetServer server;
+
+    /** Completes once the server is listening, or completes exceptionally if its socket couldn't be bound. */
+    @Getter private final CompletableFuture<Void> started = new CompletableFuture<>();
+    /** Completes once the server's thread has exited. */
+    @Getter private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+    Thread thread;
+
+    ServerHandle(JuiceNetServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Stops the server if it is still running, and waits for its thread to exit.
+     * If the current thread is interrupted while waiting, returns early with its interrupt flag set.
+     */
+    @Override
+    public void close() {
+        synchronized(this.server) {
+            if(this.server.isRunning()) {
+                this.server.stop();
+            }
+        }
+
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.jython234.juicenet.network.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives events from a {@link JuiceNetServer}.
+ *
+ * Methods are called from the server's network threads,
+ * so implementations should not block. Only
+ * {@link #handleMessage(Session, byte, ByteBuffer)} moves to the
+ * {@link io.github.jython234.juicenet.network.NetworkSettings#handlerExecutor}
+ * if one is set, where it may block.
+ *
+ * @author jython234
+ */
+public interface ServerListener {
+    /**
+     * Called when a client has completed its handshake and a session has been opened.
+     * @param session The new session.
+     */
+    default void sessionOpened(Session session) {}
+
+    /**
+     * Called when a session has been closed, either because it timed out
+     * or because its client opened a new session from the same address.
+     * @param session The closed session.
+     */
+    default void sessionClosed(Session session) {}
+
+    /**
+     * Called when a message has been received from a session.
+     * @param session The session which sent the message.
+     * @param channelId The channel the message was sent on.
+     * @param payload The message's payload. Only valid for the duration of the call if handlers run inline.
+     * @throws IOException If there was an error while handling the message.
+     */
+    void handleMessage(Session session, byte channelId, ByteBuffer payload) throws IOException;
+}
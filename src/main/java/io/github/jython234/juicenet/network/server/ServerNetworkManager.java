@@ -1,38 +1,298 @@
 package io.github.jython234.juicenet.network.server;
 
 import io.github.jython234.juicenet.JuiceNetConstants;
-import io.github.jython234.juicenet.network.packet.peer.PeerResponsePacket;
+import io.github.jython234.juicenet.network.HashedWheelTimer;
+import io.github.jython234.juicenet.network.RawPacketHandler;
+import io.github.jython234.juicenet.network.capture.CaptureRecorder;
+import io.github.jython234.juicenet.network.crypto.HandshakeCookies;
+import io.github.jython234.juicenet.network.crypto.KeyExchange;
+import io.github.jython234.juicenet.network.crypto.SessionCipher;
+import io.github.jython234.juicenet.network.packet.handshake.ClientHandshakePacket;
+import io.github.jython234.juicenet.network.packet.handshake.ServerHandshakePacket;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.util.Arrays;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.function.Consumer;
 
 /**
  * Handles raw packets from the UDP socket
  * and handles sessions.
  *
+ * Sessions are opened by the client handshake, packets
+ * from addresses without a session are dropped. With
+ * {@link io.github.jython234.juicenet.network.NetworkSettings#handshakeCookies}
+ * the handshake has to come back with a cookie first. A handshake with
+ * another client ID from the address of a session always has to, since
+ * it replaces that session and could otherwise be spoofed to close it.
+ *
  * @author jython234
  */
-public class ServerNetworkManager {
+public class ServerNetworkManager implements RawPacketHandler {
     public final JuiceNetServer server;
 
+    private final SessionTable sessions;
+    private final HashedWheelTimer timer; // For sessions opened outside of a network loop
+    private final HandshakeCookies replaceCookies; // Prove the client owns the address of the session it replaces
+    @Getter private final DiscoveryResponder discoveryResponder;
+    /** Records every datagram received, see {@link JuiceNetServer#startCapture(java.nio.file.Path)}. */
+    @Getter @Setter private volatile CaptureRecorder capture;
+    private final ThreadLocal<ByteBuffer> cookieAnswer = ThreadLocal.withInitial(this::encodeCookieAnswer); // Only the cookie changes
+
     public ServerNetworkManager(JuiceNetServer server) {
         this.server = server;
+        this.sessions = new SessionTable(server.settings.maxSessions);
+        this.timer = new HashedWheelTimer(server.settings, System.nanoTime());
+        this.discoveryResponder = new DiscoveryResponder(server, server.settings);
+        this.replaceCookies = server.getHandshakeCookies() != null ? server.getHandshakeCookies() : new HandshakeCookies(server.settings.handshakeCookieLifetime);
     }
 
     public void handleRawPacket(DatagramPacket packet) throws IOException {
-        packet.setData(Arrays.copyOf(packet.getData(), packet.getLength()));
+        ByteBuffer bb = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+
+        handleRawPacket(bb, packet.getSocketAddress());
+    }
+
+    @Override
+    public void handleRawPacket(ByteBuffer data, SocketAddress address) throws IOException {
+        this.server.getMetrics().onDatagramReceived(data.remaining());
+        CaptureRecorder capture = this.capture;
+        if(capture != null) {
+            capture.record(data, address);
+        }
+        if(data.remaining() < 2) {
+            this.server.getMetrics().onDatagramDropped();
+            return; // Too small to contain a packet ID
+        }
 
-        short pid = (short) ((packet.getData()[1] & 0xFF) << 8 | packet.getData()[0] & 0xFF); // Read 2 bytes to short
+        short pid = data.getShort(data.position()); // Buffer is little-endian
 
         switch(pid) {
             case JuiceNetConstants.ID_SEARCH_PEERS_PACKET:
                 if(this.server.broadcast){
-                    PeerResponsePacket prp = new PeerResponsePacket();
-                    prp.jwtString = this.server.serverJWT;
-                    this.server.sendRawPacket(prp.encode(), packet.getSocketAddress());
+                    this.discoveryResponder.handleSearch(data, address);
                 }
                 break;
+            case JuiceNetConstants.ID_CLIENT_HANDSHAKE_PACKET:
+                handleHandshake(data, address);
+                break;
+            case JuiceNetConstants.ID_CONTAINER_PACKET:
+            case JuiceNetConstants.ID_FEC_PACKET:
+            case JuiceNetConstants.ID_FEC_PARITY_PACKET:
+            case JuiceNetConstants.ID_ACK_PACKET:
+            case JuiceNetConstants.ID_NACK_PACKET:
+            case JuiceNetConstants.ID_MTU_PROBE_PACKET:
+            case JuiceNetConstants.ID_MTU_PROBE_ACK_PACKET:
+            case JuiceNetConstants.ID_ENCRYPTED_PACKET:
+                Session session = this.sessions.get(address);
+                if(session != null) {
+                    session.lastActivity = System.nanoTime();
+                    session.handleDatagram(data);
+                } else {
+                    this.server.getMetrics().onDatagramDropped();
+                }
+                break;
+            default:
+                this.server.getMetrics().onDatagramDropped();
+                break;
+        }
+    }
+
+    private void handleHandshake(ByteBuffer data, SocketAddress address) throws IOException {
+        if(data.remaining() < 18) {
+            this.server.getMetrics().onDatagramDropped();
+            return; // Too small to contain the client ID
+        }
+        long clientID = data.getLong(data.position() + 10);
+
+        Session session = this.sessions.get(address);
+        if(session != null && session.clientID == clientID) {
+            // Resent handshake or keep alive, answered the same way without another key exchange
+            session.lastActivity = System.nanoTime();
+            this.server.sendRawPacket(session.handshakeResponse, address);
+            return;
+        }
+
+        // Replacing a session needs a cookie even if they are off, so the handshake can't come from a spoofed address
+        HandshakeCookies cookies = session != null ? this.replaceCookies : this.server.getHandshakeCookies();
+        if(cookies != null) {
+            // Checked before anything is decoded or allocated, as most of these can be spoofed
+            int cookie = ClientHandshakePacket.findCookie(data, HandshakeCookies.COOKIE_SIZE);
+            if(cookie < 0 || !cookies.verify(data, cookie, address, clientID)) {
+                sendCookie(cookies, data, address, clientID);
+                return;
+            }
+        }
+
+        ClientHandshakePacket chp = new ClientHandshakePacket();
+        chp.decode(data);
+
+        ServerHandshakePacket shp = new ServerHandshakePacket();
+        shp.serverID = this.server.serverID;
+        shp.sessionTimeout = (int) this.server.settings.sessionTimeout;
+
+        SessionCipher cipher = null;
+        if(chp.protocolMajor != JuiceNetConstants.PROTOCOL_VERSION_MAJOR) {
+            shp.status = ServerHandshakePacket.STATUS_INCOMPATIBLE_PROTOCOL;
+        } else if(this.server.settings.encryption && (chp.flags & ClientHandshakePacket.FLAG_ENCRYPTED) == 0) {
+            shp.status = ServerHandshakePacket.STATUS_ENCRYPTION_REQUIRED;
+        } else {
+            if(this.server.settings.encryption) {
+                try {
+                    cipher = exchangeKeys(chp, shp);
+                } catch (GeneralSecurityException e) {
+                    this.server.getMetrics().onDatagramDropped(); // Not a valid public key
+                    return;
+                }
+            }
+
+            if(shp.status == ServerHandshakePacket.STATUS_OK) {
+                if(session != null) {
+                    closeSession(session); // The client was restarted on the same address, as the cookie proves
+                }
+
+                HashedWheelTimer timer = HashedWheelTimer.current();
+                Session created = new Session(this.server, address, chp.clientID, timer != null ? timer : this.timer);
+                if(cipher != null) {
+                    created.getReliabilityLayer().setCipher(cipher);
+                }
+                created.handshakeResponse = shp.encode();
+
+                session = this.sessions.putIfAbsent(created);
+                if(session == created) {
+                    session.start();
+                    this.server.getMetrics().onSessionOpened();
+
+                    ServerListener listener = this.server.getListener();
+                    if(listener != null) {
+                        listener.sessionOpened(session);
+                    }
+                } else {
+                    created.close();
+                    if(session == null) {
+                        shp.status = ServerHandshakePacket.STATUS_SERVER_FULL;
+                    }
+                }
+            }
+        }
+
+        // Opened sessions keep their answer, so resent handshakes get the same keys
+        this.server.sendRawPacket(shp.status == ServerHandshakePacket.STATUS_OK ? session.handshakeResponse : shp.encode(), address);
+    }
+
+    /**
+     * Answers a handshake without a valid cookie with a new one, unless the answer would be larger than the
+     * handshake, so the server can't be used to flood a spoofed address with more than the attacker sends.
+     */
+    private void sendCookie(HandshakeCookies cookies, ByteBuffer data, SocketAddress address, long clientID) throws IOException {
+        ByteBuffer answer = this.cookieAnswer.get();
+        if(data.remaining() < answer.capacity()) {
+            this.server.getMetrics().onDatagramDropped();
+            return;
+        }
+
+        cookies.issue(address, clientID, answer, answer.capacity() - HandshakeCookies.COOKIE_SIZE);
+        answer.clear();
+        this.server.sendRawPacket(answer, address);
+    }
+
+    private ByteBuffer encodeCookieAnswer() {
+        ServerHandshakePacket shp = new ServerHandshakePacket();
+        shp.status = ServerHandshakePacket.STATUS_COOKIE_REQUIRED;
+        shp.serverID = this.server.serverID;
+        shp.sessionTimeout = (int) this.server.settings.sessionTimeout;
+        shp.cookie = new byte[HandshakeCookies.COOKIE_SIZE];
+        return ByteBuffer.wrap(shp.encode());
+    }
+
+    /**
+     * Runs the key exchange of an encrypted handshake, or resumes the session of the client's ticket.
+     * @param chp The client's handshake.
+     * @param shp The answer, which gets the server's nonce, public key and a new ticket.
+     * @return The session's cipher, or null if the client's ticket was rejected.
+     * @throws GeneralSecurityException If the client's public key is invalid.
+     */
+    private SessionCipher exchangeKeys(ClientHandshakePacket chp, ServerHandshakePacket shp) throws GeneralSecurityException {
+        if(chp.nonce.length != KeyExchange.NONCE_SIZE)
+            throw new GeneralSecurityException("Invalid handshake nonce");
+
+        byte[] master;
+        if(chp.ticket.length > 0) {
+            master = this.server.getSessionTickets().open(chp.ticket);
+            if(master == null) {
+                shp.status = ServerHandshakePacket.STATUS_TICKET_REJECTED;
+                return null;
+            }
+        } else {
+            KeyPair keyPair = KeyExchange.generateKeyPair();
+            master = KeyExchange.agree(keyPair.getPrivate(), chp.publicKey);
+            shp.publicKey = keyPair.getPublic().getEncoded();
+        }
+
+        shp.flags = ServerHandshakePacket.FLAG_ENCRYPTED;
+        shp.nonce = KeyExchange.generateNonce();
+        shp.ticket = this.server.getSessionTickets().seal(master);
+        return KeyExchange.deriveCipher(master, chp.nonce, shp.nonce, false);
+    }
+
+    /**
+     * Closes a session, and releases its memory.
+     * @param session The session to close.
+     */
+    public void closeSession(Session session) {
+        closeSession(session, false);
+    }
+
+    void closeSession(Session session, boolean timedOut) {
+        if(!this.sessions.remove(session))
+            return; // Already closed
+
+        session.close();
+        this.server.getMetrics().onSessionClosed(timedOut);
+        this.server.getMetrics().retire(session);
+        ServerListener listener = this.server.getListener();
+        if(listener != null) {
+            listener.sessionClosed(session);
         }
     }
+
+    /**
+     * Runs the timers of sessions which were opened outside of a network loop,
+     * by passing datagrams to {@link #handleRawPacket(ByteBuffer, SocketAddress)} directly.
+     * Sessions opened by the server's network loops run on the loops' own timers.
+     * @param now The current time, from {@link System#nanoTime()}.
+     */
+    public void tick(long now) {
+        this.timer.advance(now);
+    }
+
+    /**
+     * @param address The remote address of the session.
+     * @return The session, or null if there is no session for the address.
+     */
+    public Session getSession(SocketAddress address) {
+        return this.sessions.get(address);
+    }
+
+    /**
+     * Runs an action for every open session.
+     * @param action The action.
+     */
+    public void forEachSession(Consumer<Session> action) {
+        this.sessions.forEach(action);
+    }
+
+    /**
+     * @return The amount of sessions.
+     */
+    public int getSessionCount() {
+        return this.sessions.size();
+    }
 }
@@ -1,9 +1,278 @@
 package io.github.jython234.juicenet.network.server;
 
+import io.github.jython234.juicenet.network.HashedWheelTimer;
+import io.github.jython234.juicenet.network.MessageDispatcher;
+import io.github.jython234.juicenet.network.metrics.MetricsRegistry;
+import io.github.jython234.juicenet.network.metrics.MetricsSnapshot;
+import io.github.jython234.juicenet.network.metrics.PeerMetrics;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.reliability.EncodedMessage;
+import io.github.jython234.juicenet.network.reliability.ReliabilityCallback;
+import io.github.jython234.juicenet.network.reliability.ReliabilityLayer;
+import io.github.jython234.juicenet.network.snapshot.SnapshotSync;
+import io.github.jython234.juicenet.network.stream.ChannelStream;
+import io.github.jython234.juicenet.network.stream.ChannelStreams;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
 /**
  * Represents a client session to the Server.
  *
+ * The session runs its updates and idle timeout on the timer of the network
+ * loop which opened it. It is only updated while its reliability layer has
+ * work, so idle sessions don't cost anything until they time out.
+ *
  * @author jython234
  */
-public class Session {
+public class Session implements ReliabilityCallback, MetricsRegistry.Source {
+    public final JuiceNetServer server;
+    public final SocketAddress address;
+    /** The address packed by {@link SessionTable#key(SocketAddress)}. */
+    public final long key;
+    /** The ID the client sent in its handshake. */
+    public final long clientID;
+
+    @Getter private final ReliabilityLayer reliabilityLayer;
+    /** Hands received messages to the listener on the {@link io.github.jython234.juicenet.network.NetworkSettings#handlerExecutor}. */
+    @Getter private final MessageDispatcher dispatcher;
+    private final PeerMetrics metrics;
+    /** Encodes and decodes the snapshots sent on the {@link io.github.jython234.juicenet.network.ChannelSettings#snapshots} channels. */
+    @Getter private final SnapshotSync snapshots;
+    /** The byte streams of the {@link io.github.jython234.juicenet.network.ChannelSettings#stream} channels. */
+    @Getter private final ChannelStreams streams;
+
+    /** The answer to the client's handshake, sent again if the client resends its handshake. */
+    volatile byte[] handshakeResponse;
+    /** Time of the last datagram received from the client, from {@link System#nanoTime()}. */
+    volatile long lastActivity;
+    @Getter private volatile boolean closed = false;
+
+    private final HashedWheelTimer timer;
+    private final HashedWheelTimer.Timeout updateTimeout = new HashedWheelTimer.Timeout(this::runUpdate);
+    private final HashedWheelTimer.Timeout idleTimeout = new HashedWheelTimer.Timeout(this::checkIdle);
+
+    public Session(JuiceNetServer server, SocketAddress address, long clientID, HashedWheelTimer timer) {
+        this.server = server;
+        this.timer = timer;
+        this.address = address;
+        this.key = SessionTable.key(address);
+        this.clientID = clientID;
+        this.lastActivity = System.nanoTime();
+        this.metrics = new PeerMetrics(server.settings, server.getMetrics());
+        this.reliabilityLayer = new ReliabilityLayer(server.settings, this, server.getFragmentMemory());
+        this.dispatcher = new MessageDispatcher(server.settings, this::dispatchMessage, server.getLogger(), this.metrics);
+        this.snapshots = new SnapshotSync(server.settings, (channelId, message) -> send(channelId, ContainerPacket.ReliabilityType.UNRELIABLE, message));
+        this.streams = new ChannelStreams(server.settings, this.reliabilityLayer::getMtu, this::send);
+    }
+
+    /**
+     * Sends a message to this session's client, with the
+     * channel's {@link io.github.jython234.juicenet.network.ChannelSettings#reliabilityType}.
+     * @param channelId The channel to send the message on.
+     * @param payload The message's payload.
+     * @throws IOException If there was an error while sending.
+     */
+    public void send(byte channelId, byte[] payload) throws IOException {
+        send(channelId, this.server.settings.channels[channelId & 0xFF].reliabilityType, payload);
+    }
+
+    /**
+     * Sends a message to this session's client.
+     * @param channelId The channel to send the message on.
+     * @param reliabilityType The ReliabilityType to send the message with.
+     * @param payload The message's payload.
+     * @throws IOException If there was an error while sending.
+     */
+    public void send(byte channelId, ContainerPacket.ReliabilityType reliabilityType, byte[] payload) throws IOException {
+        ContainerPacket cp = new ContainerPacket();
+        cp.reliabilityType = reliabilityType;
+        cp.channelId = channelId;
+        cp.payloadSize = (short) payload.length;
+        cp.payload = payload;
+
+        this.reliabilityLayer.send(cp);
+        scheduleUpdate();
+    }
+
+    /**
+     * Sends a message which was prepared once for many sessions, see {@link JuiceNetServer#broadcast(EncodedMessage)}.
+     * @param message The message.
+     * @throws IOException If there was an error while sending.
+     */
+    public void send(EncodedMessage message) throws IOException {
+        this.reliabilityLayer.send(message);
+        scheduleUpdate();
+    }
+
+    /**
+     * Sends a state snapshot to this session's client, as a delta against the last
+     * snapshot the client acknowledged. The client's listener receives the full snapshot.
+     * @param channelId The channel to send the snapshot on, which must have
+     *                  {@link io.github.jython234.juicenet.network.ChannelSettings#snapshots} set.
+     * @param state The snapshot. It is copied, so it can be reused afterwards.
+     * @throws IOException If there was an error while sending.
+     */
+    public void sendSnapshot(byte channelId, byte[] state) throws IOException {
+        this.snapshots.send(channelId, state);
+    }
+
+    /**
+     * Returns the byte stream of a channel, to transfer data too large for a message to or from this session's client.
+     * @param channelId The channel, which must have {@link io.github.jython234.juicenet.network.ChannelSettings#stream} set.
+     * @return The stream.
+     */
+    public ChannelStream getStream(byte channelId) {
+        return this.streams.get(channelId);
+    }
+
+    /**
+     * Starts the idle timeout, once the session was added to the server's session table.
+     */
+    void start() {
+        this.timer.schedule(this.idleTimeout, this.lastActivity + this.server.settings.sessionTimeout * 1000000L);
+        this.reliabilityLayer.startPathMtuDiscovery();
+        scheduleUpdate();
+    }
+
+    /**
+     * Closes this session and releases its memory. The session
+     * must have been removed from the server's session table.
+     */
+    void close() {
+        this.closed = true;
+        this.timer.cancel(this.updateTimeout);
+        this.timer.cancel(this.idleTimeout);
+        this.reliabilityLayer.close();
+        this.streams.close();
+    }
+
+    /**
+     * @return Time of the last datagram received from the client, from {@link System#nanoTime()}.
+     */
+    public long getLastActivity() {
+        return this.lastActivity;
+    }
+
+    /**
+     * Handles a datagram sent by this session's client.
+     * @param data The datagram, positioned at the packet ID.
+     * @throws IOException If there was an error while handling the datagram.
+     */
+    public void handleDatagram(ByteBuffer data) throws IOException {
+        this.metrics.onDatagramReceived(data.remaining());
+        this.reliabilityLayer.handleDatagram(data);
+        scheduleUpdate();
+    }
+
+    /**
+     * Flushes ACKs and checks retransmission timeouts.
+     * @param now The current time, from {@link System#nanoTime()}.
+     * @throws IOException If there was an error while sending.
+     */
+    public void update(long now) throws IOException {
+        this.reliabilityLayer.update(now);
+    }
+
+    /**
+     * Makes sure the session is updated within one tick interval, if it isn't already.
+     */
+    private void scheduleUpdate() {
+        if(!this.closed && !this.updateTimeout.isScheduled()) {
+            this.timer.schedule(this.updateTimeout, System.nanoTime() + this.server.settings.tickInterval * 1000000L);
+        }
+    }
+
+    private void runUpdate(long now) {
+        if(this.closed)
+            return;
+
+        try {
+            this.reliabilityLayer.update(now);
+        } catch (IOException e) {
+            this.server.getLogger().error("Error while updating session " + this.address, e);
+        }
+
+        long next = this.reliabilityLayer.getNextUpdateTime(now);
+        if(next != -1) {
+            this.timer.schedule(this.updateTimeout, next);
+        }
+    }
+
+    private void checkIdle(long now) {
+        if(this.closed)
+            return;
+
+        // Activity only moves lastActivity, the timeout catches up with it when it expires
+        long deadline = this.lastActivity + this.server.settings.sessionTimeout * 1000000L;
+        if(now - deadline >= 0) {
+            this.server.getNetworkManager().closeSession(this, true);
+        } else {
+            this.timer.schedule(this.idleTimeout, deadline);
+        }
+    }
+
+    @Override
+    public void sendDatagram(ByteBuffer datagram) throws IOException {
+        this.metrics.onDatagramSent(datagram.remaining());
+        this.server.sendRawPacket(datagram, this.address);
+    }
+
+    @Override
+    public void handleMessage(byte channelId, ByteBuffer payload) throws IOException {
+        if(this.server.settings.channels[channelId & 0xFF].snapshots) {
+            payload = this.snapshots.receive(channelId, payload);
+            if(payload == null)
+                return; // An acknowledgement, or an outdated snapshot
+        } else if(this.server.settings.channels[channelId & 0xFF].stream) {
+            this.streams.receive(channelId, payload);
+            return;
+        }
+        this.dispatcher.dispatch(channelId, payload);
+    }
+
+    @Override
+    public void onRttSample(long rtt) {
+        this.metrics.recordRtt(rtt);
+    }
+
+    @Override
+    public boolean acceptContainers() {
+        return this.dispatcher.acceptContainers(); // If the handlers are behind, the client retransmits them later
+    }
+
+    /**
+     * Takes a snapshot of this session's metrics. The histograms
+     * are only kept if {@link io.github.jython234.juicenet.network.NetworkSettings#peerHistograms} is set.
+     * @return The snapshot.
+     */
+    public MetricsSnapshot getMetrics() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.timestamp = System.currentTimeMillis();
+        this.metrics.addTo(snapshot);
+        addMetrics(snapshot);
+        return snapshot;
+    }
+
+    @Override
+    public void addMetrics(MetricsSnapshot snapshot) {
+        snapshot.sessions++;
+        snapshot.messagesSent += this.reliabilityLayer.getPacketsSent();
+        snapshot.messagesReceived += this.reliabilityLayer.getPacketsReceived();
+        snapshot.retransmits += this.reliabilityLayer.getPacketsRetransmitted();
+        snapshot.duplicatesReceived += this.reliabilityLayer.getDuplicatesReceived();
+        snapshot.fecRecovered += this.reliabilityLayer.getFecRecovered();
+        snapshot.fecUnrecoverable += this.reliabilityLayer.getFecUnrecoverable();
+        snapshot.bytesInFlight += this.reliabilityLayer.getBytesInFlight();
+        snapshot.handlerQueueDepth += this.dispatcher.getQueuedCount();
+    }
+
+    private void dispatchMessage(byte channelId, ByteBuffer payload) throws IOException {
+        ServerListener listener = this.server.getListener();
+        if(listener != null) {
+            listener.handleMessage(this, channelId, payload);
+        }
+    }
 }
@@ -0,0 +1,216 @@
+package io.github.jython234.juicenet.network.server;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Maps remote addresses to their {@link Session}.
+ *
+ * IPv4 sessions are stored in an open addressing table keyed by the
+ * address and port packed into a long, so looking up a session never
+ * allocates. Lookups don't lock: they read a volatile table whose slots
+ * are published with atomic stores. Inserts and removals are serialized
+ * with each other, and grow or rebuild the table when it fills up with
+ * removed slots. IPv6 sessions, which are rare, use a ConcurrentHashMap.
+ *
+ * @author jython234
+ */
+public class SessionTable {
+    /** Key of addresses which are not IPv4. */
+    public static final long NO_KEY = -1;
+
+    private static final Object REMOVED = new Object();
+    private static final int MIN_CAPACITY = 64;
+
+    public final int maxSessions;
+
+    private volatile AtomicReferenceArray<Object> table = new AtomicReferenceArray<>(MIN_CAPACITY);
+    private int used = 0; // Live and removed slots, guarded by this
+    private volatile int size = 0;
+
+    private final Map<SocketAddress, Session> ipv6Sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new SessionTable.
+     * @param maxSessions The maximum amount of sessions which can be stored.
+     */
+    public SessionTable(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Packs an IPv4 address and port into a long.
+     * @param address The address.
+     * @return The key, or {@link #NO_KEY} if the address is not a resolved IPv4 address.
+     */
+    public static long key(SocketAddress address) {
+        if(!(address instanceof InetSocketAddress))
+            return NO_KEY;
+
+        InetAddress ip = ((InetSocketAddress) address).getAddress();
+        if(!(ip instanceof Inet4Address))
+            return NO_KEY;
+
+        // Inet4Address's hash code is its address, reading it doesn't copy the address like getAddress() does
+        return ((ip.hashCode() & 0xFFFFFFFFL) << 16) | ((InetSocketAddress) address).getPort();
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @param address The remote address of the session.
+     * @return The session, or null if there is no session for the address.
+     */
+    public Session get(SocketAddress address) {
+        long key = key(address);
+        if(key == NO_KEY)
+            return this.ipv6Sessions.get(address);
+
+        AtomicReferenceArray<Object> table = this.table;
+        int mask = table.length() - 1;
+        for(int i = hash(key) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            Object entry = table.get(i);
+            if(entry == null)
+                return null;
+            if(entry != REMOVED) {
+                Session session = (Session) entry;
+                if(session.key == key && session.address.equals(address))
+                    return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a session if there is no session for its address yet.
+     * @param session The session to add.
+     * @return The session stored for the address: an existing session, the
+     *          session that was passed in if it was added, or null if the table is full.
+     */
+    public Session putIfAbsent(Session session) {
+        if(session.key == NO_KEY) {
+            synchronized (this) {
+                Session existing = this.ipv6Sessions.get(session.address);
+                if(existing != null)
+                    return existing;
+                if(this.size >= this.maxSessions)
+                    return null;
+                this.ipv6Sessions.put(session.address, session);
+                this.size++;
+                return session;
+            }
+        }
+
+        synchronized (this) {
+            Session existing = get(session.address);
+            if(existing != null)
+                return existing;
+            if(this.size >= this.maxSessions)
+                return null;
+
+            if((this.used + 1) * 2 > this.table.length()) {
+                rebuild();
+            }
+
+            AtomicReferenceArray<Object> table = this.table;
+            int mask = table.length() - 1;
+            int i = hash(session.key) & mask;
+            Object entry;
+            while((entry = table.get(i)) != null && entry != REMOVED) {
+                i = (i + 1) & mask;
+            }
+            if(entry == null) {
+                this.used++;
+            }
+            table.set(i, session);
+            this.size++;
+            return session;
+        }
+    }
+
+    /**
+     * Removes a session.
+     * @param session The session to remove.
+     * @return True if the session was removed, false if it wasn't in the table.
+     */
+    public synchronized boolean remove(Session session) {
+        if(session.key == NO_KEY) {
+            if(!this.ipv6Sessions.remove(session.address, session))
+                return false;
+            this.size--;
+            return true;
+        }
+
+        AtomicReferenceArray<Object> table = this.table;
+        int mask = table.length() - 1;
+        for(int i = hash(session.key) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            Object entry = table.get(i);
+            if(entry == null)
+                return false;
+            if(entry == session) {
+                table.set(i, REMOVED);
+                this.size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Copies the live sessions into a new table, dropping removed slots
+    private void rebuild() {
+        int live = this.size - this.ipv6Sessions.size();
+        int capacity = MIN_CAPACITY;
+        while(capacity < (live + 1) * 4) {
+            capacity <<= 1;
+        }
+
+        AtomicReferenceArray<Object> old = this.table;
+        AtomicReferenceArray<Object> table = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+        for(int j = 0; j < old.length(); j++) {
+            Object entry = old.get(j);
+            if(entry != null && entry != REMOVED) {
+                int i = hash(((Session) entry).key) & mask;
+                while(table.get(i) != null) {
+                    i = (i + 1) & mask;
+                }
+                table.set(i, entry);
+            }
+        }
+
+        this.table = table;
+        this.used = live;
+    }
+
+    /**
+     * Calls the action for every session. Sessions which are added or
+     * removed while iterating may or may not be visited.
+     * @param action The action.
+     */
+    public void forEach(Consumer<Session> action) {
+        AtomicReferenceArray<Object> table = this.table;
+        for(int i = 0; i < table.length(); i++) {
+            Object entry = table.get(i);
+            if(entry != null && entry != REMOVED) {
+                action.accept((Session) entry);
+            }
+        }
+        this.ipv6Sessions.values().forEach(action);
+    }
+
+    /**
+     * @return The amount of sessions.
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.jython234.juicenet.network.snapshot;
+
+/**
+ * Encodes a snapshot as the XOR of it and a baseline snapshot, with runs of zeros
+ * (the bytes which didn't change) left out.
+ *
+ * The encoding is a sequence of runs, each a varint with the amount of unchanged
+ * bytes, a varint with the amount of changed bytes, and the changed bytes XORed
+ * with the baseline. Bytes after the last run are unchanged. Snapshots of
+ * different sizes are compared as if the shorter one was padded with zeros.
+ *
+ * @author jython234
+ */
+public final class DeltaEncoding {
+    private static final int MIN_ZERO_RUN = 3; // Shorter runs of unchanged bytes cost more to skip than to send
+
+    private DeltaEncoding() {}
+
+    /**
+     * Encodes a snapshot against a baseline.
+     * @param state The snapshot.
+     * @param stateLength The size of the snapshot.
+     * @param baseline The baseline.
+     * @param baselineLength The size of the baseline.
+     * @param dst The array to write the delta to.
+     * @param dstOffset The index to start writing at.
+     * @param maxLength The maximum amount of bytes to write.
+     * @return The amount of bytes written, or -1 if the delta doesn't fit into <code>maxLength</code> bytes.
+     */
+    public static int encode(byte[] state, int stateLength, byte[] baseline, int baselineLength, byte[] dst, int dstOffset, int maxLength) {
+        int limit = dstOffset + maxLength;
+        int out = dstOffset;
+        int i = 0;
+        int runStart = 0; // Start of the unchanged bytes before the next changed run
+
+        while(i < stateLength) {
+            // Skip unchanged bytes
+            while(i < stateLength && xor(state, baseline, baselineLength, i) == 0) {
+                i++;
+            }
+            if(i == stateLength)
+                break;
+
+            // Collect changed bytes, until enough unchanged ones follow
+            int changedStart = i;
+            int zeros = 0;
+            while(i < stateLength && zeros < MIN_ZERO_RUN) {
+                zeros = xor(state, baseline, baselineLength, i) == 0 ? zeros + 1 : 0;
+                i++;
+            }
+            int changedEnd = i - zeros; // Trailing unchanged bytes aren't sent
+            i = changedEnd;
+
+            out = writeVarint(changedStart - runStart, dst, out, limit);
+            if(out < 0)
+                return -1;
+            out = writeVarint(changedEnd - changedStart, dst, out, limit);
+            if(out < 0 || limit - out < changedEnd - changedStart)
+                return -1;
+            for(int j = changedStart; j < changedEnd; j++) {
+                dst[out++] = xor(state, baseline, baselineLength, j);
+            }
+            runStart = changedEnd;
+        }
+        return out - dstOffset;
+    }
+
+    /**
+     * Decodes a delta, applying it to a baseline.
+     * @param src The array containing the delta.
+     * @param srcOffset The index of the delta in the array.
+     * @param length The size of the delta.
+     * @param baseline The baseline.
+     * @param baselineLength The size of the baseline.
+     * @param state The array to write the snapshot to, which must not be the baseline.
+     * @param stateLength The size of the snapshot.
+     * @throws RuntimeException If the delta is invalid.
+     */
+    public static void decode(byte[] src, int srcOffset, int length, byte[] baseline, int baselineLength, byte[] state, int stateLength) {
+        int copied = Math.min(baselineLength, stateLength);
+        System.arraycopy(baseline, 0, state, 0, copied);
+        for(int i = copied; i < stateLength; i++) {
+            state[i] = 0;
+        }
+
+        int in = srcOffset;
+        int end = srcOffset + length;
+        int position = 0;
+        while(in < end) {
+            long skip = 0;
+            long changed = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if(in >= end || shift > 28)
+                    throw new RuntimeException("Invalid snapshot delta: truncated run length!");
+                b = src[in++];
+                skip |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while(b < 0);
+            shift = 0;
+            do {
+                if(in >= end || shift > 28)
+                    throw new RuntimeException("Invalid snapshot delta: truncated run length!");
+                b = src[in++];
+                changed |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while(b < 0);
+
+            if(position + skip + changed > stateLength || in + changed > end)
+                throw new RuntimeException("Invalid snapshot delta: run is out of bounds!");
+            position += (int) skip;
+            for(int j = 0; j < changed; j++) {
+                state[position++] ^= src[in++];
+            }
+        }
+    }
+
+    private static byte xor(byte[] state, byte[] baseline, int baselineLength, int index) {
+        return index < baselineLength ? (byte) (state[index] ^ baseline[index]) : state[index];
+    }
+
+    private static int writeVarint(int value, byte[] dst, int out, int limit) {
+        while((value & ~0x7F) != 0) {
+            if(out >= limit)
+                return -1;
+            dst[out++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        if(out >= limit)
+            return -1;
+        dst[out++] = (byte) value;
+        return out;
+    }
+}
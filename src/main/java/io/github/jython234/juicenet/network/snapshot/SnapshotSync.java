@@ -0,0 +1,312 @@
+package io.github.jython234.juicenet.network.snapshot;
+
+import io.github.jython234.juicenet.network.ChannelSettings;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Sends and receives state snapshots on the {@link ChannelSettings#snapshots} channels of one peer.
+ *
+ * Each snapshot is sent UNRELIABLE, as a delta against the newest snapshot the
+ * peer has acknowledged, or in full if the peer hasn't acknowledged any of the
+ * last {@link ChannelSettings#snapshotBaselines} snapshots. The receiver keeps
+ * the same amount of decoded snapshots as baselines, and acknowledges every
+ * snapshot it decodes with a small UNRELIABLE message on the same channel.
+ * A lost snapshot or acknowledgement only means the next deltas are against an
+ * older baseline, so snapshots never need to be retransmitted, and a snapshot
+ * older than the newest one received is dropped.
+ *
+ * Messages start with a type byte and the snapshot's sequence number. Snapshots
+ * then have the sequence number of their baseline (or -1 if they are sent in full),
+ * the size of the snapshot and the snapshot itself or its {@link DeltaEncoding}.
+ *
+ * @author jython234
+ */
+public class SnapshotSync {
+    public static final byte TYPE_SNAPSHOT = 0;
+    public static final byte TYPE_ACK = 1;
+
+    private static final int NO_BASELINE = -1;
+    private static final int SNAPSHOT_HEADER_SIZE = 13;
+    private static final int ACK_SIZE = 5;
+
+    private final NetworkSettings settings;
+    private final Output output;
+    private final SendState[] sendStates = new SendState[256];
+    private final ReceiveState[] receiveStates = new ReceiveState[256];
+
+    /** Amount of snapshots sent in full. */
+    @Getter private volatile long fullSnapshotsSent;
+    /** Amount of snapshots sent as deltas. */
+    @Getter private volatile long deltaSnapshotsSent;
+    /** Size of every snapshot sent, before encoding. */
+    @Getter private volatile long snapshotBytes;
+    /** Size of every snapshot message sent, after encoding. */
+    @Getter private volatile long encodedBytesSent;
+    /** Amount of snapshots received and decoded. */
+    @Getter private volatile long snapshotsReceived;
+    /** Amount of snapshots dropped because a newer one was already received, or their baseline was no longer kept. */
+    @Getter private volatile long snapshotsDropped;
+
+    /**
+     * Creates a new SnapshotSync.
+     * @param settings The settings which tell which channels carry snapshots.
+     * @param output Sends the snapshot messages UNRELIABLE to the peer.
+     */
+    public SnapshotSync(NetworkSettings settings, Output output) {
+        this.settings = settings;
+        this.output = output;
+    }
+
+    /**
+     * Sends a snapshot to the peer. Can be called from any thread.
+     * @param channelId The channel to send the snapshot on, which must have {@link ChannelSettings#snapshots} set.
+     * @param state The snapshot. It is copied, so it can be reused afterwards.
+     * @throws IOException If there was an error while sending.
+     */
+    public void send(byte channelId, byte[] state) throws IOException {
+        ChannelSettings channel = this.settings.channels[channelId & 0xFF];
+        if(!channel.snapshots)
+            throw new IllegalArgumentException("Channel " + (channelId & 0xFF) + " doesn't carry snapshots!");
+
+        byte[] message;
+        synchronized(this) {
+            SendState sendState = this.sendStates[channelId & 0xFF];
+            if(sendState == null) {
+                sendState = this.sendStates[channelId & 0xFF] = new SendState(channel.snapshotBaselines);
+            }
+            message = sendState.encode(state);
+
+            if(sendState.lastFull) {
+                this.fullSnapshotsSent++;
+            } else {
+                this.deltaSnapshotsSent++;
+            }
+            this.snapshotBytes += state.length;
+            this.encodedBytesSent += message.length;
+        }
+        // Sent without holding the lock, as receive() is called with the reliability layer's lock held
+        this.output.send(channelId, message);
+    }
+
+    /**
+     * Handles a message received on a snapshot channel.
+     * @param channelId The channel the message was received on.
+     * @param payload The message.
+     * @return The snapshot the message carried, which is only valid until the next call, or null
+     *         if the message was an acknowledgement or the snapshot was dropped.
+     * @throws IOException If there was an error while sending the acknowledgement.
+     * @throws RuntimeException If the message is invalid.
+     */
+    public ByteBuffer receive(byte channelId, ByteBuffer payload) throws IOException {
+        ByteBuffer bb = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(bb.remaining() < ACK_SIZE)
+            throw new RuntimeException("Invalid snapshot message: too small!");
+        byte type = bb.get();
+        int sequence = bb.getInt();
+
+        ByteBuffer state;
+        synchronized(this) {
+            if(type == TYPE_ACK) {
+                SendState sendState = this.sendStates[channelId & 0xFF];
+                if(sendState != null) {
+                    sendState.acknowledge(sequence);
+                }
+                return null;
+            } else if(type != TYPE_SNAPSHOT || bb.remaining() < SNAPSHOT_HEADER_SIZE - ACK_SIZE) {
+                throw new RuntimeException("Invalid snapshot message: unknown type or too small!");
+            }
+
+            ReceiveState receiveState = this.receiveStates[channelId & 0xFF];
+            if(receiveState == null) {
+                receiveState = this.receiveStates[channelId & 0xFF] = new ReceiveState(this.settings.channels[channelId & 0xFF].snapshotBaselines, this.settings.sessionFragmentMemory);
+            }
+            state = receiveState.decode(sequence, bb);
+            if(state == null) {
+                this.snapshotsDropped++;
+                return null;
+            }
+            this.snapshotsReceived++;
+        }
+
+        byte[] ack = new byte[ACK_SIZE];
+        ByteBuffer.wrap(ack).order(ByteOrder.LITTLE_ENDIAN).put(TYPE_ACK).putInt(sequence);
+        this.output.send(channelId, ack);
+        return state;
+    }
+
+    private static int ringSize(int baselines) {
+        if(baselines < 1)
+            throw new IllegalArgumentException("snapshotBaselines must be at least 1!");
+        int size = 1;
+        while(size < baselines) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * The snapshots sent on one channel, which the peer might use as baselines.
+     */
+    private static class SendState {
+        private final int mask;
+        private final int[] sequences;
+        private final byte[][] states;
+        private final int[] lengths;
+        private int nextSequence = 0;
+        private int acked = NO_BASELINE;
+        private boolean hasAck = false;
+        private byte[] scratch = new byte[0];
+        /** If the last snapshot encoded was sent in full. */
+        boolean lastFull;
+
+        SendState(int baselines) {
+            int size = ringSize(baselines);
+            this.mask = size - 1;
+            this.sequences = new int[size];
+            this.states = new byte[size][];
+            this.lengths = new int[size];
+            Arrays.fill(this.sequences, NO_BASELINE);
+        }
+
+        byte[] encode(byte[] state) {
+            int sequence = this.nextSequence++;
+            if(sequence == NO_BASELINE) {
+                sequence = this.nextSequence++; // Wrapped around
+            }
+            int baseline = NO_BASELINE;
+            if(this.hasAck && sequence - this.acked <= this.mask && this.sequences[this.acked & this.mask] == this.acked) {
+                baseline = this.acked;
+            }
+
+            int length = -1;
+            if(baseline != NO_BASELINE) {
+                if(this.scratch.length < SNAPSHOT_HEADER_SIZE + state.length) {
+                    this.scratch = new byte[SNAPSHOT_HEADER_SIZE + state.length];
+                }
+                int slot = baseline & this.mask;
+                // Only worth it if the delta is smaller than the snapshot itself
+                length = DeltaEncoding.encode(state, state.length, this.states[slot], this.lengths[slot], this.scratch, SNAPSHOT_HEADER_SIZE, state.length - 1);
+                if(length < 0) {
+                    baseline = NO_BASELINE;
+                }
+            }
+
+            byte[] message;
+            if(baseline == NO_BASELINE) {
+                message = new byte[SNAPSHOT_HEADER_SIZE + state.length];
+                System.arraycopy(state, 0, message, SNAPSHOT_HEADER_SIZE, state.length);
+            } else {
+                message = Arrays.copyOf(this.scratch, SNAPSHOT_HEADER_SIZE + length);
+            }
+            this.lastFull = baseline == NO_BASELINE;
+            ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN).put(TYPE_SNAPSHOT).putInt(sequence).putInt(baseline).putInt(state.length);
+
+            // Keep a copy as a future baseline, reusing the array of the snapshot it replaces
+            int slot = sequence & this.mask;
+            if(this.states[slot] == null || this.states[slot].length < state.length) {
+                this.states[slot] = new byte[state.length];
+            }
+            System.arraycopy(state, 0, this.states[slot], 0, state.length);
+            this.lengths[slot] = state.length;
+            this.sequences[slot] = sequence;
+            return message;
+        }
+
+        void acknowledge(int sequence) {
+            if(sequence - this.nextSequence >= 0)
+                return; // Never sent
+            if(!this.hasAck || sequence - this.acked > 0) {
+                this.acked = sequence;
+                this.hasAck = true;
+            }
+        }
+    }
+
+    /**
+     * The snapshots received on one channel, which the sender might use as baselines.
+     */
+    private static class ReceiveState {
+        private final int mask;
+        private final int[] sequences;
+        private final byte[][] states;
+        private final int[] lengths;
+        private final int maxLength; // Larger than any snapshot which can be received
+        private int newest;
+        private boolean hasNewest = false;
+
+        ReceiveState(int baselines, int maxLength) {
+            this.maxLength = maxLength;
+            int size = ringSize(baselines);
+            this.mask = size - 1;
+            this.sequences = new int[size];
+            this.states = new byte[size][];
+            this.lengths = new int[size];
+            Arrays.fill(this.sequences, NO_BASELINE);
+        }
+
+        ByteBuffer decode(int sequence, ByteBuffer bb) {
+            if(this.hasNewest && sequence - this.newest <= 0)
+                return null; // Older than the snapshot already delivered, or a duplicate
+
+            int baseline = bb.getInt();
+            int length = bb.getInt();
+            if(length < 0)
+                throw new RuntimeException("Invalid snapshot message: negative size!");
+            // Checked before the size is allocated
+            if(baseline == NO_BASELINE && length != bb.remaining())
+                throw new RuntimeException("Invalid snapshot message: size doesn't match!");
+            if(length > this.maxLength)
+                throw new RuntimeException("Invalid snapshot message: too large (" + length + ")!");
+
+            int baselineSlot = baseline & this.mask;
+            if(baseline != NO_BASELINE && this.sequences[baselineSlot] != baseline)
+                return null; // No longer kept, or never received
+
+            int slot = sequence & this.mask;
+            if(slot == baselineSlot && baseline != NO_BASELINE)
+                return null; // The sender's ring is larger than ours, the baseline would be overwritten
+            byte[] state = this.states[slot];
+            if(state == null || state.length < length) {
+                state = new byte[length];
+            }
+            this.sequences[slot] = NO_BASELINE; // Overwritten below, so it's no longer a baseline even if this one is invalid
+
+            if(baseline == NO_BASELINE) {
+                bb.get(state, 0, length);
+            } else if(bb.hasArray()) {
+                DeltaEncoding.decode(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining(), this.states[baselineSlot], this.lengths[baselineSlot], state, length);
+            } else {
+                byte[] delta = new byte[bb.remaining()];
+                bb.get(delta);
+                DeltaEncoding.decode(delta, 0, delta.length, this.states[baselineSlot], this.lengths[baselineSlot], state, length);
+            }
+
+            this.states[slot] = state;
+            this.lengths[slot] = length;
+            this.sequences[slot] = sequence;
+            this.newest = sequence;
+            this.hasNewest = true;
+            return ByteBuffer.wrap(state, 0, length).slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Sends snapshot messages to the peer.
+     */
+    @FunctionalInterface
+    public interface Output {
+        /**
+         * Sends a message UNRELIABLE.
+         * @param channelId The snapshot channel.
+         * @param message The message, which isn't reused.
+         * @throws IOException If there was an error while sending.
+         */
+        void send(byte channelId, byte[] message) throws IOException;
+    }
+}
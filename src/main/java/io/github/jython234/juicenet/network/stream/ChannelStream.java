@@ -0,0 +1,430 @@
+package io.github.jython234.juicenet.network.stream;
+
+import io.github.jython234.juicenet.network.ChannelSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * A byte stream in each direction of one {@link ChannelSettings#stream} channel, see {@link ChannelStreams}.
+ *
+ * Written bytes are sent in RELIABLE_ORDERED data messages sized to fit a
+ * datagram, so they are never fragmented. The receiver copies them into a
+ * buffer of {@link ChannelSettings#streamWindow} bytes, which its application
+ * empties through the {@link #getInputStream() input stream}. Every time a
+ * quarter of the buffer was read, the receiver advertises a new limit: the
+ * offset up to which the sender may send. The sender blocks once it reaches
+ * the limit, so neither side ever holds more than a window of the stream,
+ * however fast the sender and however slow the reader.
+ *
+ * Messages start with a type byte and a stream offset. Data messages have the
+ * offset of their first byte and the data, window updates the new limit, and
+ * the message sent when the output stream is closed the length of the stream.
+ *
+ * Each direction carries one stream per connection. The output side can be
+ * written by one thread at a time, and so can the input side be read.
+ *
+ * @author jython234
+ */
+public class ChannelStream {
+    public static final byte TYPE_DATA = 0;
+    public static final byte TYPE_WINDOW = 1;
+    public static final byte TYPE_FIN = 2;
+    /** Size of a message's type and offset. */
+    public static final int HEADER_SIZE = 9;
+    /** Largest region (in bytes) of a file mapped at once by {@link #transferFrom(FileChannel, long, long)}. */
+    public static final int MAP_SIZE = 16 * 1024 * 1024;
+
+    public final byte channelId;
+    public final int window;
+    private final IntSupplier mtu;
+    private final ChannelStreams.Output output;
+
+    private final StreamInput input;
+    private final StreamOutput outputStream;
+
+    /** Amount of bytes written and sent to the peer. */
+    @Getter private volatile long bytesSent = 0;
+    /** Amount of bytes received from the peer. */
+    @Getter private volatile long bytesReceived = 0;
+    /** Amount of times the writer had to wait for the peer's application to read. */
+    @Getter private volatile long windowStalls = 0;
+
+    /**
+     * Creates a new ChannelStream.
+     * @param channelId The channel which carries the stream.
+     * @param channel The settings of the channel.
+     * @param mtu Returns the current payload MTU of the peer's reliability layer.
+     * @param output Sends the stream's messages to the peer.
+     */
+    ChannelStream(byte channelId, ChannelSettings channel, IntSupplier mtu, ChannelStreams.Output output) {
+        if(channel.streamWindow < 1)
+            throw new IllegalArgumentException("streamWindow must be at least 1!");
+        this.channelId = channelId;
+        this.window = channel.streamWindow;
+        this.mtu = mtu;
+        this.output = output;
+        this.input = new StreamInput();
+        this.outputStream = new StreamOutput(); // After the window is set, which it starts with
+    }
+
+    /**
+     * @return The stream the peer writes, which blocks until data arrives and returns -1 once the peer closed its output stream.
+     */
+    public InputStream getInputStream() {
+        return this.input;
+    }
+
+    /**
+     * @return The stream to the peer, which blocks while the peer's receive buffer is full.
+     */
+    public OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    /**
+     * Writes a region of a file to the stream, after the bytes written so far. The file is memory
+     * mapped up to {@link #MAP_SIZE} bytes at a time, and copied from the mapping straight into the
+     * data messages, without passing through a read buffer. Blocks while the peer's receive buffer is full.
+     * @param file The file.
+     * @param position The position in the file to start from.
+     * @param count The amount of bytes to write, which is cut to the end of the file.
+     * @return The amount of bytes written.
+     * @throws IOException If the file couldn't be read, the stream was closed, or there was an error while sending.
+     */
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        count = Math.max(0, Math.min(count, file.size() - position));
+        synchronized(this.outputStream.writeLock) {
+            this.outputStream.flush();
+            long transferred = 0;
+            while(transferred < count) {
+                MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, position + transferred, Math.min(MAP_SIZE, count - transferred));
+                while(mapped.hasRemaining()) {
+                    int size = (int) Math.min(this.outputStream.awaitWindow(), Math.min(maxChunkSize(), mapped.remaining()));
+                    byte[] chunk = new byte[HEADER_SIZE + size];
+                    mapped.get(chunk, HEADER_SIZE, size);
+                    this.outputStream.sendChunk(chunk, size);
+                }
+                transferred += mapped.capacity();
+            }
+            return transferred;
+        }
+    }
+
+    /**
+     * @return The amount of stream bytes which fit a data message without it being fragmented.
+     */
+    private int maxChunkSize() {
+        return Math.max(1, this.mtu.getAsInt() - ContainerPacket.getHeaderSize(ContainerPacket.ReliabilityType.RELIABLE_ORDERED, false) - HEADER_SIZE);
+    }
+
+    private byte[] message(byte type, long offset) {
+        byte[] message = new byte[HEADER_SIZE];
+        ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN).put(type).putLong(offset);
+        return message;
+    }
+
+    /**
+     * Handles a message received from the peer.
+     * @param bb The message, in little endian order.
+     * @throws IOException If there was an error while sending a window update.
+     * @throws RuntimeException If the message is invalid.
+     */
+    void receive(ByteBuffer bb) throws IOException {
+        byte type = bb.get();
+        long offset = bb.getLong();
+        switch(type) {
+            case TYPE_DATA:
+                this.input.receive(offset, bb);
+                break;
+            case TYPE_WINDOW:
+                this.outputStream.updateLimit(offset);
+                break;
+            case TYPE_FIN:
+                this.input.finish(offset);
+                break;
+            default:
+                throw new RuntimeException("Invalid stream message: unknown type " + type + "!");
+        }
+    }
+
+    /**
+     * Wakes up the threads blocked on the stream, once the connection was closed. Data which
+     * was already received can still be read, after that the input stream throws as well.
+     */
+    void close() {
+        this.input.abort();
+        this.outputStream.abort();
+    }
+
+    /**
+     * The receiving side, a ring buffer of the window's size.
+     */
+    private class StreamInput extends InputStream {
+        private final Object readLock = new Object();
+        private byte[] buffer; // Allocated once data arrives
+        private long received = 0; // Guarded by this
+        private long consumed = 0;
+        private long advertised = 0; // The consumed offset of the last window update
+        private boolean finished = false;
+        private volatile boolean closed = false;
+        private boolean discarding = false;
+
+        void receive(long offset, ByteBuffer bb) throws IOException {
+            int size = bb.remaining();
+            long update = -1;
+            synchronized(this) {
+                if(offset != this.received)
+                    throw new RuntimeException("Invalid stream message: offset " + offset + " instead of " + this.received + "!");
+                if(this.finished || offset + size - this.consumed > window)
+                    throw new RuntimeException("Invalid stream message: the data exceeds the window!");
+                if(this.buffer == null) {
+                    this.buffer = new byte[window];
+                }
+
+                int index = (int) (offset % window);
+                int first = Math.min(size, window - index);
+                bb.get(this.buffer, index, first);
+                bb.get(this.buffer, 0, size - first);
+                this.received += size;
+                bytesReceived += size;
+
+                if(this.discarding) {
+                    this.consumed = this.received;
+                    update = nextUpdate();
+                }
+                notifyAll();
+            }
+            if(update >= 0) {
+                output.send(channelId, ContainerPacket.ReliabilityType.RELIABLE, message(TYPE_WINDOW, update));
+            }
+        }
+
+        synchronized void finish(long length) {
+            if(length != this.received)
+                throw new RuntimeException("Invalid stream message: length " + length + " instead of " + this.received + "!");
+            this.finished = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            this.closed = true;
+            notifyAll();
+        }
+
+        /**
+         * @return The limit to advertise, or -1 if the reader hasn't emptied enough of the buffer yet.
+         */
+        private long nextUpdate() {
+            if(this.finished || this.consumed - this.advertised < Math.max(1, window / 4))
+                return -1;
+            this.advertised = this.consumed;
+            return this.consumed + window;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if(len == 0)
+                return 0;
+
+            synchronized(this.readLock) {
+                int size;
+                long update;
+                synchronized(this) {
+                    if(this.discarding)
+                        throw new IOException("Stream closed");
+                    while(this.received == this.consumed) {
+                        if(this.finished)
+                            return -1;
+                        if(this.closed)
+                            throw new ClosedChannelException();
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                    }
+
+                    size = (int) Math.min(len, this.received - this.consumed);
+                    int index = (int) (this.consumed % window);
+                    int first = Math.min(size, window - index);
+                    System.arraycopy(this.buffer, index, b, off, first);
+                    System.arraycopy(this.buffer, 0, b, off + first, size - first);
+                    this.consumed += size;
+                    update = nextUpdate();
+                }
+                // Sent without holding the lock, as receive() is called with the reliability layer's lock held
+                if(update >= 0 && !this.closed) {
+                    output.send(channelId, ContainerPacket.ReliabilityType.RELIABLE, message(TYPE_WINDOW, update));
+                }
+                return size;
+            }
+        }
+
+        @Override
+        public synchronized int available() {
+            return (int) (this.received - this.consumed);
+        }
+
+        /**
+         * Stops reading. Data which arrives afterwards is dropped, and the window keeps
+         * moving, so the peer's writer isn't blocked forever.
+         */
+        @Override
+        public void close() throws IOException {
+            long update;
+            synchronized(this) {
+                this.discarding = true;
+                this.consumed = this.received;
+                update = nextUpdate();
+            }
+            if(update >= 0 && !this.closed) {
+                output.send(channelId, ContainerPacket.ReliabilityType.RELIABLE, message(TYPE_WINDOW, update));
+            }
+        }
+    }
+
+    /**
+     * The sending side, which fills a data message at a time.
+     */
+    private class StreamOutput extends OutputStream {
+        final Object writeLock = new Object();
+        private byte[] chunk; // The data message being filled, sized to fit the window
+        private int chunkSize = 0;
+        private long sent = 0; // Only changed by the writer
+        private long limit = window; // Guarded by this
+        private boolean finished = false;
+        private boolean aborted = false;
+
+        synchronized void updateLimit(long limit) {
+            if(limit > this.limit) {
+                this.limit = limit;
+                notifyAll();
+            }
+        }
+
+        synchronized void abort() {
+            this.aborted = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the peer has room for more data.
+         * @return The amount of bytes which may be sent.
+         */
+        synchronized long awaitWindow() throws IOException {
+            if(this.finished || this.aborted)
+                throw new ClosedChannelException();
+            if(this.limit - this.sent <= 0) {
+                windowStalls++;
+                do {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                    if(this.aborted)
+                        throw new ClosedChannelException();
+                } while(this.limit - this.sent <= 0);
+            }
+            return this.limit - this.sent;
+        }
+
+        /**
+         * Sends a data message.
+         * @param chunk The message, with room for the header in front of the data.
+         * @param size The size of the data.
+         */
+        void sendChunk(byte[] chunk, int size) throws IOException {
+            ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).put(TYPE_DATA).putLong(this.sent);
+            this.sent += size;
+            bytesSent += size;
+            output.send(channelId, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, chunk);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+
+            synchronized(this.writeLock) {
+                while(len > 0) {
+                    if(this.chunk == null) {
+                        int capacity = (int) Math.min(awaitWindow(), maxChunkSize());
+                        this.chunk = new byte[HEADER_SIZE + capacity];
+                        this.chunkSize = 0;
+                    }
+
+                    int size = Math.min(len, this.chunk.length - HEADER_SIZE - this.chunkSize);
+                    System.arraycopy(b, off, this.chunk, HEADER_SIZE + this.chunkSize, size);
+                    this.chunkSize += size;
+                    off += size;
+                    len -= size;
+                    if(HEADER_SIZE + this.chunkSize == this.chunk.length) {
+                        flush();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sends the data message being filled, even if it isn't full.
+         */
+        @Override
+        public void flush() throws IOException {
+            synchronized(this.writeLock) {
+                if(this.chunk == null)
+                    return;
+                byte[] chunk = HEADER_SIZE + this.chunkSize == this.chunk.length ? this.chunk : Arrays.copyOf(this.chunk, HEADER_SIZE + this.chunkSize);
+                int size = this.chunkSize;
+                this.chunk = null;
+                this.chunkSize = 0;
+                if(size > 0) {
+                    sendChunk(chunk, size);
+                }
+            }
+        }
+
+        /**
+         * Sends the rest of the data, and tells the peer the stream ended.
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized(this.writeLock) {
+                if(this.finished)
+                    return;
+                flush();
+                synchronized(this) {
+                    this.finished = true;
+                }
+                output.send(channelId, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, message(TYPE_FIN, this.sent));
+            }
+        }
+    }
+}
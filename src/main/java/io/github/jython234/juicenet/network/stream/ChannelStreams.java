@@ -0,0 +1,109 @@
+package io.github.jython234.juicenet.network.stream;
+
+import io.github.jython234.juicenet.network.ChannelSettings;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntSupplier;
+
+/**
+ * The byte streams of one peer's {@link ChannelSettings#stream} channels, for
+ * transfers too large to be sent as a message, like multi-megabyte assets.
+ *
+ * Each stream channel has a {@link ChannelStream}, created once it is first
+ * used by either peer. Messages received on stream channels are handed to their
+ * stream instead of the listener. Stream data is flow controlled by the receiver,
+ * so a transfer holds at most {@link ChannelSettings#streamWindow} bytes on each
+ * side, while congestion control still paces it to what the path can carry.
+ *
+ * @author jython234
+ */
+public class ChannelStreams {
+    private final NetworkSettings settings;
+    private final IntSupplier mtu;
+    private final Output output;
+    private final ChannelStream[] streams = new ChannelStream[256];
+    private boolean closed = false;
+
+    /**
+     * Creates a new ChannelStreams.
+     * @param settings The settings which tell which channels carry streams.
+     * @param mtu Returns the current payload MTU of the peer's reliability layer, which data messages are sized to.
+     * @param output Sends the stream messages to the peer.
+     */
+    public ChannelStreams(NetworkSettings settings, IntSupplier mtu, Output output) {
+        this.settings = settings;
+        this.mtu = mtu;
+        this.output = output;
+    }
+
+    /**
+     * Returns the stream of a channel. Can be called from any thread.
+     * @param channelId The channel, which must have {@link ChannelSettings#stream} set.
+     * @return The stream.
+     */
+    public synchronized ChannelStream get(byte channelId) {
+        ChannelSettings channel = this.settings.channels[channelId & 0xFF];
+        if(!channel.stream)
+            throw new IllegalArgumentException("Channel " + (channelId & 0xFF) + " doesn't carry a stream!");
+
+        ChannelStream stream = this.streams[channelId & 0xFF];
+        if(stream == null) {
+            stream = this.streams[channelId & 0xFF] = new ChannelStream(channelId, channel, this.mtu, this.output);
+            if(this.closed) {
+                stream.close();
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Handles a message received on a stream channel.
+     * @param channelId The channel the message was received on.
+     * @param payload The message.
+     * @throws IOException If there was an error while sending a window update.
+     * @throws RuntimeException If the message is invalid.
+     */
+    public void receive(byte channelId, ByteBuffer payload) throws IOException {
+        ByteBuffer bb = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(bb.remaining() < ChannelStream.HEADER_SIZE)
+            throw new RuntimeException("Invalid stream message: too small!");
+        get(channelId).receive(bb);
+    }
+
+    /**
+     * Wakes up the threads blocked on any of the streams, once the connection was closed.
+     */
+    public void close() {
+        synchronized(this) {
+            this.closed = true;
+        }
+        for(int i = 0; i < this.streams.length; i++) {
+            ChannelStream stream;
+            synchronized(this) {
+                stream = this.streams[i];
+            }
+            if(stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Sends stream messages to the peer.
+     */
+    @FunctionalInterface
+    public interface Output {
+        /**
+         * Sends a message.
+         * @param channelId The stream channel.
+         * @param reliabilityType RELIABLE_ORDERED for data, RELIABLE for window updates.
+         * @param message The message, which isn't reused.
+         * @throws IOException If there was an error while sending.
+         */
+        void send(byte channelId, ContainerPacket.ReliabilityType reliabilityType, byte[] message) throws IOException;
+    }
+}
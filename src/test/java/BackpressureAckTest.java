@@ -0,0 +1,60 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Checks that a peer refusing containers under backpressure still handles the acknowledgements it receives.
+ *
+ * Two ReliabilityLayers send reliable messages to each other, while one of
+ * them refuses every container, like an overloaded peer whose handlers are behind.
+ * Checks the refused messages aren't delivered or acknowledged, but the messages of the
+ * overloaded peer are still acknowledged and leave its window. Then the overload ends,
+ * and checks the refused messages are retransmitted and delivered in order.
+ *
+ * Usage: BackpressureAckTest [messages]
+ */
+public class BackpressureAckTest {
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        NetworkSettings settings = new NetworkSettings();
+        settings.pathMtuDiscovery = false;
+        LinkHarness.SimulatedLink link = new LinkHarness.SimulatedLink();
+        LinkHarness.Peer overloaded = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer other = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer.connect(overloaded, other);
+        overloaded.acceptingContainers = false;
+
+        int[] delivered = new int[2];
+        overloaded.onMessage = (channelId, payload) -> checkOrder(delivered, 0, payload);
+        other.onMessage = (channelId, payload) -> checkOrder(delivered, 1, payload);
+        for(int i = 0; i < messages; i++) {
+            byte[] payload = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(i).array();
+            overloaded.send(ContainerPacket.ReliabilityType.RELIABLE_ORDERED, (byte) 1, payload);
+            other.send(ContainerPacket.ReliabilityType.RELIABLE_ORDERED, (byte) 1, payload);
+        }
+
+        // Until the overloaded peer's messages are all acknowledged
+        LinkHarness.runUntil(overloaded, other, () -> overloaded.layer.getInFlightCount() + overloaded.layer.getQueuedCount() == 0 && delivered[1] == messages,
+                20000, "the overloaded peer's messages weren't acknowledged");
+        Check.that(delivered[0] == 0, delivered[0] + " messages were delivered to the overloaded peer");
+        Check.that(overloaded.layer.getContainersRefused() > 0, "no containers were refused");
+        Check.that(other.layer.getInFlightCount() + other.layer.getQueuedCount() > 0, "refused messages were acknowledged");
+        System.out.println(messages + " messages from the overloaded peer acknowledged, " + overloaded.layer.getContainersRefused() + " containers refused");
+
+        overloaded.acceptingContainers = true;
+        LinkHarness.runUntil(overloaded, other, () -> delivered[0] == messages && other.layer.getInFlightCount() + other.layer.getQueuedCount() == 0,
+                20000, "the refused messages weren't delivered after the overload");
+        System.out.println("the refused messages were delivered after the overload, " + other.layer.getPacketsRetransmitted() + " retransmits");
+        System.out.println("OK");
+    }
+
+    private static void checkOrder(int[] delivered, int peer, ByteBuffer payload) {
+        int id = payload.getInt(payload.position());
+        Check.that(id == delivered[peer], "message " + id + " was delivered instead of " + delivered[peer]);
+        delivered[peer]++;
+    }
+}
@@ -0,0 +1,146 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.ClientEventLoop;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.compression.DeflateCodec;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.reliability.EncodedMessage;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that broadcast messages reach every client unchanged, and compares the server's
+ * CPU time for a broadcast with sending the same message to every session separately.
+ *
+ * Connects clients to a server with a compressed channel, broadcasts small,
+ * compressed, fragmented and incompressible payloads, and checks every client
+ * receives all of them in order.
+ *
+ * Usage: BroadcastTest [clients] [rounds]
+ */
+public class BroadcastTest {
+    private static final int PORT = 4390;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[1].compression = new DeflateCodec();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        Random random = new Random(1);
+        List<byte[]> payloads = new ArrayList<>();
+        payloads.add(snapshot(random, 40)); // Below the compression threshold
+        payloads.add(snapshot(random, 1000));
+        payloads.add(snapshot(random, 30000)); // Fragmented, even compressed
+        byte[] noise = new byte[5000];
+        random.nextBytes(noise);
+        payloads.add(noise); // Fragmented and sent raw
+
+        List<ConcurrentLinkedQueue<byte[]>> received = new ArrayList<>();
+        List<JuiceNetClient> clients = new ArrayList<>();
+        try(ClientEventLoop loop = new ClientEventLoop(settings)) {
+            for(int i = 0; i < clientCount; i++) {
+                ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+                JuiceNetClient client = new JuiceNetClient(server.bindAddress, loop);
+                client.setListener((c, channelId, payload) -> {
+                    byte[] copy = new byte[payload.remaining()];
+                    payload.get(copy);
+                    queue.add(copy);
+                });
+                client.connect().get(10, TimeUnit.SECONDS);
+                clients.add(client);
+                received.add(queue);
+            }
+
+            for(byte[] payload : payloads) {
+                server.broadcast((byte) 1, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, payload);
+            }
+            for(byte[] payload : payloads) {
+                expect(received, payload, 1);
+            }
+
+            // Server CPU time to hand the same message to every session
+            byte[] update = snapshot(random, 4000);
+            for(int round = 0; round < 3; round++) { // The first rounds warm up the JIT
+                long start = System.nanoTime();
+                for(int r = 0; r < rounds; r++) {
+                    server.broadcast(new EncodedMessage(settings, (byte) 1, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, update));
+                }
+                long broadcastTime = System.nanoTime() - start;
+                expect(received, update, rounds);
+
+                start = System.nanoTime();
+                for(int r = 0; r < rounds; r++) {
+                    server.getNetworkManager().forEachSession(session -> {
+                        try {
+                            session.send((byte) 1, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, update);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                }
+                long separateTime = System.nanoTime() - start;
+                expect(received, update, rounds);
+
+                System.out.printf("%d byte update to %d sessions: broadcast %.1fus, separately %.1fus%n", update.length, clientCount,
+                        broadcastTime / 1000.0 / rounds, separateTime / 1000.0 / rounds);
+            }
+            for(JuiceNetClient client : clients) {
+                client.close();
+            }
+        }
+        handle.close();
+        System.out.println("OK");
+    }
+
+    /**
+     * Waits until every client received the payload count times, in a row.
+     */
+    private static void expect(List<ConcurrentLinkedQueue<byte[]>> received, byte[] payload, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        for(int i = 0; i < received.size(); i++) {
+            for(int n = 0; n < count; n++) {
+                byte[] got;
+                while((got = received.get(i).poll()) == null) {
+                    Check.that(System.currentTimeMillis() < deadline, "client " + i + " didn't receive the " + payload.length + " byte payload");
+                    Thread.sleep(5);
+                }
+                Check.that(Arrays.equals(payload, got), "client " + i + " received a changed " + payload.length + " byte payload");
+            }
+        }
+    }
+
+    /**
+     * Creates a game state snapshot: entities with an ID, a position which
+     * moves a little, a health value which is mostly full and a few flags.
+     */
+    private static byte[] snapshot(Random random, int size) {
+        ByteBuffer bb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        float x = 100, y = 64, z = -250;
+        for(int id = 1000; bb.remaining() >= 20; id++) {
+            x += random.nextInt(5) - 2;
+            z += random.nextInt(5) - 2;
+            bb.putInt(id);
+            bb.putFloat(x);
+            bb.putFloat(y);
+            bb.putFloat(z);
+            bb.putShort((short) (random.nextInt(10) == 0 ? random.nextInt(100) : 100));
+            bb.putShort((short) (random.nextInt(4) == 0 ? 1 : 0));
+        }
+        return bb.array();
+    }
+}
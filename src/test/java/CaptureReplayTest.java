@@ -0,0 +1,132 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.capture.CaptureReader;
+import io.github.jython234.juicenet.network.capture.CaptureRecorder;
+import io.github.jython234.juicenet.network.capture.CaptureReplayer;
+import io.github.jython234.juicenet.network.client.ClientEventLoop;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.metrics.MetricsSnapshot;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the traffic of clients to a server, and replays it into another server.
+ *
+ * Checks that the capture holds every datagram the server received, that
+ * a replay passed to the network manager directly and one sent over loopback
+ * both deliver every message to the second server, and that replays keep the
+ * original timing, scaled by the replay speed. Prints the rate a replay at
+ * maximum speed reaches when passed to the network manager directly.
+ *
+ * Usage: CaptureReplayTest [clients] [messages per client]
+ */
+public class CaptureReplayTest {
+    private static final int PORT = 4360;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path file = Files.createTempFile("juicenet", ".capture");
+
+        try {
+            record(file, clientCount, messages);
+            replay(file, clientCount, messages);
+            System.out.println("OK");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void record(Path file, int clientCount, int messages) throws Exception {
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false);
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+        CaptureRecorder recorder = server.startCapture(file);
+
+        try(ClientEventLoop loop = new ClientEventLoop()) {
+            List<JuiceNetClient> clients = new ArrayList<>();
+            for(int i = 0; i < clientCount; i++) {
+                JuiceNetClient client = new JuiceNetClient(server.bindAddress, loop);
+                client.connect().get(10, TimeUnit.SECONDS);
+                clients.add(client);
+            }
+
+            // Spread over about a second, so the timing of the replay can be checked
+            List<CompletableFuture<Void>> acks = new ArrayList<>();
+            for(int m = 0; m < messages; m++) {
+                for(JuiceNetClient client : clients) {
+                    acks.add(client.send((byte) 0, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, new byte[64 + m]));
+                }
+                Thread.sleep(1000 / messages);
+            }
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+            Thread.sleep(100);
+        }
+        server.stopCapture();
+        handle.close();
+
+        MetricsSnapshot metrics = server.getMetrics().snapshot();
+        long datagrams = 0, bytes = 0;
+        try(CaptureReader reader = new CaptureReader(file)) {
+            CaptureReader.Record record = new CaptureReader.Record();
+            while(reader.next(record)) {
+                datagrams++;
+                bytes += record.data.remaining();
+            }
+        }
+        System.out.printf("recorded %d datagrams, %d bytes, into a %d byte file%n", datagrams, bytes, Files.size(file));
+        Check.that(datagrams == recorder.getDatagramsRecorded() && datagrams == metrics.datagramsReceived,
+                datagrams + " datagrams in the capture, the server received " + metrics.datagramsReceived);
+        Check.that(bytes == metrics.bytesReceived, bytes + " bytes in the capture, the server received " + metrics.bytesReceived);
+        Check.that(Files.size(file) == recorder.getSize(), "the file wasn't truncated to the recorded size");
+    }
+
+    private static void replay(Path file, int clientCount, int messages) throws Exception {
+        LongAdder received = new LongAdder();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT + 1), false);
+        server.setListener(new ServerListener() {
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) {
+                received.increment();
+            }
+        });
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+        long expected = (long) clientCount * messages;
+
+        CaptureReplayer replayer = new CaptureReplayer(file);
+        replayer.setLoopbackAddresses(true);
+        replayer.setSpeed(CaptureReplayer.MAX_SPEED);
+        replayer.replay(server.getNetworkManager());
+        System.out.printf("direct,   max speed: %d datagrams in %.1fms (%.0f datagrams/s), capture took %.0fms%n", replayer.getDatagramsReplayed(),
+                replayer.getElapsed() / 1e6, replayer.getDatagramsReplayed() * 1e9 / replayer.getElapsed(), replayer.getCaptureDuration() / 1e6);
+        Check.that(received.sum() == expected, "direct replay delivered " + received.sum() + " of " + expected + " messages");
+        Check.that(server.getMetrics().snapshot().sessionsOpened == clientCount, "direct replay didn't open a session per client");
+
+        for(double speed : new double[] {1, 4}) {
+            received.reset();
+            replayer.setSpeed(speed);
+            replayer.replay(server.bindAddress);
+            Thread.sleep(200);
+
+            double ratio = (double) replayer.getElapsed() * speed / replayer.getCaptureDuration();
+            System.out.printf("loopback, %.0fx speed: %d datagrams in %.1fms, %.2f of the scaled capture duration%n",
+                    speed, replayer.getDatagramsReplayed(), replayer.getElapsed() / 1e6, ratio);
+            Check.that(received.sum() == expected, "loopback replay delivered " + received.sum() + " of " + expected + " messages");
+            Check.that(ratio > 0.95 && ratio < 1.3, "loopback replay at " + speed + "x didn't keep the timing");
+        }
+        handle.close();
+    }
+}
@@ -0,0 +1,98 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Latency harness for the channel scheduler.
+ *
+ * A bulk channel keeps the sender's send window saturated with large
+ * messages, while a realtime channel sends a small timestamped message
+ * every millisecond. Reports the delivery latency percentiles of the
+ * realtime messages when they share the bulk channel (first in, first out)
+ * and when they are sent on their own channel with a higher weight.
+ *
+ * Usage: ChannelSchedulerLatencyTest [seconds] [loss] [realtime weight]
+ */
+public class ChannelSchedulerLatencyTest {
+    private static final byte BULK_CHANNEL = 0;
+    private static final byte REALTIME_CHANNEL = 1;
+
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        double loss = args.length > 1 ? Double.parseDouble(args[1]) : 0.0;
+        int weight = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        System.out.println("Realtime messages behind a saturated bulk channel, " + (loss * 100) + "% loss");
+        System.out.println("mode                  realtime msgs   p50(ms)   p99(ms)   max(ms)   bulk msgs/sec");
+        run("same channel (FIFO)", BULK_CHANNEL, 1, seconds, loss);
+        run("own channel, weight " + weight, REALTIME_CHANNEL, weight, seconds, loss);
+    }
+
+    private static void run(String mode, byte realtimeChannel, int weight, int seconds, double loss) throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.reliableWindowSize = 64;
+        settings.minRetransmitTimeout = 20;
+        settings.channels[REALTIME_CHANNEL].weight = weight;
+
+        LinkHarness.LoopbackLink link = new LinkHarness.LoopbackLink(loss, 1);
+        LinkHarness.Peer sender = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer receiver = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer.connect(sender, receiver);
+
+        long[] latencies = new long[seconds * 2000];
+        int[] realtimeCount = {0};
+        long[] bulkCount = {0};
+        receiver.onMessage = (channelId, payload) -> {
+            if(payload.remaining() == 1024) {
+                bulkCount[0]++;
+            } else if(realtimeCount[0] < latencies.length) {
+                latencies[realtimeCount[0]++] = System.nanoTime() - payload.order(ByteOrder.LITTLE_ENDIAN).getLong(payload.position());
+            }
+        };
+
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long nextTick = start;
+        long nextRealtime = start;
+        int realtimeSent = 0;
+        while(true) {
+            long now = System.nanoTime();
+            if(now >= end)
+                break;
+
+            // Keep a deep queue on the bulk channel
+            while(sender.layer.getQueuedCount(BULK_CHANNEL) < 256) {
+                sender.send(ContainerPacket.ReliabilityType.RELIABLE_ORDERED, BULK_CHANNEL, new byte[1024]);
+            }
+
+            if(now >= nextRealtime) {
+                byte[] payload = new byte[32];
+                ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).putLong(now);
+                sender.send(ContainerPacket.ReliabilityType.RELIABLE_ORDERED, realtimeChannel, payload);
+                realtimeSent++;
+                nextRealtime += 1000000L;
+            }
+
+            link.deliver(now);
+
+            if(now >= nextTick) {
+                sender.layer.update(now);
+                receiver.layer.update(now);
+                nextTick = now + settings.tickInterval * 1000000L;
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = Arrays.copyOf(latencies, realtimeCount[0]);
+        Arrays.sort(sorted);
+        System.out.printf("%-21s %6d/%-6d   %7.2f   %7.2f   %7.2f   %13.0f%n", mode, realtimeCount[0], realtimeSent,
+                LinkHarness.percentile(sorted, 50) / 1e6, LinkHarness.percentile(sorted, 99) / 1e6,
+                sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0.0, bulkCount[0] / elapsed);
+
+        link.close();
+    }
+}
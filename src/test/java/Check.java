@@ -0,0 +1,16 @@
+/**
+ * Assertions shared by the tests, which run as plain main classes without a test framework.
+ */
+public final class Check {
+    private Check() {}
+
+    /**
+     * Fails the test with an {@link AssertionError} if the condition doesn't hold.
+     * @param condition The condition.
+     * @param message Describes what went wrong.
+     */
+    public static void that(boolean condition, String message) {
+        if(!condition)
+            throw new AssertionError(message);
+    }
+}
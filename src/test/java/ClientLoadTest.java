@@ -0,0 +1,151 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.ClientEventLoop;
+import io.github.jython234.juicenet.network.client.ClientListener;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Simulates many peers with JuiceNetClients hosted by a single event loop.
+ *
+ * Starts a server in the background which echoes every message, connects
+ * the clients, and has every client send reliable messages, sending the
+ * next one whenever one of its last few was acknowledged. Reports how
+ * long connecting took, the message rate, and the latency until each
+ * send's future completed (the server's ACK) and until its echo arrived.
+ *
+ * Usage: ClientLoadTest [clients] [messages per client] [payload size]
+ */
+public class ClientLoadTest {
+    private static final int PORT = 4310;
+    private static final int IN_FLIGHT = 4;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int payloadSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        NetworkSettings settings = new NetworkSettings();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        server.setListener(new ServerListener() {
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) {
+                byte[] echo = new byte[payload.remaining()];
+                payload.get(echo);
+                try {
+                    session.send(channelId, ContainerPacket.ReliabilityType.RELIABLE, echo);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        int total = clientCount * messages;
+        AtomicLongArray sentAt = new AtomicLongArray(total);
+        long[] ackLatency = new long[total];
+        long[] echoLatency = new long[total];
+        AtomicInteger echoes = new AtomicInteger();
+        CompletableFuture<Void> allEchoed = new CompletableFuture<>();
+
+        ClientListener listener = (client, channelId, payload) -> {
+            int index = payload.getInt(payload.position());
+            echoLatency[index] = System.nanoTime() - sentAt.get(index); // Each client's messages are handled on the loop's thread
+            if(echoes.incrementAndGet() == total) {
+                allEchoed.complete(null);
+            }
+        };
+
+        NetworkSettings clientSettings = new NetworkSettings();
+        clientSettings.socketReceiveBufferSize = 256 * 1024; // Thousands of client sockets
+        clientSettings.socketSendBufferSize = 256 * 1024;
+
+        try(ClientEventLoop loop = new ClientEventLoop(clientSettings)) {
+            List<JuiceNetClient> clients = new ArrayList<>();
+            List<CompletableFuture<Void>> connects = new ArrayList<>();
+            long start = System.nanoTime();
+            for(int i = 0; i < clientCount; i++) {
+                JuiceNetClient client = new JuiceNetClient(server.bindAddress, loop);
+                client.setListener(listener);
+                clients.add(client);
+                connects.add(client.connect());
+            }
+            CompletableFuture.allOf(connects.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+            double connectSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d clients on one event loop connected in %.2fs, server has %d sessions%n",
+                    clientCount, connectSeconds, server.getNetworkManager().getSessionCount());
+
+            // Every client keeps a few messages in flight, and sends the next one once a message is acknowledged
+            CompletableFuture<Void> allAcked = new CompletableFuture<>();
+            AtomicInteger acked = new AtomicInteger();
+            start = System.nanoTime();
+            for(int c = 0; c < clientCount; c++) {
+                for(int m = 0; m < Math.min(IN_FLIGHT, messages); m++) {
+                    sendNext(clients.get(c), c * messages, m, messages, payloadSize, sentAt, ackLatency, acked, total, allAcked);
+                }
+            }
+            allAcked.get(60, TimeUnit.SECONDS);
+            allEchoed.get(60, TimeUnit.SECONDS);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d messages of %d bytes acknowledged and echoed in %.2fs (%.0f msgs/sec)%n",
+                    total, payloadSize, seconds, total / seconds);
+            printPercentiles("ack latency ", ackLatency);
+            printPercentiles("echo latency", echoLatency);
+            long retransmits = 0;
+            for(JuiceNetClient client : clients) {
+                retransmits += client.getReliabilityLayer().getPacketsRetransmitted();
+            }
+            System.out.println("client retransmits " + retransmits);
+
+            for(JuiceNetClient client : clients) {
+                client.close();
+            }
+        }
+        handle.close();
+    }
+
+    private static void sendNext(JuiceNetClient client, int firstIndex, int message, int messages, int payloadSize, AtomicLongArray sentAt,
+                                 long[] ackLatency, AtomicInteger acked, int total, CompletableFuture<Void> allAcked) {
+        int index = firstIndex + message;
+        byte[] payload = new byte[Math.max(4, payloadSize)];
+        ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).putInt(index);
+
+        sentAt.set(index, System.nanoTime());
+        client.send((byte) 0, ContainerPacket.ReliabilityType.RELIABLE, payload).whenComplete((result, error) -> {
+            if(error != null) {
+                allAcked.completeExceptionally(error);
+                return;
+            }
+            ackLatency[index] = System.nanoTime() - sentAt.get(index);
+            if(acked.incrementAndGet() == total) {
+                allAcked.complete(null);
+            }
+            if(message + IN_FLIGHT < messages) {
+                sendNext(client, firstIndex, message + IN_FLIGHT, messages, payloadSize, sentAt, ackLatency, acked, total, allAcked);
+            }
+        });
+    }
+
+    private static void printPercentiles(String name, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s   p50 %6.2fms   p99 %6.2fms   max %6.2fms%n", name,
+                sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,174 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.compression.DeflateCodec;
+import io.github.jython234.juicenet.network.compression.PayloadCodec;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks channel compression end to end and shows where it pays off.
+ *
+ * Sends state snapshots, random data and payloads below the threshold
+ * on a compressed and an uncompressed channel, checks they arrive
+ * unchanged and compares the bytes sent. Then measures the DEFLATE codec
+ * for each payload size: the compression ratio, the datagrams saved, the
+ * CPU time to compress and decompress, and the break-even bandwidth.
+ * On links slower than the break-even bandwidth the bytes saved take
+ * longer to send than compressing them takes, so compression is worth it.
+ *
+ * Usage: CompressionTest
+ */
+public class CompressionTest {
+    private static final int PORT = 4340;
+    private static final int PAYLOAD_MTU = 1400 - 30; // Payload space of a fragment
+
+    public static void main(String[] args) throws Exception {
+        checkRoundTrip();
+        printBreakEven();
+        System.out.println("OK");
+    }
+
+    private static void checkRoundTrip() throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[1].compression = new DeflateCodec();
+
+        List<byte[]> payloads = new ArrayList<>();
+        Random random = new Random(1);
+        payloads.add(snapshot(random, 60)); // Below the threshold
+        payloads.add(snapshot(random, 1000));
+        payloads.add(snapshot(random, 20000)); // Fragmented, even compressed
+        byte[] noise = new byte[3000];
+        random.nextBytes(noise);
+        payloads.add(noise); // Doesn't get smaller, sent raw
+
+        ConcurrentLinkedQueue<byte[]> received = new ConcurrentLinkedQueue<>();
+        AtomicInteger badViews = new AtomicInteger();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        server.setListener(new ServerListener() {
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) {
+                if(!payload.isReadOnly() || payload.order() != ByteOrder.LITTLE_ENDIAN) {
+                    badViews.incrementAndGet(); // Decompressed payloads are handed out like any other
+                }
+                byte[] copy = new byte[payload.remaining()];
+                payload.get(copy);
+                received.add(copy);
+            }
+        });
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        long[] bytesSent = new long[2];
+        for(byte channel = 0; channel < 2; channel++) {
+            try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings)) {
+                client.connect().get(10, TimeUnit.SECONDS);
+                long before = client.getMetrics().bytesSent;
+
+                List<CompletableFuture<Void>> acks = new ArrayList<>();
+                for(byte[] payload : payloads) {
+                    acks.add(client.send(channel, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, payload));
+                }
+                CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+                bytesSent[channel] = client.getMetrics().bytesSent - before;
+            }
+
+            for(byte[] payload : payloads) {
+                byte[] got = received.poll();
+                Check.that(got != null && Arrays.equals(payload, got), "payload of " + payload.length + " bytes on channel " + channel + " was changed");
+            }
+        }
+        handle.close();
+
+        System.out.printf("bytes sent for %d payloads: raw %d, compressed %d (%.0f%%)%n%n",
+                payloads.size(), bytesSent[0], bytesSent[1], 100.0 * bytesSent[1] / bytesSent[0]);
+        Check.that(bytesSent[1] < bytesSent[0], "compression didn't save anything");
+        Check.that(badViews.get() == 0, badViews.get() + " payloads were delivered writable or big endian");
+    }
+
+    private static void printBreakEven() {
+        PayloadCodec codec = new DeflateCodec();
+        Random random = new Random(2);
+        System.out.println("payload   size     ratio   datagrams   compress   decompress   break-even");
+        for(String kind : new String[] {"snapshot", "random"}) {
+            for(int size : new int[] {128, 512, 1400, 4096, 16384, 65536}) {
+                byte[] payload = kind.equals("snapshot") ? snapshot(random, size) : new byte[size];
+                if(!kind.equals("snapshot")) {
+                    random.nextBytes(payload);
+                }
+                byte[] compressed = new byte[size];
+                byte[] decompressed = new byte[size];
+
+                int length = codec.compress(payload, 0, size, compressed, 0, size);
+                if(length < 0) {
+                    length = size; // Sent raw
+                }
+                int iterations = Math.max(200, 20_000_000 / size);
+                long compressTime = 0, decompressTime = 0;
+                for(int round = 0; round < 2; round++) { // The first round warms up the JIT
+                    long start = System.nanoTime();
+                    for(int i = 0; i < iterations; i++) {
+                        codec.compress(payload, 0, size, compressed, 0, size);
+                    }
+                    compressTime = (System.nanoTime() - start) / iterations;
+
+                    start = System.nanoTime();
+                    if(length < size) {
+                        for(int i = 0; i < iterations; i++) {
+                            codec.decompress(compressed, 0, length, decompressed, 0, size);
+                        }
+                    }
+                    decompressTime = (System.nanoTime() - start) / iterations;
+                }
+                if(length < size) {
+                    Check.that(Arrays.equals(payload, decompressed), kind + " " + size + " didn't decompress to the payload");
+                }
+
+                int saved = size - length;
+                String breakEven = saved > 0
+                        ? String.format("%8.0f Mbit/s", saved * 8.0 * 1000 / (compressTime + decompressTime))
+                        : "       never";
+                System.out.printf("%-8s %6d   %5.2fx   %4d->%-4d   %6.1fus     %6.1fus   %s%n", kind, size, (double) size / length,
+                        datagrams(size), datagrams(length + 4), compressTime / 1000.0, decompressTime / 1000.0, breakEven);
+            }
+        }
+    }
+
+    private static int datagrams(int size) {
+        return (size + PAYLOAD_MTU - 1) / PAYLOAD_MTU;
+    }
+
+    /**
+     * Creates a game state snapshot: entities with an ID, a position which
+     * moves a little, a health value which is mostly full and a few flags.
+     */
+    private static byte[] snapshot(Random random, int size) {
+        ByteBuffer bb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        float x = 100, y = 64, z = -250;
+        for(int id = 1000; bb.remaining() >= 20; id++) {
+            x += random.nextInt(5) - 2;
+            z += random.nextInt(5) - 2;
+            bb.putInt(id);
+            bb.putFloat(x);
+            bb.putFloat(y);
+            bb.putFloat(z);
+            bb.putShort((short) (random.nextInt(10) == 0 ? random.nextInt(100) : 100));
+            bb.putShort((short) (random.nextInt(4) == 0 ? 1 : 0));
+        }
+        return bb.array();
+    }
+}
@@ -0,0 +1,79 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.reliability.BbrController;
+import io.github.jython234.juicenet.network.reliability.CongestionController;
+import io.github.jython234.juicenet.network.reliability.NewRenoController;
+
+import java.io.IOException;
+
+/**
+ * Congested link harness for the congestion controllers.
+ *
+ * Two ReliabilityLayers talk over an emulated link with a bandwidth
+ * limited, drop-tail bottleneck queue in the data direction and a fixed
+ * propagation delay in both directions. The sender always has data to send.
+ * Reports the goodput, bottleneck drops and retransmissions with congestion
+ * control disabled, NewReno and the BBR-like controller.
+ *
+ * Usage: CongestionControlTest [seconds] [bandwidth (KB/s)] [one way delay (ms)] [queue (KB)]
+ */
+public class CongestionControlTest {
+    private static final int MESSAGE_SIZE = 1024;
+
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        long bandwidth = (args.length > 1 ? Long.parseLong(args[1]) : 2048) * 1024;
+        long delay = (args.length > 2 ? Long.parseLong(args[2]) : 20) * 1000000L;
+        long queue = (args.length > 3 ? Long.parseLong(args[3]) : 64) * 1024;
+
+        System.out.println("Bottleneck of " + bandwidth / 1024 + " KB/s, " + delay / 1000000 * 2 + "ms RTT, " + queue / 1024 + " KB queue");
+        System.out.println("controller   goodput(KB/s)   utilization   link drops   retransmits   srtt(ms)");
+        run("none", null, seconds, bandwidth, delay, queue);
+        run("newreno", NewRenoController::new, seconds, bandwidth, delay, queue);
+        run("bbr", BbrController::new, seconds, bandwidth, delay, queue);
+    }
+
+    private static void run(String name, CongestionController.Factory factory, int seconds, long bandwidth, long delay, long queue) throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.congestionControl = factory;
+        settings.minRetransmitTimeout = 20;
+
+        LinkHarness.SimulatedLink forward = new LinkHarness.SimulatedLink();
+        forward.bandwidth = bandwidth;
+        forward.delay = delay;
+        forward.queueLimit = queue;
+        LinkHarness.SimulatedLink backward = new LinkHarness.SimulatedLink();
+        backward.delay = delay;
+        LinkHarness.Peer sender = new LinkHarness.Peer(settings, forward);
+        LinkHarness.Peer receiver = new LinkHarness.Peer(settings, backward);
+        LinkHarness.Peer.connect(sender, receiver);
+
+        long[] delivered = {0};
+        receiver.onMessage = (channelId, payload) -> delivered[0] += payload.remaining();
+
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long nextTick = start;
+        long now;
+        while((now = System.nanoTime()) < end) {
+            while(sender.layer.getQueuedCount() < 64) {
+                sender.send(ContainerPacket.ReliabilityType.RELIABLE, (byte) 0, new byte[MESSAGE_SIZE]);
+            }
+
+            forward.deliver(now);
+            backward.deliver(now);
+
+            if(now >= nextTick) {
+                sender.layer.update(now);
+                receiver.layer.update(now);
+                nextTick = now + settings.tickInterval * 1000000L;
+            }
+        }
+        double elapsed = (now - start) / 1e9;
+
+        double goodput = delivered[0] / elapsed;
+        System.out.printf("%-10s   %13.0f   %10.1f%%   %9.1f%%   %11d   %8.1f%n", name, goodput / 1024, goodput * 100 / bandwidth,
+                forward.dropped * 100.0 / Math.max(1, forward.sent), sender.layer.getPacketsRetransmitted(),
+                sender.layer.getRttEstimator().getSmoothedRtt() / 1e6);
+    }
+}
@@ -0,0 +1,218 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.capture.CaptureReader;
+import io.github.jython234.juicenet.network.capture.CaptureReplayer;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.crypto.KeyExchange;
+import io.github.jython234.juicenet.network.crypto.SessionCipher;
+import io.github.jython234.juicenet.network.crypto.SessionTicket;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks encrypted sessions end to end, and measures the cost of the handshake and of each datagram.
+ *
+ * Connects a client to a server which requires encryption and echoes, checks
+ * that the messages arrive and that the captured datagrams don't contain them
+ * in plain text, and that replaying the capture is rejected. Then compares the
+ * time of a handshake with a key exchange to a resumed one, checks that an invalid
+ * ticket falls back to a key exchange, and that a client without encryption is
+ * refused. Finally times encrypting and decrypting datagrams on one thread.
+ *
+ * Usage: EncryptionTest [messages]
+ */
+public class EncryptionTest {
+    private static final int PORT = 4370;
+    private static final byte[] MARKER = "plaintext-marker".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        NetworkSettings settings = new NetworkSettings();
+        settings.encryption = true;
+        AtomicLong delivered = new AtomicLong();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        server.setListener(new ServerListener() {
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) throws IOException {
+                delivered.incrementAndGet();
+                byte[] echo = new byte[payload.remaining()];
+                payload.get(echo);
+                session.send(channelId, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, echo);
+            }
+        });
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        Path capture = Files.createTempFile("juicenet", ".capture");
+        try {
+            SessionTicket ticket = checkMessages(server, settings, capture, messages);
+            checkReplay(server, capture, delivered);
+            checkHandshakes(server, settings, ticket);
+        } finally {
+            Files.deleteIfExists(capture);
+            handle.close();
+        }
+        measureCipher();
+        System.out.println("OK");
+    }
+
+    private static SessionTicket checkMessages(JuiceNetServer server, NetworkSettings settings, Path capture, int messages) throws Exception {
+        server.startCapture(capture);
+        ConcurrentLinkedQueue<byte[]> echoes = new ConcurrentLinkedQueue<>();
+        List<byte[]> sent = new ArrayList<>();
+        SessionTicket ticket;
+        try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings)) {
+            client.setListener((c, channelId, payload) -> {
+                byte[] echo = new byte[payload.remaining()];
+                payload.get(echo);
+                echoes.add(echo);
+            });
+            client.connect().get(10, TimeUnit.SECONDS);
+            Check.that(client.getReliabilityLayer().isEncrypted(), "the client isn't encrypted");
+
+            List<CompletableFuture<Void>> acks = new ArrayList<>();
+            for(int i = 0; i < messages; i++) {
+                byte[] payload = Arrays.copyOf(MARKER, MARKER.length + (i * 37) % 3000); // Some are fragmented
+                payload[payload.length - 1] = (byte) i;
+                sent.add(payload);
+                acks.add(client.send((byte) 0, ContainerPacket.ReliabilityType.RELIABLE_ORDERED, payload));
+            }
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+            for(int i = 0; i < 100 && echoes.size() < messages; i++) {
+                Thread.sleep(20);
+            }
+            ticket = client.getSessionTicket();
+        }
+        server.stopCapture();
+
+        Check.that(echoes.size() == messages, echoes.size() + " of " + messages + " echoes arrived");
+        for(byte[] payload : sent) {
+            Check.that(Arrays.equals(payload, echoes.poll()), "an echo was changed or out of order");
+        }
+
+        int datagrams = 0, plaintext = 0;
+        try(CaptureReader reader = new CaptureReader(capture)) {
+            CaptureReader.Record record = new CaptureReader.Record();
+            while(reader.next(record)) {
+                datagrams++;
+                byte[] data = new byte[record.data.remaining()];
+                record.data.get(data);
+                if(indexOf(data, MARKER) >= 0) {
+                    plaintext++;
+                }
+            }
+        }
+        System.out.printf("%d messages echoed, %d datagrams captured, %d with the message in plain text%n", messages, datagrams, plaintext);
+        Check.that(plaintext == 0, "messages were sent in plain text");
+        Check.that(ticket != null, "the server didn't send a session ticket");
+        return ticket;
+    }
+
+    private static void checkReplay(JuiceNetServer server, Path capture, AtomicLong delivered) throws Exception {
+        // The sessions of the capture are still open, replaying their datagrams must not deliver anything
+        long before = delivered.get();
+        long[] rejected = new long[1];
+        CaptureReplayer replayer = new CaptureReplayer(capture);
+        replayer.setSpeed(CaptureReplayer.MAX_SPEED);
+        replayer.replay(server.getNetworkManager());
+        Thread.sleep(100);
+        server.getNetworkManager().forEachSession(session -> rejected[0] += session.getReliabilityLayer().getDatagramsRejected());
+
+        System.out.printf("replayed %d captured datagrams, %d rejected, %d messages delivered%n",
+                replayer.getDatagramsReplayed(), rejected[0], delivered.get() - before);
+        Check.that(delivered.get() == before, "replayed datagrams were delivered");
+        Check.that(rejected[0] > 0, "replayed datagrams weren't rejected");
+    }
+
+    private static void checkHandshakes(JuiceNetServer server, NetworkSettings settings, SessionTicket ticket) throws Exception {
+        int rounds = 20;
+        long full = 0, resumed = 0;
+        for(int i = 0; i < rounds; i++) {
+            full += connect(server, settings, null);
+            resumed += connect(server, settings, ticket);
+        }
+        System.out.printf("handshake with key exchange %.2fms, resumed %.2fms%n", full / 1e6 / rounds, resumed / 1e6 / rounds);
+
+        SessionTicket forged = new SessionTicket(ticket.ticket.clone(), ticket.master);
+        forged.ticket[20] ^= 1;
+        connect(server, settings, forged); // Falls back to a key exchange
+
+        NetworkSettings plain = new NetworkSettings();
+        try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, plain)) {
+            client.connect().get(10, TimeUnit.SECONDS);
+            Check.that(false, "a client without encryption was accepted");
+        } catch (ExecutionException e) {
+            Check.that(e.getCause().getMessage().contains("requires encryption"), "unexpected error " + e.getCause());
+        }
+    }
+
+    private static long connect(JuiceNetServer server, NetworkSettings settings, SessionTicket ticket) throws Exception {
+        try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings)) {
+            CompletableFuture<Void> echoed = new CompletableFuture<>();
+            client.setListener((c, channelId, payload) -> echoed.complete(null));
+            if(ticket != null) {
+                client.setSessionTicket(ticket);
+            }
+            long start = System.nanoTime();
+            client.connect().get(10, TimeUnit.SECONDS);
+            long time = System.nanoTime() - start;
+
+            client.send((byte) 0, new byte[] {1, 2, 3});
+            echoed.get(10, TimeUnit.SECONDS); // The keys match
+            return time;
+        }
+    }
+
+    private static void measureCipher() throws Exception {
+        byte[] master = new byte[KeyExchange.SECRET_SIZE];
+        byte[] clientNonce = KeyExchange.generateNonce(), serverNonce = KeyExchange.generateNonce();
+        SessionCipher client = KeyExchange.deriveCipher(master, clientNonce, serverNonce, true);
+        SessionCipher server = KeyExchange.deriveCipher(master, clientNonce, serverNonce, false);
+
+        for(int size : new int[] {64, 512, 1400 - SessionCipher.OVERHEAD}) {
+            byte[] buffer = new byte[SessionCipher.OVERHEAD + size];
+            byte[] out = new byte[buffer.length];
+            int iterations = 200_000;
+            long time = 0;
+            for(int round = 0; round < 3; round++) { // The first rounds warm up the JIT
+                long start = System.nanoTime();
+                for(int i = 0; i < iterations; i++) {
+                    int length = client.encrypt(buffer, 0, size);
+                    Check.that(server.decrypt(ByteBuffer.wrap(buffer, 0, length), out) == size, "datagram didn't decrypt");
+                }
+                time = System.nanoTime() - start;
+            }
+            double nanos = (double) time / iterations;
+            System.out.printf("encrypt + decrypt %4d bytes: %6.0fns (%.2f Gbit/s)%n", size, nanos, size * 8 / nanos);
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for(int i = 0; i + pattern.length <= data.length; i++) {
+            for(int j = 0; j < pattern.length; j++) {
+                if(data[i + j] != pattern[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,109 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the delivery latency of forward error correction with plain RELIABLE mode under loss.
+ *
+ * Two ReliabilityLayers talk over a simulated link with a fixed one-way delay,
+ * which drops datagrams with the given probability. A message carrying its send time
+ * is sent every millisecond, and the latency percentiles of their delivery are reported
+ * for RELIABLE, RELIABLE with FEC and UNRELIABLE with FEC, with the amount of containers
+ * rebuilt from parity packets and the extra datagrams and bytes the parity costs.
+ * Checks that reliable messages are delivered exactly once and that
+ * unreliable ones are never delivered twice.
+ *
+ * Usage: FecLossTest [messages] [one-way delay (ms)] [group size] [parity count]
+ */
+public class FecLossTest {
+    private static final int PAYLOAD_SIZE = 100;
+
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 25;
+        int groupSize = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int parity = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        System.out.println(messages + " messages of " + PAYLOAD_SIZE + " bytes every 1ms, " + delay + "ms one-way delay, FEC groups of "
+                + groupSize + " with " + parity + " parity");
+        System.out.println("mode           loss   p50(ms)   p99(ms)   p99.9(ms)   max(ms)   delivered   recovered   unrecoverable   retransmits   datagrams   bytes");
+        for(double loss : new double[] {0.0, 0.01, 0.05}) {
+            run(messages, delay, loss, ContainerPacket.ReliabilityType.RELIABLE, 0, parity);
+            run(messages, delay, loss, ContainerPacket.ReliabilityType.RELIABLE, groupSize, parity);
+            run(messages, delay, loss, ContainerPacket.ReliabilityType.UNRELIABLE, groupSize, parity);
+        }
+        System.out.println("OK");
+    }
+
+    private static void run(int messages, long delay, double loss, ContainerPacket.ReliabilityType type, int groupSize, int parity) throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[1].fecGroupSize = groupSize;
+        settings.channels[1].fecParity = parity;
+
+        LinkHarness.SimulatedLink link = new LinkHarness.SimulatedLink();
+        link.delay = delay * 1000000L;
+        link.loss = loss;
+        LinkHarness.Peer sender = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer receiver = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer.connect(sender, receiver);
+
+        BitSet delivered = new BitSet(messages);
+        long[] latencies = new long[messages];
+        int[] deliveredCount = {0};
+        receiver.onMessage = (channelId, payload) -> {
+            int index = payload.getInt(payload.position());
+            Check.that(!delivered.get(index), "message " + index + " was delivered twice");
+            delivered.set(index);
+            latencies[deliveredCount[0]++] = System.nanoTime() - payload.getLong(payload.position() + 4);
+        };
+
+        boolean reliable = type != ContainerPacket.ReliabilityType.UNRELIABLE;
+        long start = System.nanoTime();
+        long nextTick = start;
+        long nextSend = start;
+        long lastSend = 0;
+        int sent = 0;
+        while(true) {
+            long now = System.nanoTime();
+            if(sent < messages && now >= nextSend) {
+                byte[] payload = new byte[PAYLOAD_SIZE];
+                ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).putInt(sent++).putLong(now);
+                sender.send(type, (byte) 1, payload);
+                sender.layer.flush(); // Sent right away, like a latency sensitive game would
+                nextSend += 1000000L;
+                lastSend = now;
+            }
+
+            link.deliver(now);
+            if(now >= nextTick) {
+                sender.layer.update(now);
+                receiver.layer.update(now);
+                nextTick = now + settings.tickInterval * 1000000L;
+            }
+
+            if(reliable ? deliveredCount[0] == messages : sent == messages && now - lastSend > 4 * delay * 1000000L + 100000000L)
+                break;
+            Check.that(now - start < 60000000000L, "timed out with " + deliveredCount[0] + "/" + messages + " delivered");
+            LockSupport.parkNanos(50000);
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, deliveredCount[0]);
+        Arrays.sort(sorted);
+        long recovered = receiver.layer.getFecRecovered();
+        if(groupSize > 0 && loss > 0) {
+            Check.that(recovered > 0, "no container was rebuilt");
+        }
+        System.out.printf("%-13s  %3.0f%%   %7.1f   %7.1f   %9.1f   %7.1f   %9d   %9d   %13d   %11d   %9d   %5dk%n",
+                (groupSize > 0 ? type + "+FEC" : type.toString()), loss * 100,
+                LinkHarness.percentile(sorted, 50) / 1e6, LinkHarness.percentile(sorted, 99) / 1e6, LinkHarness.percentile(sorted, 99.9) / 1e6,
+                sorted[sorted.length - 1] / 1e6,
+                deliveredCount[0], recovered, receiver.layer.getFecUnrecoverable(), sender.layer.getPacketsRetransmitted(),
+                sender.datagramsSent, sender.bytesSent / 1024);
+    }
+}
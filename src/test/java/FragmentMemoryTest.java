@@ -0,0 +1,114 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.packet.ContainerView;
+import io.github.jython234.juicenet.network.reliability.FragmentAssembler;
+import io.github.jython234.juicenet.network.reliability.FragmentMemory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks that peers which never finish their fragmented payloads can't take the fragment memory of the others.
+ *
+ * Several assemblers share one FragmentMemory. All but one of them start
+ * RELIABLE payloads until the memory refuses them, and never send the rest
+ * of the fragments. Checks the remaining assembler still reassembles a payload
+ * in its reserved share, that the stalled payloads are evicted once no fragment
+ * arrived for the timeout while a payload which keeps receiving fragments is
+ * held, and that closing the assemblers returns their shares.
+ *
+ * Usage: FragmentMemoryTest [peers]
+ */
+public class FragmentMemoryTest {
+    private static final int SIZE = 60 * 1024;
+    private static final int COUNT = 60;
+
+    public static void main(String[] args) {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+
+        NetworkSettings settings = new NetworkSettings();
+        settings.sessionFragmentMemory = 256 * 1024;
+        settings.sessionFragmentReserve = 64 * 1024;
+        settings.fragmentTimeout = 100;
+        FragmentMemory memory = new FragmentMemory(1024 * 1024, 4096);
+        FragmentAssembler victim = new FragmentAssembler(memory, settings);
+        FragmentAssembler[] stalled = new FragmentAssembler[peers];
+        for(int i = 0; i < peers; i++) {
+            stalled[i] = new FragmentAssembler(memory, settings);
+        }
+        Check.that(victim.getReservedMemory() == settings.sessionFragmentReserve, "the first assembler reserved " + victim.getReservedMemory() + " bytes");
+        Check.that(memory.getReserved() <= memory.capacity / 2, memory.getReserved() + " bytes of the memory were reserved");
+
+        // The stalled peers start payloads until they are refused, and never finish them
+        long now = System.nanoTime();
+        int started = 0;
+        for(int i = 0; i < peers; i++) {
+            for(int id = 0; stalled[i].prepare(fragment(id, 0), now) != null; id++) {
+                started++;
+            }
+        }
+        System.out.println(peers + " peers started " + started + " payloads, " + memory.getUsed() + " of " + memory.capacity + " bytes used");
+        Check.that(memory.getUsed() > memory.capacity / 2, "the stalled peers only used " + memory.getUsed() + " bytes");
+
+        // The reserved share still fits a payload
+        FragmentAssembler.FragmentSet set = null;
+        boolean complete = false;
+        for(int index = 0; index < COUNT; index++) {
+            ContainerView fragment = fragment(1000, index);
+            set = victim.prepare(fragment, now);
+            Check.that(set != null, "fragment " + index + " was refused while the stalled peers held the memory");
+            complete = victim.add(set, fragment);
+        }
+        Check.that(complete, "the payload wasn't complete after all of its fragments");
+        ByteBuffer payload = victim.payload(set);
+        Check.that(payload.remaining() == SIZE && payload.get(payload.position() + SIZE - 1) == (byte) (COUNT - 1), "the reassembled payload is wrong");
+        victim.release(set);
+        System.out.println("a " + SIZE + " byte payload was reassembled in the reserved share");
+
+        // A payload which keeps receiving fragments outlives the timeout, the stalled ones don't
+        long timeout = settings.fragmentTimeout * 1000000L;
+        Check.that(victim.prepare(fragment(1001, 0), now) != null, "the reserved share wasn't freed");
+        victim.add(victim.prepare(fragment(1001, 1), now + timeout / 2), fragment(1001, 1));
+        for(FragmentAssembler assembler : stalled) {
+            assembler.update(now + timeout);
+        }
+        victim.update(now + timeout);
+        Check.that(victim.getUsedMemory() > 0, "a payload which received a fragment " + settings.fragmentTimeout / 2 + " ms ago was evicted");
+        long evicted = 0;
+        for(FragmentAssembler assembler : stalled) {
+            evicted += assembler.getEvictedCount();
+        }
+        Check.that(evicted == started, evicted + " of " + started + " stalled payloads were evicted");
+        Check.that(memory.getUsed() == victim.getUsedMemory(), memory.getUsed() + " bytes are still used after the eviction");
+        victim.update(now + timeout * 3 / 2);
+        Check.that(victim.getUsedMemory() == 0, "the payload wasn't evicted once it stalled");
+        System.out.println(evicted + " stalled payloads evicted after " + settings.fragmentTimeout + " ms");
+
+        victim.close();
+        for(FragmentAssembler assembler : stalled) {
+            assembler.close();
+        }
+        Check.that(memory.getReserved() == 0 && memory.getUsed() == 0, "closing the assemblers left " + memory.getReserved() + " bytes reserved");
+        System.out.println("OK");
+    }
+
+    /**
+     * @return A fragment of a RELIABLE payload, filled with its index.
+     */
+    private static ContainerView fragment(int id, int index) {
+        ContainerPacket cp = new ContainerPacket();
+        cp.reliabilityType = ContainerPacket.ReliabilityType.RELIABLE;
+        cp.packetId = id * COUNT + index;
+        cp.packetCounter = cp.packetId;
+        cp.channelId = 1;
+        cp.fragmented = true;
+        cp.fragmentationId = id;
+        cp.fragmentationIndex = (short) index;
+        cp.fragmentationCount = (short) COUNT;
+        cp.fragmentationSize = SIZE;
+        cp.payload = new byte[FragmentAssembler.FragmentSet.fragmentLength(SIZE, COUNT, index)];
+        Arrays.fill(cp.payload, (byte) index);
+        cp.payloadSize = (short) cp.payload.length;
+        return new ContainerView().wrap(ByteBuffer.wrap(cp.encode()));
+    }
+}
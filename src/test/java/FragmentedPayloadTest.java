@@ -0,0 +1,90 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * Checks that reassembled payloads reach the handler like unfragmented ones.
+ *
+ * Two ReliabilityLayers exchange payloads larger than the MTU with every
+ * ReliabilityType, each filled with little endian ints. The handler reads them
+ * with plain getInt() calls, and checks the view is little endian and read-only.
+ * Reassembled views must also be bounded to the payload, so a handler can't reach
+ * the fragments of other payloads in the shared fragment memory. Small payloads are
+ * sent alongside as a reference.
+ *
+ * Usage: FragmentedPayloadTest [messages per type]
+ */
+public class FragmentedPayloadTest {
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+        NetworkSettings settings = new NetworkSettings();
+        settings.pathMtuDiscovery = false;
+        LinkHarness.SimulatedLink link = new LinkHarness.SimulatedLink();
+        LinkHarness.Peer sender = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer receiver = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer.connect(sender, receiver);
+
+        int[] delivered = {0};
+        int[] fragmented = {0};
+        receiver.onMessage = (channelId, payload) -> {
+            Check.that(payload.order() == ByteOrder.LITTLE_ENDIAN, "a " + payload.remaining() + " byte payload was delivered big endian");
+            Check.that(payload.isReadOnly(), "a " + payload.remaining() + " byte payload was delivered writable");
+            int size = payload.remaining();
+            if(size > settings.mtu) {
+                Check.that(payload.capacity() - payload.position() == size, "a reassembled " + size + " byte payload reaches " + payload.capacity() + " bytes");
+            }
+
+            int start = payload.position();
+            int id = payload.getInt(start);
+            Check.that(size == sizeOf(id), "payload " + id + " has " + size + " bytes instead of " + sizeOf(id));
+            for(int i = 1; i < size / 4; i++) {
+                Check.that(payload.getInt(start + i * 4) == id * 100000 + i, "int " + i + " of payload " + id + " is wrong");
+            }
+            try {
+                payload.put(start, (byte) 0);
+                Check.that(false, "the handler could write into payload " + id);
+            } catch (ReadOnlyBufferException e) {
+                // Expected
+            }
+            delivered[0]++;
+            if(size > settings.mtu) {
+                fragmented[0]++;
+            }
+        };
+
+        int id = 0;
+        for(ContainerPacket.ReliabilityType type : ContainerPacket.ReliabilityType.values()) {
+            for(int i = 0; i < messages; i++) {
+                sender.send(type, (byte) 1, payload(id++));
+            }
+        }
+
+        int total = id;
+        LinkHarness.runUntil(sender, receiver, () -> delivered[0] == total, 10000, "not every payload was delivered");
+        System.out.println(delivered[0] + " payloads delivered, " + fragmented[0] + " of them reassembled from fragments");
+        Check.that(fragmented[0] > 0, "no payload was fragmented");
+        System.out.println("OK");
+    }
+
+    /**
+     * @return The size of a payload, every third one fits a datagram.
+     */
+    private static int sizeOf(int id) {
+        return id % 3 == 0 ? 400 + id * 4 : 3000 + id * 52;
+    }
+
+    private static byte[] payload(int id) {
+        byte[] payload = new byte[sizeOf(id)];
+        ByteBuffer bb = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(id);
+        for(int i = 1; i < payload.length / 4; i++) {
+            bb.putInt(id * 100000 + i);
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,168 @@
+import io.github.jython234.juicenet.network.HandlerExecutors;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.ClientEventLoop;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how a slow message handler affects other sessions with each handler executor.
+ *
+ * One client floods the server with messages whose handler sleeps, while
+ * the other clients send messages on two channels whose handler is fast.
+ * Every handler echoes its message back. Reports the echo latency of the
+ * fast clients, how many of the slow client's datagrams were dropped by
+ * backpressure, and checks that the messages of each channel of a session
+ * were handled in order.
+ *
+ * Usage: HandlerDispatchTest [fast clients] [messages per fast client] [slow handler time in ms]
+ */
+public class HandlerDispatchTest {
+    private static final int PORT = 4320;
+    private static final int FAST_IN_FLIGHT = 4;
+    private static final int SLOW_IN_FLIGHT = 256;
+
+    public static void main(String[] args) throws Exception {
+        int fastClients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long slowMillis = args.length > 2 ? Long.parseLong(args[2]) : 2;
+
+        System.out.println("executor          fast p50(ms)   fast p99(ms)   fast msgs/sec   slow handled   slow dropped   order errors");
+        run("inline", HandlerExecutors.INLINE, fastClients, messages, slowMillis);
+        run("fixed pool (4)", HandlerExecutors.fixedPool(4), fastClients, messages, slowMillis);
+        if(HandlerExecutors.isVirtualThreadSupported()) {
+            run("virtual threads", HandlerExecutors.virtualThreads(), fastClients, messages, slowMillis);
+        } else {
+            System.out.println("virtual threads   (needs JDK 21, running on " + System.getProperty("java.version") + ")");
+        }
+    }
+
+    private static void run(String name, Executor executor, int fastClients, int messages, long slowMillis) throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        settings.handlerExecutor = executor;
+        settings.handlerQueueLimit = SLOW_IN_FLIGHT / 2; // The slow client overflows it
+
+        AtomicInteger orderErrors = new AtomicInteger();
+        AtomicInteger slowHandled = new AtomicInteger();
+        Map<Session, int[]> lastSequence = new ConcurrentHashMap<>();
+
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        server.setListener(new ServerListener() {
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) {
+                payload.order(ByteOrder.LITTLE_ENDIAN);
+                int sequence = payload.getInt(payload.position());
+                boolean slow = payload.get(payload.position() + 4) != 0;
+
+                int[] last = lastSequence.computeIfAbsent(session, s -> new int[256]);
+                if(sequence != last[channelId & 0xFF]) {
+                    orderErrors.incrementAndGet();
+                }
+                last[channelId & 0xFF] = sequence + 1;
+
+                if(slow) {
+                    slowHandled.incrementAndGet();
+                    try {
+                        Thread.sleep(slowMillis); // A handler which waits for a database, for example
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                byte[] echo = new byte[payload.remaining()];
+                payload.get(echo);
+                try {
+                    session.send(channelId, ContainerPacket.ReliabilityType.RELIABLE, echo);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        long[] latencies = new long[fastClients * messages];
+        AtomicInteger echoes = new AtomicInteger();
+        CompletableFuture<Void> allEchoed = new CompletableFuture<>();
+
+        try(ClientEventLoop loop = new ClientEventLoop()) {
+            JuiceNetClient slowClient = new JuiceNetClient(server.bindAddress, loop);
+            slowClient.setListener((client, channelId, payload) -> {
+                int sequence = payload.order(ByteOrder.LITTLE_ENDIAN).getInt(payload.position());
+                send(client, (byte) 0, sequence + SLOW_IN_FLIGHT, true, 0);
+            });
+            slowClient.connect().get(10, TimeUnit.SECONDS);
+
+            List<JuiceNetClient> clients = new ArrayList<>();
+            for(int c = 0; c < fastClients; c++) {
+                final int first = c * messages;
+                JuiceNetClient client = new JuiceNetClient(server.bindAddress, loop);
+                client.setListener((cl, channelId, payload) -> {
+                    int sequence = payload.order(ByteOrder.LITTLE_ENDIAN).getInt(payload.position());
+                    long sentAt = payload.getLong(payload.position() + 5);
+                    latencies[first + sequence * 2 + channelId] = System.nanoTime() - sentAt;
+
+                    int next = sequence + FAST_IN_FLIGHT;
+                    if(next * 2 < messages) {
+                        send(cl, channelId, next, false, System.nanoTime());
+                    }
+                    if(echoes.incrementAndGet() == latencies.length) {
+                        allEchoed.complete(null);
+                    }
+                });
+                client.connect().get(10, TimeUnit.SECONDS);
+                clients.add(client);
+            }
+
+            // The slow client keeps its window full, so its handler queue overflows
+            for(int i = 0; i < SLOW_IN_FLIGHT; i++) {
+                send(slowClient, (byte) 0, i, true, 0);
+            }
+            Thread.sleep(200);
+
+            long start = System.nanoTime();
+            for(JuiceNetClient client : clients) {
+                for(int i = 0; i < FAST_IN_FLIGHT; i++) {
+                    for(byte channel = 0; channel < 2; channel++) {
+                        send(client, channel, i, false, System.nanoTime());
+                    }
+                }
+            }
+            allEchoed.get(120, TimeUnit.SECONDS);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Arrays.sort(latencies);
+            Session slowSession = server.getNetworkManager().getSession(slowClient.getLocalAddress());
+            System.out.printf("%-15s   %12.2f   %12.2f   %13.0f   %12d   %12d   %12d%n", name,
+                    latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6,
+                    latencies.length / seconds, slowHandled.get(),
+                    slowSession != null ? slowSession.getDispatcher().getDroppedCount() : -1, orderErrors.get());
+        }
+        handle.close();
+    }
+
+    private static void send(JuiceNetClient client, byte channelId, int sequence, boolean slow, long sentAt) {
+        byte[] payload = new byte[64];
+        ByteBuffer bb = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(sequence);
+        bb.put((byte) (slow ? 1 : 0));
+        bb.putLong(sentAt);
+        client.send(channelId, ContainerPacket.ReliabilityType.RELIABLE, payload);
+    }
+}
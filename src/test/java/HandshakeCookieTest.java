@@ -0,0 +1,157 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.crypto.HandshakeCookies;
+import io.github.jython234.juicenet.network.crypto.SessionTicket;
+import io.github.jython234.juicenet.network.packet.handshake.ClientHandshakePacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerNetworkManager;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that handshake cookies keep spoofed handshakes from opening sessions, and measures how fast they're rejected.
+ *
+ * Checks that cookies are only accepted for the address and client they were
+ * issued to and expire, and that verifying them doesn't allocate. Then floods a
+ * server which requires cookies and encryption with handshakes from spoofed addresses,
+ * with forged cookies and too small to be answered, while real clients connect
+ * with a key exchange and with a session ticket.
+ *
+ * Usage: HandshakeCookieTest [spoofed handshakes]
+ */
+public class HandshakeCookieTest {
+    private static final int PORT = 4380;
+
+    public static void main(String[] args) throws Exception {
+        int spoofed = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+
+        checkCookies();
+        checkServer(spoofed);
+        System.out.println("OK");
+    }
+
+    private static void checkCookies() throws Exception {
+        HandshakeCookies cookies = new HandshakeCookies(200);
+        SocketAddress client = new InetSocketAddress("10.1.2.3", 5000);
+        ByteBuffer cookie = ByteBuffer.allocate(HandshakeCookies.COOKIE_SIZE);
+        cookies.issue(client, 42, cookie, 0);
+
+        Check.that(cookies.verify(cookie, 0, client, 42), "cookie wasn't accepted");
+        Check.that(!cookies.verify(cookie, 0, new InetSocketAddress("10.1.2.4", 5000), 42), "cookie was accepted for another address");
+        Check.that(!cookies.verify(cookie, 0, new InetSocketAddress("10.1.2.3", 5001), 42), "cookie was accepted for another port");
+        Check.that(!cookies.verify(cookie, 0, client, 43), "cookie was accepted for another client");
+        Check.that(!new HandshakeCookies(200).verify(cookie, 0, client, 42), "cookie was accepted by another server");
+        cookie.put(5, (byte) (cookie.get(5) ^ 1));
+        Check.that(!cookies.verify(cookie, 0, client, 42), "changed cookie was accepted");
+        cookie.put(5, (byte) (cookie.get(5) ^ 1));
+
+        SocketAddress ipv6 = new InetSocketAddress("::1", 5000);
+        ByteBuffer ipv6Cookie = ByteBuffer.allocate(HandshakeCookies.COOKIE_SIZE);
+        cookies.issue(ipv6, 42, ipv6Cookie, 0);
+        Check.that(cookies.verify(ipv6Cookie, 0, ipv6, 42), "IPv6 cookie wasn't accepted");
+
+        // Verifying a forged cookie, the common case under a flood
+        ByteBuffer forged = ByteBuffer.allocate(HandshakeCookies.COOKIE_SIZE);
+        forged.put(0, cookie.get(0));
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int iterations = 2_000_000;
+        for(int round = 0; round < 3; round++) { // The first rounds warm up the JIT
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                if(cookies.verify(forged, 0, client, i))
+                    throw new AssertionError("forged cookie was accepted");
+            }
+            long time = System.nanoTime() - start;
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+            System.out.printf("verify %.0fns (%.1fM/s)   allocated %.2f bytes per check%n",
+                    (double) time / iterations, iterations * 1000.0 / time, (double) allocated / iterations);
+            if(round == 2) {
+                Check.that(allocated < iterations / 100, "verifying allocated " + allocated + " bytes");
+            }
+        }
+
+        Thread.sleep(450); // Two time buckets
+        Check.that(!cookies.verify(cookie, 0, client, 42), "expired cookie was accepted");
+    }
+
+    private static void checkServer(int spoofed) throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        settings.handshakeCookies = true;
+        settings.encryption = true;
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+        ServerNetworkManager manager = server.getNetworkManager();
+        HandshakeCookies cookies = server.getHandshakeCookies();
+
+        Thread flood = new Thread(() -> {
+            Random random = new Random(1);
+            byte[][] handshakes = new byte[3][];
+            for(int i = 0; i < handshakes.length; i++) {
+                ClientHandshakePacket chp = new ClientHandshakePacket();
+                chp.clientID = random.nextLong();
+                chp.cookie = new byte[i == 0 ? 0 : HandshakeCookies.COOKIE_SIZE];
+                random.nextBytes(chp.cookie);
+                if(i == 1) {
+                    chp.cookie[0] = (byte) (System.currentTimeMillis() / settings.handshakeCookieLifetime); // So the MAC is checked
+                }
+                handshakes[i] = chp.encode();
+            }
+            handshakes[2] = Arrays.copyOf(handshakes[2], 20); // Smaller than the answer
+            SocketAddress[] sources = new SocketAddress[256]; // Nothing listens on them
+            for(int i = 0; i < sources.length; i++) {
+                sources[i] = new InetSocketAddress("127.0." + i + ".1", 9);
+            }
+
+            long start = System.nanoTime();
+            try {
+                for(int i = 0; i < spoofed; i++) {
+                    byte[] handshake = handshakes[i % handshakes.length];
+                    manager.handleRawPacket(ByteBuffer.wrap(handshake).order(ByteOrder.LITTLE_ENDIAN), sources[i & 255]);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            long time = System.nanoTime() - start;
+            System.out.printf("%d spoofed handshakes in %dms (%.0fk/s, answering two thirds with a cookie)%n",
+                    spoofed, time / 1000000, spoofed * 1000000.0 / time);
+        });
+        flood.start();
+
+        SessionTicket ticket;
+        long start = System.nanoTime();
+        try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings)) {
+            client.connect().get(10, TimeUnit.SECONDS);
+            Check.that(client.getReliabilityLayer().isEncrypted(), "session isn't encrypted");
+            Check.that(manager.getSession(client.getLocalAddress()) != null, "server has no session for the client");
+            ticket = client.getSessionTicket();
+        }
+        System.out.printf("handshake with a cookie and a key exchange %.1fms%n", (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings)) {
+            client.setSessionTicket(ticket);
+            client.connect().get(10, TimeUnit.SECONDS);
+        }
+        System.out.printf("handshake with a cookie and a session ticket %.1fms%n", (System.nanoTime() - start) / 1e6);
+        flood.join();
+
+        long opened = server.getMetrics().snapshot().sessionsOpened;
+        System.out.printf("cookies issued %d, accepted %d, rejected %d, sessions opened %d%n",
+                cookies.getIssued(), cookies.getAccepted(), cookies.getRejected(), opened);
+        Check.that(opened == 2, "spoofed handshakes opened sessions: " + opened);
+        Check.that(cookies.getAccepted() == 2, "cookies accepted " + cookies.getAccepted());
+        Check.that(cookies.getIssued() >= spoofed * 2 / 3, "spoofed handshakes weren't answered with a cookie: " + cookies.getIssued());
+        Check.that(server.getMetrics().snapshot().datagramsDropped >= spoofed / 3, "handshakes too small to answer weren't dropped");
+        handle.close();
+    }
+}
@@ -0,0 +1,82 @@
+import io.github.jython234.juicenet.network.HashedWheelTimer;
+
+import java.util.Random;
+
+/**
+ * Checks and measures the timer wheel the network loops run their timers on.
+ *
+ * Schedules timeouts for a growing amount of sessions, each rescheduling
+ * itself like a session with packets in flight, and checks that no timeout
+ * expires early or more than one tick late. Reports the cost of scheduling
+ * and cancelling, and of advancing the wheel per expired timeout, which
+ * should stay flat as the amount of pending timeouts grows.
+ *
+ * Usage: HashedWheelTimerTest [ticks per run]
+ */
+public class HashedWheelTimerTest {
+    private static final long TICK = 1000000L; // 1ms
+    private static final long MAX_STEP = TICK + TICK / 4;
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.println("timeouts   schedule+cancel(ns)   advance(ns/expired)   expired   max-late(ticks)");
+        for(int round = 0; round < 2; round++) { // The first round warms up
+            for(int timeouts : new int[] {1000, 10000, 100000, 1000000}) {
+                run(timeouts, ticks, round == 1);
+            }
+        }
+    }
+
+    private static void run(int count, int ticks, boolean print) {
+        Random random = new Random(count);
+        long[] now = {0};
+        HashedWheelTimer timer = new HashedWheelTimer(TICK, 512, 0);
+        timer.bind(() -> {}); // Owned by this thread, like a network loop's timer
+        HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[count];
+        long[] maxLate = {0};
+        int[] expired = {0};
+
+        for(int i = 0; i < count; i++) {
+            final int index = i;
+            timeouts[i] = new HashedWheelTimer.Timeout(time -> {
+                long late = time - timeouts[index].getDeadline();
+                if(late < 0)
+                    throw new IllegalStateException("Timeout expired " + -late + "ns early");
+                maxLate[0] = Math.max(maxLate[0], late);
+                expired[0]++;
+
+                // Rescheduled like a session update, sometimes beyond one rotation of the wheel
+                timer.schedule(timeouts[index], time + 1 + (long) random.nextInt(1000) * TICK);
+            });
+            timer.schedule(timeouts[i], 1 + (long) random.nextInt(1000) * TICK);
+        }
+
+        // Rescheduling and cancelling, like sessions receiving datagrams and closing
+        long start = System.nanoTime();
+        for(int i = 0; i < count; i++) {
+            HashedWheelTimer.Timeout timeout = timeouts[random.nextInt(count)];
+            timer.cancel(timeout);
+            timer.schedule(timeout, 1 + (long) random.nextInt(1000) * TICK);
+        }
+        long scheduleNs = (System.nanoTime() - start) / count;
+
+        long advanceNs = 0;
+        for(int tick = 0; tick < ticks; tick++) {
+            now[0] += TICK + random.nextInt((int) (MAX_STEP - TICK)); // Loops wake up a little late
+            start = System.nanoTime();
+            timer.advance(now[0]);
+            advanceNs += System.nanoTime() - start;
+        }
+
+        if(timer.getPendingCount() != count)
+            throw new IllegalStateException(timer.getPendingCount() + " of " + count + " timeouts pending");
+        if(maxLate[0] > TICK + MAX_STEP) // Rounded up to the next tick, which is reached by the next advance
+            throw new IllegalStateException("Timeout expired " + maxLate[0] / TICK + " ticks late");
+
+        if(print) {
+            System.out.printf("%8d   %19d   %19d   %7d   %15.2f%n", count, scheduleNs,
+                    expired[0] > 0 ? advanceNs / expired[0] : 0, expired[0], maxLate[0] / (double) TICK);
+        }
+    }
+}
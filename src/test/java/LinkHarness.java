@@ -0,0 +1,300 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.reliability.ReliabilityCallback;
+import io.github.jython234.juicenet.network.reliability.ReliabilityLayer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Connects ReliabilityLayers to each other for the tests, which drive them without a server or client.
+ *
+ * Each {@link Peer} owns a layer, sends its datagrams to its remote peer over a
+ * {@link Link}, and hands the messages it receives to its handler. The test calls
+ * {@link Link#deliver(long)} and the layers' update() itself, or leaves both to
+ * {@link #runUntil(Peer, Peer, Condition, long, String)}.
+ */
+public final class LinkHarness {
+    private LinkHarness() {}
+
+    /**
+     * Handles the messages a peer receives.
+     */
+    public interface MessageHandler {
+        void handle(byte channelId, ByteBuffer payload);
+    }
+
+    /**
+     * Carries the datagrams of the peers created on it.
+     */
+    public interface Link extends Closeable {
+        /**
+         * Called once for each peer created on the link.
+         * @param peer The peer.
+         * @throws IOException If there was an error while setting up the peer's side of the link.
+         */
+        default void attach(Peer peer) throws IOException {}
+
+        /**
+         * Sends a datagram to the remote peer of <code>from</code>.
+         * @param from The sending peer.
+         * @param datagram The datagram, only valid for the duration of the call.
+         * @throws IOException If there was an error while sending.
+         */
+        void send(Peer from, ByteBuffer datagram) throws IOException;
+
+        /**
+         * Hands the datagrams which have arrived by <code>now</code> to the layers of their peers.
+         * @param now The current time, from {@link System#nanoTime()}.
+         * @throws IOException If there was an error while handling a datagram.
+         */
+        void deliver(long now) throws IOException;
+
+        @Override
+        default void close() throws IOException {}
+    }
+
+    /**
+     * A condition {@link #runUntil(Peer, Peer, Condition, long, String)} waits for.
+     */
+    public interface Condition {
+        boolean met();
+    }
+
+    /**
+     * One side of a link, with its own ReliabilityLayer.
+     */
+    public static class Peer implements ReliabilityCallback {
+        public final ReliabilityLayer layer;
+        public final Link link;
+        public Peer remote;
+        public MessageHandler onMessage = (channelId, payload) -> {};
+        /** Whether the containers the peer receives are handled, false to act like an overloaded peer. */
+        public boolean acceptingContainers = true;
+        public long datagramsSent = 0;
+        public long bytesSent = 0;
+
+        /**
+         * Creates a new peer which sends over <code>link</code>.
+         * @param settings The settings of the peer's layer.
+         * @param link The link the peer sends on.
+         * @throws IOException If there was an error while attaching the peer to the link.
+         */
+        public Peer(NetworkSettings settings, Link link) throws IOException {
+            this.layer = new ReliabilityLayer(settings, this);
+            this.link = link;
+            link.attach(this);
+        }
+
+        /**
+         * Makes two peers each other's remote peer.
+         */
+        public static void connect(Peer a, Peer b) {
+            a.remote = b;
+            b.remote = a;
+        }
+
+        /**
+         * Queues a message on the peer's layer.
+         * @param type The reliability of the message.
+         * @param channelId The channel the message is sent on.
+         * @param payload The payload.
+         * @throws IOException If there was an error while sending.
+         */
+        public void send(ContainerPacket.ReliabilityType type, byte channelId, byte[] payload) throws IOException {
+            ContainerPacket cp = new ContainerPacket();
+            cp.reliabilityType = type;
+            cp.channelId = channelId;
+            cp.payload = payload;
+            cp.payloadSize = (short) payload.length;
+            this.layer.send(cp);
+        }
+
+        @Override
+        public void sendDatagram(ByteBuffer datagram) throws IOException {
+            this.datagramsSent++;
+            this.bytesSent += datagram.remaining();
+            this.link.send(this, datagram);
+        }
+
+        @Override
+        public void handleMessage(byte channelId, ByteBuffer payload) {
+            this.onMessage.handle(channelId, payload);
+        }
+
+        @Override
+        public boolean acceptContainers() {
+            return this.acceptingContainers;
+        }
+    }
+
+    /**
+     * Sends the datagrams over real loopback sockets, one per peer, and drops
+     * some of them on receive.
+     */
+    public static class LoopbackLink implements Link {
+        private final double loss;
+        private final Random random;
+        private final List<Peer> peers = new ArrayList<>();
+        private final List<DatagramChannel> channels = new ArrayList<>();
+        private final ByteBuffer recv = ByteBuffer.allocateDirect(2048).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * @param loss The probability a datagram is dropped.
+         * @param seed Seed of the losses, so runs are comparable.
+         */
+        public LoopbackLink(double loss, long seed) {
+            this.loss = loss;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void attach(Peer peer) throws IOException {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress("127.0.0.1", 0));
+            channel.configureBlocking(false);
+            channel.socket().setReceiveBufferSize(4 << 20);
+            this.peers.add(peer);
+            this.channels.add(channel);
+        }
+
+        @Override
+        public void send(Peer from, ByteBuffer datagram) throws IOException {
+            DatagramChannel to = this.channels.get(this.peers.indexOf(from.remote));
+            this.channels.get(this.peers.indexOf(from)).send(datagram, to.getLocalAddress());
+        }
+
+        @Override
+        public void deliver(long now) throws IOException {
+            for(int p = 0; p < this.peers.size(); p++) {
+                for(int i = 0; i < 256; i++) {
+                    this.recv.clear();
+                    if(this.channels.get(p).receive(this.recv) == null)
+                        break;
+                    this.recv.flip();
+
+                    if(this.random.nextDouble() < this.loss)
+                        continue; // Injected loss
+                    this.peers.get(p).layer.handleDatagram(this.recv);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for(DatagramChannel channel : this.channels) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Simulates a link in memory. Datagrams can be delayed, dropped at random, held in a drop-tail
+     * queue in front of a bandwidth limited bottleneck, or dropped if they are larger than the path MTU.
+     * They are handed out as read-only views, like the sockets do.
+     */
+    public static class SimulatedLink implements Link {
+        /** One way propagation delay, in nanoseconds. */
+        public long delay = 0;
+        /** Probability a datagram is dropped. */
+        public double loss = 0;
+        /** Bytes per second of the bottleneck, zero for unlimited. */
+        public long bandwidth = 0;
+        /** Bytes which can wait for the bottleneck, the datagrams which don't fit are dropped. */
+        public long queueLimit = 0;
+        /** Datagrams larger than this are dropped, like a router does with the don't fragment flag set. */
+        public int pathMtu = Integer.MAX_VALUE;
+
+        public long sent = 0;
+        public long dropped = 0;
+        /** Size of the largest datagram delivered. */
+        public int largest = 0;
+
+        private final Random random = new Random(7); // Seeded, so runs are comparable
+        private final ArrayDeque<Object[]> queue = new ArrayDeque<>(); // Due time, destination and datagram
+        private long lastDeparture = 0;
+
+        @Override
+        public void send(Peer from, ByteBuffer datagram) {
+            this.sent++;
+            if(datagram.remaining() > this.pathMtu || (this.loss > 0 && this.random.nextDouble() < this.loss)) {
+                this.dropped++;
+                return;
+            }
+
+            long now = System.nanoTime();
+            long departure = now;
+            if(this.bandwidth > 0) {
+                long backlog = Math.max(0, this.lastDeparture - now) * this.bandwidth / 1000000000L;
+                if(backlog + datagram.remaining() > this.queueLimit) {
+                    this.dropped++;
+                    return;
+                }
+                departure = Math.max(now, this.lastDeparture) + datagram.remaining() * 1000000000L / this.bandwidth;
+                this.lastDeparture = departure;
+            }
+
+            this.largest = Math.max(this.largest, datagram.remaining());
+            byte[] copy = new byte[datagram.remaining()];
+            datagram.get(copy);
+            this.queue.add(new Object[] {departure + this.delay, from.remote, copy});
+        }
+
+        @Override
+        public void deliver(long now) throws IOException {
+            while(!this.queue.isEmpty() && (long) this.queue.peek()[0] <= now) {
+                Object[] datagram = this.queue.poll();
+                ((Peer) datagram[1]).layer.handleDatagram(ByteBuffer.wrap((byte[]) datagram[2]).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN));
+            }
+        }
+    }
+
+    /**
+     * Delivers datagrams and updates both peers every tick until the condition is met.
+     * @param a One of the peers.
+     * @param b The other peer.
+     * @param condition The condition.
+     * @param timeout How long to wait for it, in milliseconds.
+     * @param failure Describes what went wrong if it isn't met in time.
+     * @throws IOException If there was an error while sending or handling a datagram.
+     */
+    public static void runUntil(Peer a, Peer b, Condition condition, long timeout, String failure) throws IOException {
+        long start = System.nanoTime();
+        long nextTick = start;
+        while(!condition.met()) {
+            long now = System.nanoTime();
+            a.link.deliver(now);
+            if(b.link != a.link) {
+                b.link.deliver(now);
+            }
+            if(now >= nextTick) {
+                a.layer.update(now);
+                b.layer.update(now);
+                nextTick = now + a.layer.settings.tickInterval * 1000000L;
+            }
+            Check.that(now - start < timeout * 1000000L, failure);
+            LockSupport.parkNanos(100000);
+        }
+    }
+
+    /**
+     * @param sorted The samples, in ascending order.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The nearest-rank percentile of the samples, or zero if there are none.
+     */
+    public static long percentile(long[] sorted, double percentile) {
+        if(sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
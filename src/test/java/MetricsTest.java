@@ -0,0 +1,187 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.ClientEventLoop;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.metrics.JmxExporter;
+import io.github.jython234.juicenet.network.metrics.LatencyHistogram;
+import io.github.jython234.juicenet.network.metrics.MetricsSnapshot;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks the metrics of a server and its sessions, and measures the recording cost.
+ *
+ * Compares the percentiles of a LatencyHistogram with the exact ones, runs
+ * clients against a server which echoes, and checks that the aggregate and per session
+ * counters match what the clients sent, including closed sessions, reads
+ * the aggregate back through JMX, and times recording on one thread.
+ *
+ * Usage: MetricsTest [clients] [messages per client]
+ */
+public class MetricsTest {
+    private static final int PORT = 4330;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        checkHistogram();
+        checkServer(clientCount, messages);
+        measureRecording();
+        System.out.println("OK");
+    }
+
+    private static void checkHistogram() {
+        Random random = new Random(42);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100000];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(10_000_000_000L)); // 1ns to 10s, log-uniform
+            histogram.record(values[i]);
+        }
+        java.util.Arrays.sort(values);
+
+        for(double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            double error = Math.abs(reported - exact) / (double) exact;
+            System.out.printf("p%-5s exact %12d   histogram %12d   error %.2f%%%n", percentile, exact, reported, error * 100);
+            Check.that(error <= 1.0 / 32 + 1e-9, "p" + percentile + " is off by " + error);
+        }
+        Check.that(histogram.getCount() == values.length, "count " + histogram.getCount());
+        Check.that(histogram.getMax() == values[values.length - 1], "max");
+        Check.that(histogram.getValueAtPercentile(100) == values[values.length - 1], "p100");
+
+        LatencyHistogram merged = histogram.copy();
+        merged.add(histogram);
+        Check.that(merged.getCount() == 2 * values.length, "merged count");
+        Check.that(merged.getValueAtPercentile(50) == histogram.getValueAtPercentile(50), "merged p50");
+    }
+
+    private static void checkServer(int clientCount, int messages) throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        settings.peerHistograms = true;
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        AtomicReference<Session> firstSession = new AtomicReference<>();
+        server.setListener(new ServerListener() {
+            @Override
+            public void sessionOpened(Session session) {
+                firstSession.compareAndSet(null, session);
+            }
+
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) throws IOException {
+                session.send(channelId, ContainerPacket.ReliabilityType.RELIABLE, new byte[8]); // So the server measures RTTs too
+            }
+        });
+
+        JmxExporter jmx = new JmxExporter("metrics-test");
+        jmx.register();
+        AtomicReference<MetricsSnapshot> exported = new AtomicReference<>();
+        server.getMetrics().addExporter(jmx, 50);
+        server.getMetrics().addExporter(exported::set, 50);
+
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        long clientDatagramsSent = 0;
+        long clientMessagesSent = 0;
+        List<JuiceNetClient> clients = new ArrayList<>();
+        try(ClientEventLoop loop = new ClientEventLoop()) {
+            for(int i = 0; i < clientCount; i++) {
+                JuiceNetClient client = new JuiceNetClient(server.bindAddress, loop);
+                client.setListener((c, channelId, payload) -> {});
+                client.connect().get(10, TimeUnit.SECONDS);
+                clients.add(client);
+            }
+
+            List<CompletableFuture<Void>> acks = new ArrayList<>();
+            for(JuiceNetClient client : clients) {
+                for(int m = 0; m < messages; m++) {
+                    acks.add(client.send((byte) 0, ContainerPacket.ReliabilityType.RELIABLE, new byte[32]));
+                }
+            }
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+            Thread.sleep(100); // The last ACKs the server needs from the clients
+
+            Session session = firstSession.get();
+            MetricsSnapshot sessionMetrics = session.getMetrics();
+            System.out.println("session   " + sessionMetrics);
+            Check.that(sessionMetrics.sessions == 1, "session gauge");
+            Check.that(sessionMetrics.messagesReceived >= messages, "session messages " + sessionMetrics.messagesReceived);
+            Check.that(sessionMetrics.datagramsReceived > 0 && sessionMetrics.datagramsSent > 0, "session datagrams");
+            Check.that(sessionMetrics.handlerTime.getCount() == sessionMetrics.messagesReceived - sessionMetrics.duplicatesReceived,
+                    "session handler time count " + sessionMetrics.handlerTime.getCount());
+
+            // Closing half of the sessions keeps their counters in the aggregate
+            for(int i = 0; i < clientCount / 2; i++) {
+                server.getNetworkManager().closeSession(server.getNetworkManager().getSession(clients.get(i).getLocalAddress()));
+            }
+        }
+
+        // The clients don't send anything once their loop is closed
+        Thread.sleep(100);
+        for(JuiceNetClient client : clients) {
+            MetricsSnapshot clientMetrics = client.getMetrics();
+            Check.that(clientMetrics.rtt == null, "client histograms are off by default");
+            clientDatagramsSent += clientMetrics.datagramsSent;
+            clientMessagesSent += clientMetrics.messagesSent + clientMetrics.retransmits;
+        }
+
+        MetricsSnapshot total = server.getMetrics().snapshot();
+        System.out.println("aggregate " + total);
+        Check.that(total.sessionsOpened == clientCount, "sessions opened " + total.sessionsOpened);
+        Check.that(total.sessionsClosed == clientCount / 2, "sessions closed " + total.sessionsClosed);
+        Check.that(total.sessions == clientCount - clientCount / 2, "sessions gauge " + total.sessions);
+        Check.that(total.datagramsReceived == clientDatagramsSent, "datagrams received " + total.datagramsReceived + " != sent " + clientDatagramsSent);
+        Check.that(total.messagesReceived == clientMessagesSent, "messages received " + total.messagesReceived + " != sent " + clientMessagesSent);
+        Check.that(total.rtt.getCount() > 0, "rtt samples");
+        Check.that(total.handlerTime.getCount() == (long) clientCount * messages, "handler time count " + total.handlerTime.getCount());
+
+        Thread.sleep(200);
+        Check.that(exported.get() != null && exported.get().sessionsOpened == clientCount, "callback exporter");
+        Object jmxOpened = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("io.github.jython234.juicenet:type=Metrics,name=\"metrics-test\""), "SessionsOpened");
+        Check.that(Long.valueOf(clientCount).equals(jmxOpened), "JMX SessionsOpened " + jmxOpened);
+
+        server.getMetrics().removeExporter(jmx);
+        jmx.unregister();
+        handle.close();
+    }
+
+    private static void measureRecording() {
+        LongAdder counter = new LongAdder();
+        LatencyHistogram histogram = new LatencyHistogram();
+        int iterations = 20_000_000;
+        for(int round = 0; round < 3; round++) { // The first rounds warm up the JIT
+            long start = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                counter.increment();
+            }
+            long counterTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                histogram.record(i & 0xFFFFF);
+            }
+            long histogramTime = System.nanoTime() - start;
+            System.out.printf("counter increment %.1fns   histogram record %.1fns%n",
+                    (double) counterTime / iterations, (double) histogramTime / iterations);
+        }
+    }
+}
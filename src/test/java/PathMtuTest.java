@@ -0,0 +1,145 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.ClientEventLoop;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.crypto.KeyExchange;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+import io.github.jython234.juicenet.network.reliability.PathMtuProber;
+import io.github.jython234.juicenet.network.reliability.ReliabilityLayer;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that path MTU discovery finds the largest datagram size a path delivers, and falls back when it shrinks.
+ *
+ * Two ReliabilityLayers talk over a simulated link which drops every datagram
+ * larger than its path MTU, like a router would with the don't fragment flag set.
+ * Checks the MTU found is within one search step of the path MTU, with and without
+ * encryption, and compares the datagrams needed for a bulk transfer with the base MTU.
+ * Then shrinks the path MTU below the found one, and checks the layer detects the black hole
+ * and still delivers everything. Finally checks a client and its session on a real
+ * server find the largest MTU over loopback, which delivers any size.
+ *
+ * Usage: PathMtuTest [path MTU]
+ */
+public class PathMtuTest {
+    private static final int PORT = 4400;
+
+    public static void main(String[] args) throws Exception {
+        int pathMtu = args.length > 0 ? Integer.parseInt(args[0]) : 1450;
+
+        for(boolean encrypted : new boolean[] {false, true}) {
+            NetworkSettings settings = new NetworkSettings();
+            settings.initialRetransmitTimeout = 100;
+            settings.minRetransmitTimeout = 20;
+            settings.pacing = false; // So the black hole test's burst is coalesced into full datagrams
+
+            LinkHarness.SimulatedLink link = new LinkHarness.SimulatedLink();
+            link.delay = 2000000L;
+            link.pathMtu = pathMtu;
+            LinkHarness.Peer sender = new LinkHarness.Peer(settings, link);
+            LinkHarness.Peer receiver = new LinkHarness.Peer(settings, link);
+            LinkHarness.Peer.connect(sender, receiver);
+            if(encrypted) {
+                byte[] master = new byte[KeyExchange.SECRET_SIZE];
+                byte[] clientNonce = KeyExchange.generateNonce(), serverNonce = KeyExchange.generateNonce();
+                sender.layer.setCipher(KeyExchange.deriveCipher(master, clientNonce, serverNonce, true));
+                receiver.layer.setCipher(KeyExchange.deriveCipher(master, clientNonce, serverNonce, false));
+            }
+
+            // Search
+            long start = System.nanoTime();
+            sender.layer.startPathMtuDiscovery();
+            receiver.layer.startPathMtuDiscovery();
+            PathMtuProber prober = sender.layer.getPathMtuProber();
+            LinkHarness.runUntil(sender, receiver, () -> !prober.isSearching() && !receiver.layer.getPathMtuProber().isSearching(), 30000, "the search didn't complete");
+            int found = prober.getMtu();
+            System.out.printf("%s: path MTU %d, found %d in %.0fms with %d probes (%d answered)%n", encrypted ? "encrypted" : "plain",
+                    pathMtu, found, (System.nanoTime() - start) / 1e6, prober.getProbesSent(), prober.getProbesAcked());
+            Check.that(found <= pathMtu && found > pathMtu - PathMtuProber.SEARCH_STEP, "found MTU " + found + " for a path MTU of " + pathMtu);
+            Check.that(receiver.layer.getPathMtuProber().getMtu() == found, "the peers found different MTUs");
+            Check.that(link.largest <= pathMtu, "a " + link.largest + " byte datagram was delivered");
+
+            // Bulk transfer, compared with the base MTU
+            long datagrams = transfer(sender, receiver);
+            LinkHarness.Peer base = new LinkHarness.Peer(withoutDiscovery(settings), link);
+            LinkHarness.Peer baseReceiver = new LinkHarness.Peer(withoutDiscovery(settings), link);
+            LinkHarness.Peer.connect(base, baseReceiver);
+            if(encrypted) {
+                byte[] master = new byte[KeyExchange.SECRET_SIZE];
+                byte[] clientNonce = KeyExchange.generateNonce(), serverNonce = KeyExchange.generateNonce();
+                base.layer.setCipher(KeyExchange.deriveCipher(master, clientNonce, serverNonce, true));
+                baseReceiver.layer.setCipher(KeyExchange.deriveCipher(master, clientNonce, serverNonce, false));
+            }
+            long baseDatagrams = transfer(base, baseReceiver);
+            System.out.printf("  1MB transfer: %d datagrams with the found MTU, %d with the base MTU of %d%n", datagrams, baseDatagrams, settings.mtu);
+            Check.that(datagrams < baseDatagrams, "the found MTU didn't save datagrams");
+
+            // Black hole: the path shrinks, coalesced datagrams of the found size are lost until the layer falls back
+            link.pathMtu = settings.mtu;
+            link.largest = 0;
+            int[] delivered = {0};
+            receiver.onMessage = (channelId, payload) -> delivered[0]++;
+            for(int i = 0; i < 200; i++) {
+                // Ten of them fill a datagram
+                byte[] payload = new byte[sender.layer.getMtu() / 10 - ContainerPacket.getHeaderSize(ContainerPacket.ReliabilityType.RELIABLE, false)];
+                sender.send(ContainerPacket.ReliabilityType.RELIABLE, (byte) 0, payload);
+            }
+            start = System.nanoTime();
+            long retransmits = sender.layer.getPacketsRetransmitted();
+            LinkHarness.runUntil(sender, receiver, () -> delivered[0] == 200, 30000, "the burst wasn't delivered through the black hole");
+            System.out.printf("  path shrank to %d: fell back to %d after %d black hole(s), delivered in %.0fms with %d retransmits%n", settings.mtu,
+                    prober.getMtu(), prober.getBlackHoles(), (System.nanoTime() - start) / 1e6, sender.layer.getPacketsRetransmitted() - retransmits);
+            Check.that(prober.getBlackHoles() > 0 && prober.getMtu() == settings.mtu, "the black hole wasn't detected");
+        }
+
+        // Both sides of a real session, with probes routed by the server
+        NetworkSettings settings = new NetworkSettings();
+        settings.encryption = true;
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+        try(ClientEventLoop loop = new ClientEventLoop(settings)) {
+            JuiceNetClient client = new JuiceNetClient(server.bindAddress, loop);
+            client.connect().get(10, TimeUnit.SECONDS);
+
+            AtomicReference<ReliabilityLayer> session = new AtomicReference<>();
+            long deadline = System.currentTimeMillis() + 10000;
+            while(session.get() == null || session.get().getPathMtuProber().isSearching() || client.getReliabilityLayer().getPathMtuProber().isSearching()) {
+                Check.that(System.currentTimeMillis() < deadline, "the session's search didn't complete");
+                server.getNetworkManager().forEachSession(s -> session.set(s.getReliabilityLayer()));
+                Thread.sleep(10);
+            }
+            System.out.printf("loopback session: client MTU %d, server MTU %d%n",
+                    client.getReliabilityLayer().getPathMtuProber().getMtu(), session.get().getPathMtuProber().getMtu());
+            Check.that(client.getReliabilityLayer().getPathMtuProber().getMtu() == settings.maxMtu, "the client didn't find the largest MTU");
+            Check.that(session.get().getPathMtuProber().getMtu() == settings.maxMtu, "the server didn't find the largest MTU");
+            client.close();
+        }
+        handle.close();
+        System.out.println("OK");
+    }
+
+    private static NetworkSettings withoutDiscovery(NetworkSettings settings) {
+        NetworkSettings base = new NetworkSettings();
+        base.initialRetransmitTimeout = settings.initialRetransmitTimeout;
+        base.minRetransmitTimeout = settings.minRetransmitTimeout;
+        base.pathMtuDiscovery = false;
+        return base;
+    }
+
+    private static long transfer(LinkHarness.Peer sender, LinkHarness.Peer receiver) throws IOException {
+        int[] delivered = {0};
+        receiver.onMessage = (channelId, payload) -> delivered[0]++;
+        long before = sender.datagramsSent;
+        for(int i = 0; i < 32; i++) {
+            sender.send(ContainerPacket.ReliabilityType.RELIABLE, (byte) 0, new byte[32000]);
+        }
+        LinkHarness.runUntil(sender, receiver, () -> delivered[0] == 32, 30000, "the transfer wasn't delivered");
+        return sender.datagramsSent - before;
+    }
+}
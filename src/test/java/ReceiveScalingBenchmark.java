@@ -0,0 +1,86 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.ReceiveWorkerGroup;
+import io.github.jython234.juicenet.network.UDPServerSocket;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how received packets/sec scales with the amount of
+ * receive workers on loopback, in both SO_REUSEPORT and dispatch modes.
+ *
+ * Usage: ReceiveScalingBenchmark [handler work in nanoseconds] [seconds per run]
+ */
+public class ReceiveScalingBenchmark {
+    private static final int PORT = 4206;
+    private static final int SENDERS = 4;
+
+    public static void main(String[] args) throws Exception {
+        long workNanos = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        System.out.println("SO_REUSEPORT supported: " + UDPServerSocket.isReusePortSupported());
+        System.out.println("Handler work: " + workNanos + "ns, " + SENDERS + " senders, " + seconds + "s per run");
+        System.out.println("mode       workers   packets/sec");
+
+        for(boolean reusePort : new boolean[] {true, false}) {
+            for(int workers : new int[] {1, 2, 4, 8}) {
+                double pps = run(workers, reusePort, workNanos, seconds);
+                System.out.printf("%-10s %7d %13.0f%n", reusePort ? "reuseport" : "dispatch", workers, pps);
+            }
+        }
+    }
+
+    private static double run(int workers, boolean reusePort, long workNanos, int seconds) throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        settings.workerThreads = workers;
+        settings.reusePort = reusePort;
+
+        LongAdder received = new LongAdder();
+        ReceiveWorkerGroup group = new ReceiveWorkerGroup(new InetSocketAddress(PORT), settings, (data, address) -> {
+            long end = System.nanoTime() + workNanos; // Simulate decode and handling cost
+            while(System.nanoTime() < end);
+            received.increment();
+        }, LoggerFactory.getLogger("ReceiveScalingBenchmark"));
+
+        Thread server = new Thread(group::run);
+        server.start();
+
+        AtomicBoolean sending = new AtomicBoolean(true);
+        Thread[] senders = new Thread[SENDERS];
+        for(int i = 0; i < SENDERS; i++) {
+            senders[i] = new Thread(() -> {
+                InetSocketAddress target = new InetSocketAddress("127.0.0.1", PORT);
+                ByteBuffer payload = ByteBuffer.allocateDirect(64);
+                try(DatagramChannel channel = DatagramChannel.open()) {
+                    while(sending.get()) {
+                        payload.clear();
+                        channel.send(payload, target);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            senders[i].start();
+        }
+
+        Thread.sleep(500); // Warm up
+        received.reset();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        double pps = received.sum() / ((System.nanoTime() - start) / 1e9);
+
+        sending.set(false);
+        for(Thread sender : senders) {
+            sender.join();
+        }
+        group.close();
+        server.join();
+
+        return pps;
+    }
+}
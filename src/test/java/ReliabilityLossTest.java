@@ -0,0 +1,110 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.packet.ContainerPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+/**
+ * Loss-injecting loopback harness for the reliability layer.
+ *
+ * Two ReliabilityLayers talk over real loopback sockets, and each
+ * datagram (containers, ACKs and NACKs) is dropped with the given
+ * probability on receive. Reports goodput and retransmissions, and checks
+ * that every message is delivered exactly once. RELIABLE_ORDERED runs
+ * also check delivery order and report head-of-line blocking.
+ *
+ * Also reports how many packets were coalesced into each datagram,
+ * which can be compared with coalescing turned off.
+ *
+ * Usage: ReliabilityLossTest [messages] [payload size] [coalesce (true/false)]
+ */
+public class ReliabilityLossTest {
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        boolean coalesce = args.length <= 2 || Boolean.parseBoolean(args[2]);
+
+        for(ContainerPacket.ReliabilityType type : new ContainerPacket.ReliabilityType[] {ContainerPacket.ReliabilityType.RELIABLE, ContainerPacket.ReliabilityType.RELIABLE_ORDERED}) {
+            System.out.println(messages + " " + type + " messages of " + payloadSize + " bytes over loopback");
+            System.out.println("loss   msgs/sec   retransmits   duplicates   srtt(us)   hol-blocked(ms)   max-hol(ms)   datagrams   packets/datagram");
+            for(double loss : new double[] {0.0, 0.01, 0.02, 0.05}) {
+                run(messages, payloadSize, loss, type, coalesce);
+            }
+        }
+    }
+
+    private static void run(int messages, int payloadSize, double loss, ContainerPacket.ReliabilityType type, boolean coalesce) throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.coalescePackets = coalesce;
+        settings.minRetransmitTimeout = 20;
+        settings.orderingFlushTimeout = NetworkSettings.WAIT_FOREVER;
+
+        LinkHarness.LoopbackLink link = new LinkHarness.LoopbackLink(loss, 1);
+        LinkHarness.Peer sender = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer receiver = new LinkHarness.Peer(settings, link);
+        LinkHarness.Peer.connect(sender, receiver);
+
+        BitSet delivered = new BitSet(messages);
+        int[] deliveredCount = {0};
+        int[] duplicates = {0};
+        int[] outOfOrder = {0};
+        receiver.onMessage = (channelId, payload) -> {
+            int index = payload.getInt(payload.position());
+            if(index != deliveredCount[0]) {
+                outOfOrder[0]++;
+            }
+            if(delivered.get(index)) {
+                duplicates[0]++;
+            } else {
+                delivered.set(index);
+                deliveredCount[0]++;
+            }
+        };
+
+        long start = System.nanoTime();
+        long nextTick = start;
+        int sent = 0;
+        while(deliveredCount[0] < messages) {
+            // Keep the window topped up without building a large send queue
+            while(sent < messages && sender.layer.getQueuedCount() == 0) {
+                byte[] payload = new byte[payloadSize];
+                ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).putInt(sent++);
+                sender.send(type, (byte) 0, payload);
+            }
+
+            long now = System.nanoTime();
+            link.deliver(now);
+            if(now >= nextTick) {
+                sender.layer.update(now);
+                receiver.layer.update(now);
+                nextTick = now + settings.tickInterval * 1000000L;
+            }
+
+            if(now - start > 60000000000L)
+                throw new IllegalStateException("Timed out with " + deliveredCount[0] + "/" + messages + " delivered"
+                        + " (in flight " + sender.layer.getInFlightCount() + ", rto " + sender.layer.getRttEstimator().getRto() / 1000000 + "ms"
+                        + ", fragments dropped " + receiver.layer.getFragmentsDropped()
+                        + ", evicted " + receiver.layer.getFragmentAssembler().getEvictedCount()
+                        + ", rejected " + receiver.layer.getFragmentAssembler().getRejectedCount() + ")");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if(duplicates[0] != 0)
+            throw new IllegalStateException(duplicates[0] + " messages were delivered more than once");
+        if(type == ContainerPacket.ReliabilityType.RELIABLE_ORDERED && outOfOrder[0] != 0)
+            throw new IllegalStateException(outOfOrder[0] + " messages were delivered out of order");
+
+        System.out.printf("%3.0f%%  %9.0f   %11d   %10d   %8d   %15d   %11d   %9d   %16.2f%n", loss * 100, messages / seconds,
+                sender.layer.getPacketsRetransmitted(), receiver.layer.getDuplicatesReceived(),
+                sender.layer.getRttEstimator().getSmoothedRtt() / 1000,
+                receiver.layer.getHeadOfLineBlockedTime() / 1000000, receiver.layer.getMaxHeadOfLineBlockedTime() / 1000000,
+                sender.layer.getDatagramsSent() + receiver.layer.getDatagramsSent(),
+                (double) (sender.layer.getPacketsSent() + sender.layer.getAcknowledgePacketsSent()
+                        + receiver.layer.getPacketsSent() + receiver.layer.getAcknowledgePacketsSent())
+                        / (sender.layer.getDatagramsSent() + receiver.layer.getDatagramsSent()));
+
+        link.close();
+    }
+}
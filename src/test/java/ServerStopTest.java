@@ -0,0 +1,51 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Checks that a server started in the background can be stopped right away.
+ *
+ * Starts servers in the background and stops each one right after
+ * startInBackground() returns, or up to 3 ms later, while its thread is
+ * still binding the sockets or entering its loop. Checks every server thread
+ * exits and releases the port, so the next server can bind it again. Half of
+ * the servers run worker threads, which have to be stopped too.
+ *
+ * Usage: ServerStopTest [servers]
+ */
+public class ServerStopTest {
+    private static final int PORT = 4430;
+
+    public static void main(String[] args) throws Exception {
+        int servers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        int listened = 0;
+        for(int i = 0; i < servers; i++) {
+            NetworkSettings settings = new NetworkSettings();
+            settings.workerThreads = i / 4 % 2 == 0 ? 1 : 2;
+            JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+            ServerHandle handle = server.startInBackground();
+            if(i % 4 > 0) {
+                Thread.sleep(i % 4);
+            }
+            server.stop();
+
+            try {
+                handle.getStopped().get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                Check.that(false, "server " + i + " kept running after it was stopped right after its start");
+            }
+            Check.that(handle.getStarted().isDone(), "the start of server " + i + " never completed");
+            Check.that(!server.isCrashed(), "server " + i + " crashed, its port was still bound");
+            if(!handle.getStarted().isCompletedExceptionally()) {
+                listened++;
+            }
+        }
+        System.out.println(servers + " servers stopped within 3 ms of their start, " + listened + " of them were already listening");
+        System.out.println("OK");
+    }
+}
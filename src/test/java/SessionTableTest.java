@@ -0,0 +1,339 @@
+import io.github.jython234.juicenet.network.HashedWheelTimer;
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.packet.handshake.ClientHandshakePacket;
+import io.github.jython234.juicenet.network.packet.handshake.ServerHandshakePacket;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.Session;
+import io.github.jython234.juicenet.network.server.SessionTable;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the open addressing of the SessionTable, and the handshake's handling of a full server.
+ *
+ * Fills a table with IPv4 sessions on neighbouring addresses and ports, which
+ * share probe chains, then removes every other one and checks the rest are still
+ * found past the removed slots, and that removed addresses can be added again.
+ * Churns sessions in and out until the table is rebuilt, checks IPv6 sessions are
+ * kept in the fallback map and count towards the limit, and checks a full table
+ * refuses new sessions until one is removed. Then runs writers and lock free readers
+ * on the same table from several threads. Finally checks a server with room for two
+ * sessions refuses a third client, and accepts it again once a session is closed, and
+ * that a handshake of another client from a session's address only replaces the session
+ * once it comes back with a cookie, so a spoofed one leaves the session untouched.
+ *
+ * Usage: SessionTableTest [sessions]
+ */
+public class SessionTableTest {
+    private static final int PORT = 4420;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        NetworkSettings settings = new NetworkSettings();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        HashedWheelTimer timer = new HashedWheelTimer(settings, System.nanoTime());
+
+        checkCollisions(server, timer, count);
+        checkChurn(server, timer);
+        checkIpv6(server, timer);
+        checkFull(server, timer);
+        checkConcurrent(server, timer);
+        checkHandshake();
+        checkSpoofedHandshake();
+        System.out.println("OK");
+    }
+
+    private static Session session(JuiceNetServer server, HashedWheelTimer timer, String ip, int port) {
+        return new Session(server, new InetSocketAddress(ip, port), port, timer);
+    }
+
+    private static void checkCollisions(JuiceNetServer server, HashedWheelTimer timer, int count) {
+        SessionTable table = new SessionTable(count);
+        List<Session> sessions = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            Session session = session(server, timer, "10.0." + (i % 4) + ".1", 20000 + i / 4);
+            Check.that(SessionTable.key(session.address) != SessionTable.NO_KEY, "an IPv4 address wasn't packed");
+            Check.that(table.putIfAbsent(session) == session, "session " + i + " wasn't added");
+            sessions.add(session);
+        }
+        Check.that(table.size() == count, "the table has " + table.size() + " of " + count + " sessions");
+        for(Session session : sessions) {
+            Check.that(table.get(session.address) == session, session.address + " wasn't found");
+            Session duplicate = new Session(server, session.address, 1, timer);
+            Check.that(table.putIfAbsent(duplicate) == session, "a second session for " + session.address + " replaced the first");
+        }
+
+        // Every other session leaves a removed slot in the probe chains of the rest
+        for(int i = 0; i < count; i += 2) {
+            Check.that(table.remove(sessions.get(i)), "session " + i + " wasn't removed");
+            Check.that(!table.remove(sessions.get(i)), "session " + i + " was removed twice");
+        }
+        for(int i = 0; i < count; i++) {
+            Session found = table.get(sessions.get(i).address);
+            Check.that(i % 2 == 0 ? found == null : found == sessions.get(i), "lookup of session " + i + " after the removals returned " + found);
+        }
+
+        // Added again, into the removed slots
+        for(int i = 0; i < count; i += 2) {
+            Session again = new Session(server, sessions.get(i).address, 2, timer);
+            Check.that(table.putIfAbsent(again) == again, "session " + i + " wasn't added again");
+            sessions.set(i, again);
+        }
+        for(Session session : sessions) {
+            Check.that(table.get(session.address) == session, session.address + " wasn't found after it was added again");
+        }
+        int[] visited = {0};
+        table.forEach(session -> visited[0]++);
+        Check.that(table.size() == count && visited[0] == count, "forEach visited " + visited[0] + " sessions, size is " + table.size());
+        System.out.println(count + " colliding IPv4 sessions added, every other one removed and added again");
+    }
+
+    private static void checkChurn(JuiceNetServer server, HashedWheelTimer timer) {
+        // Few live sessions, but enough removed slots to make the table rebuild many times
+        SessionTable table = new SessionTable(100);
+        Session[] live = new Session[16];
+        for(int round = 0; round < 5000; round++) {
+            int i = round % live.length;
+            if(live[i] != null) {
+                Check.that(table.remove(live[i]), "round " + round + ": the session wasn't removed");
+            }
+            live[i] = session(server, timer, "192.168.1." + (round % 250 + 1), 30000 + round);
+            Check.that(table.putIfAbsent(live[i]) == live[i], "round " + round + ": the session wasn't added");
+            Check.that(table.size() == Math.min(round + 1, live.length), "round " + round + ": the size is " + table.size());
+        }
+        for(Session session : live) {
+            Check.that(table.get(session.address) == session, "a session was lost while the table was rebuilt");
+        }
+        System.out.println("5000 sessions churned through a table of " + live.length);
+    }
+
+    private static void checkIpv6(JuiceNetServer server, HashedWheelTimer timer) {
+        SessionTable table = new SessionTable(100);
+        Session loopback = session(server, timer, "::1", 4000);
+        Session other = session(server, timer, "2001:db8::1", 4000);
+        Session ipv4 = session(server, timer, "127.0.0.1", 4000);
+        Check.that(SessionTable.key(loopback.address) == SessionTable.NO_KEY, "an IPv6 address was packed");
+
+        Check.that(table.putIfAbsent(loopback) == loopback && table.putIfAbsent(other) == other && table.putIfAbsent(ipv4) == ipv4, "the sessions weren't added");
+        Check.that(table.putIfAbsent(session(server, timer, "::1", 4000)) == loopback, "a second IPv6 session replaced the first");
+        Check.that(table.get(loopback.address) == loopback && table.get(other.address) == other && table.get(ipv4.address) == ipv4, "a session wasn't found");
+        Check.that(table.get(new InetSocketAddress("::1", 4001)) == null, "a different port was found");
+        Check.that(table.size() == 3, "the size is " + table.size());
+
+        int[] visited = {0};
+        table.forEach(session -> visited[0]++);
+        Check.that(visited[0] == 3, "forEach visited " + visited[0] + " sessions");
+
+        Check.that(table.remove(loopback) && !table.remove(loopback), "the IPv6 session wasn't removed once");
+        Check.that(!table.remove(session(server, timer, "2001:db8::1", 4000)), "another session for the address was removed");
+        Check.that(table.get(loopback.address) == null && table.get(other.address) == other, "the wrong IPv6 session was removed");
+        Check.that(table.size() == 2, "the size is " + table.size() + " after the removal");
+        System.out.println("IPv6 sessions kept apart from the IPv4 table");
+    }
+
+    private static void checkFull(JuiceNetServer server, HashedWheelTimer timer) {
+        SessionTable table = new SessionTable(10);
+        List<Session> sessions = new ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            sessions.add(session(server, timer, "172.16.0." + (i + 1), 5000));
+        }
+        sessions.add(session(server, timer, "::1", 5000));
+        sessions.add(session(server, timer, "::2", 5000));
+        for(Session session : sessions) {
+            Check.that(table.putIfAbsent(session) == session, session.address + " wasn't added");
+        }
+
+        Session ipv4 = session(server, timer, "172.16.0.100", 5000);
+        Session ipv6 = session(server, timer, "::3", 5000);
+        Check.that(table.putIfAbsent(ipv4) == null, "an IPv4 session was added to a full table");
+        Check.that(table.putIfAbsent(ipv6) == null, "an IPv6 session was added to a full table");
+        Check.that(table.putIfAbsent(session(server, timer, "172.16.0.1", 5000)) == sessions.get(0), "a full table didn't return the existing session");
+        Check.that(table.size() == 10 && table.get(ipv4.address) == null, "the full table changed");
+
+        Check.that(table.remove(sessions.get(8)), "the IPv6 session wasn't removed");
+        Check.that(table.putIfAbsent(ipv4) == ipv4, "the IPv4 session wasn't added after an IPv6 one was removed");
+        Check.that(table.putIfAbsent(ipv6) == null, "the table went over its limit");
+        System.out.println("a full table refuses sessions until one is removed");
+    }
+
+    private static void checkConcurrent(JuiceNetServer server, HashedWheelTimer timer) throws InterruptedException {
+        int threads = 4;
+        int perThread = 200;
+        SessionTable table = new SessionTable(threads * perThread);
+        Session[][] sessions = new Session[threads][perThread];
+        for(int t = 0; t < threads; t++) {
+            for(int i = 0; i < perThread; i++) {
+                sessions[t][i] = session(server, timer, "10.1." + t + "." + (i % 200 + 1), 6000 + i);
+            }
+        }
+        // Contended: every thread tries to add the same sessions
+        Session[] shared = new Session[50];
+        for(int i = 0; i < shared.length; i++) {
+            shared[i] = session(server, timer, "10.2.0.1", 7000 + i);
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            Session[] own = sessions[t];
+            workers.add(new Thread(() -> {
+                try {
+                    for(int round = 0; round < 50; round++) {
+                        for(Session session : own) {
+                            Check.that(table.putIfAbsent(session) == session, "an uncontended session wasn't added");
+                        }
+                        for(Session session : shared) {
+                            Session stored = table.putIfAbsent(session);
+                            Check.that(stored == null || stored == session, "a shared session was stored twice");
+                        }
+                        for(Session session : own) {
+                            Check.that(table.get(session.address) == session, "a session wasn't found by its own thread");
+                            Check.that(table.remove(session), "a session wasn't removed by its own thread");
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        // Lock free readers, which must never see a half published slot
+        for(int r = 0; r < 2; r++) {
+            workers.add(new Thread(() -> {
+                try {
+                    for(int round = 0; round < 200; round++) {
+                        for(Session session : shared) {
+                            Session found = table.get(session.address);
+                            Check.that(found == null || found == session, "a reader found the wrong session");
+                        }
+                        for(Session[] own : sessions) {
+                            Session found = table.get(own[round % perThread].address);
+                            Check.that(found == null || found == own[round % perThread], "a reader found the wrong session");
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for(Thread worker : workers) {
+            worker.start();
+        }
+        for(Thread worker : workers) {
+            worker.join();
+        }
+        if(failure.get() != null)
+            throw new AssertionError("a concurrent worker failed", failure.get());
+
+        Check.that(table.size() == shared.length, "the size is " + table.size() + " instead of " + shared.length);
+        for(Session session : shared) {
+            Check.that(table.get(session.address) == session, "a shared session was lost");
+        }
+        System.out.println(threads + " writers and 2 readers shared the table");
+    }
+
+    private static void checkHandshake() throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        settings.maxSessions = 2;
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        List<JuiceNetClient> clients = new ArrayList<>();
+        try {
+            for(int i = 0; i < 2; i++) {
+                JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings);
+                clients.add(client);
+                client.connect().get(10, TimeUnit.SECONDS);
+            }
+
+            JuiceNetClient refused = new JuiceNetClient(server.bindAddress, settings);
+            clients.add(refused);
+            try {
+                refused.connect().get(10, TimeUnit.SECONDS);
+                Check.that(false, "a third client was accepted by a server with room for two");
+            } catch (ExecutionException e) {
+                Check.that(e.getCause().getMessage().contains("full"), "unexpected error " + e.getCause());
+            }
+            Check.that(server.getNetworkManager().getSessionCount() == 2, "the server has " + server.getNetworkManager().getSessionCount() + " sessions");
+
+            // Closing a session makes room for the next handshake
+            AtomicReference<Session> first = new AtomicReference<>();
+            server.getNetworkManager().forEachSession(session -> first.compareAndSet(null, session));
+            server.getNetworkManager().closeSession(first.get());
+            JuiceNetClient accepted = new JuiceNetClient(server.bindAddress, settings);
+            clients.add(accepted);
+            accepted.connect().get(10, TimeUnit.SECONDS);
+            Check.that(server.getNetworkManager().getSessionCount() == 2, "the server has " + server.getNetworkManager().getSessionCount() + " sessions after the reconnect");
+            System.out.println("a full server refused a handshake, and accepted it once a session was closed");
+        } finally {
+            for(JuiceNetClient client : clients) {
+                client.close();
+            }
+            handle.close();
+        }
+    }
+
+    private static void checkSpoofedHandshake() throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings);
+        try {
+            client.connect().get(10, TimeUnit.SECONDS);
+            AtomicReference<Session> owner = new AtomicReference<>();
+            server.getNetworkManager().forEachSession(owner::set);
+            InetSocketAddress address = (InetSocketAddress) owner.get().address;
+
+            // A handshake of another client, as if it was spoofed from the session's address
+            ClientHandshakePacket spoofed = new ClientHandshakePacket();
+            spoofed.clientID = owner.get().clientID + 1;
+            server.getNetworkManager().handleRawPacket(ByteBuffer.wrap(spoofed.encode()).order(ByteOrder.LITTLE_ENDIAN), address);
+            Check.that(server.getNetworkManager().getSession(address) == owner.get() && !owner.get().isClosed(), "a handshake without a cookie replaced the session");
+            System.out.println("a spoofed handshake left the session untouched");
+
+            // A client restarted on the same address gets the cookie, which proves it owns the address
+            client.close();
+            try(DatagramChannel restarted = DatagramChannel.open()) {
+                restarted.bind(address);
+                restarted.connect(server.bindAddress);
+                ServerHandshakePacket answer = handshake(restarted, spoofed);
+                Check.that(answer.status == ServerHandshakePacket.STATUS_COOKIE_REQUIRED, "the restarted client got status " + answer.status + " instead of a cookie");
+                spoofed.cookie = answer.cookie;
+                answer = handshake(restarted, spoofed);
+                Check.that(answer.status == ServerHandshakePacket.STATUS_OK, "the restarted client got status " + answer.status + " with the cookie");
+            }
+            Session replaced = server.getNetworkManager().getSession(address);
+            Check.that(replaced != null && replaced.clientID == spoofed.clientID && owner.get().isClosed(), "the handshake with the cookie didn't replace the session");
+            System.out.println("a restarted client replaced its session with the cookie");
+        } finally {
+            client.close();
+            handle.close();
+        }
+    }
+
+    private static ServerHandshakePacket handshake(DatagramChannel channel, ClientHandshakePacket chp) throws Exception {
+        channel.write(ByteBuffer.wrap(chp.encode()));
+        ByteBuffer answer = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+        do { // Skips what the server still sends to the old session
+            answer.clear();
+            channel.receive(answer);
+            answer.flip();
+        } while(answer.remaining() < 2 || answer.getShort(0) != ServerHandshakePacket.ID);
+        ServerHandshakePacket shp = new ServerHandshakePacket();
+        shp.decode(answer);
+        return shp;
+    }
+}
@@ -0,0 +1,259 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+import io.github.jython234.juicenet.network.snapshot.SnapshotSync;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that delta encoded snapshots stay correct under loss, and shows the bytes they save.
+ *
+ * Connects two SnapshotSyncs with a link which drops and reorders the
+ * snapshots and their acknowledgements, sends a world of entities of which
+ * a few change every tick, and checks that every snapshot delivered is
+ * exactly the one which was sent with its sequence number. Checks malformed
+ * deltas and sizes are rejected without breaking the baselines, then sends
+ * snapshots between a client and a server and back.
+ *
+ * Usage: SnapshotSyncTest [ticks]
+ */
+public class SnapshotSyncTest {
+    private static final int PORT = 4350;
+    private static final byte CHANNEL = 1;
+    private static final int ENTITIES = 200;
+    private static final int ENTITY_SIZE = 20;
+
+    public static void main(String[] args) throws Exception {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.println("loss    delivered   full   delta   bytes/snapshot   of full size");
+        for(double loss : new double[] {0, 0.05, 0.2, 0.5}) {
+            checkLossyLink(ticks, loss);
+        }
+        checkInvalidDelta();
+        checkInvalidSize();
+        checkServer();
+        System.out.println("OK");
+    }
+
+    private static void checkLossyLink(int ticks, double loss) throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[CHANNEL].snapshots = true;
+        Random random = new Random(7);
+
+        List<Message> link = new ArrayList<>();
+        Map<Integer, byte[]> sent = new HashMap<>();
+        byte[][] current = new byte[1][];
+        SnapshotSync sender = new SnapshotSync(settings, (channelId, message) -> {
+            sent.put(sequence(message), current[0].clone());
+            link.add(new Message(message, true, random));
+        });
+        SnapshotSync receiver = new SnapshotSync(settings, (channelId, message) -> link.add(new Message(message, false, random)));
+
+        World world = new World(random);
+        int delivered = 0;
+        for(int tick = 0; tick < ticks; tick++) {
+            current[0] = world.step(random);
+            sender.send(CHANNEL, current[0]);
+
+            // Hand over the messages whose delay passed, dropping some
+            for(Iterator<Message> it = new ArrayList<>(link).iterator(); it.hasNext();) {
+                Message message = it.next();
+                if(message.delay-- > 0)
+                    continue;
+                link.remove(message);
+                if(random.nextDouble() < loss)
+                    continue;
+
+                if(message.toReceiver) {
+                    ByteBuffer state = receiver.receive(CHANNEL, ByteBuffer.wrap(message.data));
+                    if(state != null) {
+                        byte[] got = new byte[state.remaining()];
+                        state.get(got);
+                        Check.that(Arrays.equals(got, sent.get(sequence(message.data))), "snapshot " + sequence(message.data) + " decoded wrong at loss " + loss);
+                        delivered++;
+                    }
+                } else {
+                    sender.receive(CHANNEL, ByteBuffer.wrap(message.data));
+                }
+            }
+        }
+
+        double perSnapshot = (double) sender.getEncodedBytesSent() / ticks;
+        System.out.printf("%3.0f%%   %9d   %4d   %5d   %14.0f   %11.1f%%%n", loss * 100, delivered, sender.getFullSnapshotsSent(),
+                sender.getDeltaSnapshotsSent(), perSnapshot, 100 * perSnapshot / (ENTITIES * ENTITY_SIZE));
+        Check.that(delivered >= ticks * (1 - loss) * 0.5, "only " + delivered + " snapshots were delivered at loss " + loss);
+        Check.that(loss >= 0.5 || sender.getDeltaSnapshotsSent() > sender.getFullSnapshotsSent(), "mostly full snapshots at loss " + loss);
+    }
+
+    private static void checkInvalidDelta() throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[CHANNEL].snapshots = true;
+        List<byte[]> messages = new ArrayList<>();
+        SnapshotSync sender = new SnapshotSync(settings, (channelId, message) -> messages.add(message));
+        SnapshotSync receiver = new SnapshotSync(settings, (channelId, message) -> sender.receive(channelId, ByteBuffer.wrap(message)));
+
+        byte[] state = new byte[100];
+        sender.send(CHANNEL, state);
+        receiver.receive(CHANNEL, ByteBuffer.wrap(messages.get(0)));
+        state[50] = 1;
+        sender.send(CHANNEL, state);
+        byte[] broken = messages.get(1).clone();
+        broken[13] = 120; // Skips past the end of the snapshot
+        try {
+            receiver.receive(CHANNEL, ByteBuffer.wrap(broken));
+            Check.that(false, "invalid delta was accepted");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        // The baseline is still intact
+        state[51] = 2;
+        sender.send(CHANNEL, state);
+        ByteBuffer got = receiver.receive(CHANNEL, ByteBuffer.wrap(messages.get(2)));
+        Check.that(got != null && got.get(50) == 1 && got.get(51) == 2, "baseline was broken by an invalid delta");
+    }
+
+    private static void checkServer() throws Exception {
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[CHANNEL].snapshots = true;
+
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        server.setListener(new ServerListener() {
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) throws IOException {
+                byte[] state = new byte[payload.remaining()];
+                payload.get(state);
+                session.sendSnapshot(channelId, state); // Echo
+            }
+        });
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        AtomicReference<byte[]> echoed = new AtomicReference<>();
+        byte[] last;
+        SnapshotSync clientSync;
+        try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings)) {
+            client.setListener((c, channelId, payload) -> {
+                byte[] state = new byte[payload.remaining()];
+                payload.get(state);
+                echoed.set(state);
+            });
+            client.connect().get(10, TimeUnit.SECONDS);
+
+            Random random = new Random(3);
+            World world = new World(random);
+            last = null;
+            for(int tick = 0; tick < 300; tick++) {
+                last = world.step(random);
+                client.sendSnapshot(CHANNEL, last);
+                Thread.sleep(2);
+            }
+            Thread.sleep(200);
+            clientSync = client.getSnapshots();
+        }
+        handle.close();
+
+        System.out.printf("%nclient sent %d full and %d delta snapshots, %d bytes instead of %d%n", clientSync.getFullSnapshotsSent(),
+                clientSync.getDeltaSnapshotsSent(), clientSync.getEncodedBytesSent(), clientSync.getSnapshotBytes());
+        Check.that(Arrays.equals(echoed.get(), last), "the last snapshot didn't make it to the server and back");
+        Check.that(clientSync.getDeltaSnapshotsSent() > clientSync.getFullSnapshotsSent(), "client sent mostly full snapshots");
+        Check.that(clientSync.getSnapshotsReceived() > 0, "client didn't decode the echoed snapshots");
+    }
+
+    private static void checkInvalidSize() throws IOException {
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[CHANNEL].snapshots = true;
+        List<byte[]> messages = new ArrayList<>();
+        SnapshotSync sender = new SnapshotSync(settings, (channelId, message) -> messages.add(message));
+        SnapshotSync receiver = new SnapshotSync(settings, (channelId, message) -> sender.receive(channelId, ByteBuffer.wrap(message)));
+
+        byte[] state = new byte[100];
+        sender.send(CHANNEL, state);
+        receiver.receive(CHANNEL, ByteBuffer.wrap(messages.get(0)));
+        state[50] = 1;
+        sender.send(CHANNEL, state);
+
+        // A full snapshot and a delta claiming sizes they don't have, which must be refused before they are allocated
+        byte[] full = messages.get(0).clone();
+        ByteBuffer.wrap(full).order(ByteOrder.LITTLE_ENDIAN).putInt(1, 1000).putInt(9, Integer.MAX_VALUE);
+        byte[] shortFull = messages.get(0).clone();
+        ByteBuffer.wrap(shortFull).order(ByteOrder.LITTLE_ENDIAN).putInt(1, 1001).putInt(9, 50);
+        byte[] delta = messages.get(1).clone();
+        ByteBuffer.wrap(delta).order(ByteOrder.LITTLE_ENDIAN).putInt(9, Integer.MAX_VALUE);
+        for(byte[] invalid : new byte[][] {full, shortFull, delta}) {
+            try {
+                receiver.receive(CHANNEL, ByteBuffer.wrap(invalid));
+                Check.that(false, "a snapshot with an invalid size was accepted");
+            } catch (RuntimeException e) {
+                Check.that(e.getMessage().startsWith("Invalid snapshot message"), "unexpected error " + e);
+            }
+        }
+
+        ByteBuffer got = receiver.receive(CHANNEL, ByteBuffer.wrap(messages.get(1)));
+        Check.that(got != null && got.remaining() == 100 && got.get(50) == 1, "baseline was broken by an invalid size");
+        System.out.println("snapshots with invalid sizes rejected");
+    }
+
+    private static int sequence(byte[] message) {
+        return ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN).getInt(1);
+    }
+
+    private static class Message {
+        final byte[] data;
+        final boolean toReceiver;
+        int delay;
+
+        Message(byte[] data, boolean toReceiver, Random random) {
+            this.data = data;
+            this.toReceiver = toReceiver;
+            this.delay = random.nextInt(4); // Reorders messages a few ticks apart
+        }
+    }
+
+    /**
+     * Entities with an ID, a position, health and flags, of which about 5% move every tick.
+     */
+    private static class World {
+        private final ByteBuffer state = ByteBuffer.allocate(ENTITIES * ENTITY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        World(Random random) {
+            for(int i = 0; i < ENTITIES; i++) {
+                this.state.putInt(1000 + i);
+                this.state.putFloat(random.nextInt(500));
+                this.state.putFloat(64);
+                this.state.putFloat(random.nextInt(500));
+                this.state.putShort((short) 100);
+                this.state.putShort((short) 0);
+            }
+        }
+
+        byte[] step(Random random) {
+            for(int i = 0; i < ENTITIES; i++) {
+                if(random.nextInt(20) == 0) {
+                    int base = i * ENTITY_SIZE;
+                    this.state.putFloat(base + 4, this.state.getFloat(base + 4) + random.nextInt(5) - 2);
+                    this.state.putFloat(base + 12, this.state.getFloat(base + 12) + random.nextInt(5) - 2);
+                    if(random.nextInt(10) == 0) {
+                        this.state.putShort(base + 16, (short) random.nextInt(100));
+                    }
+                }
+            }
+            return this.state.array().clone();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import io.github.jython234.juicenet.network.NetworkSettings;
+import io.github.jython234.juicenet.network.client.JuiceNetClient;
+import io.github.jython234.juicenet.network.server.JuiceNetServer;
+import io.github.jython234.juicenet.network.server.ServerHandle;
+import io.github.jython234.juicenet.network.server.ServerListener;
+import io.github.jython234.juicenet.network.server.Session;
+import io.github.jython234.juicenet.network.stream.ChannelStream;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that stream channels carry bulk transfers intact, and that a slow reader holds back the writer.
+ *
+ * A client sends a file of random data to a server over loopback with
+ * {@link ChannelStream#transferFrom(FileChannel, long, long)}, and the server's
+ * session reads it from its input stream as fast as it can. Reports the throughput,
+ * and checks the digest of what arrived matches the file. Then the session writes to the
+ * client, which reads slowly, and checks the data the writer has ahead of the reader,
+ * and the data queued in the session's reliability layer, never exceed the window.
+ *
+ * Usage: StreamTransferTest [file size (MB)]
+ */
+public class StreamTransferTest {
+    private static final int PORT = 4410;
+    private static final byte CHANNEL = 3;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        NetworkSettings settings = new NetworkSettings();
+        settings.channels[CHANNEL].stream = true;
+        settings.channels[CHANNEL].streamWindow = 1024 * 1024;
+
+        File file = File.createTempFile("juicenet-stream", ".bin");
+        file.deleteOnExit();
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(5);
+        MessageDigest fileDigest = MessageDigest.getInstance("SHA-256");
+        try(RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            for(int i = 0; i < megabytes; i++) {
+                random.nextBytes(block);
+                out.write(block);
+                fileDigest.update(block);
+            }
+        }
+
+        CompletableFuture<Session> opened = new CompletableFuture<>();
+        JuiceNetServer server = new JuiceNetServer(new InetSocketAddress("127.0.0.1", PORT), false, settings);
+        server.setListener(new ServerListener() {
+            @Override
+            public void sessionOpened(Session session) {
+                opened.complete(session);
+            }
+
+            @Override
+            public void handleMessage(Session session, byte channelId, ByteBuffer payload) {
+                throw new AssertionError("stream messages reached the listener");
+            }
+        });
+        ServerHandle handle = server.startInBackground();
+        handle.getStarted().get(10, TimeUnit.SECONDS);
+
+        try(JuiceNetClient client = new JuiceNetClient(server.bindAddress, settings)) {
+            client.connect().get(10, TimeUnit.SECONDS);
+            Session session = opened.get(10, TimeUnit.SECONDS);
+
+            // Client to server, as fast as possible
+            CompletableFuture<byte[]> received = new CompletableFuture<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                    InputStream in = session.getStream(CHANNEL).getInputStream();
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while((read = in.read(buffer)) >= 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                    received.complete(digest.digest());
+                } catch (Exception e) {
+                    received.completeExceptionally(e);
+                }
+            });
+            reader.start();
+
+            ChannelStream upload = client.getStream(CHANNEL);
+            long start = System.nanoTime();
+            try(FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+                Check.that(upload.transferFrom(channel, 0, channel.size()) == file.length(), "transferFrom didn't send the whole file");
+            }
+            upload.getOutputStream().close();
+            byte[] digest = received.get(60, TimeUnit.SECONDS);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("client to server: %dMB in %.2fs, %.1f MB/s, %d window stalls, %d retransmits%n", megabytes, seconds,
+                    megabytes / seconds, upload.getWindowStalls(), client.getReliabilityLayer().getPacketsRetransmitted());
+            Check.that(Arrays.equals(digest, fileDigest.digest()), "the file arrived corrupted");
+            Check.that(session.getStream(CHANNEL).getBytesReceived() == file.length(), "the session received " + session.getStream(CHANNEL).getBytesReceived() + " bytes");
+
+            // Server to client, read slowly
+            int window = settings.channels[CHANNEL].streamWindow;
+            int total = 8 * window;
+            ChannelStream download = session.getStream(CHANNEL);
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream out = download.getOutputStream();
+                    byte[] chunk = new byte[10000];
+                    for(int written = 0; written < total; written += chunk.length) {
+                        Arrays.fill(chunk, (byte) (written / chunk.length));
+                        out.write(chunk, 0, Math.min(chunk.length, total - written));
+                    }
+                    out.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            writer.start();
+
+            InputStream in = client.getStream(CHANNEL).getInputStream();
+            byte[] buffer = new byte[16 * 1024];
+            long consumed = 0;
+            long maxAhead = 0;
+            int maxQueued = 0;
+            int read;
+            while((read = in.read(buffer)) >= 0) {
+                for(int i = 0; i < read; i++) {
+                    Check.that(buffer[i] == (byte) ((consumed + i) / 10000), "the stream arrived corrupted at " + (consumed + i));
+                }
+                consumed += read;
+                maxAhead = Math.max(maxAhead, download.getBytesSent() - consumed);
+                maxQueued = Math.max(maxQueued, session.getReliabilityLayer().getQueuedCount() + session.getReliabilityLayer().getInFlightCount());
+                Thread.sleep(1); // A slow consumer
+            }
+            writer.join(10000);
+            System.out.printf("server to slow client: %d bytes, writer at most %d bytes ahead of the reader (window %d), at most %d packets queued or in flight, %d window stalls%n",
+                    consumed, maxAhead, window, maxQueued, download.getWindowStalls());
+            Check.that(consumed == total, "the client read " + consumed + " of " + total + " bytes");
+            Check.that(maxAhead <= window, "the writer got more than a window ahead of the reader");
+            Check.that((long) maxQueued * client.getReliabilityLayer().getMtu() / 2 <= window, "more than a window of packets was queued");
+            Check.that(download.getWindowStalls() > 0, "the writer never waited for the reader");
+        }
+        handle.close();
+        System.out.println("OK");
+    }
+}